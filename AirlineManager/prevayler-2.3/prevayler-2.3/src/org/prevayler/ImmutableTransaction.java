@@ -0,0 +1,13 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler;
+
+/** A Transaction that Prevayler.execute(Transaction) executes as given, instead of executing a copy deserialized from its journal bytes. This saves a deserialization of every such Transaction, which matters when it carries a large object graph.
+ * <br><br>IMPORTANT: Only mark a Transaction as immutable when executing it has exactly the same effect as executing a deserialized copy of it: it must be deterministic, it must not change its own state, and the prevalent system must not keep references to any of the objects it carries (removing an object found by equals() is fine, adding it is not). Otherwise the system will diverge from what is recovered from the journal, which is exactly the prevalence baptism problem described in Transaction.
+ * @see Transaction
+ */
+public interface ImmutableTransaction extends Transaction {
+
+}
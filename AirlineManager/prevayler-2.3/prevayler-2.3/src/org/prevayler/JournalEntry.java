@@ -0,0 +1,37 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler;
+
+import java.util.Date;
+
+
+/** A Transaction read from a JournalTail, with the number and execution time it was journaled with.
+ */
+public class JournalEntry {
+
+	private final long _systemVersion;
+	private final Date _executionTime;
+	private final Object _transaction;
+
+	public JournalEntry(long systemVersion, Date executionTime, Object transaction) {
+		_systemVersion = systemVersion;
+		_executionTime = executionTime;
+		_transaction = transaction;
+	}
+
+	public long systemVersion() {
+		return _systemVersion;
+	}
+
+	public Date executionTime() {
+		return _executionTime;
+	}
+
+	/** The Transaction, TransactionWithQuery or SureTransactionWithQuery, as deserialized from the journal. */
+	public Object transaction() {
+		return _transaction;
+	}
+
+}
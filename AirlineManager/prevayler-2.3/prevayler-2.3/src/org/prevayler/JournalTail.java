@@ -0,0 +1,33 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler;
+
+import java.io.IOException;
+
+
+/** The Transactions of a Prevayler, in the order they were executed, from a given transaction number on: first the ones already in its .journal files and then the ones executed afterwards. Transactions are only read or kept for the consumer as fast as it takes them, so a slow consumer never holds back the Prevayler.
+ * @see Prevayler#tail(long, int)
+ * @see PrevaylerFactory#createJournalTail(long, int)
+ */
+public interface JournalTail {
+
+	/** Returns the next Transaction, waiting for it to be executed if necessary.
+	 * @throws IOException If the .journal files cannot be read or no longer contain the next Transaction (when they were archived, for example).
+	 */
+	public JournalEntry next() throws IOException, InterruptedException;
+
+	/** The same as next() except it returns null if there is no Transaction within the given time.
+	 */
+	public JournalEntry poll(long timeoutInMillis) throws IOException, InterruptedException;
+
+	/** Returns the number of the Transaction next() will return. A consumer can keep it to resume from there with a new JournalTail.
+	 */
+	public long nextTransaction();
+
+	/** Stops reading the .journal files and following the Prevayler.
+	 */
+	public void close();
+
+}
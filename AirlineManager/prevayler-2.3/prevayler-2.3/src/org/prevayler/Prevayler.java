@@ -27,6 +27,11 @@ public interface Prevayler {
 	 */
 	public void execute(Transaction transaction);
 
+	/** Executes the given transactions on the prevalentSystem(), in order, as a single TransactionBatch: they are journaled as one Transaction and no other Transaction is executed among them. If a ValidatedTransaction among them is rejected, or one of them throws, none is executed.
+	 * @see TransactionBatch
+	 */
+	public void execute(Transaction[] transactions);
+
 	/** Executes the given sensitiveQuery on the prevalentSystem(). A sensitiveQuery is a Query that would be affected by the concurrent execution of a Transaction or other sensitiveQuery. This method synchronizes on the prevalentSystem() to execute the sensitiveQuery. It is therefore guaranteed that no other Transaction or sensitiveQuery is executed at the same time.
 	 * <br> Robust Queries (queries that do not affect other operations and that are not affected by them) can be executed directly as plain old method calls on the prevalentSystem() without the need of being implemented as Query objects. Examples of Robust Queries are queries that read the value of a single field or historical queries such as: "What was this account's balance at mid-night?".
 	 * @return The result returned by the execution of the sensitiveQuery on the prevalentSystem().
@@ -54,6 +59,12 @@ public interface Prevayler {
 	 */
 	public void takeSnapshot() throws IOException;
 
+	/** Returns a JournalTail with every Transaction executed by this Prevayler from initialTransaction on, including the ones executed after this call.
+	 * @param capacity The number of Transactions kept waiting for the consumer of the JournalTail before it goes back to reading them from the .journal files.
+	 * @throws UnsupportedOperationException If this Prevayler has no .journal files of its own (in transient mode or as a replication client).
+	 */
+	public JournalTail tail(long initialTransaction, int capacity);
+
 	/** Closes any files or other system resources opened by this Prevayler.
 	 * @throws IOException if there is trouble closing a file or some other system resource.
 	 */
@@ -5,6 +5,7 @@
 
 package org.prevayler;
 
+import org.prevayler.foundation.Durability;
 import org.prevayler.foundation.monitor.Monitor;
 import org.prevayler.foundation.monitor.SimpleMonitor;
 import org.prevayler.foundation.network.OldNetwork;
@@ -13,14 +14,19 @@ import org.prevayler.foundation.serialization.JavaSerializer;
 import org.prevayler.foundation.serialization.Serializer;
 import org.prevayler.foundation.serialization.SkaringaSerializer;
 import org.prevayler.foundation.serialization.XStreamSerializer;
+import org.prevayler.implementation.PrevalentSystemGuard;
 import org.prevayler.implementation.PrevaylerDirectory;
 import org.prevayler.implementation.PrevaylerImpl;
+import org.prevayler.implementation.PrevaylerSettings;
 import org.prevayler.implementation.clock.MachineClock;
 import org.prevayler.implementation.journal.Journal;
+import org.prevayler.implementation.journal.JournalReader;
+import org.prevayler.implementation.journal.JournalSettings;
 import org.prevayler.implementation.journal.PersistentJournal;
 import org.prevayler.implementation.journal.TransientJournal;
 import org.prevayler.implementation.publishing.CentralPublisher;
 import org.prevayler.implementation.publishing.TransactionPublisher;
+import org.prevayler.implementation.publishing.TransactionTail;
 import org.prevayler.implementation.publishing.censorship.LiberalTransactionCensor;
 import org.prevayler.implementation.publishing.censorship.StrictTransactionCensor;
 import org.prevayler.implementation.publishing.censorship.TransactionCensor;
@@ -32,6 +38,7 @@ import org.prevayler.implementation.snapshot.NullSnapshotManager;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,6 +54,10 @@ public class PrevaylerFactory {
 	private Clock _clock;
 
 	private boolean _transactionFiltering = true;
+	private boolean _transactionValidation;
+	private boolean _snapshotReplica;
+	private int _deltaSnapshots;
+	private boolean _readWriteLock;
 
 	private boolean _transientMode;
 	private String _prevalenceDirectory;
@@ -54,6 +65,13 @@ public class PrevaylerFactory {
 
 	private long _journalSizeThreshold;
 	private long _journalAgeThreshold;
+	private long _journalMappedRegion;
+	private boolean _journalPreallocation;
+	private boolean _journalRecycling;
+	private int _journalRetainedSnapshots = 1;
+	private long _journalRetentionAge;
+	private Durability _journalDurability = Durability.syncPerCommit();
+	private long _journalSyncReportInterval;
 	
 	private OldNetwork _network;
 	private int _serverPort = -1;
@@ -139,9 +157,11 @@ public class PrevaylerFactory {
 
 	/**
 	 * Assigns a monitor object to receive notifications from Prevayler. This is useful for logging or sending eMails to system administrators, for example. If this method is not called or if null is passed as a parameter, a SimpleMonitor will be used to log notification on System.err.
+	 * The monitor is also told how long journal appends, file syncs, snapshots and the recovery take. A MetricsMonitor keeps these measurements and makes them readable through JMX.
 	 * 
 	 * @param monitor the Monitor implementation to use.
 	 * @see org.prevayler.foundation.monitor.SimpleMonitor
+	 * @see org.prevayler.foundation.monitor.MetricsMonitor
 	 */
 	public void configureMonitor(Monitor monitor) {
 	    _monitor = monitor;
@@ -205,6 +225,38 @@ public class PrevaylerFactory {
 	}
 
 
+	/** Determines whether the Prevayler created by this factory should rely on ValidatedTransaction.validate() instead of transaction filtering (default is false). When true, no copy of the prevalent system is kept: each ValidatedTransaction is validated on the prevalent system itself right before it executes, and is not executed if the validation throws. Such a rejected transaction is still written to the journal, where it is rejected again during recovery. Transactions that are not ValidatedTransactions are not filtered at all, so they must not throw after changing the system.
+	 * @see org.prevayler.ValidatedTransaction
+	 */
+	public void configureTransactionValidation(boolean transactionValidation) {
+		_transactionValidation = transactionValidation;
+	}
+
+
+	/** Determines whether the Prevayler created by this factory should take its snapshots on a replica of the prevalent system that is kept up to date in the background (default is false). Taking a snapshot then no longer blocks the Transactions and Queries on the prevalent system while it is written. This requires enough RAM to hold another copy of the prevalent system.
+	 * @see org.prevayler.implementation.PrevalentSystemReplica
+	 */
+	public void configureSnapshotReplica(boolean snapshotReplica) {
+		_snapshotReplica = snapshotReplica;
+	}
+
+
+	/** Determines whether the Prevayler created by this factory lets Queries run in parallel with each other (default is false). When true, the prevalent system is guarded by a ReadWriteLock instead of by synchronizing on it: Queries and snapshots take its read lock, and only Transactions take its write lock. Code that accesses the prevalent system directly gets no protection from Transactions in either mode: it should use Queries instead.
+	 * @see Prevayler#execute(Query)
+	 */
+	public void configureReadWriteLock(boolean readWriteLock) {
+		_readWriteLock = readWriteLock;
+	}
+
+
+	/** Makes the Prevayler created by this factory write up to maxDeltas delta snapshots after each full snapshot (default is zero). A delta snapshot only holds the sections that changed since the snapshot before it, so writing it costs in proportion to what changed instead of to the size of the prevalent system. Recovery reads the latest snapshot and, for the sections it does not hold, the snapshots before it. The primary snapshot serializer must be a SectionedSerializer, and older snapshot files must be kept as long as a later delta depends on them.
+	 * @see org.prevayler.foundation.serialization.SectionedSerializer
+	 */
+	public void configureDeltaSnapshots(int maxDeltas) {
+		_deltaSnapshots = maxDeltas;
+	}
+
+
 	/**
 	 * Configures the size (in bytes) of the journal file. When the current journal exceeds this size, a new journal is created.
 	 */
@@ -220,6 +272,62 @@ public class PrevaylerFactory {
 		_journalAgeThreshold = ageInMilliseconds;
 	}
 
+
+	/**
+	 * Makes the created Prevayler write its .journal files through memory-mapped regions of the given size (in bytes) instead of a FileOutputStream. Each region is preallocated when mapped, so appending a transaction is a plain memory copy and syncing forces the mapped pages without updating the file length every time. Zero (the default) disables memory mapping.
+	 * @see org.prevayler.foundation.MappedDurableOutputStream
+	 */
+	public void configureJournalMemoryMapping(long regionSizeInBytes) {
+		_journalMappedRegion = regionSizeInBytes;
+	}
+
+
+	/**
+	 * Makes the created Prevayler allocate each .journal file at the size given to configureJournalFileSizeThreshold(), filled with zeros, when it creates the file (default is false). Appending a Transaction then never changes the length of the file, so syncing it does not flush the file size as well. Takes precedence over configureJournalMemoryMapping().
+	 * @see org.prevayler.foundation.PreallocatedDurableOutputStream
+	 */
+	public void configureJournalPreallocation(boolean preallocation) {
+		_journalPreallocation = preallocation;
+	}
+
+
+	/**
+	 * Makes the created Prevayler reuse, for each new preallocated .journal file, the oldest .journal file if all its Transactions are in the latest snapshot (default is false), instead of allocating a new file and keeping the old one. The Transactions of the reused files can no longer be recovered to, nor read by replicas or journal tails that fall that far behind: see configureJournalRetention().
+	 * @see #configureJournalPreallocation(boolean)
+	 */
+	public void configureJournalRecycling(boolean recycling) {
+		_journalRecycling = recycling;
+	}
+
+
+	/**
+	 * Keeps recycling away from the .journal files that are still needed to recover any of the latest snapshots up to the last Transaction, or that were written in the last ageInMillis (default is the latest snapshot only, at any age). Recovering to an earlier moment with recover(), and replicas and journal tails that fall behind, can then reach back that far.
+	 * @param snapshots How many of the latest snapshots are kept recoverable. At least 1.
+	 * @see #configureJournalRecycling(boolean)
+	 */
+	public void configureJournalRetention(int snapshots, long ageInMillis) {
+		if (snapshots < 1) throw new IllegalArgumentException("At least the latest snapshot must be retained: " + snapshots);
+		_journalRetainedSnapshots = snapshots;
+		_journalRetentionAge = ageInMillis;
+	}
+
+
+	/**
+	 * Determines when each Transaction is synced to the .journal file. The default, Durability.syncPerCommit(), syncs every Transaction before it is executed. Durability.groupCommit() makes each Transaction wait a bounded time so that concurrent ones share a single sync. Durability.asyncFlush() only syncs every few milliseconds, so the Transactions executed in the last interval may be lost in a crash.
+	 * @see org.prevayler.foundation.Durability
+	 */
+	public void configureJournalDurability(Durability durability) {
+		_journalDurability = durability;
+	}
+
+
+	/**
+	 * Makes the journal report to the Monitor, every intervalInMilliseconds, how many times it synced its .journal files and how many Transactions it wrote. Zero (the default) disables the reports.
+	 */
+	public void configureJournalSyncReport(long intervalInMilliseconds) {
+		_journalSyncReportInterval = intervalInMilliseconds;
+	}
+
 	public void configureJournalSerializer(JavaSerializer serializer) {
 		configureJournalSerializer("journal", serializer);
 	}
@@ -283,10 +391,64 @@ public class PrevaylerFactory {
 	 * @throws ClassNotFoundException If a class of a serialized Object is not found when reading a .journal or .snapshot file.
 	 */
 	public Prevayler create() throws IOException, ClassNotFoundException {
+		long start = System.nanoTime();
 		GenericSnapshotManager snapshotManager = snapshotManager();
 		TransactionPublisher publisher = publisher(snapshotManager);
 		if (_serverPort != -1) new ServerListener(publisher, network(), _serverPort);
-		return new PrevaylerImpl(snapshotManager, publisher, journalSerializer());
+		JournalReader journalReader = _transientMode || _remoteServerIpAddress != null ? null : journalReader();
+		Monitor monitor = monitor();
+		PrevaylerSettings settings = new PrevaylerSettings();
+		settings.configureSnapshotReplica(_snapshotReplica);
+		settings.configureReadWriteLock(_readWriteLock);
+		settings.configureJournalReader(journalReader);
+		settings.configureMonitor(monitor);
+		Prevayler prevayler = new PrevaylerImpl(snapshotManager, publisher, journalSerializer(), settings);
+		monitor.recoveryFinished(snapshotManager.recoveredPrevalentSystem().systemVersion(), System.nanoTime() - start);
+		return prevayler;
+	}
+
+
+	/** Returns a JournalTail that reads the .journal files of the configured prevalence directory from initialTransaction on, without creating a Prevayler. It keeps polling the files for the transactions appended to them by a Prevayler in this or another process. To follow a Prevayler created in this process, use Prevayler.tail() instead.
+	 * @param capacity The number of transactions read ahead of the consumer.
+	 * @see Prevayler#tail(long, int)
+	 */
+	public JournalTail createJournalTail(long initialTransaction, int capacity) {
+		return new TransactionTail(journalReader(), journalSerializer(), null, initialTransaction, capacity);
+	}
+
+
+	/** Returns the prevalent system as it was right after the given transaction, without creating a Prevayler or changing the configured prevalence directory: the latest snapshot taken at or before that transaction is read and the .journal files are replayed from it up to that transaction only. The configured prevalent system is the starting point when there is no such snapshot.
+	 * @throws IOException If the .journal files do not reach from that snapshot to lastTransaction, or there is trouble reading them or the snapshot.
+	 * @throws ClassNotFoundException If a class of a serialized Object is not found when reading a .journal or .snapshot file.
+	 * @see #transactionAt(Date)
+	 */
+	public Object recover(long lastTransaction) throws IOException, ClassNotFoundException {
+		if (_transientMode) throw new IllegalStateException("There are no .journal files to recover from in transient mode.");
+		PrevalentSystemGuard guard = snapshotManager(prevalenceDirectory(), lastTransaction).recoveredPrevalentSystem();
+		long version = guard.replay(journalReader(), lastTransaction);
+		if (version != lastTransaction) throw new IOException("The .journal files end at transaction " + version + ", before transaction " + lastTransaction);
+		return guard.prevalentSystem();
+	}
+
+
+	/** Returns the number of the last transaction executed at or before the given time, according to the .journal files of the configured prevalence directory, or the number before their first transaction if none was.
+	 * @throws IOException If there is trouble reading the .journal files.
+	 * @see #recover(long)
+	 */
+	public long transactionAt(Date time) throws IOException {
+		return journalReader().transactionAt(time);
+	}
+
+
+	/** Writes the given prevalent system, with the configured snapshot serializer, as a full snapshot taken at the given transaction in the given directory. A Prevayler created on that directory starts from it.
+	 * @throws IOException If there is trouble creating the directory or writing the snapshot.
+	 */
+	public void exportSnapshot(Object prevalentSystem, long version, String directory) throws IOException {
+		try {
+			snapshotManager(directory, 0).writeSnapshot(prevalentSystem, version);
+		} catch (ClassNotFoundException neverThrown) {
+			throw new IllegalStateException(neverThrown.toString());  // No snapshot is read at version 0.
+		}
 	}
 
 
@@ -308,7 +470,7 @@ public class PrevaylerFactory {
 
 
 	private TransactionCensor censor(GenericSnapshotManager snapshotManager) {
-		return _transactionFiltering
+		return _transactionFiltering && !_transactionValidation
 			? (TransactionCensor) new StrictTransactionCensor(snapshotManager)
 			: new LiberalTransactionCensor(); 
 	}
@@ -319,11 +481,27 @@ public class PrevaylerFactory {
 			return (Journal) new TransientJournal();
 		} else {
 			PrevaylerDirectory directory = new PrevaylerDirectory(prevalenceDirectory());
-			return new PersistentJournal(directory, _journalSizeThreshold, _journalAgeThreshold, journalSuffix(), monitor());
+			JournalSettings settings = new JournalSettings();
+			settings.configureSizeThreshold(_journalSizeThreshold);
+			settings.configureAgeThreshold(_journalAgeThreshold);
+			settings.configureMappedRegion(_journalMappedRegion);
+			settings.configurePreallocation(_journalPreallocation);
+			settings.configureRecycling(_journalRecycling);
+			settings.configureRetention(_journalRetainedSnapshots, _journalRetentionAge);
+			settings.configureDurability(_journalDurability);
+			settings.configureSyncReportInterval(_journalSyncReportInterval);
+			settings.configureSuffix(journalSuffix());
+			settings.configureMonitor(monitor());
+			return new PersistentJournal(directory, settings);
 		}
 	}
 
 	
+	private JournalReader journalReader() {
+		return new JournalReader(new PrevaylerDirectory(prevalenceDirectory()), journalSuffix(), monitor());
+	}
+
+
 	private Serializer journalSerializer() {
 		if (_journalSerializer != null) return _journalSerializer;
 		return new JavaSerializer();
@@ -341,13 +519,17 @@ public class PrevaylerFactory {
 		if (_nullSnapshotManager != null)
 			return _nullSnapshotManager;
 		
-		PrevaylerDirectory directory = new PrevaylerDirectory(prevalenceDirectory());
+		return snapshotManager(prevalenceDirectory(), Long.MAX_VALUE);
+	}
+
+	private GenericSnapshotManager snapshotManager(String directoryName, long maxVersion) throws ClassNotFoundException, IOException {
+		PrevaylerDirectory directory = new PrevaylerDirectory(directoryName);
 		if (!_snapshotSerializers.isEmpty())
-			return new GenericSnapshotManager(_snapshotSerializers, _primarySnapshotSuffix, prevalentSystem(), directory, journalSerializer());
+			return new GenericSnapshotManager(_snapshotSerializers, _primarySnapshotSuffix, prevalentSystem(), directory, journalSerializer(), _deltaSnapshots, maxVersion);
 
 		String snapshotSuffix = "snapshot";
 		JavaSerializer snapshotSerializer = new JavaSerializer();
-		return new GenericSnapshotManager(Collections.singletonMap(snapshotSuffix, snapshotSerializer), snapshotSuffix, prevalentSystem(), directory, journalSerializer());
+		return new GenericSnapshotManager(Collections.singletonMap(snapshotSuffix, snapshotSerializer), snapshotSuffix, prevalentSystem(), directory, journalSerializer(), 0, maxVersion);
 	}
 
 	
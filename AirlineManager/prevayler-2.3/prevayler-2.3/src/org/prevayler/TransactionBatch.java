@@ -0,0 +1,55 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler;
+
+import java.util.Date;
+
+import org.prevayler.foundation.DeepCopier;
+
+/** A list of Transactions that is journaled as a single Transaction and executed in order, all at once. Executing a bulk operation as one TransactionBatch instead of one Transaction per item writes a single journal record and waits for a single sync.
+ * <br><br>A batch is executed completely or not at all. Every ValidatedTransaction in a batch is validated against the system as it is before the batch, before any of them is executed, so if one of them is rejected none is executed. A batch of several Transactions is then tried on a deep copy of the system, each ValidatedTransaction being validated again right before it is executed there, and is executed on the system only if none of them threw. The copy costs as much as a snapshot of the system, so batches are meant for bulk operations, not for every Transaction.
+ * @see Prevayler#execute(Transaction[])
+ */
+public class TransactionBatch implements ValidatedTransaction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Transaction[] _transactions;
+
+	public TransactionBatch(Transaction[] transactions) {
+		_transactions = transactions.clone();
+	}
+
+	/** The Transactions of this batch, in the order they are executed. */
+	public Transaction[] transactions() {
+		return _transactions.clone();
+	}
+
+	public void validate(Object prevalentSystem, Date executionTime) {
+		for (int i = 0; i < _transactions.length; i++) {
+			if (_transactions[i] instanceof ValidatedTransaction) ((ValidatedTransaction) _transactions[i]).validate(prevalentSystem, executionTime);
+		}
+	}
+
+	public void executeOn(Object prevalentSystem, Date executionTime) {
+		if (_transactions.length > 1) tryOnCopy(prevalentSystem, executionTime);
+		for (int i = 0; i < _transactions.length; i++) {
+			_transactions[i].executeOn(prevalentSystem, executionTime);
+		}
+	}
+
+	/** Throws what the first Transaction to fail throws, leaving the system and the Transactions untouched: they are copied together, so objects they share stay shared in the copy.
+	 */
+	private void tryOnCopy(Object prevalentSystem, Date executionTime) {
+		Object[] copy = (Object[]) DeepCopier.deepCopy(new Object[] { prevalentSystem, _transactions });
+		Object system = copy[0];
+		Transaction[] transactions = (Transaction[]) copy[1];
+		for (int i = 0; i < transactions.length; i++) {
+			if (transactions[i] instanceof ValidatedTransaction) ((ValidatedTransaction) transactions[i]).validate(system, executionTime);
+			transactions[i].executeOn(system, executionTime);
+		}
+	}
+
+}
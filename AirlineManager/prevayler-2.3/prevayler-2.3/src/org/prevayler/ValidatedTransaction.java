@@ -0,0 +1,19 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler;
+
+import java.util.Date;
+
+/** A Transaction that checks, before it is executed, whether it can be executed without throwing a RuntimeException. Prevayler calls validate() right before every executeOn(), including during recovery, and does not call executeOn() if validate() throws.
+ * <br><br>This lets a Prevayler configured with PrevaylerFactory.configureTransactionValidation(true) protect the prevalent system from half-executed transactions without trying every transaction on a deep copy of the whole system first.
+ * @see PrevaylerFactory#configureTransactionValidation(boolean)
+ */
+public interface ValidatedTransaction extends Transaction {
+
+	/** Throws a RuntimeException if executeOn() would not be able to execute completely on the given system at the given time. It MUST NOT change the prevalent system and it must be deterministic, like executeOn().
+	 */
+	public void validate(Object prevalentSystem, Date executionTime);
+
+}
@@ -0,0 +1,157 @@
+package org.prevayler.foundation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/** Writes and reads chunks framed by a fixed binary header instead of the text header of Chunking:
+ * <pre>
+ * magic (4 bytes) | flags (1) | length (4) | number (8) | timestamp (8) | header CRC32 (4) | data CRC32 (4) | bytes (length)
+ * </pre>
+ * The header checksum is verified before the length is trusted, and the data checksum before the bytes are, so a torn or garbled chunk is reported as a StreamCorruptedException instead of being read back.
+ * <br>Chunks of the first version of this format, whose single checksum covered the header and the bytes together, are still read. Their bytes are read into an array that only grows with the bytes actually found, so a garbled length ends the stream instead of allocating an array of that length.
+ */
+public class BinaryChunking {
+
+	/** "PVJ2". No text chunk can start with it, since those start with a hexadecimal digit. */
+	public static final int MAGIC = 0x50564A32;
+
+	/** "PVJ1", the first version of this format. */
+	private static final int FIRST_VERSION_MAGIC = 0x50564A31;
+
+	private static final int CHECKED_HEADER_SIZE = 1 + 4 + 8 + 8;
+	private static final int HEADER_SIZE = 4 + CHECKED_HEADER_SIZE + 4 + 4;
+	private static final int FIRST_VERSION_HEADER_SIZE = 4 + CHECKED_HEADER_SIZE + 4;
+
+	/** How much a chunk of the first version is read at a time. */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	public static void writeChunk(OutputStream stream, Chunk chunk) throws IOException {
+		byte[] bytes = chunk.getBytes();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.put((byte) chunk.flags());
+		header.putInt(bytes.length);
+		header.putLong(chunk.number());
+		header.putLong(chunk.timestamp());
+		header.putInt(checksum(header.array(), 4, CHECKED_HEADER_SIZE));
+		header.putInt(checksum(bytes, 0, bytes.length));
+
+		stream.write(header.array());
+		stream.write(bytes);
+	}
+
+	/** Returns null at the end of the stream or at the zeros of preallocated space.
+	 */
+	public static Chunk readChunk(InputStream stream) throws IOException {
+		int first = stream.read();
+		if (first == -1 || first == 0) {
+			return null;
+		}
+
+		byte[] header = new byte[HEADER_SIZE];
+		header[0] = (byte) first;
+		readFully(stream, header, 1, 3, "Unexpected end of stream in chunk header");
+		int magic = ByteBuffer.wrap(header).getInt();
+		if (magic != MAGIC && magic != FIRST_VERSION_MAGIC) {
+			throw new StreamCorruptedException("Chunk magic number not found");
+		}
+		int headerSize = magic == MAGIC ? HEADER_SIZE : FIRST_VERSION_HEADER_SIZE;
+		readFully(stream, header, 4, headerSize - 4, "Unexpected end of stream in chunk header");
+
+		ByteBuffer buffer = ByteBuffer.wrap(header, 4, headerSize - 4);
+		int flags = buffer.get() & 0xFF;
+		int length = buffer.getInt();
+		long number = buffer.getLong();
+		long timestamp = buffer.getLong();
+
+		if (magic == FIRST_VERSION_MAGIC) {
+			return readFirstVersion(stream, header, buffer.getInt(), flags, length, number, timestamp);
+		}
+
+		if (buffer.getInt() != checksum(header, 4, CHECKED_HEADER_SIZE)) {
+			throw new StreamCorruptedException("Chunk header checksum does not match");
+		}
+		int expectedChecksum = buffer.getInt();
+		if (length < 0) {
+			throw new StreamCorruptedException("Chunk length corrupted");
+		}
+
+		byte[] bytes = new byte[length];
+		readFully(stream, bytes, 0, length, "Unexpected end of stream in chunk data");
+		if (checksum(bytes, 0, length) != expectedChecksum) {
+			throw new StreamCorruptedException("Chunk checksum does not match");
+		}
+
+		return new Chunk(bytes, number, timestamp, flags);
+	}
+
+	private static Chunk readFirstVersion(InputStream stream, byte[] header, int expectedChecksum, int flags, int length, long number, long timestamp) throws IOException {
+		if (length < 0) {
+			throw new StreamCorruptedException("Chunk length corrupted");
+		}
+
+		byte[] bytes = new byte[Math.min(length, BLOCK_SIZE)];
+		int total = 0;
+		while (total < length) {
+			if (total == bytes.length) bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+			int read = stream.read(bytes, total, bytes.length - total);
+			if (read == -1) {
+				throw new EOFException("Unexpected end of stream in chunk data");
+			}
+			total += read;
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(header, 4, CHECKED_HEADER_SIZE);
+		checksum.update(bytes);
+		if ((int) checksum.getValue() != expectedChecksum) {
+			throw new StreamCorruptedException("Chunk checksum does not match");
+		}
+
+		return new Chunk(bytes, number, timestamp, flags);
+	}
+
+	private static int checksum(byte[] bytes, int offset, int length) {
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, offset, length);
+		return (int) checksum.getValue();
+	}
+
+	/** Tells whether the given stream starts with a binary chunk, without consuming it.
+	 */
+	public static boolean startsWithChunk(InputStream stream) throws IOException {
+		if (!stream.markSupported()) throw new IllegalArgumentException("The stream must support mark()");
+		byte[] magic = new byte[4];
+		stream.mark(magic.length);
+		try {
+			int total = 0;
+			while (total < magic.length) {
+				int read = stream.read(magic, total, magic.length - total);
+				if (read == -1) return false;
+				total += read;
+			}
+			int found = ByteBuffer.wrap(magic).getInt();
+			return found == MAGIC || found == FIRST_VERSION_MAGIC;
+		} finally {
+			stream.reset();
+		}
+	}
+
+	private static void readFully(InputStream stream, byte[] bytes, int offset, int length, String message) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int read = stream.read(bytes, offset + total, length - total);
+			if (read == -1) {
+				throw new EOFException(message);
+			}
+			total += read;
+		}
+	}
+
+}
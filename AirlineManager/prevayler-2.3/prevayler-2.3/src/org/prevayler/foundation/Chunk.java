@@ -7,6 +7,9 @@ public class Chunk {
 
 	private byte[] _bytes;
 	private Map _parameters;
+	private long _number;
+	private long _timestamp;
+	private int _flags;
 
 	public Chunk(byte[] bytes) {
 		this(bytes, new LinkedHashMap());
@@ -17,6 +20,16 @@ public class Chunk {
 		_parameters = parameters;
 	}
 
+	/** A chunk whose parameters are the fixed fields of the BinaryChunking header.
+	 * @param flags Only the lowest 8 bits are kept by BinaryChunking.
+	 */
+	public Chunk(byte[] bytes, long number, long timestamp, int flags) {
+		this(bytes);
+		_number = number;
+		_timestamp = timestamp;
+		_flags = flags;
+	}
+
 	public byte[] getBytes() {
 		return _bytes;
 	}
@@ -33,4 +46,16 @@ public class Chunk {
 		return _parameters;
 	}
 
+	public long number() {
+		return _number;
+	}
+
+	public long timestamp() {
+		return _timestamp;
+	}
+
+	public int flags() {
+		return _flags;
+	}
+
 }
@@ -95,6 +95,10 @@ public class Chunking {
 		ByteArrayOutputStream header = new ByteArrayOutputStream();
 		while (true) {
 			int b = stream.read();
+			if (b == 0 && header.size() == 0) {
+				// Space preallocated by a MappedDurableOutputStream but never written.
+				return null;
+			}
 			if (b == -1) {
 				if (header.size() == 0) {
 					return null;
@@ -0,0 +1,166 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation;
+
+import java.io.IOException;
+
+/** The writer thread behind Durability.dedicatedWriter(). Appending threads put their objects, in turn, into a preallocated ring and wait for their sequence number to be synced. The writer thread takes everything the ring holds, writes it and syncs it with a single sync, so it is the only thread that takes the locks of the DurableOutput.
+ * <br>The thread is started by the first append and stops after it has been idle for a while, so a writer whose Prevayler was closed does not keep a thread.
+ */
+class DedicatedWriter implements Runnable {
+
+	private static final long IDLE_MILLIS = 1000;
+
+	/** The ring. Slot i holds the object with sequence number i modulo the capacity. All access guarded by _ringLock. */
+	private final DurableOutput[] _outputs;
+	private final Guided[] _guides;
+
+	private final Object _ringLock = new Object();
+
+	/** The sequence number of the next object put. All access guarded by _ringLock. */
+	private long _put = 0;
+
+	/** The sequence number of the next object the writer thread takes. All access guarded by _ringLock. */
+	private long _taken = 0;
+
+	/** All access guarded by _ringLock. */
+	private boolean _running = false;
+
+	private final Object _syncedLock = new Object();
+
+	/** Every object before this sequence number has been synced, or has failed. All access guarded by _syncedLock. */
+	private long _synced = 0;
+
+	/** The first failure and the sequence number of the first object it failed. All access guarded by _syncedLock. */
+	private IOException _failure;
+	private long _firstFailed;
+
+	/** The objects of the batch being written. Only accessed by the writer thread. */
+	private final DurableOutput[] _batchOutputs;
+	private final Guided[] _batchGuides;
+
+	DedicatedWriter(int capacity) {
+		_outputs = new DurableOutput[capacity];
+		_guides = new Guided[capacity];
+		_batchOutputs = new DurableOutput[capacity];
+		_batchGuides = new Guided[capacity];
+	}
+
+	/** Returns once the guided object has been written to the output and synced by the writer thread.
+	 * @throws IOException If writing or syncing it, or any object put before it since the first failure, failed.
+	 */
+	void append(DurableOutput output, Guided guide) throws IOException {
+		long sequence;
+		guide.startTurn();
+		try {
+			sequence = put(output, guide);
+		} finally {
+			guide.endTurn();
+		}
+		waitUntilSynced(sequence);
+	}
+
+	private long put(DurableOutput output, Guided guide) {
+		synchronized (_ringLock) {
+			while (_put - _taken == _outputs.length) Cool.wait(_ringLock);
+
+			int slot = (int) (_put % _outputs.length);
+			_outputs[slot] = output;
+			_guides[slot] = guide;
+			_put++;
+
+			if (!_running) {
+				_running = true;
+				Thread writer = new Thread(this, "Prevayler Journal Writer");
+				writer.setDaemon(true);
+				writer.start();
+			}
+			if (_put - 1 == _taken) _ringLock.notifyAll();  // The writer thread may be waiting for the ring to fill.
+			return _put - 1;
+		}
+	}
+
+	private void waitUntilSynced(long sequence) throws IOException {
+		synchronized (_syncedLock) {
+			while (_synced <= sequence) Cool.wait(_syncedLock);
+			if (_failure != null && sequence >= _firstFailed) throw _failure;
+		}
+	}
+
+	public void run() {
+		while (true) {
+			long first;
+			int count;
+			synchronized (_ringLock) {
+				if (_taken == _put) waitIdle();
+				if (_taken == _put) {
+					_running = false;
+					return;
+				}
+
+				first = _taken;
+				count = (int) (_put - _taken);
+				for (int i = 0; i < count; i++) {
+					int slot = (int) ((first + i) % _outputs.length);
+					_batchOutputs[i] = _outputs[slot];
+					_batchGuides[i] = _guides[slot];
+					_outputs[slot] = null;
+					_guides[slot] = null;
+				}
+				_taken = _put;
+				if (count == _outputs.length) _ringLock.notifyAll();  // Appending threads may be waiting for the ring to empty.
+			}
+
+			IOException failure = write(count);
+
+			synchronized (_syncedLock) {
+				if (failure != null && _failure == null) {
+					_failure = failure;
+					_firstFailed = first;
+				}
+				_synced = first + count;
+				_syncedLock.notifyAll();
+			}
+		}
+	}
+
+	/** Must be called with the _ringLock held. */
+	private void waitIdle() {
+		try {
+			_ringLock.wait(IDLE_MILLIS);
+		} catch (InterruptedException e) {
+			Cool.unexpected(e);
+		}
+	}
+
+	/** Writes the batch, syncing each output once after its last object. Returns the failure, if any. */
+	private IOException write(int count) {
+		try {
+			DurableOutput output = null;
+			int lastWrite = 0;
+			for (int i = 0; i < count; i++) {
+				if (_batchOutputs[i] != output) {
+					if (output != null) output.waitUntilSynced(lastWrite);
+					output = _batchOutputs[i];
+				}
+				lastWrite = output.write(_batchGuides[i]);
+			}
+			output.waitUntilSynced(lastWrite);
+			return null;
+		} catch (IOException iox) {
+			return iox;
+		} catch (RuntimeException rx) {
+			IOException iox = new IOException("Unable to write to the journal: " + rx);
+			iox.initCause(rx);
+			return iox;
+		} finally {
+			for (int i = 0; i < count; i++) {
+				_batchOutputs[i] = null;
+				_batchGuides[i] = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation;
+
+import java.io.IOException;
+
+/** Decides when an object appended to a DurableOutput has to be synced to disk, trading a bounded loss window for throughput.
+ * <br>syncPerCommit() (the default) returns only after the object is on disk, and so does dedicatedWriter(), which leaves the writing and syncing to a single thread. groupCommit() waits a little before syncing so that more objects share each sync. asyncFlush() returns as soon as the object is written: it is synced by flush(), which has to be called every flushInterval() milliseconds, so a crash may lose the objects of the last interval.
+ */
+public abstract class Durability {
+
+	private static final Durability SYNC_PER_COMMIT = new Durability() {
+		public void append(DurableOutput output, Guided guide) throws IOException {
+			output.sync(guide);
+		}
+
+		public String toString() {
+			return "sync per commit";
+		}
+	};
+
+
+	public static Durability syncPerCommit() {
+		return SYNC_PER_COMMIT;
+	}
+
+	/** The first object appended after a sync opens a batch and, if other objects are being appended at the same time, waits up to maxLatencyInMillis for more of them. The objects that join the batch return as soon as its single sync is done, without waiting out the window themselves, and a lone appending thread syncs each object at once.
+	 * @param maxLatencyInMillis How long each object may wait for other objects to be written before it is synced together with them.
+	 */
+	public static Durability groupCommit(final long maxLatencyInMillis) {
+		if (maxLatencyInMillis <= 0) throw new IllegalArgumentException("The latency window must be positive: " + maxLatencyInMillis);
+		return new Durability() {
+			/** All access guarded by this. How many threads are appending. */
+			private int _appending = 0;
+			/** All access guarded by this. Whether the first object of a batch is still waiting out the window. */
+			private boolean _batchOpen = false;
+			/** All access guarded by this. */
+			private long _batchesOpened = 0;
+			private long _batchesSynced = 0;
+
+			public void append(DurableOutput output, Guided guide) throws IOException {
+				synchronized (this) {
+					_appending++;
+				}
+				try {
+					int thisWrite = output.write(guide);
+					if (openOrJoinBatch()) lead(output, thisWrite);
+					// Returns at once when the sync of the batch included this object.
+					output.waitUntilSynced(thisWrite);
+				} finally {
+					synchronized (this) {
+						_appending--;
+					}
+				}
+			}
+
+			/** Opens a batch and returns true, or joins the open one and waits for its sync. */
+			private synchronized boolean openOrJoinBatch() {
+				if (!_batchOpen) {
+					_batchOpen = true;
+					_batchesOpened++;
+					return true;
+				}
+				long batch = _batchesOpened;
+				while (_batchesSynced < batch) {
+					if (!waitFor(this)) break;
+				}
+				return false;
+			}
+
+			private void lead(DurableOutput output, int thisWrite) throws IOException {
+				boolean waitWindow;
+				synchronized (this) {
+					waitWindow = _appending > 1;
+				}
+				try {
+					if (waitWindow) sleep(maxLatencyInMillis);
+					synchronized (this) {
+						_batchOpen = false;
+					}
+					output.waitUntilSynced(thisWrite);
+				} finally {
+					synchronized (this) {
+						_batchesSynced++;
+						notifyAll();
+					}
+				}
+			}
+
+			public String toString() {
+				return "group commit within " + maxLatencyInMillis + "ms";
+			}
+		};
+	}
+
+	/**
+	 * @param intervalInMillis How often the written objects are synced. This is also the longest time an object may be lost in a crash after its append() returned.
+	 */
+	public static Durability asyncFlush(final long intervalInMillis) {
+		if (intervalInMillis <= 0) throw new IllegalArgumentException("The flush interval must be positive: " + intervalInMillis);
+		return new Durability() {
+			public void append(DurableOutput output, Guided guide) throws IOException {
+				output.write(guide);
+			}
+
+			public long flushInterval() {
+				return intervalInMillis;
+			}
+
+			public String toString() {
+				return "asynchronous flush every " + intervalInMillis + "ms";
+			}
+		};
+	}
+
+
+	/** Syncs every object before append() returns, like syncPerCommit(), but the appending threads only put their objects, in turn, into a preallocated ring and wait for them: a single writer thread writes all the objects the ring holds and syncs them at once. The appending threads never contend for the locks of the DurableOutput nor sync it themselves, which raises the throughput and lowers the tail latency when many threads append at once.
+	 * <br>Each Prevayler needs its own instance. Once a write fails, every later append fails with the same IOException.
+	 * @param capacity How many objects the ring holds. Appending threads wait when it is full.
+	 */
+	public static Durability dedicatedWriter(final int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("The ring capacity must be positive: " + capacity);
+		final DedicatedWriter writer = new DedicatedWriter(capacity);
+		return new Durability() {
+			public void append(DurableOutput output, Guided guide) throws IOException {
+				writer.append(output, guide);
+			}
+
+			public String toString() {
+				return "dedicated writer with a ring of " + capacity;
+			}
+		};
+	}
+
+
+	private Durability() {
+	}
+
+	/** Appends the guided object to the output, returning when this policy considers it durable.
+	 */
+	public abstract void append(DurableOutput output, Guided guide) throws IOException;
+
+	/** How often, in milliseconds, flush() has to be called. Zero if this policy never leaves objects waiting for a sync.
+	 */
+	public long flushInterval() {
+		return 0;
+	}
+
+	/** Syncs the objects already written to the output.
+	 */
+	public void flush(DurableOutput output) throws IOException {
+		output.syncPending();
+	}
+
+	/** Returns false if the thread was interrupted while waiting. */
+	private static boolean waitFor(Object lock) {
+		try {
+			lock.wait();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -22,12 +22,24 @@ public class DurableInputStream {
 	private boolean _EOF = false;
 	private Monitor _monitor;
 	private InputStream _fileStream;
+	private final boolean _binary;
+	private long _nextNumber;
 
 
 	public DurableInputStream(File file, Monitor monitor) throws IOException {
+		this(file, -1, monitor);
+	}
+
+
+	/** Reads a journal whose chunks are numbered from firstNumber on. A BinaryChunking chunk numbered lower than the one expected was left by the transactions a recycled file held before (see PreallocatedDurableOutputStream) and is read as the end of the journal.
+	 * @param firstNumber -1 if the chunks are not numbered.
+	 */
+	public DurableInputStream(File file, long firstNumber, Monitor monitor) throws IOException {
 		_monitor = monitor;
+		_nextNumber = firstNumber;
 		_file = file;
 		_fileStream = new BufferedInputStream(new FileInputStream(file));
+		_binary = BinaryChunking.startsWithChunk(_fileStream);
 	}
 
 
@@ -35,8 +47,10 @@ public class DurableInputStream {
 		if (_EOF) throw new EOFException();
 
 		try {
-			Chunk chunk = Chunking.readChunk(_fileStream);
-			if (chunk != null) return chunk;
+			Chunk chunk = _binary
+				? BinaryChunking.readChunk(_fileStream)
+				: Chunking.readChunk(_fileStream);
+			if (chunk != null && !isLeftOver(chunk)) return chunk;
 		} catch (EOFException eofx) {
 			// Do nothing.
 		} catch (ObjectStreamException scx) {
@@ -53,6 +67,14 @@ public class DurableInputStream {
 	}
 
 
+	private boolean isLeftOver(Chunk chunk) {
+		if (!_binary || _nextNumber == -1) return false;
+		if (chunk.number() < _nextNumber) return true;
+		_nextNumber = chunk.number() + 1;
+		return false;
+	}
+
+
 	private void ignoreStreamCorruption(Exception ex) {
 		String message = "Stream corruption found while reading a transaction from the journal. If this is a transaction that was being written when a system crash occurred, there is no problem because it was never executed on the Prevalent System. Before executing each transaction, Prevayler writes it to the journal and calls the java.io.FileDescritor.sync() method to instruct the Java API to physically sync all operating system RAM buffers to disk.";
 		_monitor.notify(this.getClass(), message, _file, ex);
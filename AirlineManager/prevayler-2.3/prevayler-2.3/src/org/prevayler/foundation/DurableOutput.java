@@ -0,0 +1,47 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation;
+
+import java.io.File;
+import java.io.IOException;
+
+/** A journal file that objects are appended to in turn and synced to disk, several at a time when they arrive concurrently.
+ * @see DurableOutputStream
+ * @see MappedDurableOutputStream
+ */
+public interface DurableOutput {
+
+	/** Writes the guided object when its turn comes and returns only after it has been synced to disk.
+	 */
+	public void sync(Guided guide) throws IOException;
+
+	/** Writes the guided object when its turn comes, without waiting for it to be synced.
+	 * @return the number to pass to waitUntilSynced().
+	 */
+	public int write(Guided guide) throws IOException;
+
+	/** Returns after the object returned by the given write() has been synced, syncing it (and every object written after it) if no other thread already has.
+	 */
+	public void waitUntilSynced(int thisWrite) throws IOException;
+
+	/** Syncs every object written so far. Does nothing if the output is closed.
+	 */
+	public void syncPending() throws IOException;
+
+	/** Syncs any pending objects and closes the file.
+	 */
+	public void close() throws IOException;
+
+	public File file();
+
+	/** The number of bytes already written to the file, not counting any preallocated space.
+	 */
+	public long length();
+
+	public int fileSyncCount();
+
+	public boolean reallyClosed();
+
+}
@@ -5,13 +5,16 @@
 
 package org.prevayler.foundation;
 
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.foundation.monitor.NullMonitor;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
-public class DurableOutputStream {
+public class DurableOutputStream implements DurableOutput {
 	/**
 	 * These two locks allow the two main activities of this class,
 	 * serializing transactions to a buffer on the one hand and flushing
@@ -50,29 +53,52 @@ public class DurableOutputStream {
 	/** All access guarded by _syncLock. */
 	private int _fileSyncCount = 0;
 
+	private final Monitor _monitor;
+
 	public DurableOutputStream(File file) throws IOException {
+		this(file, new NullMonitor());
+	}
+
+	/**
+	 * @param monitor Told how long each sync took and how many objects it synced.
+	 */
+	public DurableOutputStream(File file, Monitor monitor) throws IOException {
 		_file = file;
+		_monitor = monitor;
 		_fileOutputStream = new FileOutputStream(file);
 		_fileDescriptor = _fileOutputStream.getFD();
 	}
 
 	public void sync(Guided guide) throws IOException {
-		int thisWrite;
+		int thisWrite = write(guide);
+
+		// Now, having ended the turn, the next thread is allowed to come in
+		// and try to write its object before we get to the sync.
 
+		waitUntilSynced(thisWrite);
+	}
+
+	public int write(Guided guide) throws IOException {
 		// When a thread arrives here, all we care about at first is that it
 		// gets properly sequenced according to its turn.
 
 		guide.startTurn();
 		try {
-			thisWrite = writeObject(guide);
+			return writeObject(guide);
 		} finally {
 			guide.endTurn();
 		}
+	}
 
-		// Now, having ended the turn, the next thread is allowed to come in
-		// and try to write its object before we get to the sync.
-
-		waitUntilSynced(thisWrite);
+	public void syncPending() throws IOException {
+		int objectsWritten;
+		synchronized (_writeLock) {
+			if (_closed) {
+				return;
+			}
+			objectsWritten = _objectsWritten;
+		}
+		waitUntilSynced(objectsWritten);
 	}
 
 	private int writeObject(Guided guide) throws IOException {
@@ -93,7 +119,7 @@ public class DurableOutputStream {
 		}
 	}
 
-	private void waitUntilSynced(int thisWrite) throws IOException {
+	public void waitUntilSynced(int thisWrite) throws IOException {
 		// Here's the real magic. If this thread is the first to have written
 		// an object after a period of inactivity, and there are no other
 		// threads coming in, then thisWrite is trivially one greater than
@@ -136,6 +162,7 @@ public class DurableOutputStream {
 					objectsWritten = _objectsWritten;
 				}
 
+				long start = System.nanoTime();
 				try {
 					// Resetting the buffer clears its contents but keeps the
 					// allocated space. Therefore the buffers should quickly
@@ -153,6 +180,7 @@ public class DurableOutputStream {
 					throw exception;
 				}
 
+				_monitor.journalSynced(objectsWritten - _objectsSynced, System.nanoTime() - start);
 				_objectsSynced = objectsWritten;
 				_fileSyncCount++;
 			}
@@ -166,6 +194,16 @@ public class DurableOutputStream {
 					return;
 				}
 
+				// Objects written under an asynchronous Durability may still
+				// be waiting in the _active buffer.
+				if (_objectsSynced < _objectsWritten) {
+					_active.writeTo(_fileOutputStream);
+					_fileOutputStream.flush();
+					_fileDescriptor.sync();
+					_objectsSynced = _objectsWritten;
+					_fileSyncCount++;
+				}
+
 				internalClose();
 				_fileOutputStream.close();
 			}
@@ -184,6 +222,10 @@ public class DurableOutputStream {
 		return _file;
 	}
 
+	public long length() {
+		return _file.length();
+	}
+
 	public synchronized int fileSyncCount() {
 		synchronized (_syncLock) {
 			return _fileSyncCount;
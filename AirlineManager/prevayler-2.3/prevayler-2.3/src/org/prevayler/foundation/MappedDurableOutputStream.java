@@ -0,0 +1,248 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation;
+
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.foundation.monitor.NullMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A DurableOutput that writes straight into a memory-mapped region of the file instead of copying every object through a buffer and a FileOutputStream. The file is mapped one region at a time, so its length only changes when a new region is mapped, and syncing forces the dirty pages of the mapped regions instead of calling FileDescriptor.sync().
+ * <br>Objects that arrive while another thread is syncing are synced together, exactly as in DurableOutputStream.
+ * <br>The unused part of the last region is truncated when the file is closed. After a crash it is left filled with zeros, which Chunking reads as the end of the journal.
+ */
+public class MappedDurableOutputStream implements DurableOutput {
+
+	/** Same locking discipline as DurableOutputStream: where both locks are required, the _syncLock is always acquired first. */
+	private final Object _writeLock = new Object();
+	private final Object _syncLock = new Object();
+
+	private final File _file;
+
+	private final long _regionSize;
+
+	/** All access guarded by _syncLock. */
+	private final RandomAccessFile _randomAccessFile;
+
+	/** All access guarded by _writeLock. */
+	private final FileChannel _channel;
+
+	/** All access guarded by _writeLock. */
+	private MappedByteBuffer _region;
+
+	/** The offset of _region in the file. All access guarded by _writeLock. */
+	private long _regionStart;
+
+	/** Regions already filled but not yet forced to disk. All access guarded by _writeLock. */
+	private List<MappedByteBuffer> _filledRegions = new ArrayList<MappedByteBuffer>();
+
+	/** All access guarded by _writeLock. */
+	private final OutputStream _regionStream = new RegionStream();
+
+	/** All access guarded by _writeLock. */
+	private boolean _closed = false;
+
+	/** All access guarded by _writeLock. */
+	private int _objectsWritten = 0;
+
+	/** All access guarded by _syncLock. */
+	private int _objectsSynced = 0;
+
+	/** All access guarded by _syncLock. */
+	private int _fileSyncCount = 0;
+
+	private final Monitor _monitor;
+
+	/**
+	 * @param regionSizeInBytes The size of each region mapped (and preallocated) in the file. Objects bigger than a region span several regions.
+	 */
+	public MappedDurableOutputStream(File file, long regionSizeInBytes) throws IOException {
+		this(file, regionSizeInBytes, new NullMonitor());
+	}
+
+	/**
+	 * @param monitor Told how long each sync took and how many objects it synced.
+	 */
+	public MappedDurableOutputStream(File file, long regionSizeInBytes, Monitor monitor) throws IOException {
+		if (regionSizeInBytes <= 0 || regionSizeInBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Region size must be between 1 and " + Integer.MAX_VALUE + " bytes: " + regionSizeInBytes);
+		_file = file;
+		_monitor = monitor;
+		_regionSize = regionSizeInBytes;
+		_randomAccessFile = new RandomAccessFile(file, "rw");
+		_randomAccessFile.setLength(0);
+		_channel = _randomAccessFile.getChannel();
+		_regionStart = 0;
+		_region = _channel.map(FileChannel.MapMode.READ_WRITE, _regionStart, _regionSize);
+	}
+
+	public void sync(Guided guide) throws IOException {
+		waitUntilSynced(write(guide));
+	}
+
+	public int write(Guided guide) throws IOException {
+		guide.startTurn();
+		try {
+			return writeObject(guide);
+		} finally {
+			guide.endTurn();
+		}
+	}
+
+	public void syncPending() throws IOException {
+		int objectsWritten;
+		synchronized (_writeLock) {
+			if (_closed) {
+				return;
+			}
+			objectsWritten = _objectsWritten;
+		}
+		waitUntilSynced(objectsWritten);
+	}
+
+	private int writeObject(Guided guide) throws IOException {
+		synchronized (_writeLock) {
+			if (_closed) {
+				throw new IOException("already closed");
+			}
+
+			try {
+				guide.writeTo(_regionStream);
+			} catch (IOException exception) {
+				internalClose();
+				throw exception;
+			}
+
+			_objectsWritten++;
+			return _objectsWritten;
+		}
+	}
+
+	public void waitUntilSynced(int thisWrite) throws IOException {
+		// See DurableOutputStream.waitUntilSynced(): every thread that wrote
+		// while the previous force was running gets synced by the next one.
+		// The writers keep appending to the current region during a force;
+		// the pages they dirty are simply picked up by the following force.
+
+		synchronized (_syncLock) {
+			if (_objectsSynced < thisWrite) {
+				int objectsWritten;
+				List<MappedByteBuffer> regions;
+				synchronized (_writeLock) {
+					if (_closed) {
+						throw new IOException("already closed");
+					}
+
+					regions = _filledRegions;
+					_filledRegions = new ArrayList<MappedByteBuffer>();
+					regions.add(_region);
+
+					objectsWritten = _objectsWritten;
+				}
+
+				long start = System.nanoTime();
+				for (int i = 0; i < regions.size(); i++) {
+					regions.get(i).force();
+				}
+
+				_monitor.journalSynced(objectsWritten - _objectsSynced, System.nanoTime() - start);
+				_objectsSynced = objectsWritten;
+				_fileSyncCount++;
+			}
+		}
+	}
+
+	/** Must be called with the _writeLock held. */
+	private void nextRegion() throws IOException {
+		_filledRegions.add(_region);
+		_regionStart += _regionSize;
+		_region = _channel.map(FileChannel.MapMode.READ_WRITE, _regionStart, _regionSize);
+	}
+
+	public void close() throws IOException {
+		synchronized (_syncLock) {
+			synchronized (_writeLock) {
+				if (_closed) {
+					return;
+				}
+
+				long length = _regionStart + _region.position();
+				for (int i = 0; i < _filledRegions.size(); i++) {
+					_filledRegions.get(i).force();
+				}
+				_region.force();
+				if (_objectsSynced < _objectsWritten) {
+					_objectsSynced = _objectsWritten;
+					_fileSyncCount++;
+				}
+				internalClose();
+				try {
+					_channel.truncate(length);
+				} catch (IOException ignored) {
+					// Some platforms refuse to truncate a file that is still mapped. The zeros left at the end read as the end of the journal.
+				}
+				_randomAccessFile.close();
+			}
+		}
+	}
+
+	private void internalClose() {
+		synchronized (_writeLock) {
+			_closed = true;
+			_filledRegions = null;
+		}
+	}
+
+	public File file() {
+		return _file;
+	}
+
+	public long length() {
+		synchronized (_writeLock) {
+			if (_closed) return _file.length();
+			return _regionStart + _region.position();
+		}
+	}
+
+	public int fileSyncCount() {
+		synchronized (_syncLock) {
+			return _fileSyncCount;
+		}
+	}
+
+	public boolean reallyClosed() {
+		synchronized (_writeLock) {
+			return _closed;
+		}
+	}
+
+
+	/** Writes into the current region, mapping the next one whenever it fills up. Only used with the _writeLock held. */
+	private class RegionStream extends OutputStream {
+
+		public void write(int b) throws IOException {
+			if (!_region.hasRemaining()) nextRegion();
+			_region.put((byte) b);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (!_region.hasRemaining()) nextRegion();
+				int count = Math.min(length, _region.remaining());
+				_region.put(bytes, offset, count);
+				offset += count;
+				length -= count;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,246 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation;
+
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.foundation.monitor.NullMonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A DurableOutput that writes into a file allocated at a fixed size up front instead of growing the file with every write. Since the length of the file does not change, syncing it with FileChannel.force(false) does not have to flush its size as well.
+ * <br>The file is either filled with zeros when it is created or recycled from a journal that is no longer needed. Each write is followed by a zero byte, which BinaryChunking reads as the end of the journal, so neither the zeros nor the chunks left in a recycled file are read as transactions. An object that does not fit in the space left is still written: the file simply grows past its preallocated size.
+ * <br>Objects that arrive while another thread is syncing are synced together, exactly as in DurableOutputStream.
+ */
+public class PreallocatedDurableOutputStream implements DurableOutput {
+
+	private static final int ZEROS = 64 * 1024;
+
+	/** Same locking discipline as DurableOutputStream: where both locks are required, the _syncLock is always acquired first. */
+	private final Object _writeLock = new Object();
+	private final Object _syncLock = new Object();
+
+	private final File _file;
+
+	/** All access guarded by _syncLock. */
+	private final RandomAccessFile _randomAccessFile;
+
+	/** All access guarded by _syncLock. */
+	private final FileChannel _channel;
+
+	/** Where the next synced bytes are written. All access guarded by _syncLock. */
+	private long _position = 0;
+
+	/** The bytes written so far, synced or not. All access guarded by _writeLock. */
+	private long _length = 0;
+
+	/** All access guarded by _writeLock. */
+	private ByteArrayOutputStream _active = new ByteArrayOutputStream();
+
+	/** All access guarded by _syncLock. */
+	private ByteArrayOutputStream _inactive = new ByteArrayOutputStream();
+
+	/** All access guarded by _writeLock. */
+	private boolean _closed = false;
+
+	/** All access guarded by _writeLock. */
+	private int _objectsWritten = 0;
+
+	/** All access guarded by _syncLock. */
+	private int _objectsSynced = 0;
+
+	/** All access guarded by _syncLock. */
+	private int _fileSyncCount = 0;
+
+	private final Monitor _monitor;
+
+	/**
+	 * @param sizeInBytes The size the file is allocated at.
+	 * @param recycled A file that is no longer needed, reused under the new name instead of allocating a new one, or null.
+	 */
+	public PreallocatedDurableOutputStream(File file, long sizeInBytes, File recycled) throws IOException {
+		this(file, sizeInBytes, recycled, new NullMonitor());
+	}
+
+	/**
+	 * @param monitor Told how long each sync took and how many objects it synced.
+	 */
+	public PreallocatedDurableOutputStream(File file, long sizeInBytes, File recycled, Monitor monitor) throws IOException {
+		if (sizeInBytes <= 0) throw new IllegalArgumentException("Size must be positive: " + sizeInBytes);
+		_file = file;
+		_monitor = monitor;
+		boolean reused = recycled != null && recycled.renameTo(file);
+		_randomAccessFile = new RandomAccessFile(file, "rw");
+		_channel = _randomAccessFile.getChannel();
+		if (!reused) _channel.truncate(0);
+		allocate(sizeInBytes);
+		writeEnd(0);
+		_channel.force(true);
+	}
+
+	private void allocate(long size) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocate(ZEROS);
+		long position = _channel.size();
+		while (position < size) {
+			zeros.clear();
+			zeros.limit((int) Math.min(ZEROS, size - position));
+			while (zeros.hasRemaining()) position += _channel.write(zeros, position);
+		}
+	}
+
+	/** Marks the end of the journal at the given position. */
+	private void writeEnd(long position) throws IOException {
+		ByteBuffer end = ByteBuffer.allocate(1);
+		while (end.hasRemaining()) _channel.write(end, position);
+	}
+
+	public void sync(Guided guide) throws IOException {
+		waitUntilSynced(write(guide));
+	}
+
+	public int write(Guided guide) throws IOException {
+		guide.startTurn();
+		try {
+			return writeObject(guide);
+		} finally {
+			guide.endTurn();
+		}
+	}
+
+	public void syncPending() throws IOException {
+		int objectsWritten;
+		synchronized (_writeLock) {
+			if (_closed) {
+				return;
+			}
+			objectsWritten = _objectsWritten;
+		}
+		waitUntilSynced(objectsWritten);
+	}
+
+	private int writeObject(Guided guide) throws IOException {
+		synchronized (_writeLock) {
+			if (_closed) {
+				throw new IOException("already closed");
+			}
+
+			int before = _active.size();
+			try {
+				guide.writeTo(_active);
+			} catch (IOException exception) {
+				internalClose();
+				throw exception;
+			}
+
+			_length += _active.size() - before;
+			_objectsWritten++;
+			return _objectsWritten;
+		}
+	}
+
+	public void waitUntilSynced(int thisWrite) throws IOException {
+		// See DurableOutputStream.waitUntilSynced(): every thread that wrote
+		// while the previous sync was running gets synced by the next one.
+
+		synchronized (_syncLock) {
+			if (_objectsSynced < thisWrite) {
+				int objectsWritten;
+				synchronized (_writeLock) {
+					if (_closed) {
+						throw new IOException("already closed");
+					}
+
+					ByteArrayOutputStream swap = _active;
+					_active = _inactive;
+					_inactive = swap;
+
+					objectsWritten = _objectsWritten;
+				}
+
+				long start = System.nanoTime();
+				try {
+					writeInactive();
+					_channel.force(false);
+				} catch (IOException exception) {
+					internalClose();
+					throw exception;
+				}
+
+				_monitor.journalSynced(objectsWritten - _objectsSynced, System.nanoTime() - start);
+				_objectsSynced = objectsWritten;
+				_fileSyncCount++;
+			}
+		}
+	}
+
+	/** Writes the _inactive buffer and the end mark after it. Must be called with the _syncLock held. */
+	private void writeInactive() throws IOException {
+		_inactive.write(0);
+		ByteBuffer bytes = ByteBuffer.wrap(_inactive.toByteArray());
+		_inactive.reset();
+		while (bytes.hasRemaining()) _position += _channel.write(bytes, _position);
+		_position--;
+	}
+
+	public void close() throws IOException {
+		synchronized (_syncLock) {
+			synchronized (_writeLock) {
+				if (_closed) {
+					return;
+				}
+
+				// Objects written under an asynchronous Durability may still
+				// be waiting in the _active buffer.
+				if (_objectsSynced < _objectsWritten) {
+					ByteArrayOutputStream swap = _active;
+					_active = _inactive;
+					_inactive = swap;
+					writeInactive();
+					_channel.force(false);
+					_objectsSynced = _objectsWritten;
+					_fileSyncCount++;
+				}
+
+				internalClose();
+				_randomAccessFile.close();
+			}
+		}
+	}
+
+	private void internalClose() {
+		synchronized (_writeLock) {
+			_closed = true;
+			_active = null;
+			_inactive = null;
+		}
+	}
+
+	public File file() {
+		return _file;
+	}
+
+	public long length() {
+		synchronized (_writeLock) {
+			return _length;
+		}
+	}
+
+	public int fileSyncCount() {
+		synchronized (_syncLock) {
+			return _fileSyncCount;
+		}
+	}
+
+	public boolean reallyClosed() {
+		synchronized (_writeLock) {
+			return _closed;
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Counts values in buckets of powers of two: bucket 0 counts the values below 1 and bucket i the values from 2^(i-1) up to 2^i. Values are recorded without locking, so it can be fed from the threads that write the journal.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 48;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	public void record(long value) {
+		int bucket = value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+		_buckets.incrementAndGet(bucket);
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+		long max = _max.get();
+		while (value > max && !_max.compareAndSet(max, value)) max = _max.get();
+	}
+
+	public long count() {
+		return _count.get();
+	}
+
+	public long max() {
+		return _max.get();
+	}
+
+	public double mean() {
+		long count = _count.get();
+		return count == 0 ? 0 : (double) _sum.get() / count;
+	}
+
+	/** Returns the upper bound of the bucket holding the given fraction (0 to 1) of the values, or the largest value if that is lower.
+	 */
+	public long percentile(double fraction) {
+		long[] buckets = buckets();
+		long total = 0;
+		for (int i = 0; i < buckets.length; i++) total += buckets[i];
+		if (total == 0) return 0;
+
+		long wanted = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= wanted) return Math.min(1L << i, _max.get());
+		}
+		return _max.get();
+	}
+
+	/** The counts of the buckets, without the empty buckets after the last value. */
+	public long[] buckets() {
+		int length = BUCKETS;
+		while (length > 0 && _buckets.get(length - 1) == 0) length--;
+		long[] result = new long[length];
+		for (int i = 0; i < length; i++) result[i] = _buckets.get(i);
+		return result;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) _buckets.set(i, 0);
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+
+}
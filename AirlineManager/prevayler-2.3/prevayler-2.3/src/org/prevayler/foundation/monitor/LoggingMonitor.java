@@ -28,6 +28,19 @@ public abstract class LoggingMonitor implements Monitor {
 		error(clazz, message + "\nFile: " + file, ex);
     }
 
+    /**
+     * Measurements are not logged. See MetricsMonitor.
+     */
+    public void journalAppended(long nanos) {}
+
+    public void journalSynced(int transactions, long nanos) {}
+
+    public void snapshotTaken(long nanos) {}
+
+    public void transactionRecovered(long transaction) {}
+
+    public void recoveryFinished(long transaction, long nanos) {}
+
     protected abstract void info(Class clazz, String Message);
 
     protected abstract void error(Class clazz, String message, Exception ex);
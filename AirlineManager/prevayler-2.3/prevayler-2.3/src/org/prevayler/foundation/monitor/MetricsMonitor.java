@@ -0,0 +1,161 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation.monitor;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** A Monitor that keeps metrics of the journal, the snapshots and the recovery of a Prevayler, readable through JMX, and passes the notifications on to another Monitor.
+ * @see #register(String)
+ */
+public class MetricsMonitor implements Monitor, MetricsMonitorMBean {
+
+	private final Monitor _delegate;
+
+	private final Histogram _appendLatency = new Histogram();
+	private final Histogram _syncDuration = new Histogram();
+	private final Histogram _syncBatchSize = new Histogram();
+
+	private final AtomicLong _snapshotCount = new AtomicLong();
+	private volatile long _lastSnapshotMillis;
+	private volatile long _maxSnapshotMillis;
+
+	private volatile boolean _recovering = true;
+	private volatile long _recoveredTransaction;
+	private final AtomicLong _transactionsRecovered = new AtomicLong();
+	private final long _recoveryStart = System.currentTimeMillis();
+	private volatile long _recoveryMillis;
+
+	public MetricsMonitor() {
+		this(new SimpleMonitor(System.err));
+	}
+
+	/**
+	 * @param delegate The Monitor the notifications are passed on to.
+	 */
+	public MetricsMonitor(Monitor delegate) {
+		_delegate = delegate;
+	}
+
+	/** Returns a new MetricsMonitor registered in the platform MBeanServer as "org.prevayler:type=Prevayler,name=" followed by the given name, quoted. A MetricsMonitor registered before under that name, by a Prevayler since closed, is replaced.
+	 */
+	public static MetricsMonitor register(String name) {
+		MetricsMonitor monitor = new MetricsMonitor();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(name);
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(monitor, objectName);
+		} catch (JMException jmx) {
+			monitor.notify(MetricsMonitor.class, "Unable to register the metrics of " + name + " for JMX.", jmx);
+		}
+		return monitor;
+	}
+
+	/** Removes the MetricsMonitor registered under the given name, if any, once its Prevayler is closed.
+	 */
+	public static void unregister(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(name);
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+		} catch (JMException ignored) {
+		}
+	}
+
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName("org.prevayler:type=Prevayler,name=" + ObjectName.quote(name));
+	}
+
+
+	public void notify(Class<?> clazz, String message) {
+		_delegate.notify(clazz, message);
+	}
+
+	public void notify(Class<?> clazz, String message, Exception ex) {
+		_delegate.notify(clazz, message, ex);
+	}
+
+	public void notify(Class<?> clazz, String message, File file) {
+		_delegate.notify(clazz, message, file);
+	}
+
+	public void notify(Class<?> clazz, String message, File file, Exception ex) {
+		_delegate.notify(clazz, message, file, ex);
+	}
+
+	public void journalAppended(long nanos) {
+		_appendLatency.record(nanos / 1000);
+	}
+
+	public void journalSynced(int transactions, long nanos) {
+		_syncDuration.record(nanos / 1000);
+		_syncBatchSize.record(transactions);
+	}
+
+	public void snapshotTaken(long nanos) {
+		long millis = nanos / 1000000;
+		_snapshotCount.incrementAndGet();
+		_lastSnapshotMillis = millis;
+		if (millis > _maxSnapshotMillis) _maxSnapshotMillis = millis;
+	}
+
+	public void transactionRecovered(long transaction) {
+		_recoveredTransaction = transaction;
+		_transactionsRecovered.incrementAndGet();
+	}
+
+	public void recoveryFinished(long transaction, long nanos) {
+		_recoveredTransaction = transaction;
+		_recoveryMillis = nanos / 1000000;
+		_recovering = false;
+	}
+
+
+	public long getAppendCount() { return _appendLatency.count(); }
+	public double getAppendLatencyMean() { return _appendLatency.mean(); }
+	public long getAppendLatency50thPercentile() { return _appendLatency.percentile(0.5); }
+	public long getAppendLatency99thPercentile() { return _appendLatency.percentile(0.99); }
+	public long getAppendLatencyMax() { return _appendLatency.max(); }
+	public long[] getAppendLatencyHistogram() { return _appendLatency.buckets(); }
+
+	public long getSyncCount() { return _syncDuration.count(); }
+	public double getSyncDurationMean() { return _syncDuration.mean(); }
+	public long getSyncDuration99thPercentile() { return _syncDuration.percentile(0.99); }
+	public long getSyncDurationMax() { return _syncDuration.max(); }
+	public long[] getSyncDurationHistogram() { return _syncDuration.buckets(); }
+
+	public double getSyncBatchSizeMean() { return _syncBatchSize.mean(); }
+	public long getSyncBatchSizeMax() { return _syncBatchSize.max(); }
+	public long[] getSyncBatchSizeHistogram() { return _syncBatchSize.buckets(); }
+
+	public long getSnapshotCount() { return _snapshotCount.get(); }
+	public long getLastSnapshotMillis() { return _lastSnapshotMillis; }
+	public long getMaxSnapshotMillis() { return _maxSnapshotMillis; }
+
+	public boolean isRecovering() { return _recovering; }
+	public long getRecoveredTransaction() { return _recoveredTransaction; }
+	public long getTransactionsRecovered() { return _transactionsRecovered.get(); }
+
+	/** How long the recovery took, or has taken so far. */
+	public long getRecoveryMillis() {
+		return _recovering ? System.currentTimeMillis() - _recoveryStart : _recoveryMillis;
+	}
+
+	public void reset() {
+		_appendLatency.reset();
+		_syncDuration.reset();
+		_syncBatchSize.reset();
+		_snapshotCount.set(0);
+		_lastSnapshotMillis = 0;
+		_maxSnapshotMillis = 0;
+	}
+
+}
@@ -0,0 +1,40 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation.monitor;
+
+/** The metrics of a MetricsMonitor, as read through JMX. Times are in microseconds unless their name says otherwise. The histograms count values in buckets of powers of two (see Histogram).
+ */
+public interface MetricsMonitorMBean {
+
+	long getAppendCount();
+	double getAppendLatencyMean();
+	long getAppendLatency50thPercentile();
+	long getAppendLatency99thPercentile();
+	long getAppendLatencyMax();
+	long[] getAppendLatencyHistogram();
+
+	long getSyncCount();
+	double getSyncDurationMean();
+	long getSyncDuration99thPercentile();
+	long getSyncDurationMax();
+	long[] getSyncDurationHistogram();
+
+	double getSyncBatchSizeMean();
+	long getSyncBatchSizeMax();
+	long[] getSyncBatchSizeHistogram();
+
+	long getSnapshotCount();
+	long getLastSnapshotMillis();
+	long getMaxSnapshotMillis();
+
+	boolean isRecovering();
+	long getRecoveredTransaction();
+	long getTransactionsRecovered();
+	long getRecoveryMillis();
+
+	/** Clears the journal and snapshot metrics, keeping those of the recovery. */
+	void reset();
+
+}
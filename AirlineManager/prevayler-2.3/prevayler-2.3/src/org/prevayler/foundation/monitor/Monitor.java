@@ -15,21 +15,46 @@ public interface Monitor {
     /**
      * Something interesting happened.
      */
-    void notify(Class clazz, String message);
+    void notify(Class<?> clazz, String message);
 
     /**
      * An interesting exception was thrown.
      */
-    void notify(Class clazz, String message, Exception ex);
+    void notify(Class<?> clazz, String message, Exception ex);
 
     /**
      * Something interesting happened regarding access to a file.
      */
-    void notify(Class clazz, String message, File file);
+    void notify(Class<?> clazz, String message, File file);
 
     /**
      * An exception was thrown while trying to access a file.
      */
-    void notify(Class clazz, String message, File file, Exception ex);
+    void notify(Class<?> clazz, String message, File file, Exception ex);
+
+    /**
+     * A transaction was appended to the .journal file, and synced if the Durability required it, in the given time.
+     */
+    void journalAppended(long nanos);
+
+    /**
+     * A .journal file was synced to disk in the given time, together with the given number of transactions written since its previous sync.
+     */
+    void journalSynced(int transactions, long nanos);
+
+    /**
+     * A snapshot was written in the given time.
+     */
+    void snapshotTaken(long nanos);
+
+    /**
+     * The given transaction was read from the .journal files and executed while recovering the prevalent system.
+     */
+    void transactionRecovered(long transaction);
+
+    /**
+     * The prevalent system was recovered up to the given transaction, from its snapshot and .journal files, in the given time.
+     */
+    void recoveryFinished(long transaction, long nanos);
 
 }
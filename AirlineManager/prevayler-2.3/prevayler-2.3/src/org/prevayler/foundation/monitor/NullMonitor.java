@@ -32,5 +32,30 @@ public class NullMonitor implements Monitor {
      * Does nothing.
      */
 	public void notify(Class clazz, String message, File file) {}
+
+    /**
+     * Does nothing.
+     */
+	public void journalAppended(long nanos) {}
+
+    /**
+     * Does nothing.
+     */
+	public void journalSynced(int transactions, long nanos) {}
+
+    /**
+     * Does nothing.
+     */
+	public void snapshotTaken(long nanos) {}
+
+    /**
+     * Does nothing.
+     */
+	public void transactionRecovered(long transaction) {}
+
+    /**
+     * Does nothing.
+     */
+	public void recoveryFinished(long transaction, long nanos) {}
 	
 }
\ No newline at end of file
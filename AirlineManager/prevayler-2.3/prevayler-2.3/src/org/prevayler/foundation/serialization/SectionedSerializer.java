@@ -0,0 +1,317 @@
+package org.prevayler.foundation.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a prevalent system as independent sections, each serialized and gzipped on its own thread, and reads the
+ * sections back in parallel too. Meant for snapshots of large systems:
+ * <pre>
+ * full snapshot:  magic "PVS2" | section count | (digest | length | gzipped section) ...
+ * delta snapshot: magic "PVD1" | depth | previous file name | section count | (digest | length | gzipped section) ...
+ * </pre>
+ * Each section is a complete gzip stream, so sections can be decompressed without reading the ones before them. The
+ * digest is the SHA-1 of the serialized section. A delta only carries the sections whose digest is not in the previous
+ * snapshot; the others have a length of -1 and are found in the previous files of the chain. Snapshots written before
+ * digests were kept ("PVS1") are still read.
+ * Only suitable for snapshots; the sections are defined by the given Sectioning.
+ */
+public class SectionedSerializer implements Serializer {
+
+	private static final int MAGIC_WITHOUT_DIGESTS = 0x50565331;
+	private static final int MAGIC = 0x50565332;
+	private static final int MAGIC_DELTA = 0x50564431;
+	private static final int DIGEST_LENGTH = 20;
+	private static final int UNCHANGED = -1;
+
+	private final Sectioning _sectioning;
+	private final Serializer _sectionSerializer;
+	private final int _threads;
+
+	/**
+	 * @param sectionSerializer Writes and reads each section.
+	 * @param threads How many sections are written or read at the same time.
+	 */
+	public SectionedSerializer(Sectioning sectioning, Serializer sectionSerializer, int threads) {
+		if (threads < 1) throw new IllegalArgumentException("At least one thread is needed: " + threads);
+		_sectioning = sectioning;
+		_sectionSerializer = sectionSerializer;
+		_threads = threads;
+	}
+
+	public SectionedSerializer(Sectioning sectioning, int threads) {
+		this(sectioning, new JavaSerializer(), threads);
+	}
+
+	public void writeObject(OutputStream stream, Object object) throws IOException {
+		writeSections(stream, object, null, 0, Collections.<String>emptySet());
+	}
+
+	/**
+	 * Writes a full snapshot if previous is null, or else a delta on top of the snapshot file named previous, leaving
+	 * out the sections whose digest is in unchanged.
+	 * @param depth How many deltas there are between the full snapshot and this one, this one included.
+	 * @return The digests of all sections of the system, in order.
+	 */
+	public List<String> writeSections(OutputStream stream, Object object, String previous, int depth, final Collection<String> unchanged) throws IOException {
+		List<?> sections = _sectioning.split(object);
+
+		List<Callable<Object[]>> tasks = new ArrayList<Callable<Object[]>>(sections.size());
+		for (int i = 0; i < sections.size(); i++) {
+			final Object section = sections.get(i);
+			tasks.add(new Callable<Object[]>() {
+				public Object[] call() throws Exception {
+					byte[] serialized = serialize(section);
+					String digest = digest(serialized);
+					return new Object[] { digest, unchanged.contains(digest) ? null : compress(serialized) };
+				}
+			});
+		}
+		List<Object[]> results;
+		try {
+			results = runAll(tasks);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("Unexpected Exception was thrown.", e);  // Only reading sections can throw it.
+		}
+
+		DataOutputStream data = new DataOutputStream(stream);
+		if (previous == null) {
+			data.writeInt(MAGIC);
+		} else {
+			data.writeInt(MAGIC_DELTA);
+			data.writeInt(depth);
+			data.writeUTF(previous);
+		}
+		data.writeInt(results.size());
+		List<String> digests = new ArrayList<String>(results.size());
+		for (int i = 0; i < results.size(); i++) {
+			Object[] result = results.get(i);
+			String digest = (String) result[0];
+			byte[] bytes = (byte[]) result[1];
+			data.write(fromHex(digest));
+			if (bytes == null) {
+				data.writeInt(UNCHANGED);
+			} else {
+				data.writeInt(bytes.length);
+				data.write(bytes);
+			}
+			digests.add(digest);
+		}
+		data.flush();
+		return digests;
+	}
+
+	public Object readObject(InputStream stream) throws IOException, ClassNotFoundException {
+		SectionFile file = readSections(stream, null);
+		if (file.previous() != null) throw new StreamCorruptedException("A delta snapshot cannot be read without the snapshots before it");
+		return join(file.compressedSections());
+	}
+
+	/**
+	 * Reads a full or delta snapshot, keeping only the compressed sections whose digest is in wanted (all of them if
+	 * wanted is null). Nothing is decompressed: see join().
+	 */
+	public SectionFile readSections(InputStream stream, Collection<String> wanted) throws IOException {
+		DataInputStream data = new DataInputStream(stream);
+		int magic = data.readInt();
+		if (magic != MAGIC && magic != MAGIC_DELTA && magic != MAGIC_WITHOUT_DIGESTS) throw new StreamCorruptedException("Not a sectioned snapshot");
+		int depth = 0;
+		String previous = null;
+		if (magic == MAGIC_DELTA) {
+			depth = data.readInt();
+			previous = data.readUTF();
+		}
+		int count = data.readInt();
+		if (count < 0) throw new StreamCorruptedException("Section count corrupted");
+
+		List<String> digests = magic == MAGIC_WITHOUT_DIGESTS ? null : new ArrayList<String>(count);
+		List<byte[]> compressed = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			String digest = null;
+			if (digests != null) {
+				byte[] raw = new byte[DIGEST_LENGTH];
+				data.readFully(raw);
+				digest = toHex(raw);
+				digests.add(digest);
+			}
+			int length = data.readInt();
+			if (length == UNCHANGED && previous != null) {
+				compressed.add(null);
+				continue;
+			}
+			if (length < 0) throw new StreamCorruptedException("Section length corrupted");
+			if (wanted != null && digest != null && !wanted.contains(digest)) {
+				skipFully(data, length);
+				compressed.add(null);
+				continue;
+			}
+			byte[] bytes = new byte[length];
+			data.readFully(bytes);
+			compressed.add(bytes);
+		}
+		return new SectionFile(previous, depth, digests, compressed);
+	}
+
+	/**
+	 * Decompresses the given sections in parallel and joins them into a prevalent system.
+	 */
+	public Object join(List<byte[]> compressedSections) throws IOException, ClassNotFoundException {
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(compressedSections.size());
+		for (int i = 0; i < compressedSections.size(); i++) {
+			final byte[] bytes = compressedSections.get(i);
+			if (bytes == null) throw new StreamCorruptedException("Section " + i + " is missing");
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					return decompress(bytes);
+				}
+			});
+		}
+		return _sectioning.join(runAll(tasks));
+	}
+
+	private static void skipFully(DataInputStream data, int length) throws IOException {
+		while (length > 0) {
+			int skipped = data.skipBytes(length);
+			if (skipped <= 0) {
+				data.readByte();  // Throws EOFException at the end of the file.
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	private byte[] serialize(Object section) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		_sectionSerializer.writeObject(bytes, section);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] compress(byte[] serialized) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+		gzip.write(serialized);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+	private Object decompress(byte[] bytes) throws IOException, ClassNotFoundException {
+		InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return _sectionSerializer.readObject(gzip);
+		} finally {
+			gzip.close();
+		}
+	}
+
+	private static String digest(byte[] serialized) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-1").digest(serialized));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unexpected Exception was thrown.", e);  // Every Java platform has SHA-1.
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(bytes[i] & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Runs the Callables in parallel and returns their results in the same order.
+	 */
+	private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException, ClassNotFoundException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(_threads, tasks.size())));
+		try {
+			List<Future<T>> futures = executor.invokeAll(tasks);
+			List<T> results = new ArrayList<T>(futures.size());
+			for (int i = 0; i < futures.size(); i++) {
+				results.add(futures.get(i).get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing the snapshot sections");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException("Unexpected Exception was thrown.", cause);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * The sections read from one full or delta snapshot file, still compressed.
+	 */
+	public static class SectionFile {
+
+		private final String _previous;
+		private final int _depth;
+		private final List<String> _digests;
+		private final List<byte[]> _compressed;
+
+		SectionFile(String previous, int depth, List<String> digests, List<byte[]> compressed) {
+			_previous = previous;
+			_depth = depth;
+			_digests = digests;
+			_compressed = compressed;
+		}
+
+		/** The name of the snapshot file this delta was written on top of, or null for a full snapshot. */
+		public String previous() {
+			return _previous;
+		}
+
+		/** How many deltas there are between the full snapshot and this file, this file included. */
+		public int depth() {
+			return _depth;
+		}
+
+		/** The digests of all sections, in order, or null for a snapshot written before digests were kept. */
+		public List<String> digests() {
+			return _digests;
+		}
+
+		/** The compressed sections, in order, with null for the ones that were not read from this file. */
+		public List<byte[]> compressedSections() {
+			return _compressed;
+		}
+
+	}
+
+}
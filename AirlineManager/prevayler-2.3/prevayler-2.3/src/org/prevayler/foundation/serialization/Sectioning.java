@@ -0,0 +1,25 @@
+package org.prevayler.foundation.serialization;
+
+import java.util.List;
+
+/**
+ * Splits a prevalent system into sections that a SectionedSerializer can write and read independently, and joins
+ * them back. Objects reachable from more than one section are read back as separate copies, so the sections must not
+ * share objects whose identity matters to the prevalent system.
+ * 
+ * @see SectionedSerializer
+ */
+public interface Sectioning {
+
+	/**
+	 * Returns the sections of the given system, in the order they must be given back to join(). Called while the
+	 * system is locked, so the sections may refer to the system's own objects.
+	 */
+	public List<?> split(Object prevalentSystem);
+
+	/**
+	 * Rebuilds a system from the sections returned by split(), in the same order.
+	 */
+	public Object join(List<?> sections);
+
+}
@@ -1,5 +1,6 @@
 package org.prevayler.implementation;
 
+import org.prevayler.ImmutableTransaction;
 import org.prevayler.foundation.Chunk;
 import org.prevayler.foundation.serialization.Serializer;
 
@@ -7,11 +8,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.concurrent.locks.Lock;
 
 public abstract class Capsule implements Serializable {
 
+	private static final int WITH_QUERY = 1;
+
 	private final byte[] _serialized;
 
+	/** The given transaction, kept only if it is an ImmutableTransaction. Capsules read from the journal or received from a replication server only have the bytes. */
+	private final transient Object _immutableTransaction;
+
 	protected Capsule(Object transaction, Serializer journalSerializer) {
 		try {
 			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
@@ -20,10 +27,12 @@ public abstract class Capsule implements Serializable {
 		} catch (Exception exception) {
 			throw new Error("Unable to serialize transaction", exception);
 		}
+		_immutableTransaction = transaction instanceof ImmutableTransaction ? transaction : null;
 	}
 
 	protected Capsule(byte[] serialized) {
 		_serialized = serialized;
+		_immutableTransaction = null;
 	}
 
 	/**
@@ -34,9 +43,10 @@ public abstract class Capsule implements Serializable {
 	}
 
 	/**
-	 * Deserialize the contained Transaction or TransactionWithQuery.
+	 * Deserialize the contained Transaction or TransactionWithQuery. An ImmutableTransaction given to this capsule is returned as is.
 	 */
 	public Object deserialize(Serializer journalSerializer) {
+		if (_immutableTransaction != null) return _immutableTransaction;
 		try {
 			return journalSerializer.readObject(new ByteArrayInputStream(_serialized));
 		} catch (Exception exception) {
@@ -45,7 +55,7 @@ public abstract class Capsule implements Serializable {
 	}
 
 	/**
-	 * Execute a freshly deserialized copy of the transaction. This method will synchronize on the prevalentSystem
+	 * Execute a freshly deserialized copy of the transaction (or the ImmutableTransaction itself). This method will synchronize on the prevalentSystem
 	 * while running the transaction but after deserializing it.
 	 */
 	public void executeOn(Object prevalentSystem, Date executionTime, Serializer journalSerializer) {
@@ -56,6 +66,21 @@ public abstract class Capsule implements Serializable {
 		}
 	}
 
+	/**
+	 * The same as executeOn(Object, Date, Serializer) except that the given lock is held while running the transaction,
+	 * instead of synchronizing on the prevalentSystem.
+	 */
+	public void executeOn(Object prevalentSystem, Date executionTime, Serializer journalSerializer, Lock lock) {
+		Object transaction = deserialize(journalSerializer);
+
+		lock.lock();
+		try {
+			justExecute(transaction, prevalentSystem, executionTime);
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Actually execute the Transaction or TransactionWithQuery. The caller
 	 * is responsible for synchronizing on the prevalentSystem.
@@ -67,14 +92,15 @@ public abstract class Capsule implements Serializable {
 	 */
 	public abstract Capsule cleanCopy();
 
-	Chunk toChunk() {
-		Chunk chunk = new Chunk(_serialized);
-		chunk.setParameter("withQuery", String.valueOf(this instanceof TransactionWithQueryCapsule));
-		return chunk;
+	int chunkFlags() {
+		return this instanceof TransactionWithQueryCapsule ? WITH_QUERY : 0;
 	}
 
 	static Capsule fromChunk(Chunk chunk) {
-		boolean withQuery = Boolean.valueOf(chunk.getParameter("withQuery")).booleanValue();
+		String withQueryParameter = chunk.getParameter("withQuery");
+		boolean withQuery = withQueryParameter == null
+			? (chunk.flags() & WITH_QUERY) != 0
+			: Boolean.valueOf(withQueryParameter).booleanValue();
 		if (withQuery) {
 			return new TransactionWithQueryCapsule(chunk.getBytes());
 		} else {
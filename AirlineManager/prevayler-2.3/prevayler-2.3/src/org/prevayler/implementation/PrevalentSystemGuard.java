@@ -5,12 +5,15 @@ import org.prevayler.Query;
 import org.prevayler.foundation.Cool;
 import org.prevayler.foundation.DeepCopier;
 import org.prevayler.foundation.serialization.Serializer;
+import org.prevayler.implementation.journal.JournalReader;
 import org.prevayler.implementation.publishing.TransactionPublisher;
 import org.prevayler.implementation.publishing.TransactionSubscriber;
 import org.prevayler.implementation.snapshot.GenericSnapshotManager;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class PrevalentSystemGuard implements TransactionSubscriber {
 
@@ -18,6 +21,7 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
 	private long _systemVersion; // All access is synchronized on "this"
 	private boolean _ignoreRuntimeExceptions; // All access is synchronized on "this"
 	private final Serializer _journalSerializer;
+	private ReadWriteLock _lock; // All access is synchronized on "this". When set, it is used instead of synchronizing on the object.
 
 	public PrevalentSystemGuard(Object prevalentSystem, long systemVersion, Serializer journalSerializer) {
 		_prevalentSystem = prevalentSystem;
@@ -35,6 +39,30 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
         }
 	}
 
+	/** Makes Queries run in parallel with each other: they take the read lock of a ReadWriteLock and only Transactions take its write lock, instead of all of them synchronizing on the prevalent system. Must be called before the guard is used.
+	 */
+	public void useReadWriteLock() {
+		synchronized (this) {
+			_lock = new ReentrantReadWriteLock();
+		}
+	}
+
+	public long systemVersion() {
+		synchronized (this) {
+			return _systemVersion;
+		}
+	}
+
+	/** Returns once the given transaction has been executed, or the system has been lost to an Error.
+	 */
+	public void waitForVersion(long systemVersion) {
+		synchronized (this) {
+			while (_systemVersion < systemVersion && _prevalentSystem != null) {
+				Cool.wait(this);
+			}
+		}
+	}
+
 	public void subscribeTo(TransactionPublisher publisher) throws IOException, ClassNotFoundException {
 		long initialTransaction;
 		synchronized (this) {
@@ -49,6 +77,26 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
 		}
 	}
 
+	/** Rolls the system forward through the transactions of the .journal files up to and including lastTransaction, ignoring their RuntimeExceptions as subscribeTo() does.
+	 * @return The version the system was rolled forward to, which is before lastTransaction if the .journal files end before it.
+	 */
+	public long replay(JournalReader reader, long lastTransaction) throws IOException {
+		long initialTransaction;
+		synchronized (this) {
+			_ignoreRuntimeExceptions = true;
+			initialTransaction = _systemVersion + 1;
+		}
+
+		try {
+			reader.read(this, initialTransaction, lastTransaction);
+		} finally {
+			synchronized (this) {
+				_ignoreRuntimeExceptions = false;
+			}
+		}
+		return systemVersion();
+	}
+
 	public void receive(TransactionTimestamp transactionTimestamp) {
 		Capsule capsule = transactionTimestamp.capsule();
 		long systemVersion = transactionTimestamp.systemVersion();
@@ -69,7 +117,11 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
 			try {
 				// Don't synchronize on _prevalentSystem here so that the capsule can deserialize a fresh
 				// copy of the transaction without blocking queries.
-				capsule.executeOn(_prevalentSystem, executionTime, _journalSerializer);
+				if (_lock == null) {
+					capsule.executeOn(_prevalentSystem, executionTime, _journalSerializer);
+				} else {
+					capsule.executeOn(_prevalentSystem, executionTime, _journalSerializer, _lock.writeLock());
+				}
 			} catch (RuntimeException rx) {
 				if (!_ignoreRuntimeExceptions) throw rx;  //TODO Guarantee that transactions received from pending transaction recovery don't ever throw RuntimeExceptions. Maybe use a wrapper for that.
             } catch (Error error) {
@@ -82,27 +134,63 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
 	}
 
 	public Object executeQuery(Query sensitiveQuery, Clock clock) throws Exception {
+		Object prevalentSystem;
+		ReadWriteLock lock;
         synchronized (this) {
             if (_prevalentSystem == null) {
                 throw new Error("Prevayler is no longer processing queries due to an Error thrown from an earlier transaction.");
             }
 
-    		synchronized (_prevalentSystem) {
-    			return sensitiveQuery.query(_prevalentSystem, clock.time());
-    		}
+            if (_lock == null) {
+	    		synchronized (_prevalentSystem) {
+	    			return sensitiveQuery.query(_prevalentSystem, clock.time());
+	    		}
+            }
+            prevalentSystem = _prevalentSystem;
+            lock = _lock;
+        }
+
+        // Not holding "this" lets other queries run at the same time; the read lock keeps transactions out.
+        lock.readLock().lock();
+        try {
+        	return sensitiveQuery.query(prevalentSystem, clock.time());
+        } finally {
+        	lock.readLock().unlock();
         }
 	}
 
 	public void takeSnapshot(GenericSnapshotManager snapshotManager) throws IOException {
+		Object prevalentSystem;
+		long systemVersion;
+		ReadWriteLock lock;
 		synchronized (this) {
             if (_prevalentSystem == null) {
                 throw new Error("Prevayler is no longer allowing snapshots due to an Error thrown from an earlier transaction.");
             }
 
-			synchronized (_prevalentSystem) {
-				snapshotManager.writeSnapshot(_prevalentSystem, _systemVersion);
+			if (_lock == null) {
+				synchronized (_prevalentSystem) {
+					snapshotManager.writeSnapshot(_prevalentSystem, _systemVersion);
+				}
+				return;
 			}
+			prevalentSystem = _prevalentSystem;
+			systemVersion = _systemVersion;
+			lock = _lock;
+			// No transaction holds the write lock while "this" is held, so this does not wait.
+			lock.readLock().lock();
 		}
+
+		// The system is copied under the read lock, which only keeps transactions out for as long as the copy takes, and the copy is written with no lock at all.
+		Object copy;
+		try {
+			copy = DeepCopier.deepCopyParallel(prevalentSystem, snapshotManager.primarySerializer());
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to copy the prevalent system for a snapshot: " + e);
+		} finally {
+			lock.readLock().unlock();
+		}
+		snapshotManager.writeSnapshot(copy, systemVersion);
 	}
 
 	public PrevalentSystemGuard deepCopy(long systemVersion, Serializer snapshotSerializer) throws IOException, ClassNotFoundException {
@@ -119,8 +207,16 @@ public class PrevalentSystemGuard implements TransactionSubscriber {
 				throw new IllegalStateException("Already at " + _systemVersion + "; can't go back to " + systemVersion);
 			}
 
-			synchronized (_prevalentSystem) {
+			if (_lock == null) {
+				synchronized (_prevalentSystem) {
+					return new PrevalentSystemGuard(DeepCopier.deepCopyParallel(_prevalentSystem, snapshotSerializer), _systemVersion, _journalSerializer);
+				}
+			}
+			_lock.readLock().lock();
+			try {
 				return new PrevalentSystemGuard(DeepCopier.deepCopyParallel(_prevalentSystem, snapshotSerializer), _systemVersion, _journalSerializer);
+			} finally {
+				_lock.readLock().unlock();
 			}
 		}
 	}
@@ -0,0 +1,109 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation;
+
+import org.prevayler.foundation.Cool;
+import org.prevayler.foundation.serialization.Serializer;
+import org.prevayler.implementation.publishing.TransactionPublisher;
+import org.prevayler.implementation.publishing.TransactionSubscriber;
+import org.prevayler.implementation.snapshot.GenericSnapshotManager;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+/** A copy of the prevalent system that is fed with every published transaction in the background and on which snapshots are taken. Writing a snapshot only blocks this copy, so transactions keep executing on the real system meanwhile. The transactions published during the snapshot wait in a queue and are applied to the copy afterwards.
+ * <br>This costs the memory of a second copy of the prevalent system.
+ */
+public class PrevalentSystemReplica implements TransactionSubscriber, Runnable {
+
+	private final PrevalentSystemGuard _king;
+	private final TransactionPublisher _publisher;
+	private PrevalentSystemGuard _replica; // Released when closed. All access synchronized on _pending.
+
+	private final LinkedList<TransactionTimestamp> _pending = new LinkedList<TransactionTimestamp>(); // All access synchronized on itself.
+	private boolean _closed = false; // All access synchronized on _pending.
+	private volatile boolean _broken = false;
+
+
+	/** Must be created while no transactions are being published, right after the king has recovered.
+	 */
+	public PrevalentSystemReplica(PrevalentSystemGuard king, TransactionPublisher publisher, Serializer snapshotSerializer) throws IOException, ClassNotFoundException {
+		_king = king;
+		_publisher = publisher;
+		long systemVersion = king.systemVersion();
+		_replica = king.deepCopy(systemVersion, snapshotSerializer);
+		publisher.subscribe(this, systemVersion + 1);
+
+		Thread applier = new Thread(this, "Prevayler Snapshot Replica");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+
+	public void receive(TransactionTimestamp transactionTimestamp) {
+		synchronized (_pending) {
+			if (_closed) return;
+			_pending.add(transactionTimestamp.cleanCopy());
+			_pending.notify();
+		}
+	}
+
+
+	public void run() {
+		while (true) {
+			TransactionTimestamp next;
+			PrevalentSystemGuard replica;
+			synchronized (_pending) {
+				while (_pending.isEmpty() && !_closed) Cool.wait(_pending);
+				if (_closed) return;
+				next = _pending.removeFirst();
+				replica = _replica;
+			}
+
+			try {
+				replica.receive(next);
+			} catch (RuntimeException ignored) {
+				// The transaction threw the same exception on the real system, where it was reported.
+			} catch (Error error) {
+				_broken = true;  // The real system got the same Error, so it will refuse snapshots too.
+				return;
+			}
+		}
+	}
+
+
+	/** Waits until the replica has caught up with every transaction already executed on the real system and writes a snapshot of it.
+	 */
+	public void takeSnapshot(GenericSnapshotManager snapshotManager) throws IOException {
+		PrevalentSystemGuard replica;
+		synchronized (_pending) {
+			replica = _replica;
+		}
+		if (_broken || replica == null) {
+			_king.takeSnapshot(snapshotManager);
+			return;
+		}
+		replica.waitForVersion(_king.systemVersion());
+		replica.takeSnapshot(snapshotManager);
+	}
+
+
+	/** Stops receiving transactions, ends the applier thread and releases the copy of the prevalent system.
+	 */
+	public void close() {
+		try {
+			_publisher.cancelSubscription(this);
+		} catch (UnsupportedOperationException ignored) {
+			// A ClientPublisher cannot drop subscribers; receive() ignores what it still publishes.
+		}
+		synchronized (_pending) {
+			_closed = true;
+			_pending.clear();
+			_replica = null;
+			_pending.notifyAll();
+		}
+	}
+
+}
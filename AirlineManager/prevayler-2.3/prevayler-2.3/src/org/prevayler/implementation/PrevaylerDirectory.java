@@ -92,6 +92,13 @@ public class PrevaylerDirectory {
 	 * Find the latest snapshot file. Returns null if no snapshot file was found.
 	 */
 	public File latestSnapshot() throws IOException {
+		return latestSnapshot(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Find the latest snapshot file taken at or before the given transaction. Returns null if no such snapshot file was found.
+	 */
+	public File latestSnapshot(long maxVersion) throws IOException {
 		File[] files = _directory.listFiles();
 		if (files == null) throw new IOException("Error reading file list from directory " + _directory);
 
@@ -100,7 +107,7 @@ public class PrevaylerDirectory {
 		for (int i = 0; i < files.length; i++) {
 			File candidateSnapshot = files[i];
 			long candidateVersion = snapshotVersion(candidateSnapshot);
-			if (candidateVersion > latestVersion) {
+			if (candidateVersion > latestVersion && candidateVersion <= maxVersion) {
 				latestVersion = candidateVersion;
 				latestSnapshot = candidateSnapshot;
 			}
@@ -109,6 +116,24 @@ public class PrevaylerDirectory {
 	}
 
 	public File findInitialJournalFile(long initialTransactionWanted) {
+		File[] journals = journalFiles();
+
+		for (int i = journals.length - 1; i >= 0; i--) {
+			File journal = journals[i];
+			long version = journalVersion(journal);
+			if (version <= initialTransactionWanted) {
+				return journal;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * The journal files, ordered by the first transaction they hold.
+	 */
+	public File[] journalFiles() {
 		File[] journals = _directory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
 				return pathname.getName().matches(JOURNAL_FILENAME_PATTERN);
@@ -122,16 +147,7 @@ public class PrevaylerDirectory {
 				return new Long(journalVersion(f1)).compareTo(new Long(journalVersion(f2)));
 			}
 		});
-
-		for (int i = journals.length - 1; i >= 0; i--) {
-			File journal = journals[i];
-			long version = journalVersion(journal);
-			if (version <= initialTransactionWanted) {
-				return journal;
-			}
-		}
-
-		return null;
+		return journals;
 	}
 
 
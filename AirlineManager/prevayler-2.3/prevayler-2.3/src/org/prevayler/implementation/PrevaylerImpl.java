@@ -5,13 +5,18 @@
 package org.prevayler.implementation;
 
 import org.prevayler.Clock;
+import org.prevayler.JournalTail;
 import org.prevayler.Prevayler;
 import org.prevayler.Query;
 import org.prevayler.SureTransactionWithQuery;
 import org.prevayler.Transaction;
+import org.prevayler.TransactionBatch;
 import org.prevayler.TransactionWithQuery;
+import org.prevayler.foundation.monitor.Monitor;
 import org.prevayler.foundation.serialization.Serializer;
+import org.prevayler.implementation.journal.JournalReader;
 import org.prevayler.implementation.publishing.TransactionPublisher;
+import org.prevayler.implementation.publishing.TransactionTail;
 import org.prevayler.implementation.snapshot.GenericSnapshotManager;
 
 import java.io.IOException;
@@ -27,6 +32,12 @@ public class PrevaylerImpl implements Prevayler {
 
 	private final Serializer _journalSerializer;
 
+	private final PrevalentSystemReplica _snapshotReplica;
+
+	private final JournalReader _journalReader;
+
+	private final Monitor _monitor;
+
 
 	/** Creates a new Prevayler
 	 * 
@@ -37,9 +48,20 @@ public class PrevaylerImpl implements Prevayler {
 	 */
 	public PrevaylerImpl(GenericSnapshotManager snapshotManager, TransactionPublisher transactionPublisher,
 						 Serializer journalSerializer) throws IOException, ClassNotFoundException {
+		this(snapshotManager, transactionPublisher, journalSerializer, new PrevaylerSettings());
+	}
+
+
+	/** Creates a new Prevayler
+	 * 
+	 * @param settings The optional features of this PrevaylerImpl.
+	 */
+	public PrevaylerImpl(GenericSnapshotManager snapshotManager, TransactionPublisher transactionPublisher,
+						 Serializer journalSerializer, PrevaylerSettings settings) throws IOException, ClassNotFoundException {
 		_snapshotManager = snapshotManager;
 
 		_guard = _snapshotManager.recoveredPrevalentSystem();
+		if (settings.readWriteLock()) _guard.useReadWriteLock();
 
 		_publisher = transactionPublisher;
 		_clock = _publisher.clock();
@@ -47,6 +69,13 @@ public class PrevaylerImpl implements Prevayler {
 		_guard.subscribeTo(_publisher);
 
 		_journalSerializer = journalSerializer;
+
+		_snapshotReplica = settings.snapshotReplica()
+			? new PrevalentSystemReplica(_guard, _publisher, _snapshotManager.primarySerializer())
+			: null;
+
+		_journalReader = settings.journalReader();
+		_monitor = settings.monitor();
 	}
 
 	public Object prevalentSystem() { return _guard.prevalentSystem(); }
@@ -56,7 +85,12 @@ public class PrevaylerImpl implements Prevayler {
 
 
 	public void execute(Transaction transaction) {
-        publish(new TransactionCapsule(transaction, _journalSerializer));    //TODO Optimizations: 1) The Censor can use the actual given transaction if it is Immutable instead of deserializing a new one from the byte array. 2) Make the baptism fail-fast feature optional (default is on). If it is off, the given transaction can be used instead of deserializing a new one from the byte array.
+        publish(new TransactionCapsule(transaction, _journalSerializer));    //An ImmutableTransaction is executed (and tried by the Censor) as given; only its bytes go to the journal. TODO Optimization: Make the baptism fail-fast feature optional (default is on). If it is off, any given transaction can be used instead of deserializing a new one from the byte array.
+	}
+
+
+	public void execute(Transaction[] transactions) {
+		execute(new TransactionBatch(transactions));
 	}
 
 
@@ -89,10 +123,25 @@ public class PrevaylerImpl implements Prevayler {
 
 
 	public void takeSnapshot() throws IOException {
-		_guard.takeSnapshot(_snapshotManager);
+		long start = System.nanoTime();
+		if (_snapshotReplica != null) {
+			_snapshotReplica.takeSnapshot(_snapshotManager);
+		} else {
+			_guard.takeSnapshot(_snapshotManager);
+		}
+		_monitor.snapshotTaken(System.nanoTime() - start);
 	}
 
 
-	public void close() throws IOException { _publisher.close(); }
+	public JournalTail tail(long initialTransaction, int capacity) {
+		if (_journalReader == null) throw new UnsupportedOperationException("This Prevayler has no journal files to tail.");
+		return new TransactionTail(_journalReader, _journalSerializer, _publisher, initialTransaction, capacity);
+	}
+
+
+	public void close() throws IOException {
+		if (_snapshotReplica != null) _snapshotReplica.close();
+		_publisher.close();
+	}
 
 }
@@ -0,0 +1,60 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation;
+
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.foundation.monitor.NullMonitor;
+import org.prevayler.implementation.journal.JournalReader;
+
+/** The optional features of a PrevaylerImpl, as configured in the PrevaylerFactory. The defaults are those of a PrevaylerImpl created without settings.
+ */
+public class PrevaylerSettings {
+
+	private boolean _snapshotReplica = false;
+	private boolean _readWriteLock = false;
+	private JournalReader _journalReader = null;
+	private Monitor _monitor = new NullMonitor();
+
+	/** Whether snapshots are taken on a PrevalentSystemReplica, so that they do not block transactions (default is false).
+	 */
+	public void configureSnapshotReplica(boolean snapshotReplica) {
+		_snapshotReplica = snapshotReplica;
+	}
+
+	/** Whether Queries run in parallel with each other, under the read lock of a ReadWriteLock, while Transactions take its write lock (default is false).
+	 */
+	public void configureReadWriteLock(boolean readWriteLock) {
+		_readWriteLock = readWriteLock;
+	}
+
+	/** The reader of the .journal files written by the TransactionPublisher, used by tail(), or null if it writes none (the default).
+	 */
+	public void configureJournalReader(JournalReader journalReader) {
+		_journalReader = journalReader;
+	}
+
+	/** The Monitor told how long each snapshot took.
+	 */
+	public void configureMonitor(Monitor monitor) {
+		_monitor = monitor;
+	}
+
+	boolean snapshotReplica() {
+		return _snapshotReplica;
+	}
+
+	boolean readWriteLock() {
+		return _readWriteLock;
+	}
+
+	JournalReader journalReader() {
+		return _journalReader;
+	}
+
+	Monitor monitor() {
+		return _monitor;
+	}
+
+}
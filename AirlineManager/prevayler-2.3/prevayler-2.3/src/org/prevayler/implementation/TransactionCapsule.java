@@ -1,6 +1,7 @@
 package org.prevayler.implementation;
 
 import org.prevayler.Transaction;
+import org.prevayler.ValidatedTransaction;
 import org.prevayler.foundation.serialization.Serializer;
 
 import java.util.Date;
@@ -18,6 +19,7 @@ class TransactionCapsule extends Capsule {
 	}
 
 	protected void justExecute(Object transaction, Object prevalentSystem, Date executionTime) {
+		if (transaction instanceof ValidatedTransaction) ((ValidatedTransaction) transaction).validate(prevalentSystem, executionTime);
 		((Transaction) transaction).executeOn(prevalentSystem, executionTime);
 	}
 
@@ -1,6 +1,6 @@
 package org.prevayler.implementation;
 
-import org.prevayler.foundation.Chunking;
+import org.prevayler.foundation.BinaryChunking;
 import org.prevayler.foundation.Guided;
 import org.prevayler.foundation.Turn;
 
@@ -32,7 +32,7 @@ public class TransactionGuide extends Guided {
 	}
 
 	public void writeTo(OutputStream stream) throws IOException {
-		Chunking.writeChunk(stream, _transactionTimestamp.toChunk());
+		BinaryChunking.writeChunk(stream, _transactionTimestamp.toChunk());
 	}
 
 }
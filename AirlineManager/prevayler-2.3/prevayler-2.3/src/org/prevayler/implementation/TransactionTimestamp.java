@@ -43,18 +43,21 @@ public class TransactionTimestamp implements Serializable {
 		return new TransactionTimestamp(_capsule.cleanCopy(), _systemVersion, _executionTime);
 	}
 
+	/** Returns a chunk to be written with BinaryChunking.
+	 */
 	public Chunk toChunk() {
-		Chunk chunk = _capsule.toChunk();
-		chunk.setParameter("systemVersion", String.valueOf(_systemVersion));
-		chunk.setParameter("executionTime", String.valueOf(_executionTime));
-		return chunk;
+		return new Chunk(_capsule.serialized(), _systemVersion, _executionTime, _capsule.chunkFlags());
 	}
 
+	/** Accepts both chunks read with BinaryChunking and chunks of the older Chunking text format.
+	 */
 	public static TransactionTimestamp fromChunk(Chunk chunk) {
 		Capsule capsule = Capsule.fromChunk(chunk);
-		long systemVersion = Long.parseLong(chunk.getParameter("systemVersion"));
+		String systemVersion = chunk.getParameter("systemVersion");
+		if (systemVersion == null) return new TransactionTimestamp(capsule, chunk.number(), chunk.timestamp());
+
 		long executionTime = Long.parseLong(chunk.getParameter("executionTime"));
-		return new TransactionTimestamp(capsule, systemVersion, executionTime);
+		return new TransactionTimestamp(capsule, Long.parseLong(systemVersion), executionTime);
 	}
 
 }
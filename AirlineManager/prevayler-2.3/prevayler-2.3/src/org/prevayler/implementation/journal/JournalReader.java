@@ -0,0 +1,136 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.journal;
+
+import org.prevayler.foundation.Chunk;
+import org.prevayler.foundation.DurableInputStream;
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.implementation.PrevaylerDirectory;
+import org.prevayler.implementation.TransactionTimestamp;
+import org.prevayler.implementation.publishing.TransactionSubscriber;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+
+/** Reads the .journal files of a directory without ever changing them, so they can be read while a PersistentJournal, in this or another process, is appending to them.
+ */
+public class JournalReader {
+
+	private final PrevaylerDirectory _directory;
+	private final String _journalSuffix;
+	private final Monitor _monitor;
+
+	public JournalReader(PrevaylerDirectory directory, String journalSuffix, Monitor monitor) {
+		PrevaylerDirectory.checkValidJournalSuffix(journalSuffix);
+		_directory = directory;
+		_journalSuffix = journalSuffix;
+		_monitor = monitor;
+	}
+
+
+	/** Passes the subscriber, in order, every transaction from initialTransaction on that has been completely written to the .journal files.
+	 * @return The number of the transaction after the last one passed, or initialTransaction if none was.
+	 * @throws IOException If the .journal files start after initialTransaction or cannot be read.
+	 */
+	public long read(TransactionSubscriber subscriber, long initialTransaction) throws IOException {
+		return read(subscriber, initialTransaction, Long.MAX_VALUE);
+	}
+
+	/** Passes the subscriber, in order, the transactions from initialTransaction to lastTransaction that have been completely written to the .journal files. The files after the one holding lastTransaction are not opened.
+	 * @return The number of the transaction after the last one passed, or initialTransaction if none was.
+	 * @throws IOException If the .journal files start after initialTransaction or cannot be read.
+	 */
+	public long read(TransactionSubscriber subscriber, long initialTransaction, long lastTransaction) throws IOException {
+		File journal = _directory.findInitialJournalFile(initialTransaction);
+		if (journal == null) {
+			if (_directory.findInitialJournalFile(Long.MAX_VALUE) != null) throw new IOException("Unable to find journal file containing transaction " + initialTransaction + ". Might have been archived or deleted.");
+			return initialTransaction;
+		}
+
+		long transaction = PrevaylerDirectory.journalVersion(journal);
+		while (transaction <= lastTransaction) {
+			DurableInputStream input = new DurableInputStream(journal, transaction, _monitor);
+			try {
+				while (transaction <= lastTransaction) {
+					Chunk chunk = input.readChunk();
+					if (transaction >= initialTransaction) {
+						TransactionTimestamp entry = TransactionTimestamp.fromChunk(chunk);
+						if (entry.systemVersion() != transaction) throw new IOException("Expected " + transaction + " but was " + entry.systemVersion());
+						subscriber.receive(entry);
+					}
+					transaction++;
+				}
+			} catch (EOFException eof) {
+				// The rest of this file has not been written yet.
+			} finally {
+				input.close();
+			}
+
+			File nextFile = _directory.journalFile(transaction, _journalSuffix);
+			if (nextFile.equals(journal) || !nextFile.exists()) break;
+			journal = nextFile;
+		}
+		return Math.max(transaction, initialTransaction);
+	}
+
+	/** Returns the number of the last transaction executed at or before the given time, or the number before the first transaction in the .journal files if none was. The files are searched by the execution time of their first transaction, so only the file holding the answer and the one after it are read through.
+	 * @throws IOException If the .journal files cannot be read.
+	 */
+	public long transactionAt(Date time) throws IOException {
+		File[] journals = _directory.journalFiles();
+		if (journals.length == 0) return 0;
+
+		int low = 0;
+		int high = journals.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			TransactionTimestamp first = firstEntry(journals[middle]);
+			if (first != null && !first.executionTime().after(time)) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (found == -1) return PrevaylerDirectory.journalVersion(journals[0]) - 1;
+
+		File journal = journals[found];
+		long transaction = PrevaylerDirectory.journalVersion(journal);
+		while (true) {
+			DurableInputStream input = new DurableInputStream(journal, transaction, _monitor);
+			try {
+				while (true) {
+					TransactionTimestamp entry = TransactionTimestamp.fromChunk(input.readChunk());
+					if (entry.executionTime().after(time)) return transaction - 1;
+					transaction++;
+				}
+			} catch (EOFException eof) {
+				// Every transaction of this file was executed at or before time.
+			} finally {
+				input.close();
+			}
+
+			File nextFile = _directory.journalFile(transaction, _journalSuffix);
+			if (nextFile.equals(journal) || !nextFile.exists()) return transaction - 1;
+			journal = nextFile;
+		}
+	}
+
+	private TransactionTimestamp firstEntry(File journal) throws IOException {
+		DurableInputStream input = new DurableInputStream(journal, PrevaylerDirectory.journalVersion(journal), _monitor);
+		try {
+			return TransactionTimestamp.fromChunk(input.readChunk());
+		} catch (EOFException eof) {
+			return null;
+		} finally {
+			input.close();
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2005 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.journal;
+
+import org.prevayler.foundation.Durability;
+import org.prevayler.foundation.monitor.Monitor;
+import org.prevayler.foundation.monitor.NullMonitor;
+
+/** How a PersistentJournal writes its .journal files, as configured in the PrevaylerFactory.
+ */
+public class JournalSettings {
+
+	private long _sizeThresholdInBytes = 0;
+	private long _ageThresholdInMillis = 0;
+	private long _mappedRegionInBytes = 0;
+	private boolean _preallocation = false;
+	private boolean _recycling = false;
+	private int _retainedSnapshots = 1;
+	private long _retentionAgeInMillis = 0;
+	private Durability _durability = Durability.syncPerCommit();
+	private long _syncReportIntervalInMillis = 0;
+	private String _suffix = "journal";
+	private Monitor _monitor = new NullMonitor();
+
+	/** Size of the current journal file beyond which it is closed and a new one started. Zero (the default) indicates no size threshold. This is useful journal backup purposes.
+	 */
+	public void configureSizeThreshold(long sizeThresholdInBytes) {
+		_sizeThresholdInBytes = sizeThresholdInBytes;
+	}
+
+	/** Age of the current journal file beyond which it is closed and a new one started. Zero (the default) indicates no age threshold. This is useful journal backup purposes.
+	 */
+	public void configureAgeThreshold(long ageThresholdInMillis) {
+		_ageThresholdInMillis = ageThresholdInMillis;
+	}
+
+	/** Size of the regions of the journal files that are memory-mapped for writing. Zero (the default) indicates journal files are written through a regular FileOutputStream.
+	 * @see org.prevayler.foundation.MappedDurableOutputStream
+	 */
+	public void configureMappedRegion(long mappedRegionInBytes) {
+		_mappedRegionInBytes = mappedRegionInBytes;
+	}
+
+	/** Whether each journal file is allocated at the size threshold, which must not be zero, when it is created. Memory mapping is not used for preallocated files.
+	 * @see org.prevayler.foundation.PreallocatedDurableOutputStream
+	 */
+	public void configurePreallocation(boolean preallocation) {
+		_preallocation = preallocation;
+	}
+
+	/** Whether a journal file whose transactions are all in the latest snapshot is reused for the next journal file instead of being kept. Only used with preallocation.
+	 */
+	public void configureRecycling(boolean recycling) {
+		_recycling = recycling;
+	}
+
+	/** Keeps from being recycled the journal files that the latest snapshots, and not older ones, need to be recovered, and the ones written in the last ageInMillis. The default keeps only the journal files the latest snapshot needs.
+	 * @param snapshots How many of the latest snapshots must still be recoverable up to the last transaction. At least 1.
+	 */
+	public void configureRetention(int snapshots, long ageInMillis) {
+		if (snapshots < 1) throw new IllegalArgumentException("At least the latest snapshot must be retained: " + snapshots);
+		_retainedSnapshots = snapshots;
+		_retentionAgeInMillis = ageInMillis;
+	}
+
+	/** When each transaction is synced to disk (default is Durability.syncPerCommit()).
+	 */
+	public void configureDurability(Durability durability) {
+		_durability = durability;
+	}
+
+	/** How often the number of file syncs is reported to the monitor. Zero (the default) indicates no reports.
+	 */
+	public void configureSyncReportInterval(long syncReportIntervalInMillis) {
+		_syncReportIntervalInMillis = syncReportIntervalInMillis;
+	}
+
+	/** The suffix of the journal files (default is "journal").
+	 */
+	public void configureSuffix(String suffix) {
+		_suffix = suffix;
+	}
+
+	public void configureMonitor(Monitor monitor) {
+		_monitor = monitor;
+	}
+
+	long sizeThresholdInBytes() {
+		return _sizeThresholdInBytes;
+	}
+
+	long ageThresholdInMillis() {
+		return _ageThresholdInMillis;
+	}
+
+	long mappedRegionInBytes() {
+		return _mappedRegionInBytes;
+	}
+
+	boolean preallocation() {
+		return _preallocation;
+	}
+
+	boolean recycling() {
+		return _recycling;
+	}
+
+	int retainedSnapshots() {
+		return _retainedSnapshots;
+	}
+
+	long retentionAgeInMillis() {
+		return _retentionAgeInMillis;
+	}
+
+	Durability durability() {
+		return _durability;
+	}
+
+	long syncReportIntervalInMillis() {
+		return _syncReportIntervalInMillis;
+	}
+
+	String suffix() {
+		return _suffix;
+	}
+
+	Monitor monitor() {
+		return _monitor;
+	}
+
+}
@@ -6,8 +6,12 @@
 package org.prevayler.implementation.journal;
 
 import org.prevayler.foundation.Chunk;
+import org.prevayler.foundation.Durability;
 import org.prevayler.foundation.DurableInputStream;
+import org.prevayler.foundation.DurableOutput;
 import org.prevayler.foundation.DurableOutputStream;
+import org.prevayler.foundation.MappedDurableOutputStream;
+import org.prevayler.foundation.PreallocatedDurableOutputStream;
 import org.prevayler.foundation.StopWatch;
 import org.prevayler.foundation.monitor.Monitor;
 import org.prevayler.implementation.PrevaylerDirectory;
@@ -18,20 +22,38 @@ import org.prevayler.implementation.publishing.TransactionSubscriber;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
 
 
 /** A Journal that will write all transactions to .journal files.
  */
 public class PersistentJournal implements Journal {
 
+	/** Runs the asynchronous flushes and the sync reports of all journals. */
+	private static Timer _timer;
+
 	private final PrevaylerDirectory _directory;
-	private DurableOutputStream _outputJournal;
+	private volatile DurableOutput _outputJournal;
 
 	private final long _journalSizeThresholdInBytes;
 	private final long _journalAgeThresholdInMillis;
+	private final long _journalMappedRegionInBytes;
+	private final boolean _preallocate;
+	private final boolean _recycle;
+	private final int _retainedSnapshots;
+	private final long _retentionAgeInMillis;
 	private StopWatch _journalAgeTimer;
+
+	private final Durability _durability;
+	private TimerTask _flusher;
+	private TimerTask _syncReporter;
+	private volatile long _closedJournalsFileSyncs;
+	private long _reportedFileSyncs;
+	private volatile long _reportedTransaction;
+	private StopWatch _syncReportTimer;
 	
-	private long _nextTransaction;
+	private volatile long _nextTransaction;
 	private boolean _nextTransactionInitialized = false;
 	private Monitor _monitor;
 
@@ -45,22 +67,73 @@ public class PersistentJournal implements Journal {
 	 */
 	public PersistentJournal(PrevaylerDirectory directory, long journalSizeThresholdInBytes, long journalAgeThresholdInMillis,
 							 String journalSuffix, Monitor monitor) throws IOException {
-		PrevaylerDirectory.checkValidJournalSuffix(journalSuffix);
+		this(directory, settings(journalSizeThresholdInBytes, journalAgeThresholdInMillis, journalSuffix, monitor));
+	}
+
+
+	/**
+	 * @param settings How the journal files are written.
+	 */
+	public PersistentJournal(PrevaylerDirectory directory, JournalSettings settings) throws IOException {
+		PrevaylerDirectory.checkValidJournalSuffix(settings.suffix());
+		if (settings.preallocation() && settings.sizeThresholdInBytes() == 0) throw new IllegalArgumentException("Preallocated journal files need a size threshold");
 
-	    _monitor = monitor;
+	    _monitor = settings.monitor();
 		_directory = directory;
 		_directory.produceDirectory();
-		_journalSizeThresholdInBytes = journalSizeThresholdInBytes;
-		_journalAgeThresholdInMillis = journalAgeThresholdInMillis;
-		_journalSuffix = journalSuffix;
+		_journalSizeThresholdInBytes = settings.sizeThresholdInBytes();
+		_journalAgeThresholdInMillis = settings.ageThresholdInMillis();
+		_journalMappedRegionInBytes = settings.mappedRegionInBytes();
+		_preallocate = settings.preallocation();
+		_recycle = settings.recycling();
+		_retainedSnapshots = settings.retainedSnapshots();
+		_retentionAgeInMillis = settings.retentionAgeInMillis();
+		_durability = settings.durability();
+		_journalSuffix = settings.suffix();
+
+		if (_durability.flushInterval() != 0) {
+			_flusher = new TimerTask() {
+				public void run() {
+					flush();
+				}
+			};
+			timer().schedule(_flusher, _durability.flushInterval(), _durability.flushInterval());
+		}
+		long syncReportIntervalInMillis = settings.syncReportIntervalInMillis();
+		if (syncReportIntervalInMillis != 0) {
+			_syncReportTimer = StopWatch.start();
+			_syncReporter = new TimerTask() {
+				public void run() {
+					reportFileSyncs();
+				}
+			};
+			timer().schedule(_syncReporter, syncReportIntervalInMillis, syncReportIntervalInMillis);
+		}
+	}
+
+
+	private static JournalSettings settings(long journalSizeThresholdInBytes, long journalAgeThresholdInMillis, String journalSuffix, Monitor monitor) {
+		JournalSettings settings = new JournalSettings();
+		settings.configureSizeThreshold(journalSizeThresholdInBytes);
+		settings.configureAgeThreshold(journalAgeThresholdInMillis);
+		settings.configureSuffix(journalSuffix);
+		settings.configureMonitor(monitor);
+		return settings;
+	}
+
+
+	static private synchronized Timer timer() {
+		if (_timer == null) _timer = new Timer("Prevayler Journal Timer", true);
+		return _timer;
 	}
 
 
 	public void append(TransactionGuide guide) {
 		if (!_nextTransactionInitialized) throw new IllegalStateException("Journal.update() has to be called at least once before Journal.append().");
+		long start = System.nanoTime();
 
-		DurableOutputStream myOutputJournal;
-		DurableOutputStream outputJournalToClose = null;
+		DurableOutput myOutputJournal;
+		DurableOutput outputJournalToClose = null;
 
 		guide.startTurn();
 		try {
@@ -68,6 +141,7 @@ public class PersistentJournal implements Journal {
 
 			if (!isOutputJournalStillValid()) {
 				outputJournalToClose = _outputJournal;
+				if (outputJournalToClose != null) _closedJournalsFileSyncs += outputJournalToClose.fileSyncCount();
 				_outputJournal = createOutputJournal(_nextTransaction);
 				_journalAgeTimer = StopWatch.start();
 			}
@@ -80,10 +154,11 @@ public class PersistentJournal implements Journal {
 		}
 
 		try {
-			myOutputJournal.sync(guide);
+			_durability.append(myOutputJournal, guide);
 		} catch (IOException iox) {
 			handle(iox, _outputJournal.file(), "writing to");
 		}
+		_monitor.journalAppended(System.nanoTime() - start);
 
 		guide.startTurn();
 		try {
@@ -98,6 +173,45 @@ public class PersistentJournal implements Journal {
 	}
 
 
+	private void flush() {
+		DurableOutput output = _outputJournal;
+		if (output == null) return;
+		try {
+			_durability.flush(output);
+		} catch (IOException iox) {
+			// The output is closed by the failure, so the next append() will report it and block.
+			_monitor.notify(this.getClass(), "An IOException was thrown while flushing a .journal file.", output.file(), iox);
+		}
+	}
+
+
+	/** The number of times the .journal files written by this journal have been synced to disk.
+	 */
+	public long fileSyncCount() {
+		DurableOutput output = _outputJournal;
+		return _closedJournalsFileSyncs + (output == null ? 0 : output.fileSyncCount());
+	}
+
+
+	private void reportFileSyncs() {
+		DurableOutput output = _outputJournal;
+		long fileSyncs = fileSyncCount();
+		long nextTransaction = _nextTransaction;
+		long millis = _syncReportTimer.millisEllapsed();
+		_syncReportTimer = StopWatch.start();
+
+		long syncs = fileSyncs - _reportedFileSyncs;
+		long transactions = nextTransaction - _reportedTransaction;
+		_reportedFileSyncs = fileSyncs;
+		_reportedTransaction = nextTransaction;
+		if (output == null || transactions <= 0 || millis == 0) return;
+
+		double syncsPerSecond = Math.round(syncs * 10000.0 / millis) / 10.0;
+		String message = syncs + " file syncs for " + transactions + " transactions in the last " + millis + "ms (" + syncsPerSecond + " syncs/s, " + _durability + ").";
+		_monitor.notify(this.getClass(), message, output.file());
+	}
+
+
 	private boolean isOutputJournalStillValid() {
 		return _outputJournal != null
 			&& !isOutputJournalTooBig() 
@@ -113,14 +227,16 @@ public class PersistentJournal implements Journal {
 
 	private boolean isOutputJournalTooBig() {
 		return _journalSizeThresholdInBytes != 0
-			&& _outputJournal.file().length() >= _journalSizeThresholdInBytes;
+			&& _outputJournal.length() >= _journalSizeThresholdInBytes;
 	}
 
 
-	private DurableOutputStream createOutputJournal(long transactionNumber) {
+	private DurableOutput createOutputJournal(long transactionNumber) {
 		File file = _directory.journalFile(transactionNumber, _journalSuffix);
 		try {
-			return new DurableOutputStream(file);
+			if (_preallocate) return new PreallocatedDurableOutputStream(file, _journalSizeThresholdInBytes, _recycle ? retiredJournal() : null, _monitor);
+			if (_journalMappedRegionInBytes != 0) return new MappedDurableOutputStream(file, _journalMappedRegionInBytes, _monitor);
+			return new DurableOutputStream(file, _monitor);
 		} catch (IOException iox) {
 			handle(iox, file, "creating");
 			return null;
@@ -128,14 +244,30 @@ public class PersistentJournal implements Journal {
 	}
 
 
+	/** Returns the oldest .journal file if it is outside the retention window, or null: the oldest of the retained snapshots must hold all its transactions, so that recovering from any of them does not need it, and it must not have been written within the retention age.
+	 */
+	private File retiredJournal() throws IOException {
+		File[] journals = _directory.journalFiles();
+		if (journals.length < 2) return null;
+		if (System.currentTimeMillis() - journals[0].lastModified() < _retentionAgeInMillis) return null;
+		File snapshot = _directory.latestSnapshot();
+		for (int i = 1; i < _retainedSnapshots && snapshot != null; i++) {
+			snapshot = _directory.latestSnapshot(PrevaylerDirectory.snapshotVersion(snapshot) - 1);
+		}
+		if (snapshot == null) return null;
+		if (PrevaylerDirectory.journalVersion(journals[1]) - 1 > PrevaylerDirectory.snapshotVersion(snapshot)) return null;
+		return journals[0];
+	}
+
+
 	/** IMPORTANT: This method cannot be called while the log() method is being called in another thread.
 	 * If there are no journal files in the directory (when a snapshot is taken and all journal files are manually deleted, for example), the initialTransaction parameter in the first call to this method will define what the next transaction number will be. We have to find clearer/simpler semantics.
 	 */
 	public void update(TransactionSubscriber subscriber, long initialTransactionWanted) throws IOException, ClassNotFoundException {
 		File initialJournal = _directory.findInitialJournalFile(initialTransactionWanted);
 
-		if (initialJournal == null) {
-			initializeNextTransaction(initialTransactionWanted, 1);
+		if (initialJournal == null) {  // No journal to recover from, as after all of them are archived: every subscriber, such as the snapshot replica, starts at the transaction it wants.
+			initializeNextTransaction(initialTransactionWanted, initialTransactionWanted);
 			return;
 		}
 
@@ -156,13 +288,14 @@ public class PersistentJournal implements Journal {
 		_nextTransaction = initialTransactionWanted > nextTransaction
 			? initialTransactionWanted
 			: nextTransaction;
+		_reportedTransaction = _nextTransaction;
 	}
 
 
 	private long recoverPendingTransactions(TransactionSubscriber subscriber, long initialTransaction, File initialJournal) throws IOException {
 		long recoveringTransaction = PrevaylerDirectory.journalVersion(initialJournal);
 		File journal = initialJournal;
-		DurableInputStream input = new DurableInputStream(journal, _monitor);
+		DurableInputStream input = new DurableInputStream(journal, recoveringTransaction, _monitor);
 
 		while(true) {
 			try {
@@ -181,6 +314,7 @@ public class PersistentJournal implements Journal {
 					}
 
 					subscriber.receive(entry);
+					_monitor.transactionRecovered(recoveringTransaction);
 				}
 
 				recoveringTransaction++;
@@ -190,7 +324,7 @@ public class PersistentJournal implements Journal {
 				if (journal.equals(nextFile)) PrevaylerDirectory.renameUnusedFile(journal);  //The first transaction in this log file is incomplete. We need to reuse this file name.
 				journal = nextFile;
 				if (!journal.exists()) break;
-				input = new DurableInputStream(journal, _monitor);
+				input = new DurableInputStream(journal, recoveringTransaction, _monitor);
 			}
 		}
 		return recoveringTransaction;
@@ -213,6 +347,8 @@ public class PersistentJournal implements Journal {
 
 
 	public void close() throws IOException {
+		if (_flusher != null) _flusher.cancel();
+		if (_syncReporter != null) _syncReporter.cancel();
 		if (_outputJournal != null) _outputJournal.close();
 	}
 
@@ -37,9 +37,19 @@ public abstract class AbstractPublisher implements TransactionPublisher {
 		_subscribers.remove(subscriber);
 	}
 
+    /** Every subscriber receives the transaction even if an earlier one throws a RuntimeException, which is rethrown afterwards.
+     */
     protected synchronized void notifySubscribers(TransactionTimestamp transactionTimestamp) {
+		RuntimeException thrown = null;
 		Iterator i = _subscribers.iterator();
-        while (i.hasNext()) ((TransactionSubscriber) i.next()).receive(transactionTimestamp);
+        while (i.hasNext()) {
+			try {
+				((TransactionSubscriber) i.next()).receive(transactionTimestamp);
+			} catch (RuntimeException rx) {
+				if (thrown == null) thrown = rx;
+			}
+		}
+		if (thrown != null) throw thrown;
     }
 
 }
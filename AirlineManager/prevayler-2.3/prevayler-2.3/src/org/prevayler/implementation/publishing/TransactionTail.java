@@ -0,0 +1,195 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.publishing;
+
+import org.prevayler.JournalEntry;
+import org.prevayler.JournalTail;
+import org.prevayler.foundation.Cool;
+import org.prevayler.foundation.serialization.Serializer;
+import org.prevayler.implementation.TransactionTimestamp;
+import org.prevayler.implementation.journal.JournalReader;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+
+/** A JournalTail that reads the .journal files from its own thread until it reaches their end and then, if it has a publisher, follows the transactions as they are published. At most capacity transactions are kept for the consumer. When a published transaction does not fit, the tail cancels its subscription and goes back to the files, so the publisher is never blocked by a slow consumer. Without a publisher, the tail keeps polling the files, which may be written by a Prevayler in another process.
+ */
+public class TransactionTail implements JournalTail, TransactionSubscriber, Runnable {
+
+	private static final long POLL_INTERVAL = 1000;
+
+	private final JournalReader _reader;
+	private final Serializer _journalSerializer;
+	private final TransactionPublisher _publisher;
+	private final int _capacity;
+
+	private final LinkedList<TransactionTimestamp> _buffer = new LinkedList<TransactionTimestamp>();  // All access synchronized on "this".
+	private long _nextBuffered;
+	private long _nextTaken;
+	private boolean _subscribed;
+	private boolean _fallenBehind;
+	private boolean _gap;
+	private boolean _closed;
+	private IOException _failure;
+
+
+	/**
+	 * @param publisher The publisher to follow once the files are read, or null to keep polling the files.
+	 */
+	public TransactionTail(JournalReader reader, Serializer journalSerializer, TransactionPublisher publisher, long initialTransaction, int capacity) {
+		_reader = reader;
+		_journalSerializer = journalSerializer;
+		_publisher = publisher;
+		_capacity = capacity;
+		_nextBuffered = initialTransaction;
+		_nextTaken = initialTransaction;
+
+		Thread tail = new Thread(this, "Prevayler Journal Tail");
+		tail.setDaemon(true);
+		tail.start();
+	}
+
+
+	public void run() {
+		try {
+			while (!isClosed()) {
+				readJournalFiles();
+				if (_publisher == null) Thread.sleep(POLL_INTERVAL);
+				else followPublisher();
+			}
+		} catch (InterruptedException ix) {
+			close();
+		} catch (IOException iox) {
+			fail(iox);
+		} catch (ClassNotFoundException cnfx) {
+			fail(new IOException("Unable to read the journal: " + cnfx));
+		} catch (RuntimeException rx) {
+			fail(new IOException("Unable to read the journal: " + rx));
+		}
+	}
+
+
+	private void readJournalFiles() throws IOException {
+		_reader.read(new TransactionSubscriber() {
+			public void receive(TransactionTimestamp transactionTimestamp) {
+				bufferFromFile(transactionTimestamp);
+			}
+		}, nextBuffered());
+	}
+
+
+	private synchronized void bufferFromFile(TransactionTimestamp transactionTimestamp) {
+		while (_buffer.size() >= _capacity && !_closed) Cool.wait(this);
+		if (!_closed) buffer(transactionTimestamp);
+	}
+
+
+	private void followPublisher() throws IOException, ClassNotFoundException, InterruptedException {
+		synchronized (this) {
+			_subscribed = true;
+			_fallenBehind = false;
+			_gap = false;
+		}
+		_publisher.subscribe(this, nextBuffered());
+
+		boolean gap;
+		synchronized (this) {
+			while (!_fallenBehind && !_closed) Cool.wait(this);
+			_subscribed = false;
+			gap = _gap;
+		}
+		_publisher.cancelSubscription(this);
+
+		if (gap) Thread.sleep(POLL_INTERVAL);  // The missing transactions are not in the files yet.
+	}
+
+
+	/** Called by the publisher: must never block.
+	 */
+	public synchronized void receive(TransactionTimestamp transactionTimestamp) {
+		if (!_subscribed || _fallenBehind || _closed) return;
+		if (transactionTimestamp.systemVersion() < _nextBuffered) return;
+
+		if (transactionTimestamp.systemVersion() > _nextBuffered) _gap = true;
+		if (_gap || _buffer.size() >= _capacity) {
+			_fallenBehind = true;
+			notifyAll();
+			return;
+		}
+		buffer(transactionTimestamp);
+	}
+
+
+	private void buffer(TransactionTimestamp transactionTimestamp) {
+		_buffer.add(transactionTimestamp);
+		_nextBuffered = transactionTimestamp.systemVersion() + 1;
+		notifyAll();
+	}
+
+
+	public JournalEntry next() throws IOException, InterruptedException {
+		return take(0);
+	}
+
+
+	public JournalEntry poll(long timeoutInMillis) throws IOException, InterruptedException {
+		if (timeoutInMillis <= 0) throw new IllegalArgumentException("The timeout must be positive.");
+		return take(timeoutInMillis);
+	}
+
+
+	private JournalEntry take(long timeoutInMillis) throws IOException, InterruptedException {
+		TransactionTimestamp transactionTimestamp;
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + timeoutInMillis;
+			while (_buffer.isEmpty()) {
+				if (_failure != null) throw _failure;
+				if (_closed) throw new IOException("This JournalTail has been closed.");
+				if (timeoutInMillis == 0) {
+					wait();
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) return null;
+					wait(remaining);
+				}
+			}
+			transactionTimestamp = _buffer.removeFirst();
+			_nextTaken = transactionTimestamp.systemVersion() + 1;
+			notifyAll();
+		}
+		Object transaction = transactionTimestamp.capsule().deserialize(_journalSerializer);
+		return new JournalEntry(transactionTimestamp.systemVersion(), transactionTimestamp.executionTime(), transaction);
+	}
+
+
+	public synchronized long nextTransaction() {
+		return _nextTaken;
+	}
+
+
+	private synchronized long nextBuffered() {
+		return _nextBuffered;
+	}
+
+
+	private synchronized boolean isClosed() {
+		return _closed;
+	}
+
+
+	private synchronized void fail(IOException failure) {
+		_failure = failure;
+		_closed = true;
+		notifyAll();
+	}
+
+
+	public synchronized void close() {
+		_closed = true;
+		notifyAll();
+	}
+
+}
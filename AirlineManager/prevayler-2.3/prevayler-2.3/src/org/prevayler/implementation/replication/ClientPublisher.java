@@ -15,9 +15,14 @@ import org.prevayler.implementation.publishing.TransactionSubscriber;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 
 /** Reserved for future implementation.
+ * Transactions are pipelined: publish() does not hold the connection while waiting for the server, so any number of transactions from different threads can be outstanding at a time. They are sent in batched frames and the server answers each one with a Receipt carrying the number it was given.
  */
 public class ClientPublisher implements TransactionPublisher {
 
@@ -26,17 +31,17 @@ public class ClientPublisher implements TransactionPublisher {
 	private TransactionSubscriber _subscriber;
 	private final Object _upToDateMonitor = new Object();
 
-	private Capsule _myCapsule;
-	private final Object _myCapsuleMonitor = new Object();
-	private RuntimeException _myTransactionRuntimeException;
-	private Error _myTransactionError;
+	private final Map<Long, PendingCapsule> _pending = new HashMap<Long, PendingCapsule>();  // All access synchronized on _pending.
+	private long _nextRequest = 1;
 
 	private final ObjectSocket _server;
+	private final FrameWriter _frameWriter;
 
 
 	public ClientPublisher(OldNetwork network, String serverIpAddress, int serverPort) throws IOException {
 		System.out.println("The replication logic is still under development.");
 		_server = network.openSocket(serverIpAddress, serverPort);
+		_frameWriter = new FrameWriter(_server, "Prevayler Replication Client Writer");
 		startListening();
 	}
 
@@ -45,7 +50,7 @@ public class ClientPublisher implements TransactionPublisher {
 		Thread listener = new Thread() {
 			public void run() {
 				try {
-					while (true) receiveTransactionFromServer();
+					while (true) receiveFrameFromServer();
 				} catch (Exception ex) {
 					ex.printStackTrace();
 				}
@@ -60,7 +65,7 @@ public class ClientPublisher implements TransactionPublisher {
 		if (_subscriber != null) throw new UnsupportedOperationException("The current implementation can only support one subscriber. Future implementations will support more.");
 		_subscriber = subscriber;
 		synchronized (_upToDateMonitor) {
-			_server.writeObject(new Long(initialTransaction));
+			_frameWriter.send(Long.valueOf(initialTransaction));
 			wait(_upToDateMonitor);
 		}
 	}
@@ -71,39 +76,27 @@ public class ClientPublisher implements TransactionPublisher {
 	}
 
 
-	//TODO Remove synchronized allowing multiple transactions to be sent at a time.
-	public synchronized void publish(Capsule capsule) {  
+	public void publish(Capsule capsule) {  
 		if (_subscriber == null) throw new IllegalStateException("To publish a transaction, this ClientPublisher needs a registered subscriber.");
-		synchronized (_myCapsuleMonitor) {
-			_myCapsule = capsule;
-			
-			try {
-				_server.writeObject(capsule);
-			} catch (IOException iox) {
-				iox.printStackTrace();
-				while (true) Thread.yield();  //Remove all exceptions when using StubbornNetwork.
-			}
-			wait(_myCapsuleMonitor);
-			
-			throwEventualErrors();
+		PendingCapsule pending = new PendingCapsule(capsule);
+		long request;
+		synchronized (_pending) {
+			request = _nextRequest++;
+			_pending.put(Long.valueOf(request), pending);
 		}
+		_frameWriter.send(new RemoteCapsule(request, capsule));
+		pending.waitForReceipt();
 	}
 
 
-	private void throwEventualErrors() throws RuntimeException, Error {
-		try {
-			if (_myTransactionRuntimeException != null) throw _myTransactionRuntimeException;
-			if (_myTransactionError != null) throw _myTransactionError;
-		} finally {
-			_myTransactionRuntimeException = null;
-			_myTransactionError = null;
-		}
+	private void receiveFrameFromServer() throws IOException, ClassNotFoundException {
+		List<?> frame = (List<?>)_server.readObject();
+		Iterator<?> items = frame.iterator();
+		while (items.hasNext()) receiveFromServer(items.next());
 	}
 
 
-	private void receiveTransactionFromServer() throws IOException, ClassNotFoundException {
-		Object transactionCandidate = _server.readObject();
-		
+	private void receiveFromServer(Object transactionCandidate) {
 		if (transactionCandidate.equals(ServerConnection.SUBSCRIBER_UP_TO_DATE)) {
 			synchronized (_upToDateMonitor) { _upToDateMonitor.notify(); }
 			return;
@@ -114,31 +107,42 @@ public class ClientPublisher implements TransactionPublisher {
 			_clock.advanceTo(clockTick);
 			 return;
 		}
-		
-		if (transactionCandidate instanceof RuntimeException) {
-			_myTransactionRuntimeException = (RuntimeException)transactionCandidate;
-			notifyMyTransactionMonitor();
-			return;
-		}
-		if (transactionCandidate instanceof Error) {
-			_myTransactionError = (Error)transactionCandidate;
-			notifyMyTransactionMonitor();
+
+		if (transactionCandidate instanceof Receipt) {
+			receiveReceipt((Receipt)transactionCandidate);
 			return;
 		}
 
 		TransactionTimestamp transactionTimestamp = (TransactionTimestamp)transactionCandidate;
-		Date timestamp = transactionTimestamp.executionTime();
-		long systemVersion = transactionTimestamp.systemVersion();
-		
-		_clock.advanceTo(timestamp);
-		
-		if (transactionTimestamp.capsule() == null) {
-			_subscriber.receive(new TransactionTimestamp(_myCapsule, systemVersion, timestamp));
-			notifyMyTransactionMonitor();
-			return;
+		_clock.advanceTo(transactionTimestamp.executionTime());
+		receiveReplicated(transactionTimestamp);
+	}
+
+
+	/** Executes a transaction of the server, which keeps counting it even if it threw. Letting its RuntimeException through would end the listener and leave this replica behind for good.
+	 */
+	private void receiveReplicated(TransactionTimestamp transactionTimestamp) {
+		try {
+			_subscriber.receive(transactionTimestamp);
+		} catch (RuntimeException ignored) {
+			// The transaction threw the same exception on the server, where it was reported.
+		}
+	}
+
+
+	private void receiveReceipt(Receipt receipt) {
+		PendingCapsule pending;
+		synchronized (_pending) {
+			pending = _pending.remove(Long.valueOf(receipt.request()));
 		}
+		if (pending == null) throw new IllegalStateException("Receipt received for unknown transaction request " + receipt.request() + ".");
 
-		_subscriber.receive(new TransactionTimestamp(transactionTimestamp.capsule(), systemVersion, timestamp));
+		if (receipt.systemVersion() != 0) {  // Executed, or journaled and rejected: the server counted it either way.
+			Date timestamp = receipt.executionTime();
+			_clock.advanceTo(timestamp);
+			receiveReplicated(new TransactionTimestamp(pending._capsule, receipt.systemVersion(), timestamp));
+		}
+		pending.receiptArrived(receipt.failure());
 	}
 
 
@@ -151,13 +155,6 @@ public class ClientPublisher implements TransactionPublisher {
 	}
 
 
-	private void notifyMyTransactionMonitor() {
-		synchronized (_myCapsuleMonitor) {
-			_myCapsuleMonitor.notify();
-		}
-	}
-
-
 	public Clock clock() {
 		return _clock;
 	}
@@ -167,4 +164,29 @@ public class ClientPublisher implements TransactionPublisher {
 		_server.close();
 	}
 
+
+	private static class PendingCapsule {
+
+		private final Capsule _capsule;
+		private boolean _done;
+		private Throwable _failure;
+
+		PendingCapsule(Capsule capsule) {
+			_capsule = capsule;
+		}
+
+		synchronized void receiptArrived(Throwable failure) {
+			_failure = failure;
+			_done = true;
+			notify();
+		}
+
+		synchronized void waitForReceipt() throws RuntimeException, Error {
+			while (!_done) ClientPublisher.wait(this);
+			if (_failure instanceof RuntimeException) throw (RuntimeException)_failure;
+			if (_failure instanceof Error) throw (Error)_failure;
+		}
+
+	}
+
 }
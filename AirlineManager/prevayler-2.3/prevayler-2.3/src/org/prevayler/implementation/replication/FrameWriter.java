@@ -0,0 +1,55 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.replication;
+
+import org.prevayler.foundation.Cool;
+import org.prevayler.foundation.network.ObjectSocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+
+/** Writes the objects given to it to an ObjectSocket from its own thread, batching all the objects that queued up while the previous frame was being written into a single frame (an ArrayList). Objects are written in the order they were given.
+ */
+class FrameWriter implements Runnable {
+
+	private final LinkedList<Object> _queue = new LinkedList<Object>();  // All access synchronized on "this".
+	private final ObjectSocket _socket;
+	private boolean _broken;
+
+	FrameWriter(ObjectSocket socket, String threadName) {
+		_socket = socket;
+		Thread writer = new Thread(this, threadName);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	synchronized void send(Object object) {
+		if (_broken) return;
+		_queue.add(object);
+		notify();
+	}
+
+	public void run() {
+		try {
+			while (true) _socket.writeObject(nextFrame());
+		} catch (IOException iox) {
+			iox.printStackTrace();
+			synchronized (this) {
+				_broken = true;
+				_queue.clear();
+			}
+		}
+	}
+
+	private synchronized ArrayList<Object> nextFrame() {
+		while (_queue.isEmpty()) Cool.wait(this);
+		ArrayList<Object> frame = new ArrayList<Object>(_queue);
+		_queue.clear();
+		return frame;
+	}
+
+}
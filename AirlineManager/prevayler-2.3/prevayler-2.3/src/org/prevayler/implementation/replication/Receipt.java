@@ -0,0 +1,60 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.replication;
+
+import java.io.Serializable;
+import java.util.Date;
+
+
+/** What the server answers for each transaction published by a client: the number and execution time it was given, so the client executes its own copy of the transaction without receiving it back, and the RuntimeException or Error that rejected it, if any. A transaction rejected before it reached the journal has no number.
+ */
+class Receipt implements Serializable {
+
+	static final long serialVersionUID = 1L;
+
+	private final long _request;
+	private final long _systemVersion;
+	private final long _executionTime;
+	private final Throwable _failure;
+
+	static Receipt executed(long request, long systemVersion, Date executionTime) {
+		return new Receipt(request, systemVersion, executionTime.getTime(), null);
+	}
+
+	static Receipt rejected(long request, Throwable failure) {
+		return new Receipt(request, 0, 0, failure);
+	}
+
+	/** For a transaction that was journaled but threw when executed. */
+	static Receipt rejected(long request, long systemVersion, Date executionTime, Throwable failure) {
+		return new Receipt(request, systemVersion, executionTime.getTime(), failure);
+	}
+
+	private Receipt(long request, long systemVersion, long executionTime, Throwable failure) {
+		_request = request;
+		_systemVersion = systemVersion;
+		_executionTime = executionTime;
+		_failure = failure;
+	}
+
+	long request() {
+		return _request;
+	}
+
+	/** Zero if the transaction was rejected before it was given a number. */
+	long systemVersion() {
+		return _systemVersion;
+	}
+
+	Date executionTime() {
+		return new Date(_executionTime);
+	}
+
+	/** Null if the transaction was executed. */
+	Throwable failure() {
+		return _failure;
+	}
+
+}
@@ -0,0 +1,34 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.replication;
+
+import org.prevayler.implementation.Capsule;
+
+import java.io.Serializable;
+
+
+/** A transaction published by a client, with the number the client uses to match the server's Receipt to it.
+ */
+class RemoteCapsule implements Serializable {
+
+	static final long serialVersionUID = 1L;
+
+	private final long _request;
+	private final Capsule _capsule;
+
+	RemoteCapsule(long request, Capsule capsule) {
+		_request = request;
+		_capsule = capsule;
+	}
+
+	long request() {
+		return _request;
+	}
+
+	Capsule capsule() {
+		return _capsule;
+	}
+
+}
@@ -5,7 +5,15 @@
 package org.prevayler.implementation.replication;
 
 import java.io.IOException;
-
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.prevayler.foundation.Cool;
 import org.prevayler.foundation.network.ObjectSocket;
 import org.prevayler.implementation.Capsule;
 import org.prevayler.implementation.TransactionTimestamp;
@@ -15,21 +23,28 @@ import org.prevayler.implementation.publishing.TransactionSubscriber;
 
 
 /** Reserved for future implementation.
+ * Everything sent to the client goes through a single FrameWriter, so transactions, receipts and clock ticks reach it in the order they were produced. Transactions published by the client are answered with exactly one Receipt instead of being sent back. They are published by a pool of threads, so several of them can share a journal sync.
  */
 class ServerConnection extends Thread implements TransactionSubscriber {
 
 	static final String SUBSCRIBER_UP_TO_DATE = "SubscriberUpToDate";
 	static final String REMOTE_TRANSACTION = "RemoteTransaction";
 
+	private static final int PUBLISHING_THREADS = 16;
+
 	private final TransactionPublisher _publisher;
-	private Capsule _remoteCapsule;
+	private final Map<Capsule, RemoteRequest> _remoteRequests = new IdentityHashMap<Capsule, RemoteRequest>();  // All access synchronized on _remoteRequests.
+	private final ExecutorService _publishers = createPublishers();
+	private TransactionSubscriber _subscription;
 
 	private final ObjectSocket _remote;
+	private final FrameWriter _frameWriter;
 	private final Thread _clockTickSender = createClockTickSender();
 
 	ServerConnection(TransactionPublisher publisher, ObjectSocket remoteSocket) throws IOException {
 		_publisher = publisher;
 		_remote = remoteSocket;
+		_frameWriter = new FrameWriter(remoteSocket, "Prevayler Replication Server Writer");
 		setDaemon(true);
 		start();
 	}
@@ -38,16 +53,7 @@ class ServerConnection extends Thread implements TransactionSubscriber {
 
 	public void run() {
 		try {		
-			long initialTransaction = ((Long)_remote.readObject()).longValue();
-			
-			POBox poBox = new POBox(this);
-			_publisher.subscribe(poBox, initialTransaction);
-			poBox.waitToEmpty();
-			
-			send(SUBSCRIBER_UP_TO_DATE);
-			
-			startSendingClockTicks();
-			while (true) publishRemoteTransaction();
+			while (true) receiveFrame();
 		} catch (IOException ex) {
 			close();
 		} catch (ClassNotFoundException ex) {
@@ -56,6 +62,34 @@ class ServerConnection extends Thread implements TransactionSubscriber {
 	}
 
 
+	private void receiveFrame() throws IOException, ClassNotFoundException {
+		List<?> frame = (List<?>)_remote.readObject();
+		Iterator<?> items = frame.iterator();
+		while (items.hasNext()) {
+			Object item = items.next();
+			if (item instanceof Long) subscribe(((Long)item).longValue());
+			else publishRemoteTransaction((RemoteCapsule)item);
+		}
+	}
+
+
+	private void subscribe(long initialTransaction) throws IOException, ClassNotFoundException {
+		final POBox poBox = new POBox(this);
+		_subscription = new TransactionSubscriber() {
+			public void receive(TransactionTimestamp transactionTimestamp) {
+				numbered(transactionTimestamp);
+				poBox.receive(transactionTimestamp);
+			}
+		};
+		_publisher.subscribe(_subscription, initialTransaction);
+		poBox.waitToEmpty();
+		
+		_frameWriter.send(SUBSCRIBER_UP_TO_DATE);
+		
+		startSendingClockTicks();
+	}
+
+
 	private void startSendingClockTicks() {
 		_clockTickSender.setDaemon(true);
 		_clockTickSender.start();
@@ -67,14 +101,10 @@ class ServerConnection extends Thread implements TransactionSubscriber {
 					public void run() {
 						try {
 							while (true) {
-								synchronized (_remote) {
-									_remote.writeObject(_publisher.clock().time());
-								}
+								_frameWriter.send(_publisher.clock().time());
 								Thread.sleep(1000);
 							}
 						} catch (InterruptedException ix) {
-						} catch (IOException iox) {
-							close();
 						}
 					}
 				};
@@ -82,49 +112,104 @@ class ServerConnection extends Thread implements TransactionSubscriber {
 
 
 
-	void publishRemoteTransaction() throws IOException, ClassNotFoundException {
-		_remoteCapsule = (Capsule)_remote.readObject();
+	void publishRemoteTransaction(final RemoteCapsule remote) {
+		_publishers.execute(new Runnable() {
+			public void run() {
+				publish(remote);
+			}
+		});
+	}
+
+
+	/** Publishes a transaction of the client. If it was given a number, receive() answers it in journal order once its outcome is known here. Otherwise it was rejected before reaching the journal and is answered right away.
+	 */
+	private void publish(RemoteCapsule remote) {
+		Capsule capsule = remote.capsule();
+		RemoteRequest request = new RemoteRequest(remote.request());
+		synchronized (_remoteRequests) {
+			_remoteRequests.put(capsule, request);
+		}
+
+		Throwable failure = null;
 		try {
-			_publisher.publish(_remoteCapsule);
+			_publisher.publish(capsule);
 		} catch (RuntimeException rx) {
-			send(rx);
+			failure = rx;
 		} catch (Error error) {
-			send(error);
+			failure = error;
+		}
+
+		synchronized (_remoteRequests) {
+			request._failure = failure;
+			request._done = true;
+			if (request._numbered) {
+				_remoteRequests.notifyAll();
+				return;
+			}
+			_remoteRequests.remove(capsule);
+		}
+		if (failure == null) failure = new IllegalStateException("The transaction was executed without being sent to this client.");
+		_frameWriter.send(Receipt.rejected(remote.request(), failure));
+	}
+
+
+	/** Called on the publishing thread, before the transaction is queued for receive(). */
+	private void numbered(TransactionTimestamp tt) {
+		synchronized (_remoteRequests) {
+			RemoteRequest request = _remoteRequests.get(tt.capsule());
+			if (request != null) request._numbered = true;
 		}
 	}
 
 
 	public void receive(TransactionTimestamp tt) {
-		
-		if (tt.capsule() == _remoteCapsule)
-			tt = new TransactionTimestamp(null, tt.systemVersion(), tt.executionTime()); //TODO This is really ugly. It is using a null capsule inside the TransactionTimestamp to signal that the remote Capsule should be executed.
-		
-		try {
-			synchronized (_remote) {
-				_remote.writeObject(tt);
+		RemoteRequest request;
+		synchronized (_remoteRequests) {
+			request = _remoteRequests.get(tt.capsule());
+			if (request != null) {
+				while (!request._done) Cool.wait(_remoteRequests);
+				_remoteRequests.remove(tt.capsule());
 			}
-		} catch (IOException ex) {
-			close();
 		}
+
+		if (request == null) _frameWriter.send(tt);
+		else if (request._failure == null) _frameWriter.send(Receipt.executed(request._request, tt.systemVersion(), tt.executionTime()));
+		else _frameWriter.send(Receipt.rejected(request._request, tt.systemVersion(), tt.executionTime(), request._failure));
 	}
 
 
 	private synchronized void close() {
 		_clockTickSender.interrupt();
 		this.interrupt();
-		_publisher.cancelSubscription(this);
+		_publishers.shutdown();
+		if (_subscription != null) _publisher.cancelSubscription(_subscription);
 	}
 
 
-
-	private void send(Object object) {
-		synchronized (_remote) {
-			try {
-				_remote.writeObject(object);
-			} catch (IOException e) {
-				e.printStackTrace();
+	private static ExecutorService createPublishers() {
+		return Executors.newFixedThreadPool(PUBLISHING_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Prevayler Replication Publisher");
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+	}
+
+
+	/** A transaction published by the client that has not been answered yet. All access synchronized on _remoteRequests.
+	 */
+	private static class RemoteRequest {
+
+		private final long _request;
+		private boolean _numbered;  // It reached the journal, so receive() gets it.
+		private boolean _done;  // publish() returned or threw.
+		private Throwable _failure;
+
+		RemoteRequest(long request) {
+			_request = request;
 		}
+
 	}
 
 }
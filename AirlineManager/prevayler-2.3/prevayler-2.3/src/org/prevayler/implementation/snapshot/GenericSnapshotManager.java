@@ -1,29 +1,61 @@
 package org.prevayler.implementation.snapshot;
 
 import org.prevayler.foundation.serialization.JavaSerializer;
+import org.prevayler.foundation.serialization.SectionedSerializer;
 import org.prevayler.foundation.serialization.Serializer;
 import org.prevayler.implementation.PrevalentSystemGuard;
 import org.prevayler.implementation.PrevaylerDirectory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class GenericSnapshotManager {
 
-	private Map _strategies;
+	public static final String DELTA_SUFFIX = "deltasnapshot";
+
+	private Map<?, ?> _strategies;
 	private String _primarySuffix;
 	private PrevaylerDirectory _directory;
 	private PrevalentSystemGuard _recoveredPrevalentSystem;
 
-	public GenericSnapshotManager(Map snapshotSerializers, String primarySnapshotSuffix, Object newPrevalentSystem, PrevaylerDirectory directory, Serializer journalSerializer)
+	private int _maxDeltas;
+	private long _latestVersion; // The fields about the latest snapshot are synchronized on "this".
+	private String _latestSnapshot;
+	private int _latestDepth;
+	private Set<String> _latestDigests;
+
+	public GenericSnapshotManager(Map<?, ?> snapshotSerializers, String primarySnapshotSuffix, Object newPrevalentSystem, PrevaylerDirectory directory, Serializer journalSerializer)
+			throws IOException, ClassNotFoundException {
+		this(snapshotSerializers, primarySnapshotSuffix, newPrevalentSystem, directory, journalSerializer, 0);
+	}
+
+	/**
+	 * @param maxDeltas How many delta snapshots may be written on top of each full snapshot. Zero disables delta snapshots; otherwise the primary serializer must be a SectionedSerializer.
+	 */
+	public GenericSnapshotManager(Map<?, ?> snapshotSerializers, String primarySnapshotSuffix, Object newPrevalentSystem, PrevaylerDirectory directory, Serializer journalSerializer, int maxDeltas)
 			throws IOException, ClassNotFoundException {
-		for (Iterator iterator = snapshotSerializers.keySet().iterator(); iterator.hasNext();) {
+		this(snapshotSerializers, primarySnapshotSuffix, newPrevalentSystem, directory, journalSerializer, maxDeltas, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxVersion The latest transaction a recovered snapshot may have been taken at. Later snapshots are ignored, so the system can be rolled forward from an earlier point in time.
+	 */
+	public GenericSnapshotManager(Map<?, ?> snapshotSerializers, String primarySnapshotSuffix, Object newPrevalentSystem, PrevaylerDirectory directory, Serializer journalSerializer, int maxDeltas, long maxVersion)
+			throws IOException, ClassNotFoundException {
+		for (Iterator<?> iterator = snapshotSerializers.keySet().iterator(); iterator.hasNext();) {
 			String suffix = (String) iterator.next();
 			PrevaylerDirectory.checkValidSnapshotSuffix(suffix);
 		}
@@ -35,10 +67,16 @@ public class GenericSnapshotManager {
 		_strategies = snapshotSerializers;
 		_primarySuffix = primarySnapshotSuffix;
 
+		if (maxDeltas < 0) throw new IllegalArgumentException("The number of delta snapshots cannot be negative: " + maxDeltas);
+		if (maxDeltas > 0 && !(primarySerializer() instanceof SectionedSerializer)) {
+			throw new IllegalArgumentException("Delta snapshots need a SectionedSerializer as the primary snapshot serializer");
+		}
+		_maxDeltas = maxDeltas;
+
 		_directory = directory;
 		_directory.produceDirectory();
 
-		File latestSnapshot = _directory.latestSnapshot();
+		File latestSnapshot = _directory.latestSnapshot(maxVersion);
 		long recoveredVersion = latestSnapshot == null ? 0 : PrevaylerDirectory.snapshotVersion(latestSnapshot);
 		Object recoveredPrevalentSystem = latestSnapshot == null
 				? newPrevalentSystem
@@ -63,11 +101,47 @@ public class GenericSnapshotManager {
 	}
 
 	public void writeSnapshot(Object prevalentSystem, long version) throws IOException {
+		if (_maxDeltas > 0) {
+			writeSectionedSnapshot(prevalentSystem, version);
+			return;
+		}
+
 		File tempFile = _directory.createTempFile("snapshot" + version + "temp", "generatingSnapshot");
 
 		writeSnapshot(prevalentSystem, tempFile);
 
-		File permanent = snapshotFile(version);
+		makePermanent(tempFile, snapshotFile(version));
+	}
+
+	/**
+	 * Writes a delta with only the sections that changed since the latest snapshot, or a full snapshot when there is no
+	 * latest snapshot to build on or it already has the maximum number of deltas on top of it.
+	 */
+	private synchronized void writeSectionedSnapshot(Object prevalentSystem, long version) throws IOException {
+		boolean delta = _latestDigests != null && version > _latestVersion && _latestDepth < _maxDeltas;
+		File tempFile = _directory.createTempFile("snapshot" + version + "temp", "generatingSnapshot");
+
+		List<String> digests;
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			SectionedSerializer serializer = (SectionedSerializer) primarySerializer();
+			digests = delta
+					? serializer.writeSections(out, prevalentSystem, _latestSnapshot, _latestDepth + 1, _latestDigests)
+					: serializer.writeSections(out, prevalentSystem, null, 0, Collections.<String>emptySet());
+		} finally {
+			out.close();
+		}
+
+		File permanent = delta ? _directory.snapshotFile(version, DELTA_SUFFIX) : snapshotFile(version);
+		makePermanent(tempFile, permanent);
+
+		_latestVersion = version;
+		_latestSnapshot = permanent.getName();
+		_latestDepth = delta ? _latestDepth + 1 : 0;
+		_latestDigests = new HashSet<String>(digests);
+	}
+
+	private void makePermanent(File tempFile, File permanent) throws IOException {
 		permanent.delete();
 		if (!tempFile.renameTo(permanent)) throw new IOException(
 				"Temporary snapshot file generated: " + tempFile + "\nUnable to rename it permanently to: " + permanent);
@@ -89,6 +163,9 @@ public class GenericSnapshotManager {
 
 	private Object readSnapshot(File snapshotFile) throws ClassNotFoundException, IOException {
 		String suffix = snapshotFile.getName().substring(snapshotFile.getName().indexOf('.') + 1);
+		if (suffix.equals(DELTA_SUFFIX) || (_maxDeltas > 0 && suffix.equals(_primarySuffix))) {
+			return readSectionedSnapshot(snapshotFile);
+		}
 		if (!_strategies.containsKey(suffix)) throw new IOException(
 				snapshotFile.toString() + " cannot be read; only " + _strategies.keySet().toString() + " supported");
 
@@ -101,4 +178,60 @@ public class GenericSnapshotManager {
 		}
 	}
 
+	/**
+	 * Reads a full sectioned snapshot, or a delta and as many snapshots before it as needed to find all its sections.
+	 */
+	private Object readSectionedSnapshot(File snapshotFile) throws ClassNotFoundException, IOException {
+		if (!(primarySerializer() instanceof SectionedSerializer)) throw new IOException(
+				snapshotFile.toString() + " cannot be read; delta snapshots need a SectionedSerializer as the primary snapshot serializer");
+		SectionedSerializer serializer = (SectionedSerializer) primarySerializer();
+
+		SectionedSerializer.SectionFile latest = readSections(serializer, snapshotFile, null);
+		List<String> digests = latest.digests();
+		if (digests == null) return serializer.join(latest.compressedSections());  // Written before digests were kept: the next snapshot will be a full one.
+
+		Map<String, byte[]> found = new HashMap<String, byte[]>();
+		collect(latest, found);
+		Set<String> missing = new HashSet<String>(digests);
+		missing.removeAll(found.keySet());
+		String previous = latest.previous();
+		while (!missing.isEmpty()) {
+			if (previous == null) throw new StreamCorruptedException(snapshotFile + " refers to sections that are missing from the snapshots before it");
+			SectionedSerializer.SectionFile older = readSections(serializer, new File(snapshotFile.getParentFile(), previous), missing);
+			if (older.digests() == null) throw new StreamCorruptedException(previous + " has no section digests");
+			collect(older, found);
+			missing.removeAll(found.keySet());
+			previous = older.previous();
+		}
+
+		List<byte[]> compressed = new ArrayList<byte[]>(digests.size());
+		for (int i = 0; i < digests.size(); i++) {
+			compressed.add(found.get(digests.get(i)));
+		}
+		Object system = serializer.join(compressed);
+
+		_latestVersion = PrevaylerDirectory.snapshotVersion(snapshotFile);
+		_latestSnapshot = snapshotFile.getName();
+		_latestDepth = latest.depth();
+		_latestDigests = new HashSet<String>(digests);
+		return system;
+	}
+
+	private SectionedSerializer.SectionFile readSections(SectionedSerializer serializer, File file, Set<String> wanted) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return serializer.readSections(new BufferedInputStream(in), wanted);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void collect(SectionedSerializer.SectionFile file, Map<String, byte[]> found) {
+		List<String> digests = file.digests();
+		List<byte[]> compressed = file.compressedSections();
+		for (int i = 0; i < digests.size(); i++) {
+			if (compressed.get(i) != null) found.put(digests.get(i), compressed.get(i));
+		}
+	}
+
 }
@@ -19,7 +19,6 @@ import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 
 import java.util.Vector;
 
@@ -42,6 +41,8 @@ import bookings.Booking;
 import messages.FeedBackManager;
 import messages.Message;
 
+import requests.RequestsManager;
+
 import clients.Client;
 import clients.ClientsManager;
 import clients.Operator;
@@ -69,10 +70,7 @@ import flights.RFlight;
  * 
  */
 
-public class BackOffice extends UnicastRemoteObject implements
-		BackOfficeRemoteInterface {
-
-	private static final long serialVersionUID = 1L;
+public class BackOffice implements BackOfficeRemoteInterface {
 
 	public static GregorianCalendar now;
 
@@ -86,6 +84,7 @@ public class BackOffice extends UnicastRemoteObject implements
 	private StatisticsManager statisticsManager;
 	private OperatorManager operatorManager;
 	private ClientsManager clientsManager;
+	private RequestsManager requestsManager;
 	private ClientsMenu clientsMenu;
 	private DestinationsPrices destinationsPrices;
 
@@ -100,52 +99,91 @@ public class BackOffice extends UnicastRemoteObject implements
 	 * The main constructor.
 	 */
 	public BackOffice() throws RemoteException {
-		super();
-
-		JFrame.setDefaultLookAndFeelDecorated(true);
-		JDialog.setDefaultLookAndFeelDecorated(true);
+		this(null);
+	}
 
-		try {
-			UIManager
-					.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
-		} catch (Exception e) {
-			System.out.println("Exiting...");
-			System.exit(-1);
+	/*
+	 * Creates the BackOffice. Given a FeedBackManager, it has no windows and
+	 * notifies through it: the tests give it one that sends no emails.
+	 */
+	BackOffice(FeedBackManager feed) throws RemoteException {
+		boolean windows = feed == null;
+		if (windows) {
+			JFrame.setDefaultLookAndFeelDecorated(true);
+			JDialog.setDefaultLookAndFeelDecorated(true);
+
+			try {
+				UIManager
+						.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
+			} catch (Exception e) {
+				System.out.println("Exiting...");
+				System.exit(-1);
+			}
 		}
 
-		feedBackManager = new FeedBackManager();
+		feedBackManager = windows ? new FeedBackManager() : feed;
 		flightsManager = new FlightsManager(feedBackManager);
 		planesManager = new PlanesManager();
 		operatorManager = new OperatorManager();
 		clientsManager = new ClientsManager();
+		requestsManager = new RequestsManager();
 		statisticsManager = new StatisticsManager(feedBackManager,
 				flightsManager, planesManager);
 		clientsMenu = new ClientsMenu();
 		destinationsPrices = new DestinationsPrices();
 
-		menu = new Menu();
-		feedBackManagerMenu = new FeedBackManagerMenu();
-		flightsManagerMenu = new FlightsManagerMenu();
-		planesManagerMenu = new PlanesManagerMenu();
-		statisticsManagerMenu = new StatisticsManagerMenu();
-		loginMenu = new LoginMenu();
+		if (windows) {
+			menu = new Menu();
+			feedBackManagerMenu = new FeedBackManagerMenu();
+			flightsManagerMenu = new FlightsManagerMenu();
+			planesManagerMenu = new PlanesManagerMenu();
+			statisticsManagerMenu = new StatisticsManagerMenu();
+			loginMenu = new LoginMenu();
+		}
 
 		BackOffice.now = new GregorianCalendar();
 	}
 
+	FlightsManager getFlightsManager() {
+		return flightsManager;
+	}
+
 	public static void main(String[] args) throws RemoteException {
 
 		BackOffice backOffice = new BackOffice();
 		try {
 			System.getProperties().put("java.security.policy", "policy.all");
+			/* Bounds the threads RMI spawns to read incoming connections. */
+			System.getProperties().put(
+					"sun.rmi.transport.tcp.maxConnectionThreads",
+					String.valueOf(Constants.RMI_MAX_CONNECTION_THREADS));
 			System.setSecurityManager(new RMISecurityManager());
 
+			/*
+			 * The remote calls are executed by a bounded set of workers, not
+			 * by the RMI connection threads.
+			 */
+			RequestDispatcher dispatcher = new RequestDispatcher(backOffice,
+					BackOfficeRemoteInterface.class, Constants.REQUEST_WORKERS,
+					Constants.REQUEST_QUEUE_CAPACITY);
+
 			Registry r = LocateRegistry.createRegistry(Constants.RMI_PORT);
-			r.rebind("AirlineManager", backOffice);
+			r.rebind("AirlineManager",
+					dispatcher.export(BackOfficeRemoteInterface.class));
+
+			new BinaryEndpoint(dispatcher, Constants.BINARY_PORT).start();
+			new HttpGateway(dispatcher,
+					dispatcher.proxy(BackOfficeRemoteInterface.class),
+					backOffice.flightsManager, Constants.HTTP_PORT,
+					Constants.HTTP_WORKERS).start();
 		} catch (RemoteException re) {
 			System.out
 					.println("There's already another instance running in this port: The system will shutdown. Please restart specifying another port.");
 			System.exit(0);
+		} catch (IOException e) {
+			System.out
+					.println("The binary endpoint or HTTP gateway port is already in use: The system will shutdown. Please restart specifying another port.");
+			System.exit(0);
 		}
 
 		backOffice.executeGraphics();
@@ -1233,13 +1271,12 @@ public class BackOffice extends UnicastRemoteObject implements
 						Vector<Flight> associatedFlights = airplane
 								.getFlights();
 
-						int counter = 0;
-						while (associatedFlights.size() > 0) {
-							Flight flight = associatedFlights.get(0);
-							associatedFlights.remove(0);
-							flightsManager.cancelFlight(flight);
-							counter++;
-						}
+						/* All of its flights are cancelled at once. */
+						Vector<Flight> cancelled = new Vector<Flight>(
+								associatedFlights);
+						associatedFlights.clear();
+						flightsManager.cancelFlights(cancelled);
+						int counter = cancelled.size();
 
 						planesManager.removePlane(airplane);
 
@@ -1660,8 +1697,26 @@ public class BackOffice extends UnicastRemoteObject implements
 	public String scheduleBooking(int idFlight, String name, String address,
 			String phone, String mail, int seats, boolean isOperator,
 			int bookingNumber) throws RemoteException {
+		return book(idFlight, name, address, phone, mail, seats, isOperator,
+				bookingNumber, null);
+	}
+
+	/*
+	 * Creates the booking. If the request has an id, its answer is recorded
+	 * with the booking, and a booking it already made is answered instead of
+	 * made again.
+	 */
+	private String book(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber, String requestId) throws RemoteException {
 
 		Flight flight = flightsManager.searchFlightById(idFlight);
+		if (flight != null && requestId != null) {
+			String answer = flightsManager.answerTo(flight, requestId);
+			if (answer != null) {
+				return answer;
+			}
+		}
 		FileOutputStream fos = null;
 		DataOutputStream dos = null;
 		FileInputStream fis = null;
@@ -1760,14 +1815,20 @@ public class BackOffice extends UnicastRemoteObject implements
 		 * time for the same flight.
 		 */
 		synchronized (flight.lock) {
+			/*
+			 * The flight is a copy, so its seats are read again now that no
+			 * other booking can take them.
+			 */
+			int emptySeats = flightsManager.getEmptySeats(flight);
+
 			/*
 			 * Difference between the number of seats for this booking and the
 			 * seats available in the flight.
 			 */
-			int diff = flight.getEmptySeats() - seats;
+			int diff = emptySeats - seats;
 
 			if (diff < 0) {
-				return "InsufficientSeats " + flight.getEmptySeats();
+				return "InsufficientSeats " + emptySeats;
 			}
 
 			Client client = new Client(name, address, phone, mail);
@@ -1775,7 +1836,8 @@ public class BackOffice extends UnicastRemoteObject implements
 					bookingNumber, getPrice(flight.getOrigin(),
 							flight.getDestination()));
 			clientsManager.putClient(client, booking);
-			flightsManager.addBookingFlight(flight, booking);
+			flightsManager.addBookingFlight(flight, booking, requestId,
+					"Scheduled " + bookingNumber);
 
 		}
 		try {
@@ -1823,6 +1885,15 @@ public class BackOffice extends UnicastRemoteObject implements
 	@Override
 	public String cancelBooking(int idFlight, int idBooking)
 			throws RemoteException {
+		return cancel(idFlight, idBooking, null);
+	}
+
+	/*
+	 * Cancels the booking. If the request has an id, its answer is recorded
+	 * with the cancellation, and a repeated request gets that answer.
+	 */
+	private String cancel(int idFlight, int idBooking, String requestId)
+			throws RemoteException {
 
 		Flight flight = flightsManager.searchFlightById(idFlight);
 
@@ -1831,6 +1902,13 @@ public class BackOffice extends UnicastRemoteObject implements
 			return "Innexistent flight";
 		}
 
+		if (requestId != null) {
+			String answer = flightsManager.answerTo(flight, requestId);
+			if (answer != null) {
+				return answer;
+			}
+		}
+
 		Booking booking = flight.findBookingById(idBooking);
 
 		/* Second, we need to check if we still have space in this flight. */
@@ -1843,7 +1921,8 @@ public class BackOffice extends UnicastRemoteObject implements
 		 * time for the same flight.
 		 */
 		synchronized (flight.lock) {
-			flightsManager.removeBookingFlight(flight, booking);
+			flightsManager.removeBookingFlight(flight, booking, requestId,
+					"Cancelled");
 			// int seats = booking.getNoSeats();
 			// flight.removeBooking(booking);
 
@@ -1888,18 +1967,7 @@ public class BackOffice extends UnicastRemoteObject implements
 	@Override
 	public String getBookingInfo(int idFlight, int idBooking)
 			throws RemoteException {
-		/* First, we need to check if there's such a flight. */
-		Flight flight = flightsManager.searchFlightById(idFlight);
-
-		if (flight == null) {
-			return "There's no such flight";
-		}
-		/* If it exists we try to get the asked booking. */
-		Booking booking = flight.findBookingById(idBooking);
-		if (booking != null)
-			return booking.toString();
-		else
-			return "That booking is not associated with Flight " + idFlight;
+		return flightsManager.getBookingInfo(idFlight, idBooking);
 	}
 
 	/**
@@ -1910,6 +1978,18 @@ public class BackOffice extends UnicastRemoteObject implements
 	@Override
 	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
 			boolean isOperator, int bookingNumber) throws RemoteException {
+		return modify(idFlight, idBooking, idNewFlight, isOperator,
+				bookingNumber, null);
+	}
+
+	/*
+	 * Moves the booking. If the request has an id, the new booking records it
+	 * as a request of its own, and the cancellation of the old one records the
+	 * answer to the whole request.
+	 */
+	private String modify(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber, String requestId)
+			throws RemoteException {
 		String name, address, phone, email;
 		int seats;
 
@@ -1920,6 +2000,13 @@ public class BackOffice extends UnicastRemoteObject implements
 			return "Innexistent flight";
 		}
 
+		if (requestId != null) {
+			String answer = flightsManager.answerTo(flight, requestId);
+			if (answer != null) {
+				return answer;
+			}
+		}
+
 		Booking booking = flight.findBookingById(idBooking);
 
 		/* Second, we need to check if we still have space in this flight. */
@@ -1933,26 +2020,33 @@ public class BackOffice extends UnicastRemoteObject implements
 		email = booking.getClient().getEmail();
 		seats = booking.getNoSeats();
 
-		String answer = scheduleBooking(idNewFlight, name, address, phone,
-				email, seats, isOperator, bookingNumber);
+		String answer = book(idNewFlight, name, address, phone, email, seats,
+				isOperator, bookingNumber, requestId == null ? null
+						: requestId + "/booking");
 
-		if (!answer.equals("Scheduled")) {
+		if (!answer.startsWith("Scheduled ")) {
 			return answer + "\nYour booking with ID " + idBooking
 					+ " to flight " + idFlight + " still exists";
 		}
 
+		/* The new booking gets the next number, not the one asked for. */
+		bookingNumber = Integer.parseInt(answer.substring("Scheduled "
+				.length()));
+		answer = "Booking scheduled, with booking number " + bookingNumber
+				+ " and flight number " + idNewFlight + ".";
+
 		/*
 		 * We have to make sure several people aren't scheduling at the same
 		 * time for the same flight.
 		 */
 		synchronized (flight.lock) {
-			flightsManager.removeBookingFlight(flight, booking);
+			flightsManager.removeBookingFlight(flight, booking, requestId,
+					answer);
 			// flight.removeBooking(booking);
 			// flight.decreaseOccupied(seats);
 		}
 
-		return "Booking scheduled, with booking number " + bookingNumber
-				+ " and flight number " + idNewFlight + ".";
+		return answer;
 	}
 
 	/**
@@ -1981,121 +2075,82 @@ public class BackOffice extends UnicastRemoteObject implements
 		clientsManager.searchClient(mail).setKilometers(miles);
 	}
 
-}
-
-class DestinationsPrices {
-	private double[][] table = new double[22][22];
-	private Vector<String> destinations;
-
-	public DestinationsPrices() {
-		destinations = new Vector<String>();
-		destinations.add("Lisbon");
-		destinations.add("Porto");
-		destinations.add("Paris");
-		destinations.add("Milan");
-		destinations.add("Rome");
-		destinations.add("Amsterdam");
-		destinations.add("Madrid");
-		destinations.add("Barcelona");
-		destinations.add("Berlin");
-		destinations.add("London");
-
-		table[0][1] = table[1][0] = 27.5;
-		table[0][2] = table[2][0] = 145.0;
-		table[0][3] = table[3][0] = 167.8;
-		table[0][4] = table[4][0] = 186.8;
-		table[0][5] = table[5][0] = 185.9;
-		table[0][6] = table[6][0] = 50.0;
-		table[0][7] = table[7][0] = 99.4;
-		table[0][8] = table[8][0] = 230.6;
-		table[0][9] = table[9][0] = 158.5;
-		/* * * * * * * * * * * * * * * */
-		table[1][2] = table[2][1] = 121.1;
-		table[1][3] = table[3][1] = 151.3;
-		table[1][4] = table[4][1] = 176.5;
-		table[1][5] = table[5][1] = 160.9;
-		table[1][6] = table[6][1] = 42.1;
-		table[1][7] = table[7][1] = 89.5;
-		table[1][8] = table[8][1] = 208.0;
-		table[1][9] = table[9][1] = 132.1;
-		/* * * * * * * * * * * * * * * */
-		table[2][3] = table[3][2] = 63.8;
-		table[2][4] = table[4][2] = 115.1;
-		table[2][5] = table[5][2] = 42.8;
-		table[2][6] = table[6][2] = 104.9;
-		table[2][7] = table[7][2] = 83.9;
-		table[2][8] = table[8][2] = 87.4;
-		table[2][9] = table[9][2] = 34.2;
-		/* * * * * * * * * * * * * * * */
-		table[3][4] = table[4][3] = 48.6;
-		table[3][5] = table[5][3] = 82.7;
-		table[3][6] = table[6][3] = 118.5;
-		table[3][7] = table[7][3] = 73.4;
-		table[3][8] = table[8][3] = 84.0;
-		table[3][9] = table[9][3] = 95.6;
-		/* * * * * * * * * * * * * * * */
-		table[4][5] = table[5][4] = 130.3;
-		table[4][6] = table[6][4] = 137.3;
-		table[4][7] = table[7][4] = 87.6;
-		table[4][8] = table[8][4] = 118.5;
-		table[4][9] = table[9][4] = 144.1;
-		/* * * * * * * * * * * * * * * */
-		table[5][6] = table[6][5] = 147.6;
-		table[5][7] = table[7][5] = 124.6;
-		table[5][8] = table[8][5] = 57.3;
-		table[5][9] = table[9][5] = 35.4;
-		/* * * * * * * * * * * * * * * */
-		table[6][7] = table[7][6] = 49.7;
-		table[6][8] = table[8][6] = 186.3;
-		table[6][9] = table[9][6] = 120.6;
-		/* * * * * * * * * * * * * * * */
-		table[7][8] = table[8][7] = 150.7;
-		table[7][9] = table[9][7] = 114.6;
-		/* * * * * * * * * * * * * * * */
-		table[8][9] = table[9][8] = 92.6;
-
+	/**
+	 * Idempotent version of scheduleBooking: a repeated request id gets the
+	 * answer of the first request.
+	 * 
+	 * @return String with the result of the operation
+	 */
+	@Override
+	public String scheduleBooking(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber, String requestId) throws RemoteException {
+		if (requestId == null) {
+			return scheduleBooking(idFlight, name, address, phone, mail,
+					seats, isOperator, bookingNumber);
+		}
+		beginRequest(requestId);
+		try {
+			return book(idFlight, name, address, phone, mail, seats,
+					isOperator, bookingNumber, requestId);
+		} finally {
+			requestsManager.finish(requestId);
+		}
 	}
 
-	public Vector<String> getDestinations() {
-		return destinations;
+	/**
+	 * Idempotent version of modifyBooking: a repeated request id gets the
+	 * answer of the first request.
+	 * 
+	 * @return String with the result of the operation
+	 */
+	@Override
+	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber, String requestId)
+			throws RemoteException {
+		if (requestId == null) {
+			return modifyBooking(idFlight, idBooking, idNewFlight, isOperator,
+					bookingNumber);
+		}
+		beginRequest(requestId);
+		try {
+			return modify(idFlight, idBooking, idNewFlight, isOperator,
+					bookingNumber, requestId);
+		} finally {
+			requestsManager.finish(requestId);
+		}
 	}
 
-	public double getPrice(String orig, String dest) {
-		int dep, arriv;
-
-		dep = getNumber(orig);
-		arriv = getNumber(dest);
-
-		if (dep != arriv && dep != -1 && arriv != -1)
-			return table[dep][arriv];
-
-		return 0;
+	/**
+	 * Idempotent version of cancelBooking: a repeated request id gets the
+	 * answer of the first request.
+	 * 
+	 * @return String with the result of the operation
+	 */
+	@Override
+	public String cancelBooking(int idFlight, int idBooking, String requestId)
+			throws RemoteException {
+		if (requestId == null) {
+			return cancelBooking(idFlight, idBooking);
+		}
+		beginRequest(requestId);
+		try {
+			return cancel(idFlight, idBooking, requestId);
+		} finally {
+			requestsManager.finish(requestId);
+		}
 	}
 
-	public int getNumber(String city) {
-
-		if (city.equals("Lisbon")) {
-			return 0;
-		} else if (city.equals("Porto")) {
-			return 1;
-		} else if (city.equals("Paris")) {
-			return 2;
-		} else if (city.equals("Milan")) {
-			return 3;
-		} else if (city.equals("Rome")) {
-			return 4;
-		} else if (city.equals("Amsterdam")) {
-			return 5;
-		} else if (city.equals("Madrid")) {
-			return 6;
-		} else if (city.equals("Barcelona")) {
-			return 7;
-		} else if (city.equals("Berlin")) {
-			return 8;
-		} else if (city.equals("London")) {
-			return 9;
+	/*
+	 * Waits for a repeat of the request that is still running to finish.
+	 */
+	private void beginRequest(String requestId) throws RemoteException {
+		try {
+			requestsManager.begin(requestId);
+		} catch (InterruptedException e) {
+			throw new RemoteException("Interrupted while waiting for request "
+					+ requestId, e);
 		}
-
-		return -1;
 	}
+
 }
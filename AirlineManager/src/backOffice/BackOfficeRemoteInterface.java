@@ -30,6 +30,17 @@ public interface BackOfficeRemoteInterface extends Remote{
 	
 	abstract String cancelBooking(int idFlight, int idBooking) throws RemoteException;
 
+	/*
+	 * The same operations, made idempotent by a request id chosen by the
+	 * client: repeating a request with the same id returns the original
+	 * answer without executing it again. A null id behaves as above.
+	 */
+	abstract String scheduleBooking(int idFlight, String name, String address, String phone, String mail, int seats, boolean isOperator, int bookingNumber, String requestId) throws RemoteException;
+	
+	abstract String modifyBooking(int idFlight, int idBooking, int idNewFlight, boolean isOperator, int bookingNumber, String requestId) throws RemoteException;
+	
+	abstract String cancelBooking(int idFlight, int idBooking, String requestId) throws RemoteException;
+
 	abstract String listFlights() throws RemoteException;
 	
 	abstract String getBookingInfo(int idFlight, int idBooking) throws RemoteException;
@@ -0,0 +1,255 @@
+package backOffice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Serves the BackOfficeRemoteInterface operations through the BinaryProtocol,
+ * alongside RMI. A single thread runs a non-blocking selector over every
+ * connection; the decoded requests are handed to the RequestDispatcher, so
+ * they share the same bounded workers and admission control as the RMI
+ * calls. A connection may pipeline as many requests as it likes: each answer
+ * is written back as soon as its call is done.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class BinaryEndpoint extends Thread {
+
+	private final RequestDispatcher dispatcher;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+
+	/* Connections with answers waiting to be written. */
+	private final LinkedList<Connection> ready = new LinkedList<Connection>();
+
+	public BinaryEndpoint(RequestDispatcher dispatcher, int port)
+			throws IOException {
+		super("Binary Endpoint");
+		this.dispatcher = dispatcher;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		setDaemon(true);
+	}
+
+	/** The port the endpoint is listening on. */
+	public int port() {
+		return server.socket().getLocalPort();
+	}
+
+	public void run() {
+		while (server.isOpen()) {
+			try {
+				selector.select();
+				registerWrites();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+					} catch (IOException e) {
+						connection.close();
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("Binary endpoint error: " + e.getMessage());
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() != null) {
+				((Connection) key.attachment()).close();
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			System.out.println("Binary endpoint error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops accepting connections. The selector thread then closes the open
+	 * ones and the selector itself, which only it may touch.
+	 */
+	public void close() throws IOException {
+		server.close();
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(key, channel));
+	}
+
+	/* Asks the selector to watch for writes on the connections with answers. */
+	private void registerWrites() {
+		synchronized (ready) {
+			for (Connection connection : ready) {
+				if (connection.key.isValid()) {
+					connection.key.interestOps(SelectionKey.OP_READ
+							| SelectionKey.OP_WRITE);
+				}
+			}
+			ready.clear();
+		}
+	}
+
+	private class Connection {
+		private final SelectionKey key;
+		private final SocketChannel channel;
+		private ByteBuffer input = ByteBuffer.allocate(8 * 1024);
+		private final LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+
+		Connection(SelectionKey key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			if (channel.read(input) < 0) {
+				close();
+				return;
+			}
+
+			input.flip();
+			while (input.remaining() >= 4) {
+				int length = input.getInt(input.position());
+				if (length < 4 || length > BinaryProtocol.MAX_FRAME) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (input.remaining() < 4 + length) {
+					if (input.capacity() < 4 + length) {
+						ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+						bigger.put(input);
+						input = bigger;
+						return;
+					}
+					break;
+				}
+				input.getInt();
+				byte[] frame = new byte[length];
+				input.get(frame);
+				request(frame);
+			}
+			input.compact();
+		}
+
+		void write() throws IOException {
+			synchronized (output) {
+				while (!output.isEmpty()) {
+					ByteBuffer buffer = output.getFirst();
+					channel.write(buffer);
+					if (buffer.hasRemaining()) {
+						return;
+					}
+					output.removeFirst();
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The connection is gone anyway.
+			}
+		}
+
+		private void request(byte[] frame) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					frame));
+			final int id = in.readInt();
+			final Method operation = BinaryProtocol.operation(in.readByte());
+			if (operation == null) {
+				answer(id, BinaryProtocol.ERROR, String.class,
+						"Unknown operation");
+				return;
+			}
+			final Object[] args = BinaryProtocol.readArguments(in, operation);
+
+			try {
+				dispatcher.submit(operation.getName(), new Runnable() {
+					public void run() {
+						try {
+							Object result = dispatcher.execute(operation, args);
+							answer(id, BinaryProtocol.OK,
+									operation.getReturnType(), result);
+						} catch (Exception e) {
+							answer(id, BinaryProtocol.ERROR, String.class,
+									String.valueOf(e.getMessage()));
+						}
+					}
+				});
+			} catch (ServerBusyException e) {
+				answer(id, BinaryProtocol.BUSY, String.class, e.getMessage());
+			}
+		}
+
+		/* May be called by any thread. */
+		private void answer(int id, byte status, Class<?> type, Object value) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeInt(0);
+				out.writeInt(id);
+				out.writeByte(status);
+				BinaryProtocol.writeValue(out, type, value);
+			} catch (IOException e) {
+				answer(id, BinaryProtocol.ERROR, String.class, e.getMessage());
+				return;
+			}
+
+			ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+			frame.putInt(0, frame.capacity() - 4);
+			synchronized (output) {
+				output.addLast(frame);
+			}
+			synchronized (ready) {
+				ready.add(this);
+			}
+			selector.wakeup();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package backOffice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.GregorianCalendar;
+import java.util.Vector;
+
+import messages.Message;
+
+/**
+ * The length-prefixed binary protocol that carries the BackOfficeRemoteInterface
+ * operations without RMI.
+ * 
+ * Every frame starts with its length (an int, not counting itself) followed by
+ * the id chosen by the client for the request. A request then holds the opcode
+ * of the operation and its arguments; a response holds a status byte and
+ * either the returned value or an error message. Responses carry the id of
+ * their request, so a client may send several requests without waiting and
+ * match the answers as they arrive, in any order.
+ * 
+ * Values are written in the order of the method signature: ints, doubles and
+ * booleans as in DataOutput, strings as their UTF-8 length and bytes, dates as
+ * milliseconds and arrays and vectors as their size followed by the elements.
+ * Objects may be null, flagged by a leading byte.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class BinaryProtocol {
+
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	public static final byte BUSY = 2;
+
+	/* No frame may be bigger than this. */
+	public static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	/*
+	 * The operations, indexed by opcode. New operations must be added at the
+	 * end, so that older clients keep working.
+	 */
+	private static final Method[] OPERATIONS;
+
+	static {
+		try {
+			Class<BackOfficeRemoteInterface> remote = BackOfficeRemoteInterface.class;
+			OPERATIONS = new Method[] {
+					remote.getMethod("sendPositiveFeedback", Message.class),
+					remote.getMethod("sendNegativeFeedback", Message.class),
+					remote.getMethod("registerOperator", String.class,
+							String.class, String.class, String.class,
+							String.class, String.class),
+					remote.getMethod("loginOperator", String.class,
+							String.class),
+					remote.getMethod("getDestinations"),
+					remote.getMethod("getPrice", String.class, String.class),
+					remote.getMethod("scheduleCharter",
+							GregorianCalendar.class, String.class,
+							String.class, int.class),
+					remote.getMethod("scheduleBooking", int.class,
+							String.class, String.class, String.class,
+							String.class, int.class, boolean.class, int.class),
+					remote.getMethod("modifyBooking", int.class, int.class,
+							int.class, boolean.class, int.class),
+					remote.getMethod("cancelBooking", int.class, int.class),
+					remote.getMethod("listFlights"),
+					remote.getMethod("getBookingInfo", int.class, int.class),
+					remote.getMethod("findFlights", int.class, int.class,
+							int.class, String.class, String.class),
+					remote.getMethod("bookingPrice", int.class, String.class),
+					remote.getMethod("updateMiles", Double.class, String.class),
+					remote.getMethod("scheduleBooking", int.class,
+							String.class, String.class, String.class,
+							String.class, int.class, boolean.class, int.class,
+							String.class),
+					remote.getMethod("modifyBooking", int.class, int.class,
+							int.class, boolean.class, int.class, String.class),
+					remote.getMethod("cancelBooking", int.class, int.class,
+							String.class) };
+		} catch (NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** The operation with the given opcode, or null if there's none. */
+	public static Method operation(int opcode) {
+		if (opcode < 0 || opcode >= OPERATIONS.length) {
+			return null;
+		}
+		return OPERATIONS[opcode];
+	}
+
+	/** The opcode of the operation, or -1 if it isn't part of the protocol. */
+	public static int opcode(Method operation) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(operation)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static void writeRequest(DataOutput out, int opcode, Object[] args)
+			throws IOException {
+		out.writeByte(opcode);
+		Class<?>[] types = OPERATIONS[opcode].getParameterTypes();
+		for (int i = 0; i < types.length; i++) {
+			writeValue(out, types[i], args[i]);
+		}
+	}
+
+	public static Object[] readArguments(DataInput in, Method operation)
+			throws IOException {
+		Class<?>[] types = operation.getParameterTypes();
+		Object[] args = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			args[i] = readValue(in, types[i]);
+		}
+		return args;
+	}
+
+	public static void writeValue(DataOutput out, Class<?> type, Object value)
+			throws IOException {
+		if (type == int.class) {
+			out.writeInt((Integer) value);
+		} else if (type == boolean.class) {
+			out.writeBoolean((Boolean) value);
+		} else if (type == double.class) {
+			out.writeDouble((Double) value);
+		} else if (type == void.class) {
+			return;
+		} else {
+			out.writeBoolean(value != null);
+			if (value == null) {
+				return;
+			}
+			if (type == String.class) {
+				byte[] bytes = ((String) value).getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else if (type == Double.class) {
+				out.writeDouble((Double) value);
+			} else if (type == Double[].class) {
+				Double[] array = (Double[]) value;
+				out.writeInt(array.length);
+				for (Double element : array) {
+					writeValue(out, Double.class, element);
+				}
+			} else if (type == Vector.class) {
+				Vector<?> vector = (Vector<?>) value;
+				out.writeInt(vector.size());
+				for (Object element : vector) {
+					writeValue(out, String.class, element);
+				}
+			} else if (type == GregorianCalendar.class) {
+				out.writeLong(((GregorianCalendar) value).getTimeInMillis());
+			} else if (type == Message.class) {
+				Message message = (Message) value;
+				writeValue(out, String.class, message.getMessageContents());
+				writeValue(out, GregorianCalendar.class, message.getDate());
+			} else {
+				throw new IOException("Type not supported: " + type.getName());
+			}
+		}
+	}
+
+	public static Object readValue(DataInput in, Class<?> type)
+			throws IOException {
+		if (type == int.class) {
+			return in.readInt();
+		} else if (type == boolean.class) {
+			return in.readBoolean();
+		} else if (type == double.class) {
+			return in.readDouble();
+		} else if (type == void.class) {
+			return null;
+		}
+
+		if (!in.readBoolean()) {
+			return null;
+		}
+		if (type == String.class) {
+			byte[] bytes = new byte[readSize(in)];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		} else if (type == Double.class) {
+			return in.readDouble();
+		} else if (type == Double[].class) {
+			Double[] array = new Double[readSize(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = (Double) readValue(in, Double.class);
+			}
+			return array;
+		} else if (type == Vector.class) {
+			int size = readSize(in);
+			Vector<String> vector = new Vector<String>(size);
+			for (int i = 0; i < size; i++) {
+				vector.add((String) readValue(in, String.class));
+			}
+			return vector;
+		} else if (type == GregorianCalendar.class) {
+			GregorianCalendar date = new GregorianCalendar();
+			date.setTimeInMillis(in.readLong());
+			return date;
+		} else if (type == Message.class) {
+			String contents = (String) readValue(in, String.class);
+			return new Message(contents, (GregorianCalendar) readValue(in,
+					GregorianCalendar.class));
+		}
+		throw new IOException("Type not supported: " + type.getName());
+	}
+
+	private static int readSize(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0 || size > MAX_FRAME) {
+			throw new IOException("Invalid size: " + size);
+		}
+		return size;
+	}
+}
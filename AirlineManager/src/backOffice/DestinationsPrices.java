@@ -0,0 +1,127 @@
+package backOffice;
+
+import java.util.Vector;
+
+/**
+ * The destinations served and the price of a flight between each two of
+ * them. Shared by the BackOffice and its query nodes.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+class DestinationsPrices {
+	private double[][] table = new double[22][22];
+	private Vector<String> destinations;
+
+	public DestinationsPrices() {
+		destinations = new Vector<String>();
+		destinations.add("Lisbon");
+		destinations.add("Porto");
+		destinations.add("Paris");
+		destinations.add("Milan");
+		destinations.add("Rome");
+		destinations.add("Amsterdam");
+		destinations.add("Madrid");
+		destinations.add("Barcelona");
+		destinations.add("Berlin");
+		destinations.add("London");
+
+		table[0][1] = table[1][0] = 27.5;
+		table[0][2] = table[2][0] = 145.0;
+		table[0][3] = table[3][0] = 167.8;
+		table[0][4] = table[4][0] = 186.8;
+		table[0][5] = table[5][0] = 185.9;
+		table[0][6] = table[6][0] = 50.0;
+		table[0][7] = table[7][0] = 99.4;
+		table[0][8] = table[8][0] = 230.6;
+		table[0][9] = table[9][0] = 158.5;
+		/* * * * * * * * * * * * * * * */
+		table[1][2] = table[2][1] = 121.1;
+		table[1][3] = table[3][1] = 151.3;
+		table[1][4] = table[4][1] = 176.5;
+		table[1][5] = table[5][1] = 160.9;
+		table[1][6] = table[6][1] = 42.1;
+		table[1][7] = table[7][1] = 89.5;
+		table[1][8] = table[8][1] = 208.0;
+		table[1][9] = table[9][1] = 132.1;
+		/* * * * * * * * * * * * * * * */
+		table[2][3] = table[3][2] = 63.8;
+		table[2][4] = table[4][2] = 115.1;
+		table[2][5] = table[5][2] = 42.8;
+		table[2][6] = table[6][2] = 104.9;
+		table[2][7] = table[7][2] = 83.9;
+		table[2][8] = table[8][2] = 87.4;
+		table[2][9] = table[9][2] = 34.2;
+		/* * * * * * * * * * * * * * * */
+		table[3][4] = table[4][3] = 48.6;
+		table[3][5] = table[5][3] = 82.7;
+		table[3][6] = table[6][3] = 118.5;
+		table[3][7] = table[7][3] = 73.4;
+		table[3][8] = table[8][3] = 84.0;
+		table[3][9] = table[9][3] = 95.6;
+		/* * * * * * * * * * * * * * * */
+		table[4][5] = table[5][4] = 130.3;
+		table[4][6] = table[6][4] = 137.3;
+		table[4][7] = table[7][4] = 87.6;
+		table[4][8] = table[8][4] = 118.5;
+		table[4][9] = table[9][4] = 144.1;
+		/* * * * * * * * * * * * * * * */
+		table[5][6] = table[6][5] = 147.6;
+		table[5][7] = table[7][5] = 124.6;
+		table[5][8] = table[8][5] = 57.3;
+		table[5][9] = table[9][5] = 35.4;
+		/* * * * * * * * * * * * * * * */
+		table[6][7] = table[7][6] = 49.7;
+		table[6][8] = table[8][6] = 186.3;
+		table[6][9] = table[9][6] = 120.6;
+		/* * * * * * * * * * * * * * * */
+		table[7][8] = table[8][7] = 150.7;
+		table[7][9] = table[9][7] = 114.6;
+		/* * * * * * * * * * * * * * * */
+		table[8][9] = table[9][8] = 92.6;
+
+	}
+
+	public Vector<String> getDestinations() {
+		return destinations;
+	}
+
+	public double getPrice(String orig, String dest) {
+		int dep, arriv;
+
+		dep = getNumber(orig);
+		arriv = getNumber(dest);
+
+		if (dep != arriv && dep != -1 && arriv != -1)
+			return table[dep][arriv];
+
+		return 0;
+	}
+
+	public int getNumber(String city) {
+
+		if (city.equals("Lisbon")) {
+			return 0;
+		} else if (city.equals("Porto")) {
+			return 1;
+		} else if (city.equals("Paris")) {
+			return 2;
+		} else if (city.equals("Milan")) {
+			return 3;
+		} else if (city.equals("Rome")) {
+			return 4;
+		} else if (city.equals("Amsterdam")) {
+			return 5;
+		} else if (city.equals("Madrid")) {
+			return 6;
+		} else if (city.equals("Barcelona")) {
+			return 7;
+		} else if (city.equals("Berlin")) {
+			return 8;
+		} else if (city.equals("London")) {
+			return 9;
+		}
+
+		return -1;
+	}
+}
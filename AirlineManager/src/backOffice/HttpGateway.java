@@ -0,0 +1,372 @@
+package backOffice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import bookings.Booking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import flights.Flight;
+import flights.FlightsManager;
+import flights.RFlight;
+
+/**
+ * HTTP/JSON gateway to the booking operations, for clients that cannot speak
+ * RMI. It runs inside the BackOffice on the JDK's built-in HTTP server:
+ * 
+ * GET /api/flights?year=&month=&day=&origin=&destination= searches flights.
+ * POST /api/bookings with a JSON object holding flightId, name, address,
+ * phone, email and seats schedules a booking.
+ * GET /api/bookings/{flightId}/{bookingNumber} returns a booking.
+ * DELETE /api/bookings/{flightId}/{bookingNumber} cancels a booking.
+ * 
+ * Bookings and cancellations may carry an Idempotency-Key header: repeating
+ * the request with the same key returns the original answer without
+ * executing it again.
+ * 
+ * Every operation goes through the RequestDispatcher under the name of the
+ * matching remote method, so it shares its queue and is refused with 503
+ * when the BackOffice is saturated. Answers always carry their length, so
+ * connections are kept alive between requests, and they are compressed with
+ * gzip when the client accepts it.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class HttpGateway {
+
+	/* Smaller answers are not worth compressing. */
+	private static final int COMPRESSION_THRESHOLD = 512;
+
+	private final RequestDispatcher dispatcher;
+	private final BackOfficeRemoteInterface backOffice;
+	private final FlightsManager flightsManager;
+	private final HttpServer server;
+
+	public HttpGateway(RequestDispatcher dispatcher,
+			BackOfficeRemoteInterface backOffice,
+			FlightsManager flightsManager, int port, int workers)
+			throws IOException {
+		this.dispatcher = dispatcher;
+		this.backOffice = backOffice;
+		this.flightsManager = flightsManager;
+
+		/*
+		 * The handlers only wait for the dispatcher, which does the bounding,
+		 * so the queue in front of them needs no limit of its own.
+		 */
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private int count = 0;
+
+					public synchronized Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "HTTP Worker "
+								+ (++count));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		server.createContext("/api/flights", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange, "GET", new Operation() {
+					public Answer execute(HttpExchange exchange,
+							String[] path) throws Exception {
+						return searchFlights(query(exchange));
+					}
+				});
+			}
+		});
+		server.createContext("/api/bookings", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String method = exchange.getRequestMethod();
+				if (method.equals("POST")) {
+					serve(exchange, method, new Operation() {
+						public Answer execute(HttpExchange exchange,
+								String[] path) throws Exception {
+							return scheduleBooking(Json.parse(body(exchange)),
+									idempotencyKey(exchange));
+						}
+					});
+				} else if (method.equals("DELETE")) {
+					serve(exchange, method, new Operation() {
+						public Answer execute(HttpExchange exchange,
+								String[] path) throws Exception {
+							return cancelBooking(path,
+									idempotencyKey(exchange));
+						}
+					});
+				} else {
+					serve(exchange, "GET", new Operation() {
+						public Answer execute(HttpExchange exchange,
+								String[] path) throws Exception {
+							return getBooking(path);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/** The port the gateway is listening on. */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	private interface Operation {
+		Answer execute(HttpExchange exchange, String[] path) throws Exception;
+	}
+
+	private static class Answer {
+		private final int status;
+		private final String json;
+
+		Answer(int status, String json) {
+			this.status = status;
+			this.json = json;
+		}
+	}
+
+	private static Answer error(int status, String message) {
+		return new Answer(status, new Json().begin().field("error", message)
+				.end().toString());
+	}
+
+	private void serve(HttpExchange exchange, String method,
+			Operation operation) throws IOException {
+		Answer answer;
+		try {
+			if (!exchange.getRequestMethod().equals(method)) {
+				answer = error(405, "Method not allowed");
+			} else {
+				answer = operation.execute(exchange, path(exchange));
+			}
+		} catch (ServerBusyException e) {
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			answer = error(503, "The system is busy, please try again later");
+		} catch (NumberFormatException e) {
+			answer = error(400, "Invalid number: " + e.getMessage());
+		} catch (IOException e) {
+			answer = error(400, e.getMessage());
+		} catch (Exception e) {
+			answer = error(500, String.valueOf(e.getMessage()));
+		}
+		send(exchange, answer);
+	}
+
+	private void send(HttpExchange exchange, Answer answer) throws IOException {
+		byte[] body = answer.json.getBytes("UTF-8");
+		String accepted = exchange.getRequestHeaders().getFirst(
+				"Accept-Encoding");
+		if (body.length > COMPRESSION_THRESHOLD && accepted != null
+				&& accepted.contains("gzip")) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+
+		/* A known length lets the connection be reused. */
+		exchange.sendResponseHeaders(answer.status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private Answer searchFlights(Map<String, String> query) throws Exception {
+		final int year = Integer.parseInt(required(query, "year"));
+		final int month = Integer.parseInt(required(query, "month"));
+		final int day = Integer.parseInt(required(query, "day"));
+		final String origin = required(query, "origin");
+		final String destination = required(query, "destination");
+
+		return dispatcher.call("findFlights", new Callable<Answer>() {
+			public Answer call() {
+				SimpleDateFormat format = new SimpleDateFormat(
+						"yyyy-MM-dd'T'HH:mm");
+				Json json = new Json().begin().beginArray("flights");
+				for (Flight flight : flightsManager.searchFlights(year, month,
+						day, origin, destination)) {
+					json.begin().field("id", flight.getId())
+							.field("origin", flight.getOrigin())
+							.field("destination", flight.getDestination())
+							.field("departure",
+									format.format(flight.getData()))
+							.field("emptySeats", flight.getEmptySeats())
+							.field("charter", flight.isCharter()).end();
+				}
+				json.endArray().beginArray("regularFlights");
+				Vector<RFlight> regular = flightsManager
+						.getRegularFlights(new GregorianCalendar(year,
+								month - 1, day).get(Calendar.DAY_OF_WEEK));
+				for (RFlight flight : regular) {
+					json.begin().field("id", flight.getIdFlight())
+							.field("origin", flight.getOrigin())
+							.field("destination", flight.getDestination())
+							.field("time", flight.getData())
+							.field("charter", flight.isCharter()).end();
+				}
+				return new Answer(200, json.endArray().end().toString());
+			}
+		});
+	}
+
+	private Answer scheduleBooking(Map<String, String> request,
+			String requestId) throws Exception {
+		int idFlight = Integer.parseInt(required(request, "flightId"));
+		int seats = Integer.parseInt(required(request, "seats"));
+		String answer = backOffice.scheduleBooking(idFlight,
+				required(request, "name"), required(request, "address"),
+				required(request, "phone"), required(request, "email"), seats,
+				false, 0, requestId);
+
+		if (answer.startsWith("Scheduled ")) {
+			return new Answer(201, new Json().begin()
+					.field("flightId", idFlight)
+					.field("bookingNumber",
+							Integer.parseInt(answer.substring(10)))
+					.field("seats", seats).end().toString());
+		} else if (answer.equals("Innexistent flight")) {
+			return error(404, "There's no such flight");
+		}
+		/* Over, Cancelled, Charter or InsufficientSeats. */
+		return error(409, answer);
+	}
+
+	private Answer cancelBooking(String[] path, String requestId)
+			throws Exception {
+		if (path.length != 2) {
+			return error(404, "Expected /api/bookings/{flightId}/{bookingNumber}");
+		}
+		String answer = backOffice.cancelBooking(Integer.parseInt(path[0]),
+				Integer.parseInt(path[1]), requestId);
+		if (answer.equals("Cancelled")) {
+			return new Answer(200, new Json().begin()
+					.field("cancelled", true).end().toString());
+		}
+		return error(404, answer);
+	}
+
+	private Answer getBooking(String[] path) throws Exception {
+		if (path.length != 2) {
+			return error(404, "Expected /api/bookings/{flightId}/{bookingNumber}");
+		}
+		final int idFlight = Integer.parseInt(path[0]);
+		final int idBooking = Integer.parseInt(path[1]);
+
+		return dispatcher.call("getBookingInfo", new Callable<Answer>() {
+			public Answer call() {
+				Flight flight = flightsManager.searchFlightById(idFlight);
+				if (flight == null) {
+					return error(404, "There's no such flight");
+				}
+				Booking booking = flight.findBookingById(idBooking);
+				if (booking == null) {
+					return error(404, "That booking is not associated with Flight "
+							+ idFlight);
+				}
+				return new Answer(200, new Json().begin()
+						.field("flightId", booking.getIdFlight())
+						.field("bookingNumber", booking.getBookingNumber())
+						.field("name", booking.getClient().getName())
+						.field("email", booking.getClient().getEmail())
+						.field("seats", booking.getNoSeats())
+						.field("price", booking.getPrice()).end().toString());
+			}
+		});
+	}
+
+	/* The path segments after the context, e.g. {"3", "12"}. */
+	private static String[] path(HttpExchange exchange) {
+		String path = exchange.getRequestURI().getPath()
+				.substring(exchange.getHttpContext().getPath().length());
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path.length() == 0 ? new String[0] : path.split("/");
+	}
+
+	private static Map<String, String> query(HttpExchange exchange)
+			throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals),
+						"UTF-8"), URLDecoder.decode(parameter
+						.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return parameters;
+	}
+
+	/* The request id given by the client, if any. */
+	private static String idempotencyKey(HttpExchange exchange) {
+		return exchange.getRequestHeaders().getFirst("Idempotency-Key");
+	}
+
+	private static String body(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			body.write(buffer, 0, read);
+			if (body.size() > BinaryProtocol.MAX_FRAME) {
+				throw new IOException("Request too big");
+			}
+		}
+		in.close();
+		return body.toString("UTF-8");
+	}
+
+	private static String required(Map<String, String> fields, String name)
+			throws IOException {
+		String value = fields.get(name);
+		if (value == null) {
+			throw new IOException("Missing field: " + name);
+		}
+		return value;
+	}
+}
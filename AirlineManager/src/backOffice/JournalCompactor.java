@@ -0,0 +1,236 @@
+package backOffice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+import messages.FeedBackStorage;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.implementation.PrevaylerDirectory;
+
+import planes.Airplane;
+import clients.Client;
+import clients.Operator;
+import common.Constants;
+import flights.FlightsManager;
+
+/**
+ * Command line tool that compacts the stores during a maintenance window,
+ * without starting the BackOffice. Each store is recovered from its latest
+ * snapshot and journals, a new snapshot is written and the journals it
+ * replaces are moved to the store's "archive" directory, except those the
+ * store still retains: the journals of a flights list are kept while they are
+ * inside its retention window (JOURNAL_RETAINED_SNAPSHOTS and
+ * JOURNAL_RETENTION_AGE), like the BackOffice keeps them from being recycled.
+ * The BackOffice must not be running while the tool is used.
+ * 
+ * Usage: java backOffice.JournalCompactor [store directory ...]
+ * 
+ * Without arguments every store is compacted. The monthly partitions of a
+ * flights list are compacted with it.
+ * @author Daniela Fontes, Ivo Correia, Jo�o Penetra, Jo�o Barbosa, Ricardo Bernardino
+ *
+ */
+public class JournalCompactor {
+
+	/* The directories of the stores, as used by the managers. */
+	private static final String[] STORES = { "FlightsList",
+			"FinishedFlightsList", "RegularFlightsList", "ClientsList",
+			"OperatorsList", "PlanesList", "MessageStorage" };
+
+	private static final String ARCHIVE = "archive";
+
+	public static void main(String[] args) {
+		String[] stores = args.length == 0 ? STORES : args;
+		boolean failed = false;
+
+		for (String store : partitioned(stores)) {
+			try {
+				compact(store);
+			} catch (Exception e) {
+				System.out.println(store + ": compaction failed: " + e);
+				failed = true;
+			} catch (Error e) {
+				/* Prevayler reports journals it cannot read with an Error. */
+				System.out.println(store + ": compaction failed: " + e
+						+ (e.getCause() == null ? "" : " (" + e.getCause() + ")"));
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * The stores, each followed by its partitions, which are kept in its
+	 * subdirectories.
+	 */
+	private static Vector<String> partitioned(String[] stores) {
+		Vector<String> all = new Vector<String>();
+		for (String store : stores) {
+			all.add(store);
+			File[] files = new File(store).listFiles();
+			if (files == null) {
+				continue;
+			}
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isDirectory() && !file.getName().equals(ARCHIVE)) {
+					all.add(file.getPath());
+				}
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * Compacts one store: replays its journals, writes a snapshot and archives
+	 * the journals that are no longer needed nor retained.
+	 */
+	private static void compact(String store) throws Exception {
+		PrevaylerDirectory directory = new PrevaylerDirectory(store);
+		if (!new File(store).isDirectory()) {
+			System.out.println(store + ": no store to compact.");
+			return;
+		}
+		long snapshotBefore = snapshotVersion(directory);
+
+		long start = System.currentTimeMillis();
+		Prevayler prevayler = open(store);
+		long recovered = System.currentTimeMillis();
+		Object system = prevayler.prevalentSystem();
+		prevayler.takeSnapshot();
+		prevayler.close();
+		long snapshotted = System.currentTimeMillis();
+
+		long snapshotAfter = snapshotVersion(directory);
+		long horizon = retentionHorizon(directory, retainedSnapshots(store));
+		long retainedSince = snapshotted - retentionAge(store);
+		int journals = 0;
+		long bytes = 0;
+		File archive = new File(store, ARCHIVE);
+		File[] files = directory.journalFiles();
+		for (int i = 0; i < files.length; i++) {
+			File journal = files[i];
+			/* The last transaction of the journal, which the next one follows. */
+			long last = i + 1 < files.length ? PrevaylerDirectory
+					.journalVersion(files[i + 1]) - 1 : snapshotAfter;
+			if (last > horizon || journal.lastModified() > retainedSince) {
+				break;
+			}
+			if (!archive.isDirectory() && !archive.mkdirs()) {
+				throw new IOException("could not create " + archive);
+			}
+			long length = journal.length();
+			if (!journal.renameTo(new File(archive, journal.getName()))) {
+				throw new IOException("could not archive " + journal);
+			}
+			journals++;
+			bytes += length;
+		}
+
+		System.out.println(store + ": " + (snapshotAfter - snapshotBefore)
+				+ " transactions replayed in " + (recovered - start)
+				+ " ms, snapshot of " + records(system) + " written in "
+				+ (snapshotted - recovered) + " ms at transaction "
+				+ snapshotAfter + ", " + journals + " journals (" + bytes
+				+ " bytes) archived.");
+	}
+
+	/**
+	 * Opens a store configured like its manager does.
+	 */
+	private static Prevayler open(String store) throws Exception {
+		return factory(store).create();
+	}
+
+	/**
+	 * The factory of a store, configured like its manager does.
+	 */
+	static PrevaylerFactory factory(String store) throws IOException {
+		if (isFlightsList(store)) {
+			return FlightsManager.storeFactory(store);
+		}
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(emptySystem(store));
+		factory.configurePrevalenceDirectory(store);
+		return factory;
+	}
+
+	private static boolean isFlightsList(String store) {
+		return store.startsWith("FlightsList")
+				|| store.startsWith("FinishedFlightsList")
+				|| store.startsWith("RegularFlightsList");
+	}
+
+	/**
+	 * The snapshots whose journals a store retains: a flights list keeps those
+	 * of JOURNAL_RETAINED_SNAPSHOTS, the other stores only need the latest.
+	 */
+	private static int retainedSnapshots(String store) {
+		return isFlightsList(store) ? Constants.JOURNAL_RETAINED_SNAPSHOTS : 1;
+	}
+
+	/**
+	 * The age (ms) under which the journals of a store are retained.
+	 */
+	private static long retentionAge(String store) {
+		return isFlightsList(store) ? Constants.JOURNAL_RETENTION_AGE : 0;
+	}
+
+	/**
+	 * The version of the oldest of the retained snapshots, or 0 if there are
+	 * not that many yet: only the journals whose transactions it all holds
+	 * may be archived.
+	 */
+	private static long retentionHorizon(PrevaylerDirectory directory,
+			int snapshots) throws IOException {
+		File snapshot = directory.latestSnapshot();
+		for (int i = 1; i < snapshots && snapshot != null; i++) {
+			snapshot = directory.latestSnapshot(PrevaylerDirectory
+					.snapshotVersion(snapshot) - 1);
+		}
+		return snapshot == null ? 0 : PrevaylerDirectory
+				.snapshotVersion(snapshot);
+	}
+
+	private static Serializable emptySystem(String store) throws IOException {
+		if (store.equals("ClientsList")) {
+			return new Hashtable<String, Client>();
+		}
+		if (store.equals("OperatorsList")) {
+			return new Vector<Operator>();
+		}
+		if (store.equals("PlanesList")) {
+			return new Vector<Airplane>();
+		}
+		if (store.equals("MessageStorage")) {
+			return new FeedBackStorage();
+		}
+		throw new IOException("unknown store " + store);
+	}
+
+	private static long snapshotVersion(PrevaylerDirectory directory)
+			throws IOException {
+		File snapshot = directory.latestSnapshot();
+		return snapshot == null ? 0 : PrevaylerDirectory
+				.snapshotVersion(snapshot);
+	}
+
+	@SuppressWarnings("unchecked")
+	static String records(Object system) {
+		if (system instanceof Collection) {
+			return ((Collection) system).size() + " records";
+		}
+		if (system instanceof Map) {
+			return ((Map) system).size() + " records";
+		}
+		return "the whole store";
+	}
+}
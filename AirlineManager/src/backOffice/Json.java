@@ -0,0 +1,263 @@
+package backOffice;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The small subset of JSON spoken by the HttpGateway: it writes objects field
+ * by field and reads flat objects whose values are strings, numbers, booleans
+ * or null.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class Json {
+
+	private final StringBuilder text = new StringBuilder();
+	private boolean first = true;
+
+	/** Opens an object, at the top or as an element of an array. */
+	public Json begin() {
+		separate();
+		text.append('{');
+		first = true;
+		return this;
+	}
+
+	public Json end() {
+		text.append('}');
+		first = false;
+		return this;
+	}
+
+	public Json beginArray(String name) {
+		key(name);
+		text.append('[');
+		first = true;
+		return this;
+	}
+
+	public Json endArray() {
+		text.append(']');
+		first = false;
+		return this;
+	}
+
+	public Json field(String name, String value) {
+		key(name);
+		if (value == null) {
+			text.append("null");
+		} else {
+			quote(value);
+		}
+		return this;
+	}
+
+	public Json field(String name, long value) {
+		key(name).text.append(value);
+		return this;
+	}
+
+	/** NaN and the infinities have no JSON number, so they are written as null. */
+	public Json field(String name, double value) {
+		key(name);
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			text.append("null");
+		} else {
+			text.append(value);
+		}
+		return this;
+	}
+
+	public Json field(String name, boolean value) {
+		key(name).text.append(value);
+		return this;
+	}
+
+	public String toString() {
+		return text.toString();
+	}
+
+	private Json key(String name) {
+		separate();
+		quote(name);
+		text.append(':');
+		return this;
+	}
+
+	private void separate() {
+		if (!first) {
+			text.append(',');
+		}
+		first = false;
+	}
+
+	private void quote(String value) {
+		text.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				text.append("\\\"");
+				break;
+			case '\\':
+				text.append("\\\\");
+				break;
+			case '\n':
+				text.append("\\n");
+				break;
+			case '\r':
+				text.append("\\r");
+				break;
+			case '\t':
+				text.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					text.append(String.format("\\u%04x", (int) c));
+				} else {
+					text.append(c);
+				}
+			}
+		}
+		text.append('"');
+	}
+
+	/**
+	 * Reads a flat JSON object. Numbers, booleans and strings are all returned
+	 * as strings; null values are left out.
+	 */
+	public static Map<String, String> parse(String json) throws IOException {
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+		Reader reader = new Reader(json);
+		reader.expect('{');
+		if (reader.peek() == '}') {
+			reader.next();
+			return fields;
+		}
+		do {
+			String name = reader.string();
+			reader.expect(':');
+			String value = reader.value();
+			if (value != null) {
+				fields.put(name, value);
+			}
+		} while (reader.comma());
+		reader.expect('}');
+		return fields;
+	}
+
+	private static class Reader {
+		private final String json;
+		private int position = 0;
+
+		Reader(String json) {
+			this.json = json;
+		}
+
+		char peek() throws IOException {
+			while (position < json.length()
+					&& Character.isWhitespace(json.charAt(position))) {
+				position++;
+			}
+			if (position == json.length()) {
+				throw new IOException("Unexpected end of JSON");
+			}
+			return json.charAt(position);
+		}
+
+		char next() throws IOException {
+			char c = peek();
+			position++;
+			return c;
+		}
+
+		void expect(char c) throws IOException {
+			if (next() != c) {
+				throw new IOException("Expected '" + c + "' at " + (position - 1));
+			}
+		}
+
+		boolean comma() throws IOException {
+			if (peek() == ',') {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		String value() throws IOException {
+			char c = peek();
+			if (c == '"') {
+				return string();
+			}
+			int start = position;
+			while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0) {
+				position++;
+			}
+			String literal = json.substring(start, position);
+			if (literal.equals("null")) {
+				return null;
+			}
+			if (literal.equals("true") || literal.equals("false")
+					|| literal.matches("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?")) {
+				return literal;
+			}
+			throw new IOException("Unsupported JSON value at " + start);
+		}
+
+		String string() throws IOException {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (true) {
+				if (position == json.length()) {
+					throw new IOException("Unterminated JSON string");
+				}
+				char c = json.charAt(position++);
+				if (c == '"') {
+					return value.toString();
+				}
+				if (c != '\\') {
+					value.append(c);
+					continue;
+				}
+				if (position == json.length()) {
+					throw new IOException("Unterminated JSON string");
+				}
+				char escaped = json.charAt(position++);
+				switch (escaped) {
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'u':
+					if (position + 4 > json.length()) {
+						throw new IOException("Invalid JSON escape");
+					}
+					try {
+						value.append((char) Integer.parseInt(json.substring(
+								position, position + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid JSON escape");
+					}
+					position += 4;
+					break;
+				default:
+					value.append(escaped);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package backOffice;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.implementation.PrevaylerDirectory;
+
+/**
+ * Command line tool that recovers a store as it was at a given moment, to
+ * find out what happened to a booking or to restore a list after a bad
+ * transaction. The latest snapshot taken at or before that moment is read and
+ * the journals are replayed up to it only, without starting the BackOffice
+ * and without changing the store, so it can be used while the BackOffice is
+ * running. The recovered list can be exported as a snapshot to another
+ * directory, where a BackOffice, a query node or this tool can open it.
+ * 
+ * Usage: java backOffice.PointInTimeRecovery store directory
+ * (-transaction number | -time "yyyy-MM-dd HH:mm[:ss]") [-export directory]
+ * 
+ * Only the moments covered by the journals still in the store can be
+ * recovered: the segments recycled once they are outside the retention
+ * window (JOURNAL_RETAINED_SNAPSHOTS and JOURNAL_RETENTION_AGE) and the
+ * journals moved away by the JournalCompactor are gone from it.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class PointInTimeRecovery {
+
+	private static final String USAGE = "Usage: java backOffice.PointInTimeRecovery store"
+			+ " (-transaction number | -time \"yyyy-MM-dd HH:mm[:ss]\") [-export directory]";
+
+	public static void main(String[] args) {
+		String store = null;
+		String transaction = null;
+		String time = null;
+		String export = null;
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 < args.length && args[i].equals("-transaction")) {
+				transaction = args[++i];
+			} else if (i + 1 < args.length && args[i].equals("-time")) {
+				time = args[++i];
+			} else if (i + 1 < args.length && args[i].equals("-export")) {
+				export = args[++i];
+			} else if (store == null && !args[i].startsWith("-")) {
+				store = args[i];
+			} else {
+				store = null;
+				break;
+			}
+		}
+		if (store == null || (transaction == null) == (time == null)) {
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			recover(store, transaction, time, export);
+		} catch (Exception e) {
+			System.out.println(store + ": recovery failed: " + e);
+			System.exit(1);
+		} catch (Error e) {
+			/* Prevayler reports journals it cannot read with an Error. */
+			System.out.println(store + ": recovery failed: " + e
+					+ (e.getCause() == null ? "" : " (" + e.getCause() + ")"));
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	private static void recover(String store, String transaction, String time,
+			String export) throws Exception {
+		if (!new File(store).isDirectory()) {
+			System.out.println(store + ": no store to recover.");
+			System.exit(1);
+		}
+		PrevaylerFactory factory = JournalCompactor.factory(store);
+
+		long start = System.currentTimeMillis();
+		long last;
+		if (transaction != null) {
+			last = Long.parseLong(transaction);
+		} else {
+			last = factory.transactionAt(parseTime(time));
+			System.out.println(store + ": the last transaction at " + time
+					+ " is " + last + ", found in "
+					+ (System.currentTimeMillis() - start) + " ms.");
+		}
+
+		long replayStart = System.currentTimeMillis();
+		File snapshot = new PrevaylerDirectory(store).latestSnapshot(last);
+		long snapshotVersion = snapshot == null ? 0 : PrevaylerDirectory
+				.snapshotVersion(snapshot);
+		Object system = factory.recover(last);
+		long recovered = System.currentTimeMillis();
+		System.out.println(store + ": recovered to transaction " + last
+				+ " from " + (snapshot == null ? "an empty store" : snapshot.getName())
+				+ ", " + (last - snapshotVersion) + " transactions replayed in "
+				+ (recovered - replayStart) + " ms, " + JournalCompactor.records(system)
+				+ ".");
+
+		if (export != null) {
+			factory.exportSnapshot(system, last, export);
+			System.out.println(store + ": exported to " + export + " in "
+					+ (System.currentTimeMillis() - recovered) + " ms.");
+		}
+	}
+
+	private static Date parseTime(String time) throws ParseException {
+		String[] formats = { "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm" };
+		for (String format : formats) {
+			SimpleDateFormat parser = new SimpleDateFormat(format);
+			parser.setLenient(false);
+			try {
+				return parser.parse(time);
+			} catch (ParseException e) {
+				/* Tries the next format. */
+			}
+		}
+		throw new ParseException("not a time in the format yyyy-MM-dd HH:mm[:ss]: " + time, 0);
+	}
+}
@@ -0,0 +1,223 @@
+package backOffice;
+
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.GregorianCalendar;
+import java.util.Vector;
+
+import messages.Message;
+
+import common.Constants;
+
+import flights.FlightsManager;
+
+/**
+ * A read-only copy of the BackOffice for the FrontOffice searches. A query
+ * node keeps replicas of the flights lists of the BackOffice (the primary),
+ * which sends it every transaction as it is executed, and answers the
+ * searches from them. Every other call is forwarded to the primary, so any
+ * number of query nodes can be started, on this machine or others, without
+ * changing the answers.
+ * 
+ * Usage: QueryNode [rmiPort [primaryHost]]
+ * 
+ * A query node starts from the snapshots found in its flights lists
+ * directories and asks the primary for the transactions after them. It
+ * should be started from a copy of the directories of the primary, as the
+ * primary may no longer have the oldest journals.
+ * 
+ * @author Daniela Fontes
+ * @author Ivo Correia
+ * @author Joo Penetra
+ * @author Joo Barbosa
+ * @author Ricardo Bernardino
+ */
+public class QueryNode implements BackOfficeRemoteInterface {
+
+	private final BackOfficeRemoteInterface primary;
+	private final FlightsManager flightsManager;
+	private final DestinationsPrices destinationsPrices = new DestinationsPrices();
+
+	public QueryNode(String primaryHost) throws Exception {
+		primary = (BackOfficeRemoteInterface) Naming.lookup("rmi://"
+				+ primaryHost + ":" + Constants.RMI_PORT + "/AirlineManager");
+		flightsManager = new FlightsManager(primaryHost);
+	}
+
+	public static void main(String[] args) {
+		int port = args.length > 0 ? Integer.parseInt(args[0])
+				: Constants.QUERY_NODE_RMI_PORT;
+		String primaryHost = args.length > 1 ? args[1] : "localhost";
+
+		/*
+		 * Unlike the BackOffice, a query node installs no security manager:
+		 * it only uses the classes of its own classpath, so it never
+		 * downloads code through RMI.
+		 */
+		System.getProperties().put(
+				"sun.rmi.transport.tcp.maxConnectionThreads",
+				String.valueOf(Constants.RMI_MAX_CONNECTION_THREADS));
+
+		QueryNode node;
+		try {
+			node = new QueryNode(primaryHost);
+		} catch (Exception e) {
+			System.out.println("Could not replicate the BackOffice at "
+					+ primaryHost + ": " + e.getMessage());
+			System.exit(-1);
+			return;
+		}
+
+		try {
+			RequestDispatcher dispatcher = new RequestDispatcher(node,
+					BackOfficeRemoteInterface.class, Constants.REQUEST_WORKERS,
+					Constants.REQUEST_QUEUE_CAPACITY);
+			Registry r = LocateRegistry.createRegistry(port);
+			r.rebind("AirlineManager",
+					dispatcher.export(BackOfficeRemoteInterface.class));
+		} catch (RemoteException re) {
+			System.out
+					.println("There's already another instance running in this port: The query node will shutdown. Please restart specifying another port.");
+			System.exit(0);
+		}
+
+		System.out.println("Query node of " + primaryHost + " ready on port "
+				+ port + ".");
+		node.reportLag();
+	}
+
+	/* Reports how far behind the primary the replicas are, forever. */
+	private void reportLag() {
+		while (true) {
+			try {
+				Thread.sleep(Constants.REPLICA_LAG_REPORT_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			long[] lag = flightsManager.replicaLag();
+			long flights = 0;
+			for (int month = 0; month < 12; month++) {
+				flights = Math.max(flights, lag[month]);
+			}
+			System.out.println("Replica lag: FlightsList " + flights
+					+ " ms, RegularFlightsList " + lag[12] + " ms");
+		}
+	}
+
+	/* The searches, answered by this node. */
+
+	@Override
+	public Vector<String> getDestinations() throws RemoteException {
+		return destinationsPrices.getDestinations();
+	}
+
+	@Override
+	public double getPrice(String orig, String dest) throws RemoteException {
+		return destinationsPrices.getPrice(orig, dest);
+	}
+
+	@Override
+	public String listFlights() throws RemoteException {
+		return flightsManager.listFlights();
+	}
+
+	@Override
+	public String findFlights(int year, int month, int day, String origin,
+			String destination) throws RemoteException {
+		return flightsManager
+				.findFlights(year, month, day, origin, destination);
+	}
+
+	@Override
+	public String getBookingInfo(int idFlight, int idBooking)
+			throws RemoteException {
+		return flightsManager.getBookingInfo(idFlight, idBooking);
+	}
+
+	/* Everything else, answered by the primary. */
+
+	@Override
+	public void sendPositiveFeedback(Message feedback) throws RemoteException {
+		primary.sendPositiveFeedback(feedback);
+	}
+
+	@Override
+	public void sendNegativeFeedback(Message feedback) throws RemoteException {
+		primary.sendNegativeFeedback(feedback);
+	}
+
+	@Override
+	public String registerOperator(String comp, String name, String addr,
+			String phone, String mail, String password) throws RemoteException {
+		return primary.registerOperator(comp, name, addr, phone, mail,
+				password);
+	}
+
+	@Override
+	public String loginOperator(String user, String pass)
+			throws RemoteException {
+		return primary.loginOperator(user, pass);
+	}
+
+	@Override
+	public String scheduleCharter(GregorianCalendar date, String origin,
+			String destination, int seats) throws RemoteException {
+		return primary.scheduleCharter(date, origin, destination, seats);
+	}
+
+	@Override
+	public String scheduleBooking(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber) throws RemoteException {
+		return primary.scheduleBooking(idFlight, name, address, phone, mail,
+				seats, isOperator, bookingNumber);
+	}
+
+	@Override
+	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber) throws RemoteException {
+		return primary.modifyBooking(idFlight, idBooking, idNewFlight,
+				isOperator, bookingNumber);
+	}
+
+	@Override
+	public String cancelBooking(int idFlight, int idBooking)
+			throws RemoteException {
+		return primary.cancelBooking(idFlight, idBooking);
+	}
+
+	@Override
+	public String scheduleBooking(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber, String requestId) throws RemoteException {
+		return primary.scheduleBooking(idFlight, name, address, phone, mail,
+				seats, isOperator, bookingNumber, requestId);
+	}
+
+	@Override
+	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber, String requestId)
+			throws RemoteException {
+		return primary.modifyBooking(idFlight, idBooking, idNewFlight,
+				isOperator, bookingNumber, requestId);
+	}
+
+	@Override
+	public String cancelBooking(int idFlight, int idBooking, String requestId)
+			throws RemoteException {
+		return primary.cancelBooking(idFlight, idBooking, requestId);
+	}
+
+	@Override
+	public Double[] bookingPrice(int idFlight, String clientEmail)
+			throws RemoteException {
+		return primary.bookingPrice(idFlight, clientEmail);
+	}
+
+	@Override
+	public void updateMiles(Double miles, String mail) throws RemoteException {
+		primary.updateMiles(miles, mail);
+	}
+}
@@ -0,0 +1,218 @@
+package backOffice;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Dispatch layer between the RMI runtime and the BackOffice. Every remote call
+ * is put in the queue of its method and executed by one of a fixed number of
+ * workers, which serve the queues in turn so that a flood of calls to one
+ * method doesn't starve the others. When the queue of a method is full the
+ * call is refused at once with a ServerBusyException, instead of piling up
+ * threads and memory in the server.
+ * 
+ * The depth of each queue, along with its active, completed and rejected
+ * counts, is exported as a RequestQueue MBean named
+ * "AirlineManager:type=RequestQueue,method=<method>".
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class RequestDispatcher implements InvocationHandler {
+
+	private final Object target;
+	private final Map<String, RequestQueue> queues = new LinkedHashMap<String, RequestQueue>();
+	private final RequestQueue[] turns;
+	/* The queue the next idle worker will look at first. */
+	private int nextTurn = 0;
+
+	/**
+	 * @param target
+	 *            the object that executes the calls.
+	 * @param remoteInterface
+	 *            the interface whose methods are dispatched. Each method name
+	 *            gets its own queue.
+	 * @param workers
+	 *            the number of calls that may be executed at the same time.
+	 * @param capacity
+	 *            the number of calls that may wait in each queue.
+	 */
+	public RequestDispatcher(Object target, Class<?> remoteInterface,
+			int workers, int capacity) {
+		this.target = target;
+		for (Method method : remoteInterface.getMethods()) {
+			if (!queues.containsKey(method.getName())) {
+				queues.put(method.getName(), new RequestQueue(method.getName(),
+						capacity));
+			}
+		}
+		turns = queues.values().toArray(new RequestQueue[queues.size()]);
+
+		for (int i = 0; i < workers; i++) {
+			Thread worker = new Thread("Request Worker " + (i + 1)) {
+				public void run() {
+					work();
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Exports a stub that routes every call of the given remote interface
+	 * through this dispatcher and registers the queue metrics.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Remote> T export(Class<T> remoteInterface)
+			throws RemoteException {
+		registerMBeans();
+		return (T) UnicastRemoteObject.exportObject(proxy(remoteInterface), 0);
+	}
+
+	/**
+	 * A local object that routes every call of the given interface through
+	 * this dispatcher, for transports other than RMI.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T proxy(Class<T> remoteInterface) {
+		return (T) Proxy.newProxyInstance(remoteInterface.getClassLoader(),
+				new Class<?>[] { remoteInterface }, this);
+	}
+
+	public Collection<RequestQueue> queues() {
+		return queues.values();
+	}
+
+	/**
+	 * Executes the call on one of the workers and waits for its answer.
+	 * 
+	 * @throws ServerBusyException
+	 *             if the queue of the method is full.
+	 */
+	public <T> T call(String method, Callable<T> call) throws Exception {
+		FutureTask<T> task = new FutureTask<T>(call);
+		submit(method, task);
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			task.cancel(false);
+			throw new RemoteException("Interrupted while waiting for "
+					+ method, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Puts the call in the queue of its method and returns at once. Used by
+	 * transports that don't wait for the answer on the calling thread.
+	 * 
+	 * @throws ServerBusyException
+	 *             if the queue of the method is full.
+	 */
+	public void submit(String method, Runnable call) throws ServerBusyException {
+		RequestQueue queue = queues.get(method);
+		synchronized (this) {
+			if (!queue.offer(call)) {
+				throw new ServerBusyException(method);
+			}
+			notify();
+		}
+	}
+
+	public Object invoke(Object proxy, final Method method, final Object[] args)
+			throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			return method.invoke(this, args);
+		}
+
+		return call(method.getName(), new Callable<Object>() {
+			public Object call() throws Exception {
+				return execute(method, args);
+			}
+		});
+	}
+
+	/**
+	 * Executes the call on the calling thread, throwing whatever the target
+	 * throws.
+	 */
+	Object execute(Method method, Object[] args) throws Exception {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw (Error) e.getCause();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			RequestQueue queue = null;
+			Runnable call = null;
+			synchronized (this) {
+				while (call == null) {
+					for (int i = 0; i < turns.length && call == null; i++) {
+						queue = turns[(nextTurn + i) % turns.length];
+						call = queue.poll();
+					}
+					if (call == null) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+				nextTurn = (nextTurn + 1) % turns.length;
+			}
+
+			try {
+				call.run();
+			} catch (RuntimeException e) {
+				/* The worker must survive whatever a call throws. */
+				e.printStackTrace();
+			} finally {
+				synchronized (this) {
+					queue.finished();
+				}
+			}
+		}
+	}
+
+	private void registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (RequestQueue queue : queues.values()) {
+			try {
+				server.registerMBean(queue, new ObjectName(
+						"AirlineManager:type=RequestQueue,method="
+								+ queue.getMethod()));
+			} catch (Exception e) {
+				System.out.println("Unable to register the metrics of "
+						+ queue.getMethod() + ": " + e.getMessage());
+			}
+		}
+	}
+}
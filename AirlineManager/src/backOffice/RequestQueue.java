@@ -0,0 +1,78 @@
+package backOffice;
+
+import java.util.LinkedList;
+
+/**
+ * The bounded queue of remote calls waiting for a given BackOffice method. It is
+ * guarded by the RequestDispatcher that owns it; the MBean getters only read
+ * volatile counts, so JMX never touches the list itself.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class RequestQueue implements RequestQueueMBean {
+
+	private final String method;
+	private final int capacity;
+	private final LinkedList<Runnable> calls = new LinkedList<Runnable>();
+
+	private volatile int depth = 0;
+	private volatile int active = 0;
+	private volatile long completed = 0;
+	private volatile long rejected = 0;
+
+	RequestQueue(String method, int capacity) {
+		this.method = method;
+		this.capacity = capacity;
+	}
+
+	/* Returns false, counting the rejection, if the queue is full. */
+	boolean offer(Runnable call) {
+		if (calls.size() >= capacity) {
+			rejected++;
+			return false;
+		}
+		calls.addLast(call);
+		depth = calls.size();
+		return true;
+	}
+
+	Runnable poll() {
+		if (calls.isEmpty()) {
+			return null;
+		}
+		active++;
+		Runnable call = calls.removeFirst();
+		depth = calls.size();
+		return call;
+	}
+
+	void finished() {
+		active--;
+		completed++;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getQueueDepth() {
+		return depth;
+	}
+
+	public int getActiveCount() {
+		return active;
+	}
+
+	public long getCompletedCount() {
+		return completed;
+	}
+
+	public long getRejectedCount() {
+		return rejected;
+	}
+}
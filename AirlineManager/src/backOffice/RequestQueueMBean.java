@@ -0,0 +1,29 @@
+package backOffice;
+
+/**
+ * Management interface of the queue that holds the remote calls waiting for a
+ * given BackOffice method.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public interface RequestQueueMBean {
+
+	/** The remote method whose calls are held by this queue. */
+	String getMethod();
+
+	/** The maximum number of calls that may be waiting. */
+	int getCapacity();
+
+	/** The number of calls waiting for a worker. */
+	int getQueueDepth();
+
+	/** The number of calls being executed. */
+	int getActiveCount();
+
+	/** The number of calls executed since the BackOffice started. */
+	long getCompletedCount();
+
+	/** The number of calls refused because the queue was full. */
+	long getRejectedCount();
+}
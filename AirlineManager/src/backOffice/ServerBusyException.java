@@ -0,0 +1,33 @@
+package backOffice;
+
+import java.rmi.RemoteException;
+
+/**
+ * Answer given to a remote call that was refused because the BackOffice is
+ * saturated. The call was not executed, so it is always safe to try it again
+ * later.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class ServerBusyException extends RemoteException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ServerBusyException(String method) {
+		super("The system is busy, " + method + " was not executed. Please try again later.");
+	}
+
+	/**
+	 * Tells whether a failed remote call was refused by a busy BackOffice. RMI
+	 * hands server side exceptions to the client wrapped in a ServerException.
+	 */
+	public static boolean refused(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ServerBusyException) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -9,7 +9,9 @@ import java.util.Map.Entry;
 
 import org.prevayler.Prevayler;
 import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
 import org.prevayler.Transaction;
+import org.prevayler.foundation.monitor.MetricsMonitor;
 
 import bookings.Booking;
 
@@ -31,8 +33,11 @@ public class ClientsManager {
 	@SuppressWarnings("unchecked")
 	public ClientsManager() {
 		try {
-			prevayler = PrevaylerFactory.createPrevayler(
-					new Hashtable<String, Client>(), "ClientsList");
+			PrevaylerFactory factory = new PrevaylerFactory();
+			factory.configurePrevalentSystem(new Hashtable<String, Client>());
+			factory.configurePrevalenceDirectory("ClientsList");
+			factory.configureMonitor(MetricsMonitor.register("ClientsList"));
+			prevayler = factory.create();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (ClassNotFoundException e) {
@@ -54,16 +59,7 @@ public class ClientsManager {
 	 * @return String with clients list
 	 */
 	public String listClients() {
-		String text = "";
-
-		for (Entry<String, Client> entry : clientsHash.entrySet()) {
-			text += entry.getValue().getName() + "\t"
-					+ entry.getValue().getEmail() + "\t"
-					+ entry.getValue().getPhoneContact() + "\t"
-					+ entry.getValue().getKilometers() + "km\n";
-		}
-
-		return text;
+		return (String) query(new listClients());
 	}
 
 	/**
@@ -80,6 +76,20 @@ public class ClientsManager {
 		return prevayler;
 	}
 
+	/**
+	 * Runs a query on the clients list, so it is never walked while a transaction
+	 * changes it.
+	 */
+	private Object query(Query query) {
+		try {
+			return prevayler.execute(query);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
 
 class putClient implements Transaction {
@@ -114,3 +124,23 @@ class putClient implements Transaction {
 	}
 
 }
+
+class listClients implements Query {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		String text = "";
+
+		for (Entry<String, Client> entry : ((Hashtable<String, Client>) arg0)
+				.entrySet()) {
+			text += entry.getValue().getName() + "\t"
+					+ entry.getValue().getEmail() + "\t"
+					+ entry.getValue().getPhoneContact() + "\t"
+					+ entry.getValue().getKilometers() + "km\n";
+		}
+
+		return text;
+	}
+
+}
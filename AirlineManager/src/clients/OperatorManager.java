@@ -5,6 +5,7 @@ package clients;
 import java.util.Date;
 import java.util.Vector;
 import org.prevayler.*;
+import org.prevayler.foundation.monitor.MetricsMonitor;
 
 /**
  * Class that manages operators.
@@ -27,7 +28,11 @@ public class OperatorManager {
 		super();
 		
 		try {
-			prevayler = PrevaylerFactory.createPrevayler(new Vector<Operator>(), "OperatorsList");
+			PrevaylerFactory factory = new PrevaylerFactory();
+			factory.configurePrevalentSystem(new Vector<Operator>());
+			factory.configurePrevalenceDirectory("OperatorsList");
+			factory.configureMonitor(MetricsMonitor.register("OperatorsList"));
+			prevayler = factory.create();
 		} catch (Exception e) {
 			System.out.println("Prevayler error, exiting.");
 			System.exit(-1);
@@ -77,13 +82,7 @@ public class OperatorManager {
 	 * @return Returns the Operator object or null if not found.
 	 */
 	public Operator searchOperator(String name){
-		for(int i = 0; i < operatorList.size(); i++){
-			if(operatorList.get(i).getName().equals(name)){
-				return (Operator) operatorList.get(i);
-			}
-		}
-		
-		return null;
+		return (Operator) query(new searchOperator(name));
 	}
 	
 	
@@ -106,6 +105,20 @@ public class OperatorManager {
 	public Vector<Operator> getOperatorList() {
 		return operatorList;
 	}
+
+	/**
+	 * Runs a query on the operators list, so it is never walked while a transaction
+	 * changes it.
+	 */
+	private Object query(Query query) {
+		try {
+			return prevayler.execute(query);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
 
 
@@ -135,7 +148,7 @@ class addOperator implements Transaction{
 	
 }
 
-class removeOperator implements Transaction{
+class removeOperator implements ImmutableTransaction{
 
 	/**
 	 * 
@@ -162,3 +175,28 @@ class removeOperator implements Transaction{
 	
 	
 }
+
+class searchOperator implements Query{
+
+	private String name;
+
+	public searchOperator(String name){
+		this.name=name;
+		
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Operator> operatorList = (Vector<Operator>) arg0;
+		for(int i = 0; i < operatorList.size(); i++){
+			if(operatorList.get(i).getName().equals(name)){
+				return operatorList.get(i);
+			}
+		}
+		
+		return null;
+	}
+	
+	
+}
@@ -15,6 +15,53 @@ public class Constants {
 	static public int DIM_H = 1000;
 	static public int DIM_V = 600;
 	static public int RMI_PORT = 2000;
+	static public int RMI_MAX_CONNECTION_THREADS = 200;
+	static public int BINARY_PORT = 2001;
+	static public int HTTP_PORT = 8080;
+	/* Ports where the BackOffice serves its flights lists to the query nodes, from this one on: the months of the year, then the regular flights. */
+	static public int REPLICATION_PORT = 2100;
+	/* RMI port of a query node, unless another is given when it is started. */
+	static public int QUERY_NODE_RMI_PORT = 2010;
+	/* How often (ms) a query node reports how far behind the BackOffice it is. */
+	static public long REPLICA_LAG_REPORT_INTERVAL = 60 * 1000;
+	/* Threads serving the HTTP gateway connections. */
+	static public int HTTP_WORKERS = 32;
+	/* Answers kept for requests with a request id, and for how long (ms). */
+	static public int REQUEST_LOG_CAPACITY = 10000;
+	static public long REQUEST_LOG_TIME_TO_LIVE = 24 * 60 * 60 * 1000L;
+	/* Feedback messages written in the last FEEDBACK_FLUSH_INTERVAL ms may be lost in a crash. */
+	static public long FEEDBACK_FLUSH_INTERVAL = 1000;
+	/* How often (ms) the flights lists are snapshotted. */
+	static public long SNAPSHOT_INTERVAL = 60 * 60 * 1000;
+	/* Snapshot sections written or read at the same time. */
+	static public int SNAPSHOT_THREADS = Runtime.getRuntime()
+			.availableProcessors();
+	/* Changes read ahead for each reader of the flights lists changes. */
+	static public int EVENT_TAIL_CAPACITY = 1000;
+	/* Delta snapshots written between two full snapshots of a flights list. */
+	static public int DELTA_SNAPSHOTS = 23;
+	/* Months of finished flights kept loaded, counting back from this one; older ones are read from disk when needed. */
+	static public int FINISHED_MONTHS_LOADED = 3;
+	/* Months after which finished flights are moved to the archive on disk, counting back from this one. */
+	static public int FINISHED_ARCHIVE_AGE = 12;
+	/* Size (bytes) each journal segment of a flights list is allocated at; a new segment is started when it fills up. */
+	static public long JOURNAL_SEGMENT_SIZE = 4 * 1024 * 1024;
+	/* Age (ms) after which a new journal segment of a flights list is started, even if the last one is not full. */
+	static public long JOURNAL_SEGMENT_AGE = 24 * 60 * 60 * 1000;
+	/* Snapshots of a flights list whose journal segments are kept from being recycled, so that the last week, at one snapshot per SNAPSHOT_INTERVAL, can still be recovered to any moment. */
+	static public int JOURNAL_RETAINED_SNAPSHOTS = 7 * 24;
+	/* Age (ms) under which a journal segment of a flights list is never recycled, so that query nodes and changes readers that fall behind can catch up. */
+	static public long JOURNAL_RETENTION_AGE = 24 * 60 * 60 * 1000L;
+	/* Capacity of the ring through which the booking threads hand their transactions to a single thread that writes and syncs the journal of a flights list; 0 lets each booking thread write and sync its own. */
+	static public int JOURNAL_WRITER_RING = 0;
+	/* How often (ms) the journals report their disk syncs. */
+	static public long JOURNAL_SYNC_REPORT_INTERVAL = 60 * 1000;
+	/* Times the FrontOffice tries a booking call that can be safely repeated. */
+	static public int REMOTE_CALL_ATTEMPTS = 3;
+	/* Remote calls executed at the same time by the BackOffice. */
+	static public int REQUEST_WORKERS = 16;
+	/* Remote calls that may wait for each BackOffice method. */
+	static public int REQUEST_QUEUE_CAPACITY = 64;
 	static public String ADMIN_USERNAME = "admin";
 	static public String ADMIN_PASSWORD = "ES2010";
 	static public boolean DEBUGGING = true;
@@ -7,6 +7,7 @@ import java.util.GregorianCalendar;
 import java.util.Vector;
 
 import planes.Airplane;
+import requests.RequestLog;
 import common.Lock;
 import bookings.Booking;
 
@@ -22,8 +23,10 @@ import bookings.Booking;
  * @author Joo Barbosa
  * @author Ricardo Bernardino
  */
-@SuppressWarnings("serial")
 public class Flight implements Serializable{
+	/* The one computed for the flights saved before it was declared. */
+	private static final long serialVersionUID = -6267466092212638038L;
+
 	/* The list of bookings registered for this flight. */
 	private Vector <Booking> bookings;
 	private int occupied;
@@ -40,6 +43,8 @@ public class Flight implements Serializable{
 	public Lock lock = new Lock();
 	/* How this flight ended, if it occurred or was instead cancelled. */
 	private String finishedReason;
+	/* The answers to the requests that changed this flight, null until the first. */
+	private RequestLog requests;
 	
 	
 	/**
@@ -197,6 +202,35 @@ public class Flight implements Serializable{
 		"\nOrigin: "+ origin + "\nDestination: "+destination +"\nState: "+ finishedReason + "\n\n";
 	}
 	
+	/**
+	 * A copy of this flight that departs at another date, with the same
+	 * bookings, to replace it in the flights list.
+	 * 
+	 * @param date
+	 */
+	Flight movedTo(GregorianCalendar date){
+		Flight moved = new Flight(airplane, date, origin, destination,
+				isRegular, isCharter, id);
+		moved.bookings = bookings;
+		moved.occupied = occupied;
+		moved.lock = lock;
+		moved.finishedReason = finishedReason;
+		moved.requests = requests;
+		return moved;
+	}
+	
+	/**
+	 * A copy of this flight, with lists of its own, to hand out of the
+	 * flights list: it can be read while transactions change the flight. It
+	 * keeps the lock of the flight.
+	 */
+	Flight copy(){
+		Flight copy = movedTo((GregorianCalendar) date.clone());
+		copy.bookings = new Vector <Booking>(bookings);
+		copy.requests = requests == null ? null : requests.copy();
+		return copy;
+	}
+	
 	public void increaseOccupied(int no){
 		occupied += no;
 	}
@@ -204,4 +238,26 @@ public class Flight implements Serializable{
 	public void decreaseOccupied(int no){
 		occupied -= no;
 	}
+
+	/**
+	 * Records the answer to a request that changed this flight. It is called
+	 * by the transaction that makes the change, so the answer is committed
+	 * together with it.
+	 */
+	public void recordRequest(String requestId, String answer, Date date,
+			int capacity, long timeToLive) {
+		if (requests == null) {
+			requests = new RequestLog();
+		}
+		requests.record(requestId, answer, date, capacity, timeToLive);
+	}
+
+	/**
+	 * The answer to a request that changed this flight, or null if it did
+	 * not change it.
+	 */
+	public String answerTo(String requestId, Date now, long timeToLive) {
+		return requests == null ? null : requests.answerTo(requestId, now,
+				timeToLive);
+	}
 }
@@ -0,0 +1,17 @@
+package flights;
+
+/**
+ * A transaction of the flights lists that a FlightEventTail reports, as the
+ * FlightEvent it stands for.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+interface FlightChange {
+
+	/**
+	 * The event of the change once it has been executed, or null if it was
+	 * not executed or changed nothing.
+	 */
+	FlightEvent event();
+}
@@ -0,0 +1,92 @@
+package flights;
+
+import java.util.Date;
+
+import bookings.Booking;
+
+/**
+ * A change to the flights lists, decoded from one of their journaled
+ * transactions, for the systems that follow the flights and bookings through
+ * a FlightEventTail.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class FlightEvent {
+
+	public enum Type {
+		FLIGHT_SCHEDULED, FLIGHT_REMOVED, FLIGHT_ARCHIVED, BOOKING_CREATED, BOOKING_CANCELLED, REGULAR_FLIGHT_SCHEDULED, REGULAR_FLIGHT_REMOVED, REGULAR_FLIGHTS_REPLACED
+	}
+
+	private Type type;
+	private long transaction;
+	private Date time;
+	private Flight flight;
+	private Booking booking;
+	private RFlight regularFlight;
+	private int weekDay;
+
+	/* A change to a flight and, if given, one of its bookings. */
+	FlightEvent(Type type, Flight flight, Booking booking) {
+		this.type = type;
+		this.flight = flight;
+		this.booking = booking;
+	}
+
+	/* A change to the regular flights of a week day. */
+	FlightEvent(Type type, int weekDay, RFlight regularFlight) {
+		this.type = type;
+		this.weekDay = weekDay;
+		this.regularFlight = regularFlight;
+	}
+
+	/* Called when the event is read from the journal. */
+	void journaled(long transaction, Date time) {
+		this.transaction = transaction;
+		this.time = time;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/** The number of the transaction of the flights list that made the change. */
+	public long getTransaction() {
+		return transaction;
+	}
+
+	public Date getTime() {
+		return time;
+	}
+
+	/** The flight, as it was sent to the flights list; null for regular flights. */
+	public Flight getFlight() {
+		return flight;
+	}
+
+	/** The booking created or cancelled; null for the other events. */
+	public Booking getBooking() {
+		return booking;
+	}
+
+	/** The regular flight scheduled or removed; null for the other events. */
+	public RFlight getRegularFlight() {
+		return regularFlight;
+	}
+
+	/** The week day of a regular flight event (Calendar.SUNDAY = 1). */
+	public int getWeekDay() {
+		return weekDay;
+	}
+
+	public String toString() {
+		String text = "#" + transaction + " " + type;
+		if (flight != null)
+			text += " flight " + flight.getId();
+		if (booking != null)
+			text += " booking " + booking.getBookingNumber();
+		if (regularFlight != null || type == Type.REGULAR_FLIGHTS_REPLACED)
+			text += " week day " + weekDay;
+		return text;
+	}
+}
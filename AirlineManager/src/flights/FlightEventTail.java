@@ -0,0 +1,154 @@
+package flights;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedList;
+
+import org.prevayler.JournalEntry;
+import org.prevayler.JournalTail;
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Transaction;
+import org.prevayler.TransactionBatch;
+import org.prevayler.ValidatedTransaction;
+
+import common.Constants;
+
+/**
+ * The changes to one of the flights lists (a month of FlightsList or of
+ * FinishedFlightsList, or RegularFlightsList), in order, from a given
+ * transaction of that list on.
+ * Reporting, the search index and other downstream systems take them one at a
+ * time with next(): the changes are only read as fast as they are taken, so
+ * a slow consumer never holds back the BackOffice.
+ * 
+ * A consumer that keeps nextTransaction() can resume from it later. A
+ * change may then be delivered again, but never lost.
+ * 
+ * The journal keeps the transactions the list rejected and the ones that
+ * changed nothing too, so each transaction is executed again on a replica of
+ * the list, recovered from its directory, and only the changes it applies
+ * are reported.
+ * 
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ * 
+ */
+public class FlightEventTail {
+
+	private JournalTail tail;
+	/* The list as it is after the transactions read so far. */
+	private Object replica;
+	/* The events of the last transaction that were not taken yet. */
+	private LinkedList<FlightEvent> pending = new LinkedList<FlightEvent>();
+	private long pendingTransaction;
+
+	/**
+	 * Follows a flights list of the FlightsManager of this process, like
+	 * getFlightsStore(Calendar.MAY).
+	 * 
+	 * @param directory
+	 *            the directory of the list, like
+	 *            FlightsManager.flightsDirectory(Calendar.MAY).
+	 * @throws IOException
+	 *             if the list cannot be recovered as it was before
+	 *             initialTransaction.
+	 */
+	public FlightEventTail(Prevayler store, String directory,
+			long initialTransaction) throws IOException {
+		replica = recover(directory, initialTransaction);
+		tail = store.tail(initialTransaction, Constants.EVENT_TAIL_CAPACITY);
+	}
+
+	/**
+	 * Follows a flights list through its journal files, which may be written
+	 * by a BackOffice in another process.
+	 * 
+	 * @param directory
+	 *            the directory of the list, like
+	 *            FlightsManager.flightsDirectory(Calendar.MAY).
+	 * @throws IOException
+	 *             if the list cannot be recovered as it was before
+	 *             initialTransaction.
+	 */
+	public FlightEventTail(String directory, long initialTransaction)
+			throws IOException {
+		replica = recover(directory, initialTransaction);
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalenceDirectory(directory);
+		tail = factory.createJournalTail(initialTransaction,
+				Constants.EVENT_TAIL_CAPACITY);
+	}
+
+	/**
+	 * Returns the next change, waiting for it if necessary.
+	 * 
+	 * @throws IOException
+	 *             if the journal no longer has the changes wanted.
+	 */
+	public FlightEvent next() throws IOException, InterruptedException {
+		while (pending.isEmpty()) {
+			JournalEntry entry = tail.next();
+			pendingTransaction = entry.systemVersion();
+			execute(entry.transaction(), entry.executionTime());
+			for (FlightEvent event : pending) {
+				event.journaled(entry.systemVersion(), entry.executionTime());
+			}
+		}
+		return pending.removeFirst();
+	}
+
+	/** The transaction to resume from without losing a change. */
+	public long nextTransaction() {
+		return pending.isEmpty() ? tail.nextTransaction() : pendingTransaction;
+	}
+
+	public void close() {
+		tail.close();
+	}
+
+	private static Object recover(String directory, long initialTransaction)
+			throws IOException {
+		try {
+			return FlightsManager.storeFactory(directory).recover(
+					initialTransaction - 1);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to recover " + directory + ": " + e);
+		}
+	}
+
+	/*
+	 * Executes the transaction on the replica like the list did, so the
+	 * replica is left as the list was when the transaction was rejected or
+	 * threw.
+	 */
+	private void execute(Object transaction, Date executionTime) {
+		try {
+			if (transaction instanceof ValidatedTransaction) {
+				((ValidatedTransaction) transaction).validate(replica,
+						executionTime);
+			}
+			((Transaction) transaction).executeOn(replica, executionTime);
+		} catch (RuntimeException e) {
+			/* The list rejected it too, and it was reported there. */
+		}
+		decode(transaction);
+	}
+
+	/*
+	 * Transactions that are not flight changes, and changes that were not
+	 * applied, have no events.
+	 */
+	private void decode(Object transaction) {
+		if (transaction instanceof TransactionBatch) {
+			for (Transaction member : ((TransactionBatch) transaction)
+					.transactions()) {
+				decode(member);
+			}
+		} else if (transaction instanceof FlightChange) {
+			FlightEvent event = ((FlightChange) transaction).event();
+			if (event != null) {
+				pending.add(event);
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package flights;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The finished flights of old months, kept on disk instead of on the heap.
+ * Each month is an append-only segment file ("2011-05.segment") of records,
+ * each with a small header (departure, id, whether the flight was cancelled)
+ * followed by the serialized flight. The segments are read through memory
+ * mapping: statistics only read the headers, and flights are only
+ * deserialized when they are asked for. Each segment is mapped once and the
+ * mapping is shared by the readers until the next append to it.
+ * 
+ * A record that was not completely written, because the BackOffice stopped
+ * while appending, is ignored and overwritten by the next append.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class FlightsArchive {
+
+	private static final String SEGMENT = ".segment";
+	/* Payload length, departure, id and cancelled flag. */
+	private static final int HEADER = 4 + 8 + 4 + 1;
+
+	private File directory;
+
+	/* The mapped segments, by month. */
+	private final Map<String, MappedByteBuffer> mapped = new HashMap<String, MappedByteBuffer>();
+	/* Readers scan the mapped segments under the read lock; an append
+	 * releases the mapping of its segment under the write lock. */
+	private final ReentrantReadWriteLock mapping = new ReentrantReadWriteLock();
+
+	/**
+	 * @param directory
+	 *            the directory of the segments, created when the first
+	 *            flights are archived.
+	 */
+	public FlightsArchive(String directory) {
+		this.directory = new File(directory);
+	}
+
+	/** The archived months, like "2011-05", in order. */
+	public TreeSet<String> months() {
+		TreeSet<String> months = new TreeSet<String>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.endsWith(SEGMENT)) {
+					months.add(name.substring(0, name.length()
+							- SEGMENT.length()));
+				}
+			}
+		}
+		return months;
+	}
+
+	/**
+	 * Appends the finished flights of a month to its segment, skipping the
+	 * ones already archived, and forces them to disk.
+	 */
+	public void append(String month, List<Flight> flights) throws IOException {
+		mapping.writeLock().lock();
+		try {
+			appendRecords(month, flights);
+		} finally {
+			mapping.writeLock().unlock();
+		}
+	}
+
+	private void appendRecords(String month, List<Flight> flights)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("could not create " + directory);
+		}
+		HashSet<String> archived = new HashSet<String>();
+		ByteBuffer segment = map(month);
+		long end = 0;
+		if (segment != null) {
+			while (hasRecord(segment)) {
+				int start = segment.position();
+				archived.add(key(segment.getLong(start + 4), segment
+						.getInt(start + 12)));
+				skipRecord(segment);
+			}
+			end = segment.position();
+		}
+		/* The segment grows, and may be truncated: it is mapped again by the
+		 * next reader. */
+		release(month);
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for (Flight flight : flights) {
+			if (!archived.add(key(flight.getDate().getTimeInMillis(), flight
+					.getId()))) {
+				continue;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream stream = new ObjectOutputStream(bytes);
+			stream.writeObject(flight);
+			stream.close();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(bytes.size());
+			header.putLong(flight.getDate().getTimeInMillis());
+			header.putInt(flight.getId());
+			header.put((byte) ("Finished".equals(flight.getFinishedReason()) ? 0
+					: 1));
+			records.write(header.array());
+			bytes.writeTo(records);
+		}
+
+		RandomAccessFile file = new RandomAccessFile(segment(month), "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			/* Drops a record left incomplete by an append that failed. */
+			channel.truncate(end);
+			channel.position(end);
+			ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Counts the archived flights of a month that departed between the given
+	 * dates (or all of them if no dates are given): the finished ones first,
+	 * then the cancelled ones. Only the headers are read.
+	 */
+	public int[] count(String month, GregorianCalendar beginning,
+			GregorianCalendar end) throws IOException {
+		int[] outcome = new int[2];
+		mapping.readLock().lock();
+		try {
+			ByteBuffer segment = map(month);
+			if (segment == null) {
+				return outcome;
+			}
+			while (hasRecord(segment)) {
+				int start = segment.position();
+				long departure = segment.getLong(start + 4);
+				if (beginning == null
+						|| (departure > beginning.getTimeInMillis() && departure < end
+								.getTimeInMillis())) {
+					outcome[segment.get(start + 16)]++;
+				}
+				skipRecord(segment);
+			}
+			return outcome;
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	/** The archived flights of a month, in the order they were archived. */
+	public Vector<Flight> flights(String month) throws IOException {
+		Vector<Flight> flights = new Vector<Flight>();
+		mapping.readLock().lock();
+		try {
+			ByteBuffer segment = map(month);
+			if (segment != null) {
+				while (hasRecord(segment)) {
+					flights.add(read(segment));
+				}
+			}
+			return flights;
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds an archived flight by its id and departure; only that flight is
+	 * deserialized.
+	 * @return Returns the Flight or null if it is not archived.
+	 */
+	public Flight find(String month, int id, GregorianCalendar date)
+			throws IOException {
+		mapping.readLock().lock();
+		try {
+			ByteBuffer segment = map(month);
+			if (segment == null) {
+				return null;
+			}
+			while (hasRecord(segment)) {
+				int start = segment.position();
+				if (segment.getLong(start + 4) == date.getTimeInMillis()
+						&& segment.getInt(start + 12) == id) {
+					return read(segment);
+				}
+				skipRecord(segment);
+			}
+			return null;
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	private File segment(String month) {
+		return new File(directory, month + SEGMENT);
+	}
+
+	/*
+	 * The segment of a month, read from its start, or null if there is none.
+	 * It is mapped by the first reader; the others get their own view of the
+	 * same mapping. Called under the mapping lock.
+	 */
+	private ByteBuffer map(String month) throws IOException {
+		synchronized (mapped) {
+			MappedByteBuffer buffer = mapped.get(month);
+			if (buffer == null) {
+				File segment = segment(month);
+				if (!segment.isFile()) {
+					return null;
+				}
+				RandomAccessFile file = new RandomAccessFile(segment, "r");
+				try {
+					buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+							0, file.length());
+				} finally {
+					/* The mapping stays valid after the file is closed. */
+					file.close();
+				}
+				mapped.put(month, buffer);
+			}
+			return buffer.duplicate();
+		}
+	}
+
+	/*
+	 * Drops the mapping of a segment and unmaps it where the JVM allows it,
+	 * instead of when the buffer is collected, so that the file can be
+	 * truncated. Called under the write lock, when no reader is using it.
+	 */
+	private void release(String month) {
+		MappedByteBuffer buffer;
+		synchronized (mapped) {
+			buffer = mapped.remove(month);
+		}
+		if (buffer == null) {
+			return;
+		}
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object clean = cleaner.invoke(buffer);
+			if (clean != null) {
+				clean.getClass().getMethod("clean").invoke(clean);
+			}
+		} catch (Exception e) {
+			/* Not unmapped: it is only dropped, and no longer read. */
+		}
+	}
+
+	/* Whether a complete record starts at the position of the segment. */
+	private static boolean hasRecord(ByteBuffer segment) {
+		if (segment.remaining() < HEADER) {
+			return false;
+		}
+		int length = segment.getInt(segment.position());
+		return length >= 0 && segment.remaining() - HEADER >= length;
+	}
+
+	private static void skipRecord(ByteBuffer segment) {
+		segment.position(segment.position() + HEADER
+				+ segment.getInt(segment.position()));
+	}
+
+	private static Flight read(ByteBuffer segment) throws IOException {
+		byte[] bytes = new byte[segment.getInt(segment.position())];
+		segment.position(segment.position() + HEADER);
+		segment.get(bytes);
+		ObjectInputStream stream = new ObjectInputStream(
+				new ByteArrayInputStream(bytes));
+		try {
+			return (Flight) stream.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown flight class: " + e.getMessage());
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static String key(long departure, int id) {
+		return departure + "/" + id;
+	}
+}
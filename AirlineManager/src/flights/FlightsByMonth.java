@@ -0,0 +1,47 @@
+package flights;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Vector;
+
+import org.prevayler.foundation.serialization.Sectioning;
+
+/**
+ * Splits a flights list into one snapshot section per month, so that the
+ * snapshot of years of flights is written and read in parallel. The list is
+ * kept in date order, so each section is a run of consecutive flights of the
+ * same month; the list is rebuilt in exactly the same order.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class FlightsByMonth implements Sectioning {
+
+	@SuppressWarnings("unchecked")
+	public List<?> split(Object prevalentSystem) {
+		Vector<Flight> flights = (Vector<Flight>) prevalentSystem;
+		Vector<Vector<Flight>> sections = new Vector<Vector<Flight>>();
+		Vector<Flight> section = null;
+		int month = -1;
+
+		for (Flight flight : flights) {
+			int flightMonth = flight.getDate().get(Calendar.YEAR) * 12
+					+ flight.getDate().get(Calendar.MONTH);
+			if (section == null || flightMonth != month) {
+				section = new Vector<Flight>();
+				sections.add(section);
+				month = flightMonth;
+			}
+			section.add(flight);
+		}
+		return sections;
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object join(List<?> sections) {
+		Vector<Flight> flights = new Vector<Flight>();
+		for (Object section : sections) {
+			flights.addAll((Vector<Flight>) section);
+		}
+		return flights;
+	}
+}
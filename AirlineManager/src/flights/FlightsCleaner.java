@@ -36,13 +36,10 @@ public class FlightsCleaner extends Thread{
 	
 	public void run(){
 		while(true){
-			Flight flight;
 			GregorianCalendar date = new GregorianCalendar();
 			
-			for (int i = 0; i < flightsManager.getFlightsList().size() && flightsManager.getFlightsList().get(i).getDate().before(date); i++){
-				flight = flightsManager.removeFlight(i);
-				flight.setFinishedReason("Finished");
-				flightsManager.addFinished(flight);
+			/* All the departed flights are finished at once. */
+			for (Flight flight : flightsManager.finishFlights(date)){
 				
 				if (departure != null && panel != null){
 					/* Shows the warning in the main menu for 5 seconds. */
@@ -56,8 +53,6 @@ public class FlightsCleaner extends Thread{
 					}
 	     		   	panel.setVisible(false);
 				}
-				
-				i--;
 			}
 
 			/* Checks the list every 10 seconds. */
@@ -8,81 +8,164 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import messages.FeedBackManager;
 
 import org.prevayler.*;
+import org.prevayler.foundation.Durability;
+import org.prevayler.foundation.monitor.MetricsMonitor;
+import org.prevayler.foundation.serialization.JavaSerializer;
+import org.prevayler.foundation.serialization.SectionedSerializer;
+import org.prevayler.foundation.serialization.Sectioning;
 
 import planes.Airplane;
 
 import bookings.Booking;
+import common.Constants;
 
 
 /**
  * This class if responsible for managing the Flights provided by the Company.
+ * 
+ * The flights are kept in partitions, one store (with its own lock and
+ * journal) per month: the active flights in twelve stores, one per month of
+ * the year, and the finished flights in one store per calendar month, opened
+ * when first needed. Bookings of flights of different months are committed
+ * in parallel. The finished flights of old months are unloaded, and the
+ * oldest ones are kept in a FlightsArchive on disk instead of in a store.
  * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
  *
  */
 public class FlightsManager {
 	FeedBackManager feedBackManager;
 	FlightsCleaner flightsCleaner;
-
-	private Vector<Flight> flightsList;
-	private Vector<Flight> finishedFlights;
+	FlightsSnapshotTaker flightsSnapshotTaker;
+
+	/* The directories of the flights lists, before and after partitioning. */
+	private static final String FLIGHTS = "FlightsList";
+	private static final String FINISHED_FLIGHTS = "FinishedFlightsList";
+	private static final String REGULAR_FLIGHTS = "RegularFlightsList";
+	private static final String ARCHIVE = "FlightsArchive";
+
+	/* Orders flights by departure. */
+	private static final Comparator<Flight> BY_DATE = new Comparator<Flight>() {
+		public int compare(Flight a, Flight b) {
+			return a.getDate().compareTo(b.getDate());
+		}
+	};
 
 	public int idCreator = 0;
-	private Prevayler prevayler;
-	private Prevayler prevaylerFinished;
+	/* The active flights, by month of the year (Calendar.JANUARY is 0). */
+	private Prevayler[] flightsStores = new Prevayler[12];
+	/* The finished flights, by month ("2011-05"), while they are loaded. */
+	private TreeMap<String, Prevayler> finishedStores = new TreeMap<String, Prevayler>();
+	/* The finished flights of the months older than FINISHED_ARCHIVE_AGE. */
+	private FlightsArchive archive = new FlightsArchive(ARCHIVE);
+	/* Taken to read a month of finished flights, and exclusively to archive it. */
+	private ReentrantReadWriteLock archiving = new ReentrantReadWriteLock();
+	private boolean replica;
 	private Prevayler prevaylerRegular;
-	private Hashtable<Integer, Vector<RFlight>> regularFlights;
-
-	public Prevayler getPrevayler() {
-		return prevayler;
-	}
 
-	public Prevayler getPrevaylerFinished() {
-		return prevaylerFinished;
+	/**
+	 * The store of the active flights that depart in a month, of any year.
+	 * @param month Calendar.JANUARY (...) Calendar.DECEMBER
+	 */
+	public Prevayler getFlightsStore(int month) {
+		return flightsStores[month];
 	}
 
 	public Prevayler getPrevaylerRegular() {
 		return prevaylerRegular;
 	}
 
+	/**
+	 * The stores of the flights lists that are loaded, by directory: the
+	 * active flights, the finished flights of the loaded months and the
+	 * regular flights.
+	 */
+	public Map<String, Prevayler> getStores() {
+		LinkedHashMap<String, Prevayler> stores = new LinkedHashMap<String, Prevayler>();
+		for (int month = 0; month < 12; month++) {
+			stores.put(flightsDirectory(month), flightsStores[month]);
+		}
+		synchronized (finishedStores) {
+			for (Map.Entry<String, Prevayler> entry : finishedStores.entrySet()) {
+				stores.put(finishedDirectory(entry.getKey()), entry.getValue());
+			}
+		}
+		stores.put(REGULAR_FLIGHTS, prevaylerRegular);
+		return stores;
+	}
+
 	/* The constructor. */
-	@SuppressWarnings("unchecked")
 	public FlightsManager(FeedBackManager feed) {
+		this(feed, null);
+	}
+
+	/**
+	 * Creates the FlightsManager of a query node: the active and regular
+	 * flights lists are replicas of the lists of the primary BackOffice, kept
+	 * up to date by it. Their transactions are executed by the primary, and
+	 * the node does not finish flights or take snapshots. The finished flights
+	 * are not replicated.
+	 * 
+	 * @param primaryHost
+	 *            the host of the primary BackOffice.
+	 */
+	public FlightsManager(String primaryHost) {
+		this(null, primaryHost);
+	}
+
+	private FlightsManager(FeedBackManager feed, String primaryHost) {
 		super();
+		replica = primaryHost != null;
 
 		try {
-			prevayler = PrevaylerFactory.createPrevayler(new Vector<Flight>(),
-					"FlightsList");
-			prevaylerFinished = PrevaylerFactory.createPrevayler(
-					new Vector<Flight>(), "FinishedFlightsList");
-			prevaylerRegular = PrevaylerFactory.createPrevayler(
+			for (int month = 0; month < 12; month++) {
+				flightsStores[month] = openStore(new Vector<Flight>(),
+						flightsDirectory(month), new FlightsByMonth(), month,
+						primaryHost);
+			}
+			prevaylerRegular = openStore(
 					new Hashtable<Integer, Vector<RFlight>>(),
-					"RegularFlightsList");
+					REGULAR_FLIGHTS, new RegularFlightsByDay(), 12,
+					primaryHost);
 
+			if (!replica) {
+				migrate(FLIGHTS, false);
+				migrate(FINISHED_FLIGHTS, true);
+			}
 		} catch (Exception e) {
 			System.out.println("Prevayler error, exiting.");
 			System.exit(-1);
 		}
-		flightsList = (Vector<Flight>) (prevayler.prevalentSystem());
-		finishedFlights = (Vector<Flight>) (prevaylerFinished.prevalentSystem());
-		regularFlights = (Hashtable<Integer, Vector<RFlight>>) (prevaylerRegular
-				.prevalentSystem());
 
 		/* Gets the last id saved on the proper file. */
 		idCreator = getLastID();
 
 		feedBackManager = feed;
 
+		if (replica) {
+			return;
+		}
+
 		/* Calendar.SUNDAY = 1 (...) Calendar.SATURDAY = 7 */
-		if (regularFlights.size() == 0) {
+		if (getRegularFlights(Calendar.SUNDAY) == null) {
 			for (int i = 1; i < 8; i++) {
 
 				Vector<RFlight> regularFlightsList = new Vector<RFlight>();
@@ -90,7 +173,338 @@ public class FlightsManager {
 			}
 		}
 		flightsCleaner = new FlightsCleaner(this);
+		flightsSnapshotTaker = new FlightsSnapshotTaker(this);
+
+	}
+
+	/**
+	 * Creates the store of a flights list. The flight transactions validate
+	 * themselves, so the stores do not keep a copy of the whole list to try
+	 * them out first. Snapshots are written from a replica of the list, so
+	 * they never block bookings, and in compressed sections that are written
+	 * and read in parallel. The journal is written to preallocated segments,
+	 * recycled once they are outside the retention window. The
+	 * JournalCompactor and the PointInTimeRecovery tool use the same factory,
+	 * so that they read and write the stores exactly like the BackOffice.
+	 */
+	public static Prevayler createStore(Serializable system,
+			String directory, Sectioning sections) throws Exception {
+		PrevaylerFactory factory = storeFactory(system, directory, sections);
+		/* Journal, snapshot and recovery metrics, read through JMX. */
+		factory.configureMonitor(MetricsMonitor.register(directory));
+		return factory.create();
+	}
+
+	/*
+	 * Opens a flights list of the BackOffice, which query nodes replicate
+	 * through the port REPLICATION_PORT + index, or the replica of that list
+	 * when primaryHost is given. A replica has no snapshot replica of its
+	 * own: it may only have one subscriber to the primary.
+	 */
+	private static Prevayler openStore(Serializable system, String directory,
+			Sectioning sections, int index, String primaryHost)
+			throws Exception {
+		PrevaylerFactory factory = storeFactory(system, directory, sections);
+		factory.configureMonitor(MetricsMonitor.register(directory));
+		if (primaryHost == null) {
+			factory.configureReplicationServer(Constants.REPLICATION_PORT
+					+ index);
+		} else {
+			factory.configureReplicationClient(primaryHost,
+					Constants.REPLICATION_PORT + index);
+			factory.configureSnapshotReplica(false);
+		}
+		return factory.create();
+	}
+
+	/**
+	 * The factory behind createStore(), configured but not yet created.
+	 */
+	public static PrevaylerFactory storeFactory(Serializable system,
+			String directory, Sectioning sections) {
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(system);
+		factory.configurePrevalenceDirectory(directory);
+		factory.configureSnapshotSerializer("sectionedsnapshot",
+				new SectionedSerializer(sections, Constants.SNAPSHOT_THREADS));
+		/* Reads the snapshots taken before they were sectioned. */
+		factory.configureSnapshotSerializer(new JavaSerializer());
+		/* Only the months that changed are written again. */
+		factory.configureDeltaSnapshots(Constants.DELTA_SNAPSHOTS);
+		factory.configureTransactionValidation(true);
+		factory.configureSnapshotReplica(true);
+		/* Searches run in parallel; only transactions lock the list. */
+		factory.configureReadWriteLock(true);
+		/* Journals are written to segments of a fixed size, and the ones
+		 * outside the retention window are reused for the next segments. */
+		factory.configureJournalFileSizeThreshold(Constants.JOURNAL_SEGMENT_SIZE);
+		factory.configureJournalFileAgeThreshold(Constants.JOURNAL_SEGMENT_AGE);
+		factory.configureJournalPreallocation(true);
+		factory.configureJournalRecycling(true);
+		factory.configureJournalRetention(Constants.JOURNAL_RETAINED_SNAPSHOTS,
+				Constants.JOURNAL_RETENTION_AGE);
+		if (Constants.JOURNAL_WRITER_RING > 0) {
+			factory.configureJournalDurability(Durability
+					.dedicatedWriter(Constants.JOURNAL_WRITER_RING));
+		}
+		return factory;
+	}
+
+	/**
+	 * The factory of the flights list kept in a directory, like
+	 * flightsDirectory(Calendar.MAY) or REGULAR_FLIGHTS, configured but not
+	 * yet created.
+	 */
+	public static PrevaylerFactory storeFactory(String directory) {
+		if (directory.startsWith(REGULAR_FLIGHTS)) {
+			return storeFactory(new Hashtable<Integer, Vector<RFlight>>(),
+					directory, new RegularFlightsByDay());
+		}
+		return storeFactory(new Vector<Flight>(), directory,
+				new FlightsByMonth());
+	}
+
+	/** The directory of the active flights of a month of the year. */
+	public static String flightsDirectory(int month) {
+		return FLIGHTS + File.separator + monthName(month);
+	}
+
+	/** The directory of the finished flights of a month, like "2011-05". */
+	public static String finishedDirectory(String month) {
+		return FINISHED_FLIGHTS + File.separator + month;
+	}
+
+	private static String monthName(int month) {
+		return (month < 9 ? "0" : "") + (month + 1);
+	}
+
+	private static String monthKey(GregorianCalendar date) {
+		return date.get(Calendar.YEAR) + "-"
+				+ monthName(date.get(Calendar.MONTH));
+	}
+
+	/* The partition of the active flights where a flight belongs. */
+	private Prevayler flightsStore(Flight flight) {
+		return flightsStores[flight.getDate().get(Calendar.MONTH)];
+	}
+
+	/* The partition of the finished flights where a flight belongs. */
+	private Prevayler finishedStore(Flight flight) {
+		return finishedStore(monthKey(flight.getDate()));
+	}
+
+	/*
+	 * The finished flights of a month, opened if they are not loaded. They are
+	 * only kept by the primary, so they are not replicated.
+	 */
+	private Prevayler finishedStore(String month) {
+		if (replica) {
+			throw new IllegalStateException(
+					"The finished flights are only kept by the BackOffice");
+		}
+		synchronized (finishedStores) {
+			Prevayler store = finishedStores.get(month);
+			if (store == null) {
+				try {
+					store = createStore(new Vector<Flight>(),
+							finishedDirectory(month), new FlightsByMonth());
+				} catch (Exception e) {
+					throw new RuntimeException(
+							"Could not open the finished flights of " + month,
+							e);
+				}
+				finishedStores.put(month, store);
+			}
+			return store;
+		}
+	}
 
+	/*
+	 * The finished flights of a month if they are kept in a store, opened if
+	 * they are not loaded, or null.
+	 */
+	private Prevayler existingFinishedStore(String month) {
+		synchronized (finishedStores) {
+			if (!finishedStores.containsKey(month)
+					&& !new File(finishedDirectory(month)).isDirectory()) {
+				return null;
+			}
+			return finishedStore(month);
+		}
+	}
+
+	/* The months with finished flights in a store, loaded or not, in order. */
+	private TreeSet<String> finishedMonths() {
+		TreeSet<String> months = new TreeSet<String>();
+		String[] names = new File(FINISHED_FLIGHTS).list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("\\d{4}-\\d{2}")) {
+					months.add(name);
+				}
+			}
+		}
+		synchronized (finishedStores) {
+			months.addAll(finishedStores.keySet());
+		}
+		return months;
+	}
+
+	/**
+	 * Unloads the finished flights of the months before the last
+	 * FINISHED_MONTHS_LOADED ones; they are opened again when they are read.
+	 * The FlightsSnapshotTaker snapshots them first, so reopening them does
+	 * not replay their journals.
+	 */
+	public void unloadFinished() {
+		GregorianCalendar oldest = new GregorianCalendar();
+		oldest.add(Calendar.MONTH, -Constants.FINISHED_MONTHS_LOADED);
+		synchronized (finishedStores) {
+			Iterator<Map.Entry<String, Prevayler>> i = finishedStores
+					.headMap(monthKey(oldest)).entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry<String, Prevayler> entry = i.next();
+				try {
+					entry.getValue().close();
+					MetricsMonitor.unregister(finishedDirectory(entry.getKey()));
+				} catch (IOException e) {
+					System.out.println("Could not close the finished flights of "
+							+ entry.getKey() + ": " + e.getMessage());
+				}
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Moves the finished flights of the months before the last
+	 * FINISHED_ARCHIVE_AGE ones to the archive, and deletes their stores. The
+	 * flights are forced to the archive before the store is deleted, and
+	 * flights already archived are not archived again, so a move that was
+	 * interrupted is completed by the next one.
+	 */
+	@SuppressWarnings("unchecked")
+	public void archiveFinished() {
+		GregorianCalendar oldest = new GregorianCalendar();
+		oldest.add(Calendar.MONTH, -Constants.FINISHED_ARCHIVE_AGE);
+		for (String month : finishedMonths().headSet(monthKey(oldest))) {
+			archiving.writeLock().lock();
+			try {
+				synchronized (finishedStores) {
+					Prevayler store = finishedStore(month);
+					archive.append(month, (Vector<Flight>) query(store,
+							new copyFlights()));
+					store.close();
+					MetricsMonitor.unregister(finishedDirectory(month));
+					finishedStores.remove(month);
+					delete(new File(finishedDirectory(month)));
+				}
+			} catch (IOException e) {
+				System.out.println("Could not archive the finished flights of "
+						+ month + ": " + e.getMessage());
+			} finally {
+				archiving.writeLock().unlock();
+			}
+		}
+	}
+
+	private static void delete(File file) throws IOException {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		if (!file.delete()) {
+			throw new IOException("could not delete " + file);
+		}
+	}
+
+	/* The months with finished flights, in a store or archived, in order. */
+	private TreeSet<String> allFinishedMonths() {
+		TreeSet<String> months = finishedMonths();
+		months.addAll(archive.months());
+		return months;
+	}
+
+	/* The finished flights of a month, archived first. */
+	@SuppressWarnings("unchecked")
+	private Vector<Flight> finishedFlights(String month) {
+		archiving.readLock().lock();
+		try {
+			Vector<Flight> flights = archive.flights(month);
+			Prevayler store = existingFinishedStore(month);
+			if (store != null) {
+				flights.addAll((Vector<Flight>) query(store, new copyFlights()));
+			}
+			return flights;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			archiving.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Moves the flights of a list kept before the lists were partitioned by
+	 * month into the partitions, and empties the old list. Flights already in
+	 * their partition are skipped, so a move that was interrupted is completed
+	 * on the next start.
+	 */
+	@SuppressWarnings("unchecked")
+	private void migrate(String directory, boolean finished) throws Exception {
+		if (!new File(directory).isDirectory()) {
+			return;
+		}
+		Prevayler legacy = createStore(new Vector<Flight>(), directory,
+				new FlightsByMonth());
+		Vector<Flight> flights = (Vector<Flight>) query(legacy,
+				new copyFlights());
+
+		if (!flights.isEmpty()) {
+			LinkedHashMap<Prevayler, Vector<Transaction>> additions = new LinkedHashMap<Prevayler, Vector<Transaction>>();
+			Transaction[] removals = new Transaction[flights.size()];
+			for (int i = 0; i < flights.size(); i++) {
+				Flight flight = flights.get(i);
+				removals[i] = new removeFlight(flight);
+				if (!finished) {
+					/* Each addition depends on the previous ones, so they
+					 * cannot be batched. */
+					if (!(Boolean) query(flightsStore(flight),
+							new containsFlight(flight))) {
+						addFlight(flight);
+					}
+				} else if (!(Boolean) query(finishedStore(flight),
+						new containsFlight(flight))) {
+					add(additions, finishedStore(flight), new addFinished(
+							flight));
+				}
+			}
+			execute(additions);
+			legacy.execute(removals);
+			legacy.takeSnapshot();
+			System.out.println(flights.size() + " flights of " + directory
+					+ " moved to their monthly partitions.");
+		}
+		legacy.close();
+		MetricsMonitor.unregister(directory);
+	}
+
+	/**
+	 * How far (ms) each flights list of a query node is behind the primary:
+	 * the active flights of January (...) December, then the regular flights.
+	 * A replica knows the time of the primary up to the last transaction or
+	 * clock tick it received, and the primary sends a tick every second, so
+	 * an up to date replica is less than a second behind.
+	 */
+	public long[] replicaLag() {
+		long now = System.currentTimeMillis();
+		long[] lag = new long[13];
+		for (int month = 0; month < 12; month++) {
+			lag[month] = now - flightsStores[month].clock().time().getTime();
+		}
+		lag[12] = now - prevaylerRegular.clock().time().getTime();
+		return lag;
 	}
 
 	private int getLastID() {
@@ -111,19 +525,11 @@ public class FlightsManager {
 	}
 	
 	/**
-	 * Adds a flight in the flight list
-	 * @param index
+	 * Adds a flight to the flights list of its month, ordered by date.
 	 * @param flight Flight Object to add to the list
 	 */
-	private void addFlight(int index, Flight flight) {
-		prevayler.execute(new addFlight(index, flight));
-	}
-
-	/**
-	  * Removes a flight from the flight list
-	  */
-	private void removeFlight(Flight flight) {
-		prevayler.execute(new removeFlight(flight));
+	private void addFlight(Flight flight) {
+		flightsStore(flight).execute(new addFlight(flight));
 	}
 
 	/**
@@ -131,7 +537,19 @@ public class FlightsManager {
 	 * Adds a new Booking
 	 */
 	public void addBookingFlight(Flight id, Booking booking) {
-		prevayler.execute(new addBookingFlight(id, booking));
+		addBookingFlight(id, booking, null, null);
+	}
+
+	/**
+	 * Adds a new Booking made by a request, recording the answer to the
+	 * request in the flight in the same transaction.
+	 * @param requestId Id of the request, or null if it has none
+	 * @param answer Answer to the request
+	 */
+	public void addBookingFlight(Flight id, Booking booking,
+			String requestId, String answer) {
+		flightsStore(id).execute(new addBookingFlight(id, booking, requestId,
+				answer));
 		feedBackManager.sendNotificationUser(
 				booking.getClient().getEmail(),
 				"NEW BOOKING",
@@ -164,13 +582,42 @@ public class FlightsManager {
 	 * Cancels a booking
 	 */
 	public void removeBookingFlight(Flight id, Booking booking) {
-		prevayler.execute(new removeBookingFlight(id, booking));
+		removeBookingFlight(id, booking, null, null);
+	}
+
+	/**
+	 * Cancels a booking on behalf of a request, recording the answer to the
+	 * request in the flight in the same transaction.
+	 * @param requestId Id of the request, or null if it has none
+	 * @param answer Answer to the request
+	 */
+	public void removeBookingFlight(Flight id, Booking booking,
+			String requestId, String answer) {
+		flightsStore(id).execute(new removeBookingFlight(id, booking,
+				requestId, answer));
+	}
+
+	/**
+	 * The answer to a request that changed a flight, or null if it has not
+	 * changed it. It is read with the clock of the flight's store, the one
+	 * that dated the answer when it was recorded.
+	 */
+	public String answerTo(Flight flight, String requestId) {
+		return (String) query(flightsStore(flight), new answerTo(flight,
+				requestId, Constants.REQUEST_LOG_TIME_TO_LIVE));
+	}
 
+	/**
+	 * The empty seats of a flight as it is in its list now, or none if it is
+	 * no longer there.
+	 */
+	public int getEmptySeats(Flight flight) {
+		return (Integer) query(flightsStore(flight), new emptySeats(flight));
 	}
 
 	public Flight removeFlight(int index) {
-		Flight flight = flightsList.get(index);
-		prevayler.execute(new removeFlight(flightsList.get(index)));
+		Flight flight = getFlightsList().get(index);
+		flightsStore(flight).execute(new removeFlight(flight));
 
 		return flight;
 
@@ -219,7 +666,7 @@ public class FlightsManager {
 					date.get(Calendar.HOUR_OF_DAY), date.get(Calendar.MINUTE),
 					plane.getId(), flight.getId(), isCharter);
 
-			Vector<RFlight> aux = regularFlights.get(date
+			Vector<RFlight> aux = getRegularFlights(date
 					.get(Calendar.DAY_OF_WEEK));
 			for (i = 0; i < aux.size(); i++) {
 				if (aux.get(i).getOrigin() == origin
@@ -231,15 +678,7 @@ public class FlightsManager {
 		}
 
 		/* Inserts the flight ordered by date. */
-		for (i = 0; i < flightsList.size(); i++) {
-			if (flightsList.get(i).getDate().after(flight.getDate())) {
-				this.addFlight(i, flight);
-				return flight;
-			}
-		}
-
-		/* We insert it in the last position. */
-		addFlight(i, flight);
+		addFlight(flight);
 
 		return flight;
 	}
@@ -260,21 +699,12 @@ public class FlightsManager {
 		
 		Flight flight = new Flight(plane, date, origin, destination, true,
 				isCharter, idRFlight);
-		int i;
 
 		/* First, we check if we can insert in this specific plane. */
 		plane.associateFlight(flight);
 
 		/* Inserts the flight ordered by date. */
-		for (i = 0; i < flightsList.size(); i++) {
-			if (flightsList.get(i).getDate().after(flight.getDate())) {
-				this.addFlight(i, flight);
-				return flight;
-			}
-		}
-
-		/* We insert it in the last position. */
-		addFlight(i, flight);
+		addFlight(flight);
 		return flight;
 	}
 	
@@ -283,6 +713,93 @@ public class FlightsManager {
 	 * @param flight Flight that is going to be canceled
 	 */
 	public void cancelFlight(Flight flight) {
+		Vector<Flight> flights = new Vector<Flight>();
+		flights.add(flight);
+		cancelFlights(flights);
+	}
+
+	/**
+	 * Cancels several flights at once, like when a plane is sold, and warns
+	 * all the respective clients.
+	 * @param flights Flights that are going to be canceled
+	 */
+	public void cancelFlights(List<Flight> flights) {
+		for (Flight flight : flights) {
+			notifyCancellation(flight);
+		}
+		moveToFinished(flights, "Cancelled");
+	}
+
+	/**
+	 * Moves the flights that departed before the given date to the finished
+	 * flights list.
+	 * @param date Flights before this date are finished
+	 * @return Returns the finished flights, ordered by date.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector<Flight> finishFlights(GregorianCalendar date) {
+		Vector<Flight> finished = new Vector<Flight>();
+		for (Prevayler store : flightsStores) {
+			finished.addAll((Vector<Flight>) query(store, new departedBefore(
+					date)));
+		}
+		Collections.sort(finished, BY_DATE);
+		moveToFinished(finished, "Finished");
+		return finished;
+	}
+
+	/**
+	 * Adds the flights to the finished lists and then removes them from the
+	 * flights lists. Each partition is changed by a single batch of
+	 * transactions, so the flights of a month are journaled together. A
+	 * crash between the two steps leaves the flights in both lists, never in
+	 * none: adding a flight that is already finished and removing one that
+	 * is already gone change nothing, so moving them again completes the
+	 * move.
+	 */
+	private void moveToFinished(List<Flight> flights, String reason) {
+		if (flights.isEmpty()) {
+			return;
+		}
+		LinkedHashMap<Prevayler, Vector<Transaction>> removals = new LinkedHashMap<Prevayler, Vector<Transaction>>();
+		LinkedHashMap<Prevayler, Vector<Transaction>> additions = new LinkedHashMap<Prevayler, Vector<Transaction>>();
+		for (Flight flight : flights) {
+			add(removals, flightsStore(flight), new removeFlight(flight));
+		}
+		for (Flight flight : flights) {
+			flight.setFinishedReason(reason);
+			add(additions, finishedStore(flight), new addFinished(flight));
+		}
+		execute(additions);
+
+		/* Only once they are finished are they removed from the flights lists. */
+		execute(removals);
+	}
+
+	private static void add(Map<Prevayler, Vector<Transaction>> batches,
+			Prevayler store, Transaction transaction) {
+		Vector<Transaction> batch = batches.get(store);
+		if (batch == null) {
+			batch = new Vector<Transaction>();
+			batches.put(store, batch);
+		}
+		batch.add(transaction);
+	}
+
+	/* Executes each batch on its store. */
+	private static void execute(Map<Prevayler, Vector<Transaction>> batches) {
+		for (Map.Entry<Prevayler, Vector<Transaction>> batch : batches
+				.entrySet()) {
+			batch.getKey().execute(
+					batch.getValue().toArray(
+							new Transaction[batch.getValue().size()]));
+		}
+	}
+
+	/**
+	 * Warns all the clients of a flight that it was cancelled.
+	 */
+	private void notifyCancellation(Flight flight) {
 		GregorianCalendar calendar = flight.getDate();
 		for (Booking r : flight.getBookings()) {
 			feedBackManager
@@ -306,11 +823,6 @@ public class FlightsManager {
 									+ ", was cancelled.\nWe are deeply sorry for all the trouble that might incur.");
 
 		}
-		
-		this.removeFlight(flight);
-		/* After removing it, we need to add it to the finished list. */
-		flight.setFinishedReason("Cancelled");
-		this.addFinished(flight);
 	}
 	
 	public void cancelRegularFlight (RFlight flight){
@@ -327,22 +839,21 @@ public class FlightsManager {
 	 */
 	public void reScheduleFlight(Flight flight, GregorianCalendar date,
 			Airplane plane) {
-		Flight temp = flight;
-		int i;
 		if (date != null) {
-			temp.setDate(date);
-			this.removeFlight(flight);
-			/* Inserts the flight ordered by date. */
-			for (i = 0; i < flightsList.size(); i++) {
-				if (flightsList.get(i).getDate().after(flight.getDate())) {
-					this.addFlight(i, temp);
-					break;
-				}
-			}
-
-			/* We insert it in the last position. */
-			if (i == flightsList.size()) {
-				addFlight(i, temp);
+			Prevayler from = flightsStore(flight);
+			/* The flight is replaced by a copy with the new date: changing
+			 * its date outside a transaction would change the list too. */
+			Flight temp = flight.movedTo(date);
+			if (date.get(Calendar.MONTH) == flight.getDate().get(
+					Calendar.MONTH)) {
+				/* Moves it in one go, so it is never missing from the list:
+				 * its new position is found once the old one is gone. */
+				from.execute(new Transaction[] { new removeFlight(flight),
+						new addFlight(temp) });
+			} else {
+				/* It moves to another partition. */
+				from.execute(new removeFlight(flight));
+				addFlight(temp);
 			}
 
 			GregorianCalendar calendar = temp.getDate();
@@ -375,36 +886,20 @@ public class FlightsManager {
 	 * Lists all of the Flights.
 	 * @return Returns a String with the information of each Flight.
 	 */
+	@SuppressWarnings("unchecked")
 	public String listFlights() {
-		String text = "";
-
-		/* Prints the flights. */
-		text += "FLIGHTS\n";
-		for (int i = 0; i < flightsList.size(); i++) {
-			Flight flight = flightsList.get(i);
-			text += flight.getId() + "\t" + flight.getAirplane().getId() + "\t"
-					+ flight.getOrigin() + "/" + flight.getDestination() + "\t"
-					+ flight.getData().toString() + "   "
-					+ flight.getOccupiedSeats() + "/"
-					+ flight.getAirplane().getNoSeats()
-					+ (flight.isCharter() ? "   Charter" : "   Normal")+ "\n";
+		Vector<ListedFlight> listed = new Vector<ListedFlight>();
+		for (Prevayler store : flightsStores) {
+			listed.addAll((Vector<ListedFlight>) query(store, new listFlights()));
 		}
+		Collections.sort(listed);
 
-		/* Prints the regular flights. */
-		text += "\nREGULAR FLIGHTS\n";
-		for (int i = 1; i < 8; i++) {
-			Vector<RFlight> aux = regularFlights.get(i);
-			for (int z = 0; z < aux.size(); z++) {
-				RFlight rFlight = aux.get(z);
-				text += rFlight.getIdFlight() + "\t" + rFlight.getIdPlane()
-						+ "\t" + rFlight.getOrigin() + "/"
-						+ rFlight.getDestination() + "\t" + rFlight.getData()
-						+ (rFlight.isCharter() ? "   Charter" : "   Normal")
-						+ "\n";
-			}
+		String text = "FLIGHTS\n";
+		for (ListedFlight flight : listed) {
+			text += flight.line;
 		}
-
-		return text;
+		return text
+				+ (String) query(prevaylerRegular, new listRegularFlights());
 	}
 	
 	/**
@@ -412,15 +907,12 @@ public class FlightsManager {
 	 * @return Returns a String with the information of each Flight.
 	 */
 	public String listFinishedFlights() {
-		String text = "";
-
-		/* Prints the finished flights. */
-		text += "FINISHED FLIGHTS\n";
-		for (int i = 0; i < finishedFlights.size(); i++) {
-			Flight flight = finishedFlights.get(i);
-			text += flight.toFinishedString();
+		String text = "FINISHED FLIGHTS\n";
+		for (String month : allFinishedMonths()) {
+			for (Flight flight : finishedFlights(month)) {
+				text += flight.toFinishedString();
+			}
 		}
-
 		return text;
 	}
 	
@@ -436,45 +928,18 @@ public class FlightsManager {
 	public String findFlights(int year, int month, int day, String origin,
 			String destination) {
 		String text = "";
-		GregorianCalendar data = new GregorianCalendar(year, month - 1, day);
-		int weekDay = data.get(Calendar.DAY_OF_WEEK);
-		int i = 0;
-
-		data.set(Calendar.HOUR_OF_DAY, 23);
-		data.set(Calendar.MINUTE, 59);
-		data.set(Calendar.SECOND, 59);
-
-		while (i < flightsList.size()
-				&& flightsList.get(i).getDate().before(data)) {
-			Flight flight = flightsList.get(i);
-			GregorianCalendar flightDate = flight.getDate();
 
-			/* First, gets the normal flights. */
-			if (flightDate.get(Calendar.YEAR) == year
-					&& flightDate.get(Calendar.MONTH) + 1 == month
-					&& flightDate.get(Calendar.DAY_OF_MONTH) == day) {
-
-				/*
-				 * If the flight is regular, it will be joined to the list
-				 * later.
-				 */
-				if (flight.getOrigin().equals(origin)
-						&& flight.getDestination().equals(destination)
-						&& !flight.isFull() && !flight.isRegular()) {
-					/*
-					 * This flight matches all the criteria and consequently can
-					 * be added to the list.
-					 */
-					text += flight.toString() + "\n";
-				}
-			}
-			i++;
+		/* First, gets the normal flights. */
+		for (Flight flight : searchFlights(year, month, day, origin,
+				destination)) {
+			text += flight.toString() + "\n";
 		}
 
 		/* Then, the regular ones. */
-		Vector<RFlight> rFlights = regularFlights.get(weekDay);
+		Vector<RFlight> rFlights = getRegularFlights(new GregorianCalendar(
+				year, month - 1, day).get(Calendar.DAY_OF_WEEK));
 
-		for (i = 0; i < rFlights.size(); i++) {
+		for (int i = 0; i < rFlights.size(); i++) {
 			text += "FLIGHT ID: " + rFlights.get(i).getIdFlight() + "\n";
 		}
 
@@ -484,100 +949,166 @@ public class FlightsManager {
 		return text;
 
 	}
+
+	/**
+	 * Searches the normal flights, with free seats, of a given day between
+	 * the given origin and destination.
+	 * @return Returns copies of the Flights that match all the criteria.
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector<Flight> searchFlights(int year, int month, int day,
+			String origin, String destination) {
+		return (Vector<Flight>) query(flightsStores[month - 1],
+				new searchFlights(year, month, day, origin, destination));
+	}
+
+	/**
+	 * A copy of the regular flights of a day of the week.
+	 * @param weekDay Calendar.SUNDAY (...) Calendar.SATURDAY
+	 */
+	@SuppressWarnings("unchecked")
+	public Vector<RFlight> getRegularFlights(int weekDay) {
+		return (Vector<RFlight>) query(prevaylerRegular,
+				new getRegularFlights(weekDay));
+	}
 	
 	/**
 	 * Search a flight by Date and plane
 	 * @param plane
 	 * @param date
-	 * @return Returns the Flight or null if it is not found.
+	 * @return Returns a copy of the Flight or null if it is not found.
 	 */
 	public Flight searchFlightByDate(Airplane plane, GregorianCalendar date) {
-		for (int i = 0; i < flightsList.size(); i++) {
-			if (flightsList.get(i).getAirplane().equals(plane)
-					&& flightsList.get(i).getDate().equals(date))
-				return flightsList.get(i);
-		}
-		return null;
+		return (Flight) query(flightsStores[date.get(Calendar.MONTH)],
+				new searchFlightByDate(plane, date));
 	}
 	
 	/**
 	 * Search a normal flight by ID
 	 * @param id ID of the Flight
-	 * @return Returns the Flight object or null if it is not found.
+	 * @return Returns a copy of the Flight or null if it is not found.
 	 */
 	public Flight searchFlightById(int id) {
-		for (int i = 0; i < flightsList.size(); i++) {
-			if (flightsList.get(i).getId() == id)
-				return flightsList.get(i);
+		for (Prevayler store : flightsStores) {
+			Flight flight = (Flight) query(store, new searchFlightById(id));
+			if (flight != null) {
+				return flight;
+			}
 		}
 		return null;
 	}
-	
+
+	/**
+	 * Describes a booking of a flight.
+	 * @return Returns the booking information, or why it was not found.
+	 */
+	public String getBookingInfo(int idFlight, int idBooking) {
+		/* First, we need to check if there's such a flight. */
+		Flight flight = searchFlightById(idFlight);
+
+		if (flight == null) {
+			return "There's no such flight";
+		}
+		/* If it exists we try to get the asked booking. */
+		Booking booking = flight.findBookingById(idBooking);
+		if (booking != null)
+			return booking.toString();
+		else
+			return "That booking is not associated with Flight " + idFlight;
+	}
+	
 	/**
 	 * Search a regular flight by ID
 	 * @param id ID of the Regular Flight
 	 * @return Returns the Flight object or null if it is not found.
 	 */
 	public RFlight searchRFlightById(int id) {
-		for (int i = 1; i < 8; i++) {
-			Vector<RFlight> aux = regularFlights.get(i);
-			for (int z = 0; z < aux.size(); z++) {
-				RFlight rFlight = aux.get(z);
-				if (rFlight.getIdFlight() == id)
-					return rFlight;
-			}
-		}
-
-		return null;
+		return (RFlight) query(prevaylerRegular, new searchRFlightById(id));
 	}
 
+	/**
+	 * A copy of the active flights of every month, ordered by date.
+	 */
+	@SuppressWarnings("unchecked")
 	public Vector<Flight> getFlightsList() {
-		return flightsList;
+		Vector<Flight> flights = new Vector<Flight>();
+		for (Prevayler store : flightsStores) {
+			flights.addAll((Vector<Flight>) query(store, new copyFlights()));
+		}
+		Collections.sort(flights, BY_DATE);
+		return flights;
 	}
 
+	/**
+	 * A copy of the finished flights of every month, which reads them all,
+	 * archived or not.
+	 */
 	public Vector<Flight> getFinishedFlights() {
-		return finishedFlights;
+		Vector<Flight> flights = new Vector<Flight>();
+		for (String month : allFinishedMonths()) {
+			flights.addAll(finishedFlights(month));
+		}
+		return flights;
 	}
 
-	public int[] getNumFlights() {
-		/* In the first field, we registered the finished flights.
-		 * In the second, goes the cancelled number.
-		 */
-		int [] outcome = new int[2];
-		outcome[0] = 0;
-		outcome[1] = 0;
-		for (Flight flight : finishedFlights){
-			if (flight.getFinishedReason().equals("Finished")){
-				outcome[0]++;
-			}
-			else{
-				outcome[1]++;
+	/**
+	 * Search a finished flight, archived or not, by ID and departure date.
+	 * Only the month of the date is read.
+	 * @return Returns a copy of the Flight or null if it is not found.
+	 */
+	public Flight searchFinishedFlight(int id, GregorianCalendar date) {
+		String month = monthKey(date);
+		archiving.readLock().lock();
+		try {
+			Flight flight = archive.find(month, id, date);
+			Prevayler store = existingFinishedStore(month);
+			if (flight == null && store != null) {
+				flight = (Flight) query(store, new searchFinished(id, date));
 			}
+			return flight;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			archiving.readLock().unlock();
 		}
-		
-		return outcome;
 	}
 
+	public int[] getNumFlights() {
+		return getNumFlights(null, null);
+	}
+
+	/**
+	 * Counts the finished and the cancelled flights between the given dates,
+	 * or all of them if no dates are given. Only the months between the dates
+	 * are read, and of the archived flights only their headers.
+	 */
 	public int[] getNumFlights(GregorianCalendar beginning, GregorianCalendar end) {
-		/* In the first field, we registered the finished flights.
-		 * In the second, goes the cancelled number.
-		 */
-		int [] outcome = new int[2];
-		outcome[0] = 0;
-		outcome[1] = 0;
-		for (Flight flight : finishedFlights){
-			if (flight.getDate().after(beginning) && flight.getDate().before(end)) {
-				if (flight.getFinishedReason().equals("Finished")){
-					outcome[0]++;
-				}
-				else{
-					outcome[1]++;
+		int[] outcome = new int[2];
+		for (String month : allFinishedMonths()) {
+			if (beginning != null
+					&& (month.compareTo(monthKey(beginning)) < 0 || month
+							.compareTo(monthKey(end)) > 0)) {
+				continue;
+			}
+			archiving.readLock().lock();
+			try {
+				int[] archived = archive.count(month, beginning, end);
+				outcome[0] += archived[0];
+				outcome[1] += archived[1];
+				Prevayler store = existingFinishedStore(month);
+				if (store != null) {
+					int[] counted = (int[]) query(store,
+							new countFinishedFlights(beginning, end));
+					outcome[0] += counted[0];
+					outcome[1] += counted[1];
 				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				archiving.readLock().unlock();
 			}
 		}
-		
 		return outcome;
-		
 	}
 	
 	/**
@@ -585,14 +1116,7 @@ public class FlightsManager {
 	 * @return Returns the percentage of occupied seats.
 	 */
 	public int getOccupation() {
-		int sum = 0;
-		int total = flightsList.size();
-		for (Flight f : flightsList) {
-			sum += f.getOccupiedSeats() / f.getAirplane().getNoSeats() * 100;
-		}
-		if (total == 0)
-			return 0;
-		return sum / total;
+		return getOccupation(null, null);
 	}
 	
 	/**
@@ -604,20 +1128,11 @@ public class FlightsManager {
 	public int getOccupation(GregorianCalendar beginning, GregorianCalendar end) {
 		int sum = 0;
 		int total = 0;
-		Flight aux;
-
-		for (int i = 0; i < flightsList.size(); i++) {
-			aux = flightsList.get(i);
-			if (aux.getDate().before(beginning)) {
-
-			} else if (aux.getDate().after(beginning)
-					&& aux.getDate().before(end)) {
-				total++;
-				sum += aux.getOccupiedSeats() / aux.getAirplane().getNoSeats()
-						* 100;
-			} else if (aux.getDate().after(end)) {
-				break;
-			}
+		for (Prevayler store : flightsStores) {
+			int[] occupation = (int[]) query(store, new occupation(beginning,
+					end));
+			sum += occupation[0];
+			total += occupation[1];
 		}
 		if (total == 0)
 			return 0;
@@ -629,13 +1144,28 @@ public class FlightsManager {
 	}
 
 	public void addFinished(Flight flight) {
-		prevaylerFinished.execute(new addFinished(flight));
+		finishedStore(flight).execute(new addFinished(flight));
 		return;
 	}
 
+	/**
+	 * Runs a query on one of the flights lists. The stores use a read/write
+	 * lock, so queries run at the same time as each other but never during a
+	 * transaction, and the lists can be walked without being changed halfway.
+	 */
+	private static Object query(Prevayler store, Query query) {
+		try {
+			return store.execute(query);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
 
-class addFlight implements Transaction {
+class addFlight implements ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -645,23 +1175,59 @@ class addFlight implements Transaction {
 	 * 
 	 */
 	private Flight flight;
+	/* Where the flight goes, or -1 to find its place by date when it is
+	 * executed. Only transactions journaled before it was found there have
+	 * a position. */
 	private int index;
+	private transient boolean applied;
 
-	public addFlight(int index, Flight flight) {
+	public addFlight(Flight flight) {
 		this.flight = flight;
-		this.index = index;
+		this.index = -1;
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (index != -1
+				&& (index < 0 || index > ((Vector<Flight>) arg0).size()))
+			throw new IndexOutOfBoundsException("No position " + index
+					+ " in the flights list");
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
-		((Vector<Flight>) arg0).add(index, flight);
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		flightsList.add(index == -1 ? insertionPoint(flightsList) : index,
+				flight);
+		applied = true;
+	}
+
+	/* The position of the flight, after the flights that depart before it
+	 * or at the same time. */
+	private int insertionPoint(Vector<Flight> flightsList) {
+		int i = 0;
+		for (Flight other : flightsList) {
+			if (other.getDate().after(flight.getDate())) {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.FLIGHT_SCHEDULED, flight, null);
 	}
 
 }
 
-class removeFlight implements Transaction {
+class removeFlight implements ImmutableTransaction, FlightChange {
 
 	/**
 	 * 
@@ -671,22 +1237,47 @@ class removeFlight implements Transaction {
 	 * 
 	 */
 	private Flight flight;
+	/* The flight to remove, as it was when the transaction was created. */
+	private int id;
+	private long departure;
+	private transient boolean applied;
 
 	public removeFlight(Flight flight) {
 		this.flight = flight;
-
+		id = flight.getId();
+		departure = flight.getDate().getTimeInMillis();
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
 
-		((Vector<Flight>) arg0).remove(flight);
+		/* Journaled before the departure was kept: removes an equal flight. */
+		if (departure == 0) {
+			applied = flightsList.remove(flight);
+			return;
+		}
+		for (int i = 0; i < flightsList.size(); i++) {
+			if (flightsList.get(i).getId() == id
+					&& flightsList.get(i).getDate().getTimeInMillis() == departure) {
+				flightsList.remove(i);
+				applied = true;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.FLIGHT_REMOVED, flight, null);
 	}
 
 }
 
-class addBookingFlight implements Transaction {
+class addBookingFlight implements ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -697,11 +1288,27 @@ class addBookingFlight implements Transaction {
 	 */
 	private Flight id;
 	private Booking booking;
-
-	public addBookingFlight(Flight id, Booking booking) {
+	private String requestId;
+	private String answer;
+	private int capacity;
+	private long timeToLive;
+	private transient boolean applied;
+
+	public addBookingFlight(Flight id, Booking booking, String requestId,
+			String answer) {
 		this.id = id;
 		this.booking = booking;
+		this.requestId = requestId;
+		this.answer = answer;
+		capacity = Constants.REQUEST_LOG_CAPACITY;
+		timeToLive = Constants.REQUEST_LOG_TIME_TO_LIVE;
+	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (!((Vector<Flight>) arg0).contains(id))
+			throw new IllegalStateException("The flight no longer exists");
 	}
 
 	@SuppressWarnings("unchecked")
@@ -711,11 +1318,24 @@ class addBookingFlight implements Transaction {
 				.newBooking(booking);
 		((Vector<Flight>) arg0).get(((Vector<Flight>) arg0).indexOf(id))
 				.increaseOccupied(booking.getNoSeats());
+		if (requestId != null) {
+			((Vector<Flight>) arg0).get(((Vector<Flight>) arg0).indexOf(id))
+					.recordRequest(requestId, answer, arg1, capacity,
+							timeToLive);
+		}
+		applied = true;
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.BOOKING_CREATED, id, booking);
 	}
 
 }
 
-class removeBookingFlight implements Transaction {
+class removeBookingFlight implements ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -726,25 +1346,59 @@ class removeBookingFlight implements Transaction {
 	 */
 	private Flight id;
 	private Booking booking;
-
-	public removeBookingFlight(Flight id, Booking booking) {
+	private String requestId;
+	private String answer;
+	private int capacity;
+	private long timeToLive;
+	private transient boolean applied;
+
+	public removeBookingFlight(Flight id, Booking booking, String requestId,
+			String answer) {
 		this.id = id;
 		this.booking = booking;
+		this.requestId = requestId;
+		this.answer = answer;
+		capacity = Constants.REQUEST_LOG_CAPACITY;
+		timeToLive = Constants.REQUEST_LOG_TIME_TO_LIVE;
+	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (!((Vector<Flight>) arg0).contains(id))
+			throw new IllegalStateException("The flight no longer exists");
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
-		((Vector<Flight>) arg0).get(((Vector<Flight>) arg0).indexOf(id))
-				.removeBooking(booking);
-		((Vector<Flight>) arg0).get(((Vector<Flight>) arg0).indexOf(id))
-				.decreaseOccupied(booking.getNoSeats());
+		Flight flight = ((Vector<Flight>) arg0).get(((Vector<Flight>) arg0)
+				.indexOf(id));
+		/* The transaction carries a copy of the booking: the flight's own is
+		 * found by its number. */
+		Booking kept = flight.findBookingById(booking.getBookingNumber());
+		if (kept != null) {
+			flight.removeBooking(kept);
+			flight.decreaseOccupied(kept.getNoSeats());
+			applied = true;
+		}
+		if (requestId != null) {
+			((Vector<Flight>) arg0).get(((Vector<Flight>) arg0).indexOf(id))
+					.recordRequest(requestId, answer, arg1, capacity,
+							timeToLive);
+		}
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.BOOKING_CANCELLED, id, booking);
 	}
 
 }
 
-class addFinished implements Transaction {
+class addFinished implements Transaction, FlightChange {
 
 	/**
 	 * 
@@ -754,6 +1408,7 @@ class addFinished implements Transaction {
 	 * 
 	 */
 	private Flight flight;
+	private transient boolean applied;
 
 	public addFinished(Flight flight) {
 		this.flight = flight;
@@ -763,12 +1418,23 @@ class addFinished implements Transaction {
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
-		((Vector<Flight>) arg0).add(flight);
+		/* A move interrupted by a crash is repeated: it is finished only once. */
+		if (!((Vector<Flight>) arg0).contains(flight)) {
+			((Vector<Flight>) arg0).add(flight);
+			applied = true;
+		}
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.FLIGHT_ARCHIVED, flight, null);
 	}
 
 }
 
-class putRegularFlight implements Transaction {
+class putRegularFlight implements ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -779,21 +1445,37 @@ class putRegularFlight implements Transaction {
 	 */
 	private Vector<RFlight> rfs;
 	private int id;
+	private transient boolean applied;
 
 	public putRegularFlight(int id, Vector<RFlight> rfs) {
 		this.id = id;
 		this.rfs = rfs;
 	}
 
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (rfs == null)
+			throw new IllegalArgumentException("No regular flights list");
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
 		((Hashtable<Integer, Vector<RFlight>>) arg0).put((Integer) id, rfs);
+		applied = true;
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.REGULAR_FLIGHTS_REPLACED, id,
+				null);
 	}
 
 }
 
-class addRegularFlight implements Transaction {
+class addRegularFlight implements ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -804,6 +1486,7 @@ class addRegularFlight implements Transaction {
 	 */
 	private RFlight rfs;
 	private int id;
+	private transient boolean applied;
 
 	public addRegularFlight(int id, RFlight rfs) {
 		this.id = id;
@@ -811,16 +1494,33 @@ class addRegularFlight implements Transaction {
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (!((Hashtable<Integer, Vector<RFlight>>) arg0).containsKey(id))
+			throw new IllegalArgumentException("No week day " + id);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
 		((Hashtable<Integer, Vector<RFlight>>) arg0).get((Integer) id).add(rfs);
+		applied = true;
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.REGULAR_FLIGHT_SCHEDULED, id,
+				rfs);
 	}
 
 }
 
 
-class removeRegularFlight implements Transaction {
+class removeRegularFlight implements ImmutableTransaction,
+		ValidatedTransaction, FlightChange {
 
 	/**
 	 * 
@@ -831,6 +1531,7 @@ class removeRegularFlight implements Transaction {
 	 */
 	private RFlight rfs;
 	private int id;
+	private transient boolean applied;
 
 	public removeRegularFlight(int id, RFlight rfs) {
 		this.id = id;
@@ -838,10 +1539,465 @@ class removeRegularFlight implements Transaction {
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public void validate(Object arg0, Date arg1) {
+		if (!((Hashtable<Integer, Vector<RFlight>>) arg0).containsKey(id))
+			throw new IllegalArgumentException("No week day " + id);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void executeOn(Object arg0, Date arg1) {
-		((Hashtable<Integer, Vector<RFlight>>) arg0).get((Integer) id).remove(rfs);
+		applied = ((Hashtable<Integer, Vector<RFlight>>) arg0).get(
+				(Integer) id).remove(rfs);
+	}
+
+	@Override
+	public FlightEvent event() {
+		if (!applied)
+			return null;
+		return new FlightEvent(FlightEvent.Type.REGULAR_FLIGHT_REMOVED, id,
+				rfs);
+	}
+
+}
+
+/**
+ * Describes the flights of a partition, one line each, so that the lines of
+ * every partition can be merged by date.
+ */
+class listFlights implements Query {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		Vector<ListedFlight> listed = new Vector<ListedFlight>();
+
+		/* Prints the flights. */
+		for (int i = 0; i < flightsList.size(); i++) {
+			Flight flight = flightsList.get(i);
+			String text = flight.getId() + "\t" + flight.getAirplane().getId() + "\t"
+					+ flight.getOrigin() + "/" + flight.getDestination() + "\t"
+					+ flight.getData().toString() + "   "
+					+ flight.getOccupiedSeats() + "/"
+					+ flight.getAirplane().getNoSeats()
+					+ (flight.isCharter() ? "   Charter" : "   Normal")+ "\n";
+			listed.add(new ListedFlight(flight.getDate().getTimeInMillis(),
+					text));
+		}
+		return listed;
+	}
+
+}
+
+/* A line of the flights listing, with the departure it is ordered by. */
+class ListedFlight implements Comparable<ListedFlight> {
+
+	long departure;
+	String line;
+
+	ListedFlight(long departure, String line) {
+		this.departure = departure;
+		this.line = line;
+	}
+
+	@Override
+	public int compareTo(ListedFlight other) {
+		return departure < other.departure ? -1
+				: departure == other.departure ? 0 : 1;
+	}
+
+}
+
+class listRegularFlights implements Query {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Hashtable<Integer, Vector<RFlight>> regularFlights = (Hashtable<Integer, Vector<RFlight>>) arg0;
+		String text = "";
+
+		/* Prints the regular flights. */
+		text += "\nREGULAR FLIGHTS\n";
+		for (int i = 1; i < 8; i++) {
+			Vector<RFlight> aux = regularFlights.get(i);
+			for (int z = 0; z < aux.size(); z++) {
+				RFlight rFlight = aux.get(z);
+				text += rFlight.getIdFlight() + "\t" + rFlight.getIdPlane()
+						+ "\t" + rFlight.getOrigin() + "/"
+						+ rFlight.getDestination() + "\t" + rFlight.getData()
+						+ (rFlight.isCharter() ? "   Charter" : "   Normal")
+						+ "\n";
+			}
+		}
+		return text;
+	}
+
+}
+
+/**
+ * Searches the normal flights, with free seats, of a given day between the
+ * given origin and destination.
+ */
+class searchFlights implements Query {
+
+	private int year;
+	private int month;
+	private int day;
+	private String origin;
+	private String destination;
+
+	public searchFlights(int year, int month, int day, String origin,
+			String destination) {
+		this.year = year;
+		this.month = month;
+		this.day = day;
+		this.origin = origin;
+		this.destination = destination;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		Vector<Flight> found = new Vector<Flight>();
+		GregorianCalendar data = new GregorianCalendar(year, month - 1, day);
+		int i = 0;
+
+		data.set(Calendar.HOUR_OF_DAY, 23);
+		data.set(Calendar.MINUTE, 59);
+		data.set(Calendar.SECOND, 59);
+
+		while (i < flightsList.size()
+				&& flightsList.get(i).getDate().before(data)) {
+			Flight flight = flightsList.get(i);
+			GregorianCalendar flightDate = flight.getDate();
+
+			if (flightDate.get(Calendar.YEAR) == year
+					&& flightDate.get(Calendar.MONTH) + 1 == month
+					&& flightDate.get(Calendar.DAY_OF_MONTH) == day) {
+
+				/*
+				 * If the flight is regular, it will be joined to the list
+				 * later.
+				 */
+				if (flight.getOrigin().equals(origin)
+						&& flight.getDestination().equals(destination)
+						&& !flight.isFull() && !flight.isRegular()) {
+					/*
+					 * This flight matches all the criteria and consequently can
+					 * be added to the list.
+					 */
+					found.add(flight.copy());
+				}
+			}
+			i++;
+		}
+		return found;
+	}
+
+}
+
+/**
+ * A copy of the regular flights of a day of the week.
+ */
+class getRegularFlights implements Query {
+
+	private int weekDay;
+
+	public getRegularFlights(int weekDay) {
+		this.weekDay = weekDay;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<RFlight> day = ((Hashtable<Integer, Vector<RFlight>>) arg0)
+				.get(weekDay);
+		return day == null ? null : new Vector<RFlight>(day);
+	}
+
+}
+
+class searchFlightByDate implements Query {
+
+	private Airplane plane;
+	private GregorianCalendar date;
+
+	public searchFlightByDate(Airplane plane, GregorianCalendar date) {
+		this.plane = plane;
+		this.date = date;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		for (int i = 0; i < flightsList.size(); i++) {
+			if (flightsList.get(i).getAirplane().equals(plane)
+					&& flightsList.get(i).getDate().equals(date))
+				return flightsList.get(i).copy();
+		}
+		return null;
+	}
+
+}
+
+class searchFlightById implements Query {
+
+	private int id;
+
+	public searchFlightById(int id) {
+		this.id = id;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		for (int i = 0; i < flightsList.size(); i++) {
+			if (flightsList.get(i).getId() == id)
+				return flightsList.get(i).copy();
+		}
+		return null;
+	}
+
+}
+
+class answerTo implements Query {
+
+	private Flight flight;
+	private String requestId;
+	private long timeToLive;
+
+	public answerTo(Flight flight, String requestId, long timeToLive) {
+		this.flight = flight;
+		this.requestId = requestId;
+		this.timeToLive = timeToLive;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		int index = flightsList.indexOf(flight);
+		if (index == -1)
+			return null;
+		return flightsList.get(index).answerTo(requestId, arg1, timeToLive);
+	}
+
+}
+
+class emptySeats implements Query {
+
+	private Flight flight;
+
+	public emptySeats(Flight flight) {
+		this.flight = flight;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		int index = flightsList.indexOf(flight);
+		if (index == -1)
+			return 0;
+		return flightsList.get(index).getEmptySeats();
+	}
+
+}
+
+class searchRFlightById implements Query {
+
+	private int id;
+
+	public searchRFlightById(int id) {
+		this.id = id;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Hashtable<Integer, Vector<RFlight>> regularFlights = (Hashtable<Integer, Vector<RFlight>>) arg0;
+		for (int i = 1; i < 8; i++) {
+			Vector<RFlight> aux = regularFlights.get(i);
+			for (int z = 0; z < aux.size(); z++) {
+				RFlight rFlight = aux.get(z);
+				if (rFlight.getIdFlight() == id)
+					return rFlight;
+			}
+		}
+		return null;
+	}
+
+}
+
+class searchFinished implements Query {
+
+	private int id;
+	private GregorianCalendar date;
+
+	public searchFinished(int id, GregorianCalendar date) {
+		this.id = id;
+		this.date = date;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		for (Flight flight : (Vector<Flight>) arg0) {
+			if (flight.getId() == id
+					&& flight.getDate().getTimeInMillis() == date
+							.getTimeInMillis())
+				return flight.copy();
+		}
+		return null;
+	}
+
+}
+
+/**
+ * Counts the finished flights between the given dates, or all of them if no
+ * dates are given.
+ */
+class countFinishedFlights implements Query {
+
+	private GregorianCalendar beginning;
+	private GregorianCalendar end;
+
+	public countFinishedFlights(GregorianCalendar beginning,
+			GregorianCalendar end) {
+		this.beginning = beginning;
+		this.end = end;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		/* In the first field, we registered the finished flights.
+		 * In the second, goes the cancelled number.
+		 */
+		int [] outcome = new int[2];
+		outcome[0] = 0;
+		outcome[1] = 0;
+		for (Flight flight : (Vector<Flight>) arg0){
+			if (beginning == null || (flight.getDate().after(beginning)
+					&& flight.getDate().before(end))) {
+				if (flight.getFinishedReason().equals("Finished")){
+					outcome[0]++;
+				}
+				else{
+					outcome[1]++;
+				}
+			}
+		}
+		return outcome;
+	}
+
+}
+
+/**
+ * Adds up the percentages of occupied seats in the flights between the given
+ * dates, or in all of them if no dates are given, and counts the flights, so
+ * that the partitions can be added up.
+ */
+class occupation implements Query {
+
+	private GregorianCalendar beginning;
+	private GregorianCalendar end;
+
+	public occupation(GregorianCalendar beginning, GregorianCalendar end) {
+		this.beginning = beginning;
+		this.end = end;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		int sum = 0;
+		int total = 0;
+		Flight aux;
+
+		for (int i = 0; i < flightsList.size(); i++) {
+			aux = flightsList.get(i);
+			if (beginning == null) {
+				total++;
+				sum += aux.getOccupiedSeats() / aux.getAirplane().getNoSeats()
+						* 100;
+			} else if (aux.getDate().before(beginning)) {
+
+			} else if (aux.getDate().after(beginning)
+					&& aux.getDate().before(end)) {
+				total++;
+				sum += aux.getOccupiedSeats() / aux.getAirplane().getNoSeats()
+						* 100;
+			} else if (aux.getDate().after(end)) {
+				break;
+			}
+		}
+		return new int[] { sum, total };
+	}
+
+}
+
+/**
+ * A copy of a flights list, and of its flights.
+ */
+class copyFlights implements Query {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> copy = new Vector<Flight>();
+		for (Flight flight : (Vector<Flight>) arg0) {
+			copy.add(flight.copy());
+		}
+		return copy;
+	}
+
+}
+
+class containsFlight implements Query {
+
+	private Flight flight;
+
+	public containsFlight(Flight flight) {
+		this.flight = flight;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		return ((Vector<Flight>) arg0).contains(flight);
+	}
+
+}
+
+/**
+ * The flights that departed before the given date.
+ */
+class departedBefore implements Query {
+
+	private GregorianCalendar date;
+
+	public departedBefore(GregorianCalendar date) {
+		this.date = date;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		Vector<Flight> flightsList = (Vector<Flight>) arg0;
+		Vector<Flight> departed = new Vector<Flight>();
+		for (int i = 0; i < flightsList.size()
+				&& flightsList.get(i).getDate().before(date); i++) {
+			departed.add(flightsList.get(i).copy());
+		}
+		return departed;
 	}
 
 }
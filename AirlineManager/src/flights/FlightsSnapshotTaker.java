@@ -0,0 +1,57 @@
+package flights;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.prevayler.Prevayler;
+
+import common.Constants;
+
+/**
+ * Thread responsible for taking snapshots of the flights lists, so that their
+ * journals do not have to be replayed from the beginning on every start. The
+ * stores write their snapshots from a replica, so bookings are not blocked
+ * while a snapshot is written. The finished flights of old months are then
+ * archived or unloaded.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class FlightsSnapshotTaker extends Thread {
+
+	private FlightsManager flightsManager;
+
+	public FlightsSnapshotTaker(FlightsManager manager) {
+		super("Flights Snapshot Taker");
+		flightsManager = manager;
+
+		setDaemon(true);
+		this.start();
+
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				sleep(Constants.SNAPSHOT_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			for (Map.Entry<String, Prevayler> store : flightsManager
+					.getStores().entrySet()) {
+				takeSnapshot(store.getValue(), store.getKey());
+			}
+			flightsManager.archiveFinished();
+			flightsManager.unloadFinished();
+		}
+	}
+
+	private void takeSnapshot(Prevayler prevayler, String name) {
+		try {
+			prevayler.takeSnapshot();
+		} catch (IOException e) {
+			System.out.println("Could not take a snapshot of " + name + ": "
+					+ e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package flights;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.prevayler.foundation.serialization.Sectioning;
+
+/**
+ * Splits the regular flights into one snapshot section per week day.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class RegularFlightsByDay implements Sectioning {
+
+	@SuppressWarnings("unchecked")
+	public List<?> split(Object prevalentSystem) {
+		Hashtable<Integer, Vector<RFlight>> regularFlights = (Hashtable<Integer, Vector<RFlight>>) prevalentSystem;
+		Vector<Hashtable<Integer, Vector<RFlight>>> sections = new Vector<Hashtable<Integer, Vector<RFlight>>>();
+
+		for (Map.Entry<Integer, Vector<RFlight>> day : regularFlights
+				.entrySet()) {
+			Hashtable<Integer, Vector<RFlight>> section = new Hashtable<Integer, Vector<RFlight>>();
+			section.put(day.getKey(), day.getValue());
+			sections.add(section);
+		}
+		return sections;
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object join(List<?> sections) {
+		Hashtable<Integer, Vector<RFlight>> regularFlights = new Hashtable<Integer, Vector<RFlight>>();
+		for (Object section : sections) {
+			regularFlights.putAll((Hashtable<Integer, Vector<RFlight>>) section);
+		}
+		return regularFlights;
+	}
+}
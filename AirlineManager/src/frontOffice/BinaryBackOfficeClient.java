@@ -0,0 +1,307 @@
+package frontOffice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import messages.Message;
+import backOffice.BackOfficeRemoteInterface;
+import backOffice.BinaryProtocol;
+import backOffice.ServerBusyException;
+
+/**
+ * Client side of the BackOffice binary endpoint. It implements the same
+ * BackOfficeRemoteInterface as the RMI stub, so it can replace it anywhere.
+ * 
+ * One connection is shared by every thread: concurrent calls are pipelined,
+ * each thread writing its request and waiting only for its own answer, which
+ * a reader thread hands over as soon as it arrives.
+ * 
+ * @author Daniela Fontes
+ * @author Ivo Correia
+ * @author Joo Penetra
+ * @author Joo Barbosa
+ * @author Ricardo Bernardino
+ */
+public class BinaryBackOfficeClient implements BackOfficeRemoteInterface {
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+	/* The calls waiting for an answer, by request id. */
+	private final Map<Integer, Answer> pending = new HashMap<Integer, Answer>();
+	private int nextId = 0;
+	private IOException failure = null;
+
+	public BinaryBackOfficeClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream()));
+
+		Thread reader = new Thread("Binary Client Reader") {
+			public void run() {
+				readAnswers();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/* The number of calls still waiting for an answer. */
+	int pendingCalls() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private static class Answer {
+		private boolean arrived = false;
+		private byte status;
+		private byte[] body;
+	}
+
+	private Object call(String name, Class<?>[] types, Object... args)
+			throws RemoteException {
+		Method operation;
+		try {
+			operation = BackOfficeRemoteInterface.class.getMethod(name, types);
+		} catch (NoSuchMethodException e) {
+			throw new RemoteException("Unknown operation " + name, e);
+		}
+		int opcode = BinaryProtocol.opcode(operation);
+
+		Answer answer = new Answer();
+		int id;
+		synchronized (pending) {
+			if (failure != null) {
+				throw new RemoteException("Connection lost", failure);
+			}
+			id = nextId++;
+			pending.put(id, answer);
+		}
+
+		try {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream request = new DataOutputStream(bytes);
+				request.writeInt(id);
+				BinaryProtocol.writeRequest(request, opcode, args);
+				synchronized (out) {
+					out.writeInt(bytes.size());
+					bytes.writeTo(out);
+					out.flush();
+				}
+			} catch (IOException e) {
+				throw new RemoteException("Unable to send " + name, e);
+			}
+
+			synchronized (answer) {
+				while (!answer.arrived) {
+					try {
+						answer.wait();
+					} catch (InterruptedException e) {
+						throw new RemoteException("Interrupted while waiting for "
+								+ name, e);
+					}
+				}
+			}
+		} finally {
+			/* Whether it failed, was interrupted or was answered, the call no
+			 * longer waits: its answer, if one ever comes, is dropped. */
+			synchronized (pending) {
+				pending.remove(id);
+			}
+		}
+		if (answer.body == null) {
+			throw new RemoteException("Connection lost", failure);
+		}
+
+		DataInputStream body = new DataInputStream(new ByteArrayInputStream(
+				answer.body));
+		String message;
+		try {
+			if (answer.status == BinaryProtocol.OK) {
+				return BinaryProtocol.readValue(body, operation.getReturnType());
+			}
+			message = (String) BinaryProtocol.readValue(body, String.class);
+		} catch (IOException e) {
+			throw new RemoteException("Invalid answer to " + name, e);
+		}
+		if (answer.status == BinaryProtocol.BUSY) {
+			throw new ServerBusyException(name);
+		}
+		throw new RemoteException(message);
+	}
+
+	private void readAnswers() {
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (length < 5 || length > BinaryProtocol.MAX_FRAME) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				int id = in.readInt();
+				byte status = in.readByte();
+				byte[] body = new byte[length - 5];
+				in.readFully(body);
+
+				Answer answer;
+				synchronized (pending) {
+					answer = pending.remove(id);
+				}
+				if (answer == null) {
+					continue;
+				}
+				synchronized (answer) {
+					answer.status = status;
+					answer.body = body;
+					answer.arrived = true;
+					answer.notify();
+				}
+			}
+		} catch (IOException e) {
+			synchronized (pending) {
+				failure = e;
+				for (Answer answer : pending.values()) {
+					synchronized (answer) {
+						answer.arrived = true;
+						answer.notify();
+					}
+				}
+				pending.clear();
+			}
+		}
+	}
+
+	public void sendPositiveFeedback(Message feedback) throws RemoteException {
+		call("sendPositiveFeedback", new Class<?>[] { Message.class }, feedback);
+	}
+
+	public void sendNegativeFeedback(Message feedback) throws RemoteException {
+		call("sendNegativeFeedback", new Class<?>[] { Message.class }, feedback);
+	}
+
+	public String registerOperator(String comp, String name, String addr,
+			String phone, String mail, String password) throws RemoteException {
+		return (String) call("registerOperator", new Class<?>[] { String.class,
+				String.class, String.class, String.class, String.class,
+				String.class }, comp, name, addr, phone, mail, password);
+	}
+
+	public String loginOperator(String user, String pass)
+			throws RemoteException {
+		return (String) call("loginOperator", new Class<?>[] { String.class,
+				String.class }, user, pass);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Vector<String> getDestinations() throws RemoteException {
+		return (Vector<String>) call("getDestinations", new Class<?>[0]);
+	}
+
+	public double getPrice(String orig, String dest) throws RemoteException {
+		return (Double) call("getPrice", new Class<?>[] { String.class,
+				String.class }, orig, dest);
+	}
+
+	public String scheduleCharter(GregorianCalendar date, String origin,
+			String destination, int seats) throws RemoteException {
+		return (String) call("scheduleCharter", new Class<?>[] {
+				GregorianCalendar.class, String.class, String.class, int.class },
+				date, origin, destination, seats);
+	}
+
+	public String scheduleBooking(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber) throws RemoteException {
+		return (String) call("scheduleBooking", new Class<?>[] { int.class,
+				String.class, String.class, String.class, String.class,
+				int.class, boolean.class, int.class }, idFlight, name, address,
+				phone, mail, seats, isOperator, bookingNumber);
+	}
+
+	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber) throws RemoteException {
+		return (String) call("modifyBooking", new Class<?>[] { int.class,
+				int.class, int.class, boolean.class, int.class }, idFlight,
+				idBooking, idNewFlight, isOperator, bookingNumber);
+	}
+
+	public String cancelBooking(int idFlight, int idBooking)
+			throws RemoteException {
+		return (String) call("cancelBooking", new Class<?>[] { int.class,
+				int.class }, idFlight, idBooking);
+	}
+
+	public String listFlights() throws RemoteException {
+		return (String) call("listFlights", new Class<?>[0]);
+	}
+
+	public String getBookingInfo(int idFlight, int idBooking)
+			throws RemoteException {
+		return (String) call("getBookingInfo", new Class<?>[] { int.class,
+				int.class }, idFlight, idBooking);
+	}
+
+	public String findFlights(int year, int month, int day, String origin,
+			String destination) throws RemoteException {
+		return (String) call("findFlights", new Class<?>[] { int.class,
+				int.class, int.class, String.class, String.class }, year,
+				month, day, origin, destination);
+	}
+
+	public Double[] bookingPrice(int idFlight, String clientName)
+			throws RemoteException {
+		return (Double[]) call("bookingPrice", new Class<?>[] { int.class,
+				String.class }, idFlight, clientName);
+	}
+
+	public void updateMiles(Double miles, String mail) throws RemoteException {
+		call("updateMiles", new Class<?>[] { Double.class, String.class },
+				miles, mail);
+	}
+
+	public String scheduleBooking(int idFlight, String name, String address,
+			String phone, String mail, int seats, boolean isOperator,
+			int bookingNumber, String requestId) throws RemoteException {
+		return (String) call("scheduleBooking", new Class<?>[] { int.class,
+				String.class, String.class, String.class, String.class,
+				int.class, boolean.class, int.class, String.class }, idFlight,
+				name, address, phone, mail, seats, isOperator, bookingNumber,
+				requestId);
+	}
+
+	public String modifyBooking(int idFlight, int idBooking, int idNewFlight,
+			boolean isOperator, int bookingNumber, String requestId)
+			throws RemoteException {
+		return (String) call("modifyBooking", new Class<?>[] { int.class,
+				int.class, int.class, boolean.class, int.class, String.class },
+				idFlight, idBooking, idNewFlight, isOperator, bookingNumber,
+				requestId);
+	}
+
+	public String cancelBooking(int idFlight, int idBooking, String requestId)
+			throws RemoteException {
+		return (String) call("cancelBooking", new Class<?>[] { int.class,
+				int.class, String.class }, idFlight, idBooking, requestId);
+	}
+}
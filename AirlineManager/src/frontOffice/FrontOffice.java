@@ -10,6 +10,7 @@ import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.UUID;
 import java.util.Vector;
 
 import javax.swing.JButton;
@@ -66,12 +67,31 @@ public class FrontOffice extends UnicastRemoteObject {
 
 	private Vector<String> destinations;
 
+	/* The remote calls that are still waiting for an answer. */
+	private Vector<RemoteTask<?>> pendingTasks = new Vector<RemoteTask<?>>();
+
 	private static int bookingNumber;
 
 	/**
 	 * The main constructor.
 	 */
 	public FrontOffice() throws RemoteException {
+		this(false);
+	}
+
+	/**
+	 * Creates a FrontOffice that talks to the BackOffice through its binary
+	 * endpoint, instead of RMI, if asked to.
+	 */
+	public FrontOffice(boolean binary) throws RemoteException {
+		this(binary, Constants.RMI_PORT);
+	}
+
+	/**
+	 * Creates a FrontOffice that talks through RMI to the BackOffice, or to
+	 * one of its query nodes, at the given port.
+	 */
+	public FrontOffice(boolean binary, int rmiPort) throws RemoteException {
 
 		JFrame.setDefaultLookAndFeelDecorated(true);
 		JDialog.setDefaultLookAndFeelDecorated(true);
@@ -84,9 +104,13 @@ public class FrontOffice extends UnicastRemoteObject {
 		}
 
 		try {
-
-			backOffice = (BackOfficeRemoteInterface) Naming
-					.lookup("rmi://localhost:" + Constants.RMI_PORT +"/AirlineManager");
+			if (binary) {
+				backOffice = new BinaryBackOfficeClient("localhost",
+						Constants.BINARY_PORT);
+			} else {
+				backOffice = (BackOfficeRemoteInterface) Naming
+						.lookup("rmi://localhost:" + rmiPort +"/AirlineManager");
+			}
 
 		} catch (Exception e) {
 			System.exit(-1);
@@ -103,7 +127,17 @@ public class FrontOffice extends UnicastRemoteObject {
 	public static void main(String[] args) throws RemoteException {
 		FrontOffice frontOffice;
 
-		frontOffice = new FrontOffice();
+		/*
+		 * "-binary" uses the binary endpoint instead of RMI, "-query [port]"
+		 * a query node instead of the BackOffice.
+		 */
+		if (args.length > 0 && args[0].equals("-query")) {
+			frontOffice = new FrontOffice(false, args.length > 1 ? Integer
+					.parseInt(args[1]) : Constants.QUERY_NODE_RMI_PORT);
+		} else {
+			frontOffice = new FrontOffice(args.length > 0
+					&& args[0].equals("-binary"));
+		}
 		frontOffice.executeGraphics();
 
 	}
@@ -132,6 +166,49 @@ public class FrontOffice extends UnicastRemoteObject {
 		return "Message sent.";
 	}
 
+	/**
+	 * Starts a remote call off the Event Dispatch Thread. A call still waiting
+	 * for an answer in the same output area is cancelled first, as its answer
+	 * would be overwritten anyway. While a change is waiting for its answer,
+	 * no other call is started in its area, so that answer is always shown.
+	 */
+	private void submit(final RemoteTask<?> task) {
+		for (RemoteTask<?> pending : new Vector<RemoteTask<?>>(pendingTasks)) {
+			if (pending.getDisplay() == task.getDisplay()
+					&& !pending.isDone() && !pending.isCancellable()) {
+				return;
+			}
+		}
+		for (RemoteTask<?> pending : new Vector<RemoteTask<?>>(pendingTasks)) {
+			if (pending.getDisplay() == task.getDisplay()
+					&& pending.isCancellable()) {
+				pending.cancel(true);
+			}
+		}
+		pendingTasks.add(task);
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (task.isDone()) {
+					pendingTasks.remove(task);
+				}
+			}
+		});
+		task.start();
+	}
+
+	/**
+	 * Cancels every remote call still waiting for an answer, except the
+	 * changes, whose answers are still shown. Used when the user leaves a menu.
+	 */
+	private void cancelPendingTasks() {
+		for (RemoteTask<?> pending : new Vector<RemoteTask<?>>(pendingTasks)) {
+			if (pending.isCancellable()) {
+				pending.cancel(true);
+				pendingTasks.remove(pending);
+			}
+		}
+	}
+
 	// / / / / / / / / / / / / / / / / / / / / / GRAPHIC INTERFACE / / / / / / /
 	// / / / / / / / / / / /
 	public void executeGraphics() {
@@ -730,12 +807,12 @@ public class FrontOffice extends UnicastRemoteObject {
 				charterPanel.setVisible(true);
 			} else if (e.getComponent().getName().equals("Schedule")) {
 				try {
-					int id = Integer.parseInt(newFlightID.getText());
-					int seats = Integer.parseInt(seatsNew.getText());
-					String name = nameNew.getText();
-					String address = addressNew.getText();
-					String phone = phoneNew.getText();
-					String mail = emailNew.getText();
+					final int id = Integer.parseInt(newFlightID.getText());
+					final int seats = Integer.parseInt(seatsNew.getText());
+					final String name = nameNew.getText();
+					final String address = addressNew.getText();
+					final String phone = phoneNew.getText();
+					final String mail = emailNew.getText();
 					String cc = ccNoNew.getText();
 
 					boolean validPhone = true, validCC = true;
@@ -770,84 +847,22 @@ public class FrontOffice extends UnicastRemoteObject {
 					if (validPhone && validCC) {
 						if (!name.equals("") && !address.equals("")
 								&& !mail.equals("")) {
-							
-							String answer = backOffice.scheduleBooking(id,
-									name, address, phone, mail, seats,
-									loggedIn, bookingNumber);
-							String [] splitted = answer.split(" ");
-							String scheduleAnswer = splitted[0];
-							if (answer.equals("Innexistent flight")) {
-								confirmActionNew
-										.setText("There's no such flight.");
-								confirmActionNew.setCaretPosition(0);
-							} else if (scheduleAnswer.equals("Scheduled")) {
-								Double[] bookingInfo = backOffice.bookingPrice(
-										id, mail);
-
-								Double price = bookingInfo[0] * seats;
-								Double miles = bookingInfo[1] - (price * 10);
-
-								if (miles > 0) {
-									int option = JOptionPane
-											.showConfirmDialog(
-													f,
-													"The price of the flight is "
-															+ price
-															+ " and you have travelled "
-															+ miles
-															+ " miles. Do you want to reduce the final price?",
-													"Price Reduction",
-													JOptionPane.YES_NO_OPTION);
-									// If the user wants to reduce price
-									if (option == 0) {
-										if (miles * 0.01 < price) {
-											price -= (miles * 0.01);
-											miles = 0.0;
-										} else {
-											miles -= price * 100;
-											price = 0.0;
-										}
-										// Update user miles
-										backOffice.updateMiles(miles, mail);
 
-									}
-								}
-								confirmActionNew
-										.setText("Booking scheduled, with booking number "
-												+ splitted[1]
-												+ " flight number "
-												+ id
-												+ " and price is "
-												+ price
-												+ ".");
-								confirmActionNew.setCaretPosition(0);
-								//bookingNumber++;
-							} else if (answer.equals("Over")) {
-								confirmActionNew
-										.setText("This flight is over, please choose another.");
-								confirmActionNew.setCaretPosition(0);
-							} else if (answer.equals("Cancelled")) {
-								confirmActionNew
-										.setText("This flight was cancelled, please choose another.");
-								confirmActionNew.setCaretPosition(0);
-							} else if (answer.equals("Charter")) {
-								confirmActionNew
-										.setText("Sorry, but only operators can book charter flights.");
-								confirmActionNew.setCaretPosition(0);
-							} else {
-								int number = Integer
-										.parseInt(answer.split(" ")[1]);
-								if (number == 0) {
-									confirmActionNew
-											.setText("This flight is closed.");
-									confirmActionNew.setCaretPosition(0);
-								} else {
-									confirmActionNew.setText("There are only "
-											+ number + " empty seats.");
-									confirmActionNew.setCaretPosition(0);
+							/* Retrying with the same id never books twice. */
+							final String requestId = UUID.randomUUID()
+									.toString();
+							submit(new RemoteChange<String>(confirmActionNew, f,
+									Constants.REMOTE_CALL_ATTEMPTS) {
+								protected String call() throws RemoteException {
+									return backOffice.scheduleBooking(id, name,
+											address, phone, mail, seats,
+											loggedIn, bookingNumber, requestId);
 								}
 
-							}
+								protected void succeeded(String answer) {
+									scheduled(answer, id, seats, mail);
+								}
+							});
 						} else {
 							confirmActionNew.setText("Empty field(s).");
 							confirmActionNew.setCaretPosition(0);
@@ -864,55 +879,86 @@ public class FrontOffice extends UnicastRemoteObject {
 				}
 			} else if (e.getComponent().getName().equals("Check")) {
 				try {
-					int idFlight = Integer.parseInt(checkFlightID.getText());
-					int idBooking = Integer.parseInt(checkBookingID.getText());
+					final int idFlight = Integer.parseInt(checkFlightID
+							.getText());
+					final int idBooking = Integer.parseInt(checkBookingID
+							.getText());
+
+					submit(new RemoteTask<String>(confirmActionCheck, f) {
+						protected String call() throws RemoteException {
+							return backOffice.getBookingInfo(idFlight,
+									idBooking);
+						}
 
-					confirmActionCheck.setText(backOffice.getBookingInfo(
-							idFlight, idBooking));
+						protected void succeeded(String answer) {
+							confirmActionCheck.setText(answer);
+						}
+					});
 				} catch (NumberFormatException e1) {
 					confirmActionCheck.setText("Invalid flight or booking ID");
-				} catch (RemoteException e1) {
-					confirmActionCheck
-							.setText("The system is not availabe, please try again later");
 				}
 			} else if (e.getComponent().getName()
 					.equals("Confirm modification")) {
 				try {
-					int idFlight = Integer.parseInt(modifyFlightID.getText());
-					int idBooking = Integer.parseInt(modifyBookingID.getText());
-					int newIdFlight = Integer.parseInt(modifyNewFlightID
+					final int idFlight = Integer.parseInt(modifyFlightID
+							.getText());
+					final int idBooking = Integer.parseInt(modifyBookingID
+							.getText());
+					final int newIdFlight = Integer.parseInt(modifyNewFlightID
 							.getText());
 
-					confirmActionModify.setText(backOffice.modifyBooking(
-							idFlight, idBooking, newIdFlight, loggedIn,
-							bookingNumber));
+					final String requestId = UUID.randomUUID().toString();
+					submit(new RemoteChange<String>(confirmActionModify, f,
+							Constants.REMOTE_CALL_ATTEMPTS) {
+						protected String call() throws RemoteException {
+							return backOffice.modifyBooking(idFlight,
+									idBooking, newIdFlight, loggedIn,
+									bookingNumber, requestId);
+						}
 
+						protected void succeeded(String answer) {
+							confirmActionModify.setText(answer);
+						}
+					});
 				} catch (NumberFormatException e1) {
 					confirmActionModify.setText("Invalid flight or booking ID");
-				} catch (RemoteException e1) {
 				}
 
 			} else if (e.getComponent().getName().equals("Cancel")) {
 				try {
-					int idFlight = Integer.parseInt(cancelFlightID.getText());
-					int idBooking = Integer.parseInt(cancelBookingID.getText());
-
-					String answer = backOffice.cancelBooking(idFlight,
-							idBooking);
-					if (answer.equals("Innexistent flight")) {
-						confirmActionCancel.setText("There's no such flight.");
-					} else if (answer.equals("Innexistent booking")) {
-						confirmActionCancel
-								.setText("There's no such booking in this flight.");
-					} else if (answer.equals("Cancelled")) {
-						confirmActionCancel.setText("Booking cancelled.");
-					}
+					final int idFlight = Integer.parseInt(cancelFlightID
+							.getText());
+					final int idBooking = Integer.parseInt(cancelBookingID
+							.getText());
+
+					final String requestId = UUID.randomUUID().toString();
+					submit(new RemoteChange<String>(confirmActionCancel, f,
+							Constants.REMOTE_CALL_ATTEMPTS) {
+						protected String call() throws RemoteException {
+							return backOffice.cancelBooking(idFlight,
+									idBooking, requestId);
+						}
 
+						protected void succeeded(String answer) {
+							if (answer.equals("Innexistent flight")) {
+								confirmActionCancel
+										.setText("There's no such flight.");
+							} else if (answer.equals("Innexistent booking")) {
+								confirmActionCancel
+										.setText("There's no such booking in this flight.");
+							} else if (answer.equals("Cancelled")) {
+								confirmActionCancel
+										.setText("Booking cancelled.");
+							}
+						}
+
+						protected void failed(Throwable cause) {
+							confirmActionCancel
+									.setText("The system is not availabe at the moment");
+						}
+					});
 				} catch (NumberFormatException e2) {
 					confirmActionCancel.setText("Invalid field(s).\n");
-				} catch (RemoteException e3) {
-					confirmActionCancel
-							.setText("The system is not availabe at the moment");
 				}
 			} else if (e.getComponent().getName().equals("Book Flight")) {
 				int day, month, year, hour, minute;
@@ -926,7 +972,7 @@ public class FrontOffice extends UnicastRemoteObject {
 					minute = Integer
 							.parseInt(minuteFieldCharter.getText());
 					
-					GregorianCalendar date = new GregorianCalendar(year, month - 1,
+					final GregorianCalendar date = new GregorianCalendar(year, month - 1,
 							day, hour, minute);
 					
 					if ((checkDate(year, month, day, hour, minute)) != null
@@ -935,20 +981,28 @@ public class FrontOffice extends UnicastRemoteObject {
 							&& !destinationCharter.getSelectedItem()
 									.equals("")
 							&& Integer.parseInt(seatsCharter.getText()) > 0)  {
-						
-						try {
-							confirmActionCharter
-							.setText(backOffice.scheduleCharter(date, originCharter
-									.getSelectedItem().toString(),
-									destinationCharter.getSelectedItem()
-											.toString(), Integer
-											.parseInt(seatsCharter
-													.getText())));
-						} catch (RemoteException e1) {
-							confirmActionCharter
-									.setText("The server is not available, please try again later");
-						}
-						
+						final String origin = originCharter.getSelectedItem()
+								.toString();
+						final String destination = destinationCharter
+								.getSelectedItem().toString();
+						final int seats = Integer.parseInt(seatsCharter
+								.getText());
+
+						submit(new RemoteChange<String>(confirmActionCharter, f) {
+							protected String call() throws RemoteException {
+								return backOffice.scheduleCharter(date, origin,
+										destination, seats);
+							}
+
+							protected void succeeded(String answer) {
+								confirmActionCharter.setText(answer);
+							}
+
+							protected void failed(Throwable cause) {
+								confirmActionCharter
+										.setText("The server is not available, please try again later");
+							}
+						});
 					}
 					else {
 						confirmActionCharter.setText("Invalid data");
@@ -968,6 +1022,7 @@ public class FrontOffice extends UnicastRemoteObject {
 				jCalendar.addPropertyChangeListener(this);
 
 			} else if (e.getComponent().getName().equals("Return")) {
+				cancelPendingTasks();
 				newPanel.setVisible(false);
 				cancelPanel.setVisible(false);
 				modifyPanel.setVisible(false);
@@ -979,6 +1034,106 @@ public class FrontOffice extends UnicastRemoteObject {
 			}
 		}
 
+		/*
+		 * Shows the answer to a new booking. A scheduled booking still needs
+		 * its price, which is asked to the system in another remote call.
+		 */
+		private void scheduled(String answer, final int id, final int seats,
+				final String mail) {
+			final String[] splitted = answer.split(" ");
+			String scheduleAnswer = splitted[0];
+			if (answer.equals("Innexistent flight")) {
+				confirmActionNew.setText("There's no such flight.");
+				confirmActionNew.setCaretPosition(0);
+			} else if (scheduleAnswer.equals("Scheduled")) {
+				/* Part of the answer to the booking. */
+				submit(new RemoteChange<Double[]>(confirmActionNew, f) {
+					protected Double[] call() throws RemoteException {
+						return backOffice.bookingPrice(id, mail);
+					}
+
+					protected void succeeded(Double[] bookingInfo) {
+						priced(splitted[1], id, seats, mail, bookingInfo);
+					}
+				});
+			} else if (answer.equals("Over")) {
+				confirmActionNew
+						.setText("This flight is over, please choose another.");
+				confirmActionNew.setCaretPosition(0);
+			} else if (answer.equals("Cancelled")) {
+				confirmActionNew
+						.setText("This flight was cancelled, please choose another.");
+				confirmActionNew.setCaretPosition(0);
+			} else if (answer.equals("Charter")) {
+				confirmActionNew
+						.setText("Sorry, but only operators can book charter flights.");
+				confirmActionNew.setCaretPosition(0);
+			} else {
+				int number = Integer.parseInt(answer.split(" ")[1]);
+				if (number == 0) {
+					confirmActionNew.setText("This flight is closed.");
+					confirmActionNew.setCaretPosition(0);
+				} else {
+					confirmActionNew.setText("There are only " + number
+							+ " empty seats.");
+					confirmActionNew.setCaretPosition(0);
+				}
+
+			}
+		}
+
+		/*
+		 * Offers the client to pay part of a scheduled booking with his miles
+		 * and shows the final price.
+		 */
+		private void priced(final String booking, final int id, int seats,
+				String mail, Double[] bookingInfo) {
+			Double price = bookingInfo[0] * seats;
+			Double miles = bookingInfo[1] - (price * 10);
+
+			if (miles > 0) {
+				int option = JOptionPane.showConfirmDialog(f,
+						"The price of the flight is " + price
+								+ " and you have travelled " + miles
+								+ " miles. Do you want to reduce the final price?",
+						"Price Reduction", JOptionPane.YES_NO_OPTION);
+				// If the user wants to reduce price
+				if (option == 0) {
+					if (miles * 0.01 < price) {
+						price -= (miles * 0.01);
+						miles = 0.0;
+					} else {
+						miles -= price * 100;
+						price = 0.0;
+					}
+					// Update user miles
+					final Double finalPrice = price;
+					final Double finalMiles = miles;
+					final String finalMail = mail;
+					submit(new RemoteChange<Void>(confirmActionNew, f) {
+						protected Void call() throws RemoteException {
+							backOffice.updateMiles(finalMiles, finalMail);
+							return null;
+						}
+
+						protected void succeeded(Void answer) {
+							showScheduled(booking, id, finalPrice);
+						}
+					});
+					return;
+				}
+			}
+			showScheduled(booking, id, price);
+		}
+
+		private void showScheduled(String booking, int id, Double price) {
+			confirmActionNew.setText("Booking scheduled, with booking number "
+					+ booking + " flight number " + id + " and price is "
+					+ price + ".");
+			confirmActionNew.setCaretPosition(0);
+			//bookingNumber++;
+		}
+
 		@Override
 		public void propertyChange(PropertyChangeEvent evt) {
 			Calendar cal = jCalendar.getCalendar();
@@ -1069,6 +1224,7 @@ public class FrontOffice extends UnicastRemoteObject {
 				negativePanel.setVisible(true);
 				positivePanel.setVisible(false);
 			} else if (e.getComponent().getName().equals("Return")) {
+				cancelPendingTasks();
 				negativePanel.setVisible(false);
 				positivePanel.setVisible(false);
 
@@ -1076,9 +1232,27 @@ public class FrontOffice extends UnicastRemoteObject {
 				menu.setVisible(true);
 			} else if (e.getComponent().getName().equals("Send")) {
 				System.out.println(posMsgArea.getText());
-				displayP.setText(frontOffice.sendPositiveFeedBack(new Message(posMsgArea.getText(), new GregorianCalendar())));
+				final Message message = new Message(posMsgArea.getText(), new GregorianCalendar());
+				submit(new RemoteChange<String>(displayP, f) {
+					protected String call() {
+						return frontOffice.sendPositiveFeedBack(message);
+					}
+
+					protected void succeeded(String answer) {
+						displayP.setText(answer);
+					}
+				});
 			} else if (e.getComponent().getName().equals("Send ")) {
-				displayN.setText(frontOffice.sendNegativeFeedBack(new Message(negMsgArea.getText(), new GregorianCalendar())));
+				final Message message = new Message(negMsgArea.getText(), new GregorianCalendar());
+				submit(new RemoteChange<String>(displayN, f) {
+					protected String call() {
+						return frontOffice.sendNegativeFeedBack(message);
+					}
+
+					protected void succeeded(String answer) {
+						displayN.setText(answer);
+					}
+				});
 			}
 
 		}
@@ -1187,23 +1361,30 @@ public class FrontOffice extends UnicastRemoteObject {
 				newPanel.setVisible(true);
 			} else if (e.getComponent().getName().equals("Find")) {
 				String[] dateFields = dateNew.getText().split("/");
-				int day = Integer.parseInt(dateFields[0]);
-				int month = Integer.parseInt(dateFields[1]);
-				int year = Integer.parseInt(dateFields[2]);
+				final int day = Integer.parseInt(dateFields[0]);
+				final int month = Integer.parseInt(dateFields[1]);
+				final int year = Integer.parseInt(dateFields[2]);
+				final String origin = (String) originNew.getSelectedItem();
+				final String destination = (String) destinationNew
+						.getSelectedItem();
+
+				submit(new RemoteTask<String>(confirmActionNew, f) {
+					protected String call() throws RemoteException {
+						return backOffice.findFlights(year, month, day, origin,
+								destination);
+					}
 
-				String answer;
-				try {
-					answer = backOffice.findFlights(year, month, day,
-							(String) originNew.getSelectedItem(),
-							(String) destinationNew.getSelectedItem());
-					idText.setVisible(true);
-					newID.setVisible(true);
-					bookNew.setVisible(true);
-
-				} catch (RemoteException e1) {
-					answer = "The system is down.";
-				}
-				confirmActionNew.setText(answer);
+					protected void succeeded(String answer) {
+						idText.setVisible(true);
+						newID.setVisible(true);
+						bookNew.setVisible(true);
+						confirmActionNew.setText(answer);
+					}
+
+					protected void failed(Throwable cause) {
+						confirmActionNew.setText("The system is down.");
+					}
+				});
 
 			} else if (e.getComponent().getName().equals("Book")) {
 				idText.setVisible(false);
@@ -1217,11 +1398,15 @@ public class FrontOffice extends UnicastRemoteObject {
 				newPanel.setVisible(false);
 				listPanel.setVisible(true);
 
-				try {
-					listArea.setText(backOffice.listFlights());
-				} catch (RemoteException e1) {
-					listArea.setText("The system is not available, please try again later");
-				}
+				submit(new RemoteTask<String>(listArea, f) {
+					protected String call() throws RemoteException {
+						return backOffice.listFlights();
+					}
+
+					protected void succeeded(String answer) {
+						listArea.setText(answer);
+					}
+				});
 			} else if (e.getComponent().getName().equals("Booking Date")) {
 				JFrame date = new JFrame("Booking");
 				jCalendar = new JCalendar();
@@ -1231,18 +1416,20 @@ public class FrontOffice extends UnicastRemoteObject {
 				date.setVisible(true);
 				jCalendar.addPropertyChangeListener(this);
 			} else if (e.getComponent().getName().equals("Check Price")) {
-				double price = 0.0;
-				String orig = (String) originNew.getSelectedItem();
-				String dest = (String) destinationNew.getSelectedItem();
+				final String orig = (String) originNew.getSelectedItem();
+				final String dest = (String) destinationNew.getSelectedItem();
 
-				try {
-					price = backOffice.getPrice(orig, dest);
-				} catch (RemoteException e1) {
-					confirmActionNew
-							.setText("The system is not available, please try again later.");
-				}
-				confirmActionNew.setText("The price is " + price + ".");
+				submit(new RemoteTask<Double>(confirmActionNew, f) {
+					protected Double call() throws RemoteException {
+						return backOffice.getPrice(orig, dest);
+					}
+
+					protected void succeeded(Double price) {
+						confirmActionNew.setText("The price is " + price + ".");
+					}
+				});
 			} else if (e.getComponent().getName().equals("Return")) {
+				cancelPendingTasks();
 				searchMenu.setVisible(false);
 				newPanel.setVisible(false);
 				listPanel.setVisible(false);
@@ -0,0 +1,33 @@
+package frontOffice;
+
+import java.awt.Component;
+
+import javax.swing.JTextArea;
+
+/**
+ * A RemoteTask whose call changes the system, like a booking, or reports such
+ * a change. It is never cancelled: the call may already have changed the
+ * system, so its answer is always shown, and no other call takes its output
+ * area until it arrives.
+ *
+ * @author Daniela Fontes
+ * @author Ivo Correia
+ * @author Joo Penetra
+ * @author Joo Barbosa
+ * @author Ricardo Bernardino
+ */
+abstract class RemoteChange<T> extends RemoteTask<T> {
+
+	RemoteChange(JTextArea display, Component window) {
+		super(display, window);
+	}
+
+	RemoteChange(JTextArea display, Component window, int attempts) {
+		super(display, window, attempts);
+	}
+
+	@Override
+	boolean isCancellable() {
+		return false;
+	}
+}
@@ -0,0 +1,141 @@
+package frontOffice;
+
+import java.awt.Component;
+import java.awt.Cursor;
+import java.rmi.RemoteException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
+
+import backOffice.ServerBusyException;
+
+/**
+ * A call to the BackOffice that runs outside the Event Dispatch Thread, so the
+ * interface stays responsive during the server round-trip. While the call is
+ * running the output area shows a waiting message and the window a busy
+ * cursor; the answer (or the failure) is always handed back on the Event
+ * Dispatch Thread.
+ *
+ * A task may be cancelled at any time. RMI calls cannot be interrupted, so a
+ * cancelled call may still reach the system: its late answer is discarded.
+ * Only calls that change nothing are cancelled: the ones that change the
+ * system are RemoteChanges.
+ *
+ * @author Daniela Fontes
+ * @author Ivo Correia
+ * @author Joo Penetra
+ * @author Joo Barbosa
+ * @author Ricardo Bernardino
+ */
+abstract class RemoteTask<T> extends SwingWorker<T, Void> {
+
+	/* Milliseconds to wait before the first retry; doubled for each retry. */
+	private static final long RETRY_DELAY = 500;
+
+	private final JTextArea display;
+	private final Component window;
+	private final int attempts;
+
+	/**
+	 * @param display
+	 *            the area where progress, failures and (usually) the answer
+	 *            are shown.
+	 * @param window
+	 *            the component that shows the busy cursor while the call runs.
+	 */
+	RemoteTask(JTextArea display, Component window) {
+		this(display, window, 1);
+	}
+
+	/**
+	 * Creates a task that retries the call when it fails to reach the system.
+	 * Only calls that are safe to repeat, like the ones with a request id,
+	 * may be retried.
+	 * 
+	 * @param attempts
+	 *            how many times the call is tried before giving up.
+	 */
+	RemoteTask(JTextArea display, Component window, int attempts) {
+		this.display = display;
+		this.window = window;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Shows the progress feedback and starts the call on a worker thread. Must
+	 * be called on the Event Dispatch Thread.
+	 */
+	void start() {
+		display.setText("Contacting the system, please wait...");
+		display.setCaretPosition(0);
+		window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+		execute();
+	}
+
+	JTextArea getDisplay() {
+		return display;
+	}
+
+	/** Whether the call may be cancelled and its answer discarded. */
+	boolean isCancellable() {
+		return true;
+	}
+
+	/** The remote call itself, executed on a worker thread. */
+	protected abstract T call() throws RemoteException;
+
+	/** Applies the answer of the call, on the Event Dispatch Thread. */
+	protected abstract void succeeded(T answer);
+
+	/** Reports a failed call, on the Event Dispatch Thread. */
+	protected void failed(Throwable cause) {
+		if (ServerBusyException.refused(cause)) {
+			display.setText("The system is busy, please try again in a moment");
+		} else {
+			display.setText("The system is not available, please try again later");
+		}
+		display.setCaretPosition(0);
+	}
+
+	/** Reports a cancelled call, on the Event Dispatch Thread. */
+	protected void cancelled() {
+		display.setText("Request cancelled.");
+		display.setCaretPosition(0);
+	}
+
+	@Override
+	protected final T doInBackground() throws Exception {
+		long delay = RETRY_DELAY;
+		for (int attempt = 1;; attempt++) {
+			try {
+				return call();
+			} catch (RemoteException e) {
+				if (attempt >= attempts || isCancelled()) {
+					throw e;
+				}
+				Thread.sleep(delay);
+				delay *= 2;
+			}
+		}
+	}
+
+	@Override
+	protected final void done() {
+		window.setCursor(Cursor.getDefaultCursor());
+		if (isCancelled()) {
+			cancelled();
+			return;
+		}
+		try {
+			succeeded(get());
+		} catch (CancellationException e) {
+			cancelled();
+		} catch (InterruptedException e) {
+			cancelled();
+		} catch (ExecutionException e) {
+			failed(e.getCause());
+		}
+	}
+}
@@ -11,8 +11,11 @@ import javax.mail.internet.AddressException;
 import org.prevayler.Prevayler;
 import org.prevayler.PrevaylerFactory;
 import org.prevayler.Transaction;
+import org.prevayler.foundation.Durability;
+import org.prevayler.foundation.monitor.MetricsMonitor;
 
 import clients.Operator;
+import common.Constants;
 
 import backOffice.SendEmail;
 
@@ -33,7 +36,15 @@ public class FeedBackManager {
 	/* The constructor. */
 	public FeedBackManager(){
 		try {
-			prevayler = PrevaylerFactory.createPrevayler(new FeedBackStorage(), "MessageStorage");
+			/* Feedback may lose its last moments in a crash, so it is not synced on every message. */
+			PrevaylerFactory factory = new PrevaylerFactory();
+			factory.configurePrevalentSystem(new FeedBackStorage());
+			factory.configurePrevalenceDirectory("MessageStorage");
+			factory.configureJournalDurability(Durability
+					.asyncFlush(Constants.FEEDBACK_FLUSH_INTERVAL));
+			factory.configureJournalSyncReport(Constants.JOURNAL_SYNC_REPORT_INTERVAL);
+			factory.configureMonitor(MetricsMonitor.register("MessageStorage"));
+			prevayler = factory.create();
 		} catch (Exception e) {
 			System.out.println("Prevayler error, exiting.");
 			System.exit(-1);
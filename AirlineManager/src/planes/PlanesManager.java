@@ -2,9 +2,9 @@ package planes;
 
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
 import java.util.Vector;
 import org.prevayler.*;
+import org.prevayler.foundation.monitor.MetricsMonitor;
 
 /**
  * This class is responsible for managing all the airplanes. It stores information about the current planes
@@ -28,8 +28,11 @@ public class PlanesManager {
 		super();
 
 		try {
-			prevayler = PrevaylerFactory.createPrevayler(
-					new Vector<Airplane>(), "PlanesList");
+			PrevaylerFactory factory = new PrevaylerFactory();
+			factory.configurePrevalentSystem(new Vector<Airplane>());
+			factory.configurePrevalenceDirectory("PlanesList");
+			factory.configureMonitor(MetricsMonitor.register("PlanesList"));
+			prevayler = factory.create();
 
 		} catch (Exception e) {
 			System.out.println("Prevayler error, exiting.");
@@ -88,32 +91,14 @@ public class PlanesManager {
 	 * @return Number of planes.
 	 */
 	public int getNumPlanes(GregorianCalendar beginning, GregorianCalendar end){
-		int num = 0;
-
-		for (Airplane a : planesList) {
-			if (a.getDate().after(beginning) && a.getDate().before(end))
-				num++;
-		}
-		return num;
+		return (Integer) query(new countPlanes(beginning, end));
 	}
 	
 	/**
 	 * A method to search for a plane.
 	 */
 	public Airplane searchPlane(int planeId) {
-		Iterator<Airplane> it = planesList.iterator();
-
-		while (it.hasNext()) {
-			Airplane plane = it.next();
-
-			/* If the ID's match, we have found our plane. */
-			if (plane.getId() == planeId) {
-				return plane;
-			}
-		}
-
-		/* There was no plane with this ID. */
-		return null;
+		return (Airplane) query(new searchPlane(planeId));
 	}
 
 	/**
@@ -121,17 +106,7 @@ public class PlanesManager {
 	 * charter flights
 	 */
 	public Airplane searchPlaneBySeats(int seats) {
-		Airplane airplane;
-		Iterator<Airplane> it = planesList.iterator();
-
-		while (it.hasNext()) {
-			airplane = it.next();
-
-			/* If the airplane has enough seats, we have found our plane. */
-			if (airplane.getNoSeats() >= seats)
-				return airplane;
-		}
-		return null;
+		return (Airplane) query(new searchPlaneBySeats(seats));
 	}
 
 	private int getLastID() {
@@ -144,6 +119,20 @@ public class PlanesManager {
 		return id;
 	}
 
+	/**
+	 * Runs a query on the planes list, so it is never walked while a transaction
+	 * changes it.
+	 */
+	private Object query(Query query) {
+		try {
+			return prevayler.execute(query);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
 
 class addPlane implements Transaction {
@@ -171,7 +160,7 @@ class addPlane implements Transaction {
 
 }
 
-class removePlane implements Transaction {
+class removePlane implements ImmutableTransaction {
 
 	/**
 	 * 
@@ -194,4 +183,73 @@ class removePlane implements Transaction {
 		((Vector<Airplane>) arg0).remove(airplane);
 	}
 
-}
\ No newline at end of file
+}
+
+class countPlanes implements Query {
+
+	private GregorianCalendar beginning;
+	private GregorianCalendar end;
+
+	public countPlanes(GregorianCalendar beginning, GregorianCalendar end) {
+		this.beginning = beginning;
+		this.end = end;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		int num = 0;
+
+		for (Airplane a : (Vector<Airplane>) arg0) {
+			if (a.getDate().after(beginning) && a.getDate().before(end))
+				num++;
+		}
+		return num;
+	}
+
+}
+
+class searchPlane implements Query {
+
+	private int planeId;
+
+	public searchPlane(int planeId) {
+		this.planeId = planeId;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		for (Airplane plane : (Vector<Airplane>) arg0) {
+			/* If the ID's match, we have found our plane. */
+			if (plane.getId() == planeId) {
+				return plane;
+			}
+		}
+
+		/* There was no plane with this ID. */
+		return null;
+	}
+
+}
+
+class searchPlaneBySeats implements Query {
+
+	private int seats;
+
+	public searchPlaneBySeats(int seats) {
+		this.seats = seats;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object query(Object arg0, Date arg1) {
+		for (Airplane airplane : (Vector<Airplane>) arg0) {
+			/* If the airplane has enough seats, we have found our plane. */
+			if (airplane.getNoSeats() >= seats)
+				return airplane;
+		}
+		return null;
+	}
+
+}
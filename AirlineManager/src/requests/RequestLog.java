@@ -0,0 +1,96 @@
+package requests;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class responsible for storing the answers given to the client requests that
+ * carried a request id, so that a repeated request gets the original answer
+ * instead of being executed again. Each flight keeps the answers to the
+ * requests that changed it, recorded by the same transaction as the change.
+ * Old answers expire and the number of answers kept is bounded.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class RequestLog implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/* The answers by request id, oldest first. */
+	private LinkedHashMap<String, Answer> answers = new LinkedHashMap<String, Answer>();
+
+	private static class Answer implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private String answer;
+		private Date date;
+
+		Answer(String answer, Date date) {
+			this.answer = answer;
+			this.date = date;
+		}
+	}
+
+	/**
+	 * Stores the answer to a request, dropping the answers that are too old and
+	 * the oldest ones beyond the capacity.
+	 * @param requestId Id of the request
+	 * @param answer Answer given to the request
+	 * @param date When the request was executed
+	 * @param capacity Maximum number of answers kept
+	 * @param timeToLive How long an answer is kept, in milliseconds
+	 */
+	public void record(String requestId, String answer, Date date,
+			int capacity, long timeToLive) {
+		answers.remove(requestId);
+		answers.put(requestId, new Answer(answer, date));
+
+		Iterator<Map.Entry<String, Answer>> oldest = answers.entrySet()
+				.iterator();
+		while (oldest.hasNext()) {
+			Answer entry = oldest.next().getValue();
+			if (answers.size() > capacity
+					|| entry.date.getTime() < date.getTime() - timeToLive) {
+				oldest.remove();
+			} else {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the answer given to a request, or null if the request is unknown
+	 * or its answer has expired.
+	 * @param requestId Id of the request
+	 * @param now The current date
+	 * @param timeToLive How long an answer is kept, in milliseconds
+	 */
+	public String answerTo(String requestId, Date now, long timeToLive) {
+		Answer entry = answers.get(requestId);
+		if (entry == null
+				|| entry.date.getTime() < now.getTime() - timeToLive) {
+			return null;
+		}
+		return entry.answer;
+	}
+
+	/**
+	 * A copy of the log, which goes on by itself: the answers are shared,
+	 * as they never change.
+	 */
+	public RequestLog copy() {
+		RequestLog copy = new RequestLog();
+		copy.answers.putAll(answers);
+		return copy;
+	}
+
+	public int size() {
+		return answers.size();
+	}
+}
@@ -0,0 +1,44 @@
+package requests;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Class responsible for making the client requests idempotent. A request that
+ * carries a request id is executed only once: repeating it, for instance after
+ * a timeout, returns the answer it got the first time. The answers are
+ * recorded in the RequestLog of the flight the request changed, by the same
+ * transaction as the change, so a request is never found executed but not
+ * answered, even after a crash. This class only makes a repeat that arrives
+ * while the request is still running wait for it.
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class RequestsManager {
+
+	/* The request ids being executed right now. */
+	private Set<String> running = new HashSet<String>();
+
+	/**
+	 * Starts executing a request. If the same request is being executed by
+	 * someone else, waits for it to finish. finish() must be called
+	 * afterwards.
+	 * @param requestId Id of the request
+	 */
+	public synchronized void begin(String requestId)
+			throws InterruptedException {
+		while (running.contains(requestId)) {
+			wait();
+		}
+		running.add(requestId);
+	}
+
+	/**
+	 * Finishes the execution of a request.
+	 * @param requestId Id of the request
+	 */
+	public synchronized void finish(String requestId) {
+		running.remove(requestId);
+		notifyAll();
+	}
+}
@@ -0,0 +1,157 @@
+package backOffice;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import junit.framework.TestCase;
+import messages.FeedBackManager;
+import planes.Airplane;
+import flights.Flight;
+import flights.FlightsManager;
+
+/**
+ * Bookings made through the BackOffice, without its windows. The BackOffice
+ * keeps its lists in the working directory, so each scenario runs in a JVM of
+ * its own, started in an empty temporary directory.
+ *
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class BackOfficeTest extends TestCase {
+
+	private File directory;
+
+	protected void setUp() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"),
+				"BackOfficeTest" + System.nanoTime());
+		assertTrue(directory.mkdirs());
+	}
+
+	protected void tearDown() throws Exception {
+		delete(directory);
+	}
+
+	public void testModifiedBookingLeavesTheOldFlight() throws Exception {
+		assertEquals("OK", run("modify"));
+	}
+
+	/* Runs a scenario of main() in the temporary directory. */
+	private String run(String scenario) throws Exception {
+		ProcessBuilder builder = new ProcessBuilder(new File(
+				System.getProperty("java.home"), "bin/java").getPath(),
+				"-Djava.awt.headless=true", "-cp",
+				classPath(), BackOfficeTest.class.getName(), scenario);
+		builder.directory(directory);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+
+		BufferedReader output = new BufferedReader(new InputStreamReader(
+				process.getInputStream()));
+		String last = null;
+		String line;
+		while ((line = output.readLine()) != null) {
+			last = line;
+		}
+		process.waitFor();
+		return last;
+	}
+
+	/* The class path of this JVM, which may be relative to its directory. */
+	private static String classPath() {
+		StringBuilder path = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(
+				File.pathSeparator)) {
+			if (path.length() > 0) {
+				path.append(File.pathSeparator);
+			}
+			path.append(new File(entry).getAbsolutePath());
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Runs a scenario and prints OK, or what went wrong, as its last line.
+	 */
+	public static void main(String[] args) throws Exception {
+		String failure = null;
+		try {
+			if (args[0].equals("modify")) {
+				failure = modify();
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			failure = e.toString();
+		}
+		System.out.println(failure == null ? "OK" : failure);
+		System.exit(0);
+	}
+
+	/* Keeps the notifications instead of emailing them. */
+	private static class Notifications extends FeedBackManager {
+		private final List<String> sent = new ArrayList<String>();
+
+		public boolean sendNotificationUser(String email, String type,
+				String content) {
+			sent.add(type + " " + email);
+			return true;
+		}
+	}
+
+	private static String modify() throws Exception {
+		Notifications notifications = new Notifications();
+		BackOffice backOffice = new BackOffice(notifications);
+		FlightsManager flightsManager = backOffice.getFlightsManager();
+
+		Airplane plane = new Airplane(100, "TAP", "A320",
+				new GregorianCalendar());
+		GregorianCalendar date = new GregorianCalendar();
+		date.add(GregorianCalendar.DAY_OF_MONTH, 7);
+		Flight from = flightsManager.scheduleFlight(plane, date, "Lisbon",
+				"Porto", false, false);
+		date = (GregorianCalendar) date.clone();
+		date.add(GregorianCalendar.DAY_OF_MONTH, 7);
+		Flight to = flightsManager.scheduleFlight(plane, date, "Lisbon",
+				"Porto", false, false);
+
+		String answer = backOffice.scheduleBooking(from.getId(), "Ana",
+				"Rua Direita", "912345678", "ana@mail.pt", 2, false, 0);
+		if (!answer.startsWith("Scheduled ")) {
+			return "Booking: " + answer;
+		}
+		int booking = Integer.parseInt(answer.substring("Scheduled ".length()));
+
+		answer = backOffice.modifyBooking(from.getId(), booking, to.getId(),
+				false, 0);
+		if (!answer.startsWith("Booking scheduled")) {
+			return "Modification: " + answer;
+		}
+		if (flightsManager.searchFlightById(from.getId()).findBookingById(
+				booking) != null) {
+			return "The old booking was not cancelled";
+		}
+		if (flightsManager.searchFlightById(to.getId()).getBookings().size() != 1) {
+			return "The new flight has no booking";
+		}
+		if (flightsManager.searchFlightById(from.getId()).getEmptySeats() != 100) {
+			return "The seats of the old booking are still taken";
+		}
+		if (notifications.sent.size() != 2) {
+			return "Notified " + notifications.sent;
+		}
+		return null;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,121 @@
+package flights;
+
+import java.io.File;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+
+import planes.Airplane;
+
+/**
+ * Snapshots of a flights list written in sections, one per month, by a store
+ * configured like the BackOffice's: the list recovered after a restart holds
+ * the same flights in the same order.
+ *
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class FlightsByMonthTest extends TestCase {
+
+	private File directory;
+	private Prevayler store;
+	private Airplane plane = new Airplane(100, "TAP", "A320",
+			new GregorianCalendar());
+
+	protected void setUp() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"),
+				"FlightsByMonthTest" + System.nanoTime());
+		store = open();
+	}
+
+	protected void tearDown() throws Exception {
+		store.close();
+		delete(directory);
+	}
+
+	public void testOneSectionPerMonth() throws Exception {
+		addFlights(0, 30);
+		List<?> sections = new FlightsByMonth().split(flights());
+		assertEquals(3, sections.size());
+		assertEquals(ids(flights()), ids(flightsOf(new FlightsByMonth().join(
+				sections))));
+	}
+
+	public void testSnapshotIsRecoveredInOrder() throws Exception {
+		addFlights(0, 30);
+		Vector<Flight> expected = flights();
+		store.takeSnapshot();
+
+		store.close();
+		store = open();
+		assertEquals(ids(expected), ids(flights()));
+		assertEquals(dates(expected), dates(flights()));
+	}
+
+	public void testJournalAfterSnapshotIsReplayed() throws Exception {
+		addFlights(0, 20);
+		store.takeSnapshot();
+		addFlights(20, 40);
+		Vector<Flight> expected = flights();
+
+		store.close();
+		store = open();
+		assertEquals(ids(expected), ids(flights()));
+		assertEquals(dates(expected), dates(flights()));
+	}
+
+	private Prevayler open() throws Exception {
+		return FlightsManager.storeFactory(new Vector<Flight>(),
+				directory.getPath(), new FlightsByMonth()).create();
+	}
+
+	/* Ten flights a month, from May 2030 on, each added after the others. */
+	private void addFlights(int from, int to) {
+		for (int i = from; i < to; i++) {
+			GregorianCalendar date = new GregorianCalendar(2030, 4 + i / 10,
+					1 + i % 10, 10, 0);
+			store.execute(new addFlight(new Flight(plane, date, "Lisboa",
+					"Porto", false, false, i)));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Vector<Flight> flights() throws Exception {
+		return (Vector<Flight>) store.execute(new copyFlights());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Vector<Flight> flightsOf(Object list) {
+		return (Vector<Flight>) list;
+	}
+
+	private static Vector<Integer> ids(Vector<Flight> flights) {
+		Vector<Integer> ids = new Vector<Integer>();
+		for (Flight flight : flights) {
+			ids.add(flight.getId());
+		}
+		return ids;
+	}
+
+	private static Vector<Long> dates(Vector<Flight> flights) {
+		Vector<Long> dates = new Vector<Long>();
+		for (Flight flight : flights) {
+			dates.add(flight.getDate().getTimeInMillis());
+		}
+		return dates;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,254 @@
+package frontOffice;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import backOffice.BackOfficeRemoteInterface;
+import backOffice.BinaryEndpoint;
+import backOffice.RequestDispatcher;
+import backOffice.RequestQueue;
+import backOffice.ServerBusyException;
+
+/**
+ * Loopback test of the binary transport: a BinaryBackOfficeClient talks to a
+ * BinaryEndpoint on a local port, whose RequestDispatcher executes the calls
+ * on a stub BackOffice.
+ *
+ * @author Daniela Fontes, Ivo Correia, Joo Penetra, Joo Barbosa, Ricardo Bernardino
+ *
+ */
+public class BinaryBackOfficeClientTest extends TestCase {
+
+	private static final int WORKERS = 4;
+	private static final int CAPACITY = 64;
+
+	/* Calls to loginOperator wait for it while it is set. */
+	private volatile CountDownLatch gate = null;
+	private final CountDownLatch entered = new CountDownLatch(1);
+
+	private RequestDispatcher dispatcher;
+	private BinaryEndpoint endpoint;
+	private BinaryBackOfficeClient client;
+
+	protected void setUp() throws Exception {
+		start(WORKERS, CAPACITY);
+	}
+
+	protected void tearDown() throws Exception {
+		if (gate != null) {
+			gate.countDown();
+		}
+		client.close();
+		endpoint.close();
+	}
+
+	private void start(int workers, int capacity) throws Exception {
+		dispatcher = new RequestDispatcher(stubBackOffice(),
+				BackOfficeRemoteInterface.class, workers, capacity);
+		endpoint = new BinaryEndpoint(dispatcher, 0);
+		endpoint.start();
+		client = new BinaryBackOfficeClient("localhost", endpoint.port());
+	}
+
+	public void testCallsGetTheAnswersOfTheBackOffice() throws Exception {
+		assertEquals("2 flights", client.listFlights());
+		assertEquals(11.0, client.getPrice("Lisboa", "Porto"), 0.0);
+
+		Vector<String> destinations = client.getDestinations();
+		assertEquals(2, destinations.size());
+		assertEquals("Lisboa", destinations.get(0));
+		assertEquals("Porto", destinations.get(1));
+
+		GregorianCalendar date = new GregorianCalendar(2010, 5, 1, 10, 30);
+		assertEquals("Charter on " + date.getTimeInMillis()
+				+ " Lisboa-Porto 120", client.scheduleCharter(date, "Lisboa",
+				"Porto", 120));
+
+		Double[] price = client.bookingPrice(3, "Ana");
+		assertEquals(2, price.length);
+		assertEquals(3.0, price[0].doubleValue(), 0.0);
+		assertEquals(100.0, price[1].doubleValue(), 0.0);
+	}
+
+	public void testPipelinedCallsGetTheirOwnAnswers() throws Exception {
+		final int threads = 8;
+		final int calls = 200;
+		final List<String> failures = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		Thread[] callers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int caller = i;
+			callers[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < calls; j++) {
+						try {
+							String answer = client.findFlights(2010, caller, j,
+									"A", "B");
+							String expected = "2010/" + caller + "/" + j + " A-B";
+							if (!expected.equals(answer)) {
+								failures.add(expected + " got " + answer);
+							}
+						} catch (RemoteException e) {
+							failures.add(e.toString());
+						}
+					}
+				}
+			};
+			callers[i].start();
+		}
+		for (Thread caller : callers) {
+			caller.join();
+		}
+
+		assertEquals(failures.toString(), 0, failures.size());
+		assertEquals(0, client.pendingCalls());
+	}
+
+	public void testExceptionsOfTheBackOfficeBecomeRemoteExceptions()
+			throws Exception {
+		try {
+			client.cancelBooking(1, 99);
+			fail();
+		} catch (RemoteException e) {
+			assertEquals("No booking 99", e.getMessage());
+		}
+		assertEquals("2 flights", client.listFlights());
+	}
+
+	public void testInterruptedCallIsNoLongerPending() throws Exception {
+		gate = new CountDownLatch(1);
+		final RemoteException[] thrown = new RemoteException[1];
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					client.loginOperator("user", "pass");
+				} catch (RemoteException e) {
+					thrown[0] = e;
+				}
+			}
+		};
+		caller.start();
+		entered.await();
+
+		caller.interrupt();
+		caller.join();
+		assertNotNull(thrown[0]);
+		assertEquals(0, client.pendingCalls());
+
+		// The late answer is dropped and the connection goes on.
+		gate.countDown();
+		assertEquals("2 flights", client.listFlights());
+		assertEquals(0, client.pendingCalls());
+	}
+
+	public void testFullQueueIsRefusedAsBusy() throws Exception {
+		tearDown();
+		start(1, 1);
+		gate = new CountDownLatch(1);
+
+		Thread running = login();
+		entered.await();
+		Thread waiting = login();
+		while (queue("loginOperator").getQueueDepth() < 1) {
+			Thread.sleep(1);
+		}
+
+		try {
+			client.loginOperator("user", "pass");
+			fail();
+		} catch (ServerBusyException e) {
+			assertEquals(1, queue("loginOperator").getRejectedCount());
+		}
+
+		gate.countDown();
+		running.join();
+		waiting.join();
+		assertEquals(0, client.pendingCalls());
+	}
+
+	private Thread login() {
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					client.loginOperator("user", "pass");
+				} catch (RemoteException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		caller.start();
+		return caller;
+	}
+
+	private RequestQueue queue(String method) {
+		for (RequestQueue queue : dispatcher.queues()) {
+			if (queue.getMethod().equals(method)) {
+				return queue;
+			}
+		}
+		throw new IllegalArgumentException(method);
+	}
+
+	private BackOfficeRemoteInterface stubBackOffice() {
+		return (BackOfficeRemoteInterface) Proxy.newProxyInstance(
+				BackOfficeRemoteInterface.class.getClassLoader(),
+				new Class<?>[] { BackOfficeRemoteInterface.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						return answer(method.getName(), args);
+					}
+				});
+	}
+
+	private Object answer(String method, Object[] args) throws Exception {
+		if (method.equals("listFlights")) {
+			return "2 flights";
+		}
+		if (method.equals("getPrice")) {
+			return Double.valueOf(((String) args[0]).length()
+					+ ((String) args[1]).length());
+		}
+		if (method.equals("getDestinations")) {
+			Vector<String> destinations = new Vector<String>();
+			destinations.add("Lisboa");
+			destinations.add("Porto");
+			return destinations;
+		}
+		if (method.equals("scheduleCharter")) {
+			return "Charter on "
+					+ ((GregorianCalendar) args[0]).getTimeInMillis() + " "
+					+ args[1] + "-" + args[2] + " " + args[3];
+		}
+		if (method.equals("bookingPrice")) {
+			return new Double[] { Double.valueOf((Integer) args[0]),
+					Double.valueOf(100) };
+		}
+		if (method.equals("findFlights")) {
+			return args[0] + "/" + args[1] + "/" + args[2] + " " + args[3]
+					+ "-" + args[4];
+		}
+		if (method.equals("cancelBooking")) {
+			throw new IllegalStateException("No booking " + args[1]);
+		}
+		if (method.equals("loginOperator")) {
+			entered.countDown();
+			CountDownLatch waitFor = gate;
+			if (waitFor != null) {
+				waitFor.await();
+			}
+			return "operator";
+		}
+		throw new UnsupportedOperationException(method);
+	}
+}
@@ -0,0 +1,183 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.foundation.serialization;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.Transaction;
+
+/** Takes snapshots with a SectionedSerializer, restarts and compares the recovered system: from a sectioned snapshot alone, with the journal written after it, and after a snapshot of the plain JavaSerializer.
+ */
+public class SectionedSnapshotTest extends TestCase {
+
+	private File _base;
+	private Prevayler _prevayler;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "SectionedSnapshotTest" + System.nanoTime());
+	}
+
+	protected void tearDown() throws Exception {
+		if (_prevayler != null) _prevayler.close();
+		delete(_base);
+	}
+
+	public void testSnapshotIsReadBackInOrder() throws Exception {
+		_prevayler = sectioned();
+		addItems(0, 200);
+		List expected = (List) _prevayler.execute(new Copy());
+		_prevayler.takeSnapshot();
+		assertEquals(1, files("sectionedsnapshot"));
+
+		restartWith(new File(_base, "journals").getPath());  // Recovered from the snapshot only.
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testJournalAfterSnapshotIsReplayed() throws Exception {
+		_prevayler = sectioned();
+		addItems(0, 100);
+		_prevayler.takeSnapshot();
+		addItems(100, 150);
+		List expected = (List) _prevayler.execute(new Copy());
+
+		_prevayler.close();
+		_prevayler = sectioned();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testJavaSnapshotIsStillRead() throws Exception {
+		PrevaylerFactory factory = factory();
+		factory.configureSnapshotSerializer(new JavaSerializer());
+		_prevayler = factory.create();
+		addItems(0, 50);
+		_prevayler.takeSnapshot();
+		addItems(50, 60);
+		List expected = (List) _prevayler.execute(new Copy());
+
+		_prevayler.close();
+		_prevayler = sectioned();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+		_prevayler.takeSnapshot();
+		addItems(60, 70);
+		expected = (List) _prevayler.execute(new Copy());
+
+		_prevayler.close();
+		_prevayler = sectioned();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+		assertEquals(1, files("snapshot"));
+		assertEquals(1, files("sectionedsnapshot"));
+	}
+
+	/** Moves the journals away, so that only the snapshots are left to recover from. */
+	private void restartWith(String journals) throws Exception {
+		_prevayler.close();
+		File moved = new File(journals);
+		assertTrue(moved.mkdirs());
+		File[] files = _base.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(".journal")) assertTrue(files[i].renameTo(new File(moved, files[i].getName())));
+		}
+		_prevayler = sectioned();
+	}
+
+	private Prevayler sectioned() throws Exception {
+		PrevaylerFactory factory = factory();
+		factory.configureSnapshotSerializer("sectionedsnapshot", new SectionedSerializer(new ByInitial(), 4));
+		factory.configureSnapshotSerializer(new JavaSerializer());
+		return factory.create();
+	}
+
+	private PrevaylerFactory factory() {
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(new ArrayList());
+		factory.configurePrevalenceDirectory(_base.getPath());
+		return factory;
+	}
+
+	private void addItems(int from, int to) {
+		for (int i = from; i < to; i++) _prevayler.execute(new Add((char) ('a' + i / 10 % 26) + "item" + i));
+	}
+
+	private int files(String suffix) {
+		int count = 0;
+		File[] files = _base.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith("." + suffix)) count++;
+		}
+		return count;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	/** One section for each run of items with the same initial. */
+	static class ByInitial implements Sectioning {
+
+		public List split(Object prevalentSystem) {
+			List sections = new ArrayList();
+			List section = null;
+			char initial = 0;
+			List items = (List) prevalentSystem;
+			for (int i = 0; i < items.size(); i++) {
+				String item = (String) items.get(i);
+				if (section == null || item.charAt(0) != initial) {
+					section = new ArrayList();
+					sections.add(section);
+					initial = item.charAt(0);
+				}
+				section.add(item);
+			}
+			return sections;
+		}
+
+		public Object join(List sections) {
+			List items = new ArrayList();
+			for (int i = 0; i < sections.size(); i++) items.addAll((List) sections.get(i));
+			return items;
+		}
+
+	}
+
+
+	static class Add implements Transaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			((List) prevalentSystem).add(_item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}
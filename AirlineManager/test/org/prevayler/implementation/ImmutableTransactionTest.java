@@ -0,0 +1,139 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.ImmutableTransaction;
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.Transaction;
+
+/** Executes ImmutableTransactions, which are not deserialized before they are executed, then restarts and checks that replaying their journaled copies rebuilds the same system.
+ */
+public class ImmutableTransactionTest extends TestCase {
+
+	/** The transactions executed, on the system or by the censor. */
+	private static final List _executed = Collections.synchronizedList(new ArrayList());
+
+	private File _base;
+	private Prevayler _prevayler;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "ImmutableTransactionTest" + System.nanoTime());
+		_executed.clear();
+		restart();
+	}
+
+	protected void tearDown() throws Exception {
+		_prevayler.close();
+		delete(_base);
+	}
+
+	public void testImmutableTransactionIsExecutedAsGiven() throws Exception {
+		Remove remove = new Remove("b");
+		_prevayler.execute(new Add("a"));
+		_prevayler.execute(new Add("b"));
+		_executed.clear();
+
+		_prevayler.execute(remove);
+		assertFalse(_executed.isEmpty());
+		for (int i = 0; i < _executed.size(); i++) assertSame(remove, _executed.get(i));
+		assertEquals("[a]", _prevayler.execute(new Copy()).toString());
+	}
+
+	public void testOtherTransactionsAreExecutedAsCopies() throws Exception {
+		Add add = new Add("a");
+		_prevayler.execute(add);
+		assertFalse(_executed.isEmpty());
+		for (int i = 0; i < _executed.size(); i++) assertNotSame(add, _executed.get(i));
+	}
+
+	public void testReplayRebuildsTheSameSystem() throws Exception {
+		for (int i = 0; i < 20; i++) _prevayler.execute(new Add("item" + i));
+		for (int i = 0; i < 20; i += 3) _prevayler.execute(new Remove("item" + i));
+		_prevayler.execute(new Remove("missing"));
+		List expected = (List) _prevayler.execute(new Copy());
+
+		restart();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+
+		_prevayler.takeSnapshot();
+		_prevayler.execute(new Remove("item1"));
+		expected.remove("item1");
+		restart();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	private void restart() throws Exception {
+		if (_prevayler != null) _prevayler.close();
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(new ArrayList());
+		factory.configurePrevalenceDirectory(_base.getPath());
+		_prevayler = factory.create();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	static class Add implements Transaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			_executed.add(this);
+			((List) prevalentSystem).add(_item);
+		}
+
+	}
+
+
+	/** Finds the item it removes with equals(), so executing it as given is the same as executing a copy. */
+	static class Remove implements ImmutableTransaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Remove(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			_executed.add(this);
+			((List) prevalentSystem).remove(_item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}
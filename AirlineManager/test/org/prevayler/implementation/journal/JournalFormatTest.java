@@ -0,0 +1,190 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.Transaction;
+import org.prevayler.foundation.BinaryChunking;
+import org.prevayler.foundation.Chunk;
+import org.prevayler.foundation.Chunking;
+import org.prevayler.foundation.serialization.JavaSerializer;
+import org.prevayler.implementation.PrevaylerDirectory;
+
+/** Writes transactions to .journal files, restarts and replays them: in the BinaryChunking format, after the text format of Chunking, and with a torn or garbled chunk at the end.
+ */
+public class JournalFormatTest extends TestCase {
+
+	private File _base;
+	private Prevayler _prevayler;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "JournalFormatTest" + System.nanoTime());
+	}
+
+	protected void tearDown() throws Exception {
+		if (_prevayler != null) _prevayler.close();
+		delete(_base);
+	}
+
+	public void testTransactionsAreReplayedAfterRestart() throws Exception {
+		restart();
+		for (int i = 0; i < 100; i++) _prevayler.execute(new Add("item" + i));
+		List expected = (List) _prevayler.execute(new Copy());
+
+		restart();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+
+		File[] journals = new PrevaylerDirectory(_base).journalFiles();
+		assertEquals(1, journals.length);
+		assertTrue(startsWithMagic(journals[0]));
+	}
+
+	public void testTextJournalIsStillReplayed() throws Exception {
+		assertTrue(_base.mkdirs());
+		FileOutputStream journal = new FileOutputStream(new PrevaylerDirectory(_base).journalFile(1, "journal"));
+		try {
+			for (int i = 1; i <= 3; i++) Chunking.writeChunk(journal, textChunk(new Add("old" + i), i));
+		} finally {
+			journal.close();
+		}
+
+		restart();
+		assertEquals("[old1, old2, old3]", _prevayler.execute(new Copy()).toString());
+		_prevayler.execute(new Add("new"));
+
+		restart();
+		assertEquals("[old1, old2, old3, new]", _prevayler.execute(new Copy()).toString());
+		File[] journals = new PrevaylerDirectory(_base).journalFiles();
+		assertEquals(2, journals.length);
+		assertFalse(startsWithMagic(journals[0]));
+		assertTrue(startsWithMagic(journals[1]));
+	}
+
+	public void testTornChunkEndsTheJournal() throws Exception {
+		restart();
+		_prevayler.execute(new Add("a"));
+		_prevayler.execute(new Add("b"));
+		_prevayler.close();
+		_prevayler = null;
+
+		File journal = new PrevaylerDirectory(_base).journalFiles()[0];
+		long length = journal.length();
+		RandomAccessFile file = new RandomAccessFile(journal, "rw");
+		try {
+			file.seek(length);
+			file.writeInt(BinaryChunking.MAGIC);
+			file.write(new byte[] { 0, 0, 0, 1 });
+		} finally {
+			file.close();
+		}
+
+		restart();
+		assertEquals("[a, b]", _prevayler.execute(new Copy()).toString());
+		_prevayler.execute(new Add("c"));
+
+		restart();
+		assertEquals("[a, b, c]", _prevayler.execute(new Copy()).toString());
+	}
+
+	public void testGarbledLengthEndsTheJournal() throws Exception {
+		restart();
+		_prevayler.execute(new Add("a"));
+		long end = new PrevaylerDirectory(_base).journalFiles()[0].length();
+		_prevayler.execute(new Add("b"));
+		_prevayler.close();
+		_prevayler = null;
+
+		RandomAccessFile file = new RandomAccessFile(new PrevaylerDirectory(_base).journalFiles()[0], "rw");
+		try {
+			file.seek(end + 4 + 1);  // The length, after the magic number and the flags.
+			file.writeInt(Integer.MAX_VALUE);
+		} finally {
+			file.close();
+		}
+
+		restart();
+		assertEquals("[a]", _prevayler.execute(new Copy()).toString());
+		_prevayler.execute(new Add("c"));
+
+		restart();
+		assertEquals("[a, c]", _prevayler.execute(new Copy()).toString());
+	}
+
+	private void restart() throws Exception {
+		if (_prevayler != null) _prevayler.close();
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(new ArrayList());
+		factory.configurePrevalenceDirectory(_base.getPath());
+		_prevayler = factory.create();
+	}
+
+	/** A chunk as the journal wrote it before BinaryChunking. */
+	private static Chunk textChunk(Transaction transaction, long systemVersion) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new JavaSerializer().writeObject(bytes, transaction);
+		Chunk chunk = new Chunk(bytes.toByteArray());
+		chunk.setParameter("withQuery", "false");
+		chunk.setParameter("systemVersion", String.valueOf(systemVersion));
+		chunk.setParameter("executionTime", String.valueOf(System.currentTimeMillis()));
+		return chunk;
+	}
+
+	private static boolean startsWithMagic(File journal) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(journal, "r");
+		try {
+			return file.readInt() == BinaryChunking.MAGIC;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	static class Add implements Transaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			((List) prevalentSystem).add(_item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}
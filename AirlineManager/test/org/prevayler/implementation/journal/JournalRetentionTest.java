@@ -0,0 +1,173 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.journal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.Transaction;
+import org.prevayler.implementation.PrevaylerDirectory;
+
+/** Writes transactions to preallocated .journal segments, which are recycled outside the retention window, then restarts and replays them, and recovers the system at the snapshots that are retained.
+ */
+public class JournalRetentionTest extends TestCase {
+
+	private static final long SEGMENT_SIZE = 4 * 1024;
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	private File _base;
+	private Prevayler _prevayler;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "JournalRetentionTest" + System.nanoTime());
+	}
+
+	protected void tearDown() throws Exception {
+		if (_prevayler != null) _prevayler.close();
+		delete(_base);
+	}
+
+	public void testPreallocatedSegmentsAreReplayed() throws Exception {
+		_prevayler = factory(1, HOUR).create();
+		addItems(0, 300);
+		List expected = (List) _prevayler.execute(new Copy());
+
+		File[] journals = journals();
+		assertTrue(journals.length > 3);
+		for (int i = 0; i < journals.length; i++) assertTrue(journals[i].length() >= SEGMENT_SIZE);
+
+		restart(1, HOUR);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+		addItems(300, 320);
+		expected = (List) _prevayler.execute(new Copy());
+		restart(1, HOUR);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testRecycledSegmentsAreReplayed() throws Exception {
+		_prevayler = factory(1, 0).create();
+		for (int i = 0; i < 10; i++) {
+			addItems(i * 100, i * 100 + 100);
+			_prevayler.takeSnapshot();
+		}
+		addItems(1000, 1010);
+		List expected = (List) _prevayler.execute(new Copy());
+
+		assertFalse(new PrevaylerDirectory(_base).journalFile(1, "journal").exists());
+		assertTrue(journals().length < 10);
+
+		restart(1, 0);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+		addItems(1010, 1100);
+		expected = (List) _prevayler.execute(new Copy());
+		restart(1, 0);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testRetainedSnapshotsAreRecovered() throws Exception {
+		int retained = 3;
+		_prevayler = factory(retained, 0).create();
+		List versions = new ArrayList();
+		List systems = new ArrayList();
+		for (int i = 0; i < 8; i++) {
+			addItems(i * 100, i * 100 + 100);
+			_prevayler.takeSnapshot();
+			versions.add(new Long(PrevaylerDirectory.snapshotVersion(new PrevaylerDirectory(_base).latestSnapshot())));
+			systems.add(_prevayler.execute(new Copy()));
+		}
+		addItems(800, 850);
+		List expected = (List) _prevayler.execute(new Copy());
+		assertFalse(new PrevaylerDirectory(_base).journalFile(1, "journal").exists());
+
+		restart(retained, 0);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+		for (int i = versions.size() - retained; i < versions.size(); i++) {
+			long version = ((Long) versions.get(i)).longValue();
+			assertEquals(systems.get(i), factory(retained, 0).recover(version));
+			assertEquals(((List) systems.get(i)).size() + 10, ((List) factory(retained, 0).recover(version + 10)).size());
+		}
+	}
+
+	public void testRecentSegmentsAreNotRecycled() throws Exception {
+		_prevayler = factory(1, HOUR).create();
+		for (int i = 0; i < 5; i++) {
+			addItems(i * 100, i * 100 + 100);
+			_prevayler.takeSnapshot();
+		}
+		List expected = (List) _prevayler.execute(new Copy());
+
+		assertTrue(new PrevaylerDirectory(_base).journalFile(1, "journal").exists());
+		assertEquals(expected.subList(0, 50), factory(1, HOUR).recover(50));
+
+		restart(1, HOUR);
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	private void restart(int snapshots, long ageInMillis) throws Exception {
+		_prevayler.close();
+		_prevayler = factory(snapshots, ageInMillis).create();
+	}
+
+	private PrevaylerFactory factory(int snapshots, long ageInMillis) {
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(new ArrayList());
+		factory.configurePrevalenceDirectory(_base.getPath());
+		factory.configureJournalFileSizeThreshold(SEGMENT_SIZE);
+		factory.configureJournalPreallocation(true);
+		factory.configureJournalRecycling(true);
+		factory.configureJournalRetention(snapshots, ageInMillis);
+		return factory;
+	}
+
+	private void addItems(int from, int to) {
+		for (int i = from; i < to; i++) _prevayler.execute(new Add("item" + i));
+	}
+
+	private File[] journals() {
+		return new PrevaylerDirectory(_base).journalFiles();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	static class Add implements Transaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			((List) prevalentSystem).add(_item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}
@@ -0,0 +1,169 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.replication;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.ValidatedTransaction;
+
+/** Replicates a primary Prevayler to a client over a local port, with transaction validation on, so rejected transactions are journaled and sent to the client too.
+ */
+public class ReplicationTest extends TestCase {
+
+	private File _base;
+	private Prevayler _primary;
+	private Prevayler _client;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "ReplicationTest" + System.nanoTime());
+		int port = freePort();
+
+		PrevaylerFactory primary = new PrevaylerFactory();
+		primary.configurePrevalentSystem(new ArrayList());
+		primary.configurePrevalenceDirectory(new File(_base, "primary").getPath());
+		primary.configureTransactionValidation(true);
+		primary.configureReplicationServer(port);
+		_primary = primary.create();
+
+		PrevaylerFactory client = new PrevaylerFactory();
+		client.configurePrevalentSystem(new ArrayList());
+		client.configurePrevalenceDirectory(new File(_base, "client").getPath());
+		client.configureReplicationClient("localhost", port);
+		_client = client.create();
+	}
+
+	protected void tearDown() throws Exception {
+		_client.close();
+		_primary.close();
+		delete(_base);
+	}
+
+	public void testRejectedTransactionDoesNotStopReplication() throws Exception {
+		_primary.execute(new Add("a"));
+		try {
+			_primary.execute(new Add(null));
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		_primary.execute(new Add("b"));
+
+		assertEquals("[a, b]", waitForSize(_client, 2).toString());
+		assertEquals("[a, b]", _primary.prevalentSystem().toString());
+	}
+
+	public void testClientTransactionsGetOneReceiptEach() throws Exception {
+		_client.execute(new Add("a"));
+		try {
+			_client.execute(new Add(null));
+			fail();
+		} catch (IllegalArgumentException expected) {
+			assertEquals("Nothing to add", expected.getMessage());
+		}
+		_client.execute(new Add("b"));
+		assertEquals("[a, b]", _client.prevalentSystem().toString());
+
+		_primary.execute(new Add("c"));
+		assertEquals("[a, b, c]", waitForSize(_client, 3).toString());
+		assertEquals("[a, b, c]", _primary.prevalentSystem().toString());
+	}
+
+	public void testConcurrentClientTransactions() throws Exception {
+		final int threads = 8;
+		final int transactions = 50;
+		final List failures = Collections.synchronizedList(new ArrayList());
+		Thread[] publishers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int publisher = i;
+			publishers[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < transactions; j++) {
+						try {
+							_client.execute(new Add(j % 10 == 0 ? null : publisher + "/" + j));
+							if (j % 10 == 0) failures.add("No rejection of " + publisher + "/" + j);
+						} catch (IllegalArgumentException expected) {
+						} catch (RuntimeException rx) {
+							failures.add(rx.toString());
+						}
+					}
+				}
+			};
+			publishers[i].start();
+		}
+		for (int i = 0; i < threads; i++) publishers[i].join();
+
+		assertEquals(failures.toString(), 0, failures.size());
+		List expected = (List) _primary.execute(new Copy());
+		assertEquals(threads * transactions * 9 / 10, expected.size());
+		assertEquals(expected, _client.execute(new Copy()));
+	}
+
+	private static List waitForSize(Prevayler prevayler, int size) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			List copy = (List) prevayler.execute(new Copy());
+			if (copy.size() >= size || System.currentTimeMillis() > deadline) return copy;
+			Thread.sleep(10);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	static class Add implements ValidatedTransaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void validate(Object prevalentSystem, Date executionTime) {
+			if (_item == null) throw new IllegalArgumentException("Nothing to add");
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			((List) prevalentSystem).add(_item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}
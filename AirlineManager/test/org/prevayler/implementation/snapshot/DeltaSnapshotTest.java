@@ -0,0 +1,202 @@
+//Prevayler(TM) - The Free-Software Prevalence Layer.
+//Copyright (C) 2001-2003 Klaus Wuestefeld
+//This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+package org.prevayler.implementation.snapshot;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.prevayler.Prevayler;
+import org.prevayler.PrevaylerFactory;
+import org.prevayler.Query;
+import org.prevayler.Transaction;
+import org.prevayler.foundation.serialization.SectionedSerializer;
+import org.prevayler.foundation.serialization.Sectioning;
+import org.prevayler.implementation.PrevaylerDirectory;
+
+/** Writes full and delta snapshots, restarts and compares the recovered system: from the snapshots alone, with the journal written after them, and at each snapshot with recover().
+ */
+public class DeltaSnapshotTest extends TestCase {
+
+	private static final int MAX_DELTAS = 2;
+
+	private File _base;
+	private Prevayler _prevayler;
+
+	protected void setUp() throws Exception {
+		_base = new File(System.getProperty("java.io.tmpdir"), "DeltaSnapshotTest" + System.nanoTime());
+		_prevayler = factory().create();
+	}
+
+	protected void tearDown() throws Exception {
+		_prevayler.close();
+		delete(_base);
+	}
+
+	public void testDeltaOnlyHoldsTheChangedSections() throws Exception {
+		addItems(0, 200);
+		File full = snapshot();
+		_prevayler.execute(new Add("c-changed"));
+		File delta = snapshot();
+
+		assertFalse(full.getName().endsWith("." + GenericSnapshotManager.DELTA_SUFFIX));
+		assertTrue(delta.getName().endsWith("." + GenericSnapshotManager.DELTA_SUFFIX));
+		assertTrue(delta.length() < full.length() / 4);
+	}
+
+	public void testFullSnapshotAfterTheMaximumDeltas() throws Exception {
+		addItems(0, 100);
+		for (int i = 0; i <= MAX_DELTAS + 1; i++) {
+			_prevayler.execute(new Add("a" + i));
+			_prevayler.takeSnapshot();
+		}
+		assertEquals(2, files("sectionedsnapshot"));
+		assertEquals(MAX_DELTAS, files(GenericSnapshotManager.DELTA_SUFFIX));
+	}
+
+	public void testDeltasAreRecoveredWithoutTheJournal() throws Exception {
+		addItems(0, 100);
+		_prevayler.takeSnapshot();
+		_prevayler.execute(new Add("b-changed"));
+		_prevayler.takeSnapshot();
+		_prevayler.execute(new Add("d-changed"));
+		_prevayler.takeSnapshot();
+		List expected = (List) _prevayler.execute(new Copy());
+
+		_prevayler.close();
+		File[] journals = new PrevaylerDirectory(_base).journalFiles();
+		for (int i = 0; i < journals.length; i++) assertTrue(journals[i].delete());
+		_prevayler = factory().create();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testJournalAfterTheDeltasIsReplayed() throws Exception {
+		addItems(0, 100);
+		_prevayler.takeSnapshot();
+		_prevayler.execute(new Add("b-changed"));
+		_prevayler.takeSnapshot();
+		addItems(100, 130);
+		List expected = (List) _prevayler.execute(new Copy());
+
+		_prevayler.close();
+		_prevayler = factory().create();
+		assertEquals(expected, _prevayler.execute(new Copy()));
+	}
+
+	public void testEachSnapshotIsRecovered() throws Exception {
+		List versions = new ArrayList();
+		List systems = new ArrayList();
+		addItems(0, 100);
+		for (int i = 0; i < 4; i++) {
+			_prevayler.execute(new Add((char) ('a' + i) + "-changed"));
+			versions.add(new Long(PrevaylerDirectory.snapshotVersion(snapshot())));
+			systems.add(_prevayler.execute(new Copy()));
+		}
+
+		for (int i = 0; i < versions.size(); i++) {
+			assertEquals(systems.get(i), factory().recover(((Long) versions.get(i)).longValue()));
+		}
+	}
+
+	/** Takes a snapshot and returns its file. */
+	private File snapshot() throws Exception {
+		_prevayler.takeSnapshot();
+		return new PrevaylerDirectory(_base).latestSnapshot();
+	}
+
+	private PrevaylerFactory factory() {
+		PrevaylerFactory factory = new PrevaylerFactory();
+		factory.configurePrevalentSystem(new ArrayList());
+		factory.configurePrevalenceDirectory(_base.getPath());
+		factory.configureSnapshotSerializer("sectionedsnapshot", new SectionedSerializer(new ByInitial(), 4));
+		factory.configureDeltaSnapshots(MAX_DELTAS);
+		return factory;
+	}
+
+	/** Ten items for each initial. */
+	private void addItems(int from, int to) {
+		for (int i = from; i < to; i++) _prevayler.execute(new Add((char) ('a' + i / 10 % 26) + "item" + i));
+	}
+
+	private int files(String suffix) {
+		int count = 0;
+		File[] files = _base.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith("." + suffix)) count++;
+		}
+		return count;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) for (int i = 0; i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+
+	/** One section for each initial. The items are kept in order, so adding one only changes the section of its initial. */
+	static class ByInitial implements Sectioning {
+
+		public List split(Object prevalentSystem) {
+			List sections = new ArrayList();
+			List section = null;
+			char initial = 0;
+			List items = (List) prevalentSystem;
+			for (int i = 0; i < items.size(); i++) {
+				String item = (String) items.get(i);
+				if (section == null || item.charAt(0) != initial) {
+					section = new ArrayList();
+					sections.add(section);
+					initial = item.charAt(0);
+				}
+				section.add(item);
+			}
+			return sections;
+		}
+
+		public Object join(List sections) {
+			List items = new ArrayList();
+			for (int i = 0; i < sections.size(); i++) items.addAll((List) sections.get(i));
+			return items;
+		}
+
+	}
+
+
+	/** Adds an item in order. */
+	static class Add implements Transaction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _item;
+
+		Add(String item) {
+			_item = item;
+		}
+
+		public void executeOn(Object prevalentSystem, Date executionTime) {
+			List items = (List) prevalentSystem;
+			int index = Collections.binarySearch(items, _item);
+			items.add(index < 0 ? -index - 1 : index, _item);
+		}
+
+	}
+
+
+	static class Copy implements Query {
+
+		private static final long serialVersionUID = 1L;
+
+		public Object query(Object prevalentSystem, Date executionTime) {
+			return new ArrayList((List) prevalentSystem);
+		}
+
+	}
+
+}